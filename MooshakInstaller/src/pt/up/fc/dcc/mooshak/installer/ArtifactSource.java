@@ -0,0 +1,87 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * Source of installation artifacts (servlet container, WAR, data) and of
+ * listings of available versions. Artifacts are identified by their URL
+ * in installer properties and each source decides how to obtain them.
+ * <p>
+ * The source of each URL property is selected by a property with the
+ * same name and the {@code .source} suffix (e.g. {@code version.base.source}):
+ * </p>
+ * <dl>
+ * 	<dt>{@code http}</dt>		<dd>download with HTTP(S)</dd>
+ * 	<dt>{@code file}</dt>		<dd>read {@code file://} URLs from disk</dd>
+ * 	<dt>{@code mirror:dir}</dt>	<dd>read from a local directory laid out
+ * 									as the URL property</dd>
+ * </dl>
+ * If not defined, the source is selected by the scheme of the URL.
+ */
+public interface ArtifactSource {
+
+	/**
+	 * Obtain the artifact with given URL as a temporary file,
+	 * owned by the caller
+	 * @param url			of artifact
+	 * @param progressable	to report progress
+	 * @param cancellation	checked while obtaining artifact
+	 * @return temporary file with artifact
+	 * @throws IOException if artifact cannot be obtained
+	 * @throws CancellationException if cancelled
+	 */
+	Path fetch(String url,Progressable progressable,Cancellation cancellation)
+			throws IOException;
+
+	/**
+	 * List the names of sub-directories of the directory with given URL
+	 * (e.g. the versions available at {@code version.base})
+	 * @param url	of directory
+	 * @return list of names
+	 * @throws IOException if directory cannot be listed
+	 */
+	List<String> list(String url) throws IOException;
+
+	/**
+	 * Random access to the artifact with given URL, to read parts of it
+	 * without fetching it; by default with HTTP Range requests
+	 * @param url	of artifact
+	 * @return reader of ranges of artifact
+	 * @throws IOException if artifact cannot be accessed
+	 * @see RemoteZip
+	 */
+	default RangeReader ranges(String url) throws IOException {
+		return new HttpRangeReader(url);
+	}
+
+	/**
+	 * Source described by given specification, for URLs relative to base
+	 * @param specification	{@code http}, {@code file}, {@code mirror:dir},
+	 * 						or {@code null} to select by scheme of base
+	 * @param base			URL in installer properties
+	 * @return source
+	 * @throws IllegalArgumentException if specification is unknown
+	 */
+	static ArtifactSource of(String specification,String base) {
+		String spec = specification == null ? "" : specification.trim();
+
+		if(spec.isEmpty())
+			spec = base.startsWith("file:") ? "file" : "http";
+
+		if(spec.equals("http"))
+			return new HttpArtifactSource();
+		else if(spec.equals("file"))
+			return new FileArtifactSource();
+		else if(spec.startsWith("mirror:"))
+			return new MirrorArtifactSource(
+					Paths.get(spec.substring("mirror:".length())),base);
+		else
+			throw new IllegalArgumentException("Unknown artifact source: "+spec);
+	}
+}
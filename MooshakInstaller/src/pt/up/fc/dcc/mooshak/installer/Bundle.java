@@ -0,0 +1,334 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * Self-contained bundle for offline installations. A bundle is a ZIP
+ * file with the servlet container, Mooshak's WAR and default data of a
+ * single version, a manifest and their checksums.
+ * <pre>
+ *	manifest.properties		version, listing and entry of each artifact
+ *	checksums.sha256		checksum of each artifact, as in sha256sum
+ *	apache-tomcat-x.y.z.zip	servlet container
+ *	Mooshak.war				Mooshak's webapp
+ *	MooshakData.zip			default data
+ * </pre>
+ * Artifacts are STORED (not compressed again) hence the bytes of each
+ * one are contiguous in the bundle and are extracted by streaming
+ * straight from it, with no intermediate copies.
+ */
+public class Bundle implements Closeable {
+
+	static final String MANIFEST = "manifest.properties";
+	static final String CHECKSUMS = "checksums.sha256";
+	static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Types of artifacts in a bundle, as installer properties
+	 */
+	static final List<String> TYPES = Collections.unmodifiableList(
+			Arrays.asList("container.download","version.war","version.data"));
+
+	private static final int BUFFER_SIZE = 1<<16;
+
+	private FileSystem fileSystem;
+	private Properties manifest = new Properties();
+	private Map<String,String> checksums = new LinkedHashMap<>();
+
+	/**
+	 * Open an existing bundle
+	 * @param file	of bundle
+	 * @throws IOException if bundle cannot be read or has no manifest
+	 */
+	public Bundle(Path file) throws IOException {
+		fileSystem = FileSystems.newFileSystem(file, (ClassLoader) null);
+
+		try(InputStream in = Files.newInputStream(fileSystem.getPath(MANIFEST))) {
+			manifest.load(in);
+		}
+
+		for(String line: Files.readAllLines(
+				fileSystem.getPath(CHECKSUMS),CHARSET)) {
+			String[] fields = line.trim().split("\\s+",2);
+
+			if(fields.length == 2)
+				checksums.put(fields[1], fields[0]);
+		}
+	}
+
+	/**
+	 * Version of Mooshak in this bundle
+	 * @return version
+	 */
+	public String getVersion() {
+		return manifest.getProperty("version");
+	}
+
+	/**
+	 * Versions available at the origin when this bundle was built
+	 * @return list of versions
+	 */
+	public List<String> getListing() {
+		return new ArrayList<>(Arrays.asList(
+				manifest.getProperty("listing","").split(";")));
+	}
+
+	/**
+	 * Artifact of given type in this bundle. The path is in the file
+	 * system of the bundle, hence reading it streams from the bundle.
+	 * @param type	of artifact (e.g. version.war)
+	 * @return path of entry or {@code null} if type is not bundled
+	 */
+	public Path getEntry(String type) {
+		String name = manifest.getProperty(type);
+
+		return name == null ? null : fileSystem.getPath(name);
+	}
+
+	/**
+	 * Checks if given path is an entry of a bundle,
+	 * rather than a file in the default file system
+	 * @param path	to check
+	 * @return {@code true} if bundled; {@code false} otherwise
+	 */
+	public static boolean isBundled(Path path) {
+		return path.getFileSystem() != FileSystems.getDefault();
+	}
+
+	/**
+	 * Verify artifacts against their checksums
+	 * @return names of artifacts that are missing or corrupted
+	 */
+	public List<String> verify() {
+		List<String> invalid = new ArrayList<>();
+
+		for(String type: TYPES) {
+			String name = manifest.getProperty(type);
+
+			if(name == null)
+				invalid.add(type);
+			else
+				try(InputStream in = Files.newInputStream(fileSystem.getPath(name))) {
+					if(! hex(digest(in,null,null)).equals(checksums.get(name)))
+						invalid.add(name);
+				} catch(IOException cause) {
+					invalid.add(name);
+				}
+		}
+		return invalid;
+	}
+
+	@Override
+	public void close() throws IOException {
+		fileSystem.close();
+	}
+
+	// building bundles
+
+	/**
+	 * Build a bundle with the artifacts of the configurator's version
+	 * (or the latest version, if none was set), downloaded from their
+	 * origin. The bundle is written to a temporary file and moved
+	 * to the given file when complete.
+	 * @param configurator	with version and to download artifacts
+	 * @param file			of bundle
+	 * @param progressable	to report progress
+	 * @throws IOException if downloads or bundle cannot be written
+	 */
+	public static void build(Configurator configurator,Path file,
+			Progressable progressable) throws IOException {
+		FailureProgressable tracked = new FailureProgressable(progressable,true);
+		List<String> listing =
+				configurator.downloadListing("version.base",tracked);
+		Properties manifest = new Properties();
+		StringBuilder checksums = new StringBuilder();
+		Path partial = file.toAbsolutePath().resolveSibling(
+				"."+file.getFileName()+".part");
+		List<Path> downloads = new ArrayList<>();
+
+		if(listing == null || listing.isEmpty())
+			throw new IOException("No Mooshak versions available");
+
+		if(configurator.getVersion() == null ||
+				configurator.getVersion().isEmpty()) {
+			Collections.sort(listing,Utils::compareVersions);
+			configurator.setVersion(listing.get(listing.size()-1));
+		}
+
+		manifest.setProperty("version", configurator.getVersion());
+		manifest.setProperty("listing", String.join(";",listing));
+
+		try(ZipOutputStream zip = new ZipOutputStream(
+				Files.newOutputStream(partial))) {
+
+			for(String type: TYPES) {
+				String url = configurator.getArtifactURL(type);
+				String name = url.substring(url.lastIndexOf('/')+1);
+				Path download = configurator.downloadZip(type,tracked);
+
+				if(download != null)
+					downloads.add(download);
+				if(download == null || tracked.hasFailed())
+					throw new IOException("Could not download "+url);
+
+				checksums.append(store(zip,name,download));
+				checksums.append("  ");
+				checksums.append(name);
+				checksums.append('\n');
+				manifest.setProperty(type, name);
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			manifest.store(bytes, "Mooshak "+configurator.getVersion());
+
+			store(zip,MANIFEST,bytes.toByteArray());
+			store(zip,CHECKSUMS,checksums.toString().getBytes(CHARSET));
+		} catch(IOException | RuntimeException cause) {
+			Files.deleteIfExists(partial);
+			throw cause;
+		} finally {
+			for(Path download: downloads)
+				Files.deleteIfExists(download);
+		}
+
+		Files.move(partial, file, ATOMIC_MOVE, REPLACE_EXISTING);
+	}
+
+	/**
+	 * Store a file as an uncompressed entry. The size and CRC of STORED
+	 * entries must precede their content, hence the file is read twice:
+	 * first for its CRC and checksum, then to copy it.
+	 * @param zip	where entry is written
+	 * @param name	of entry
+	 * @param file	with content
+	 * @return hexadecimal SHA-256 checksum of content
+	 * @throws IOException
+	 */
+	private static String store(ZipOutputStream zip,String name,Path file)
+			throws IOException {
+		ZipEntry entry = new ZipEntry(name);
+		CRC32 crc = new CRC32();
+		byte[] checksum;
+
+		try(InputStream in = Files.newInputStream(file)) {
+			checksum = digest(in,crc,null);
+		}
+
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(Files.size(file));
+		entry.setCompressedSize(Files.size(file));
+		entry.setCrc(crc.getValue());
+
+		zip.putNextEntry(entry);
+		try(InputStream in = Files.newInputStream(file)) {
+			digest(in,null,zip);
+		}
+		zip.closeEntry();
+
+		return hex(checksum);
+	}
+
+	private static void store(ZipOutputStream zip,String name,byte[] content)
+			throws IOException {
+		ZipEntry entry = new ZipEntry(name);
+		CRC32 crc = new CRC32();
+
+		crc.update(content);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(content.length);
+		entry.setCompressedSize(content.length);
+		entry.setCrc(crc.getValue());
+
+		zip.putNextEntry(entry);
+		zip.write(content);
+		zip.closeEntry();
+	}
+
+	/**
+	 * SHA-256 checksum of a file
+	 * @param file	to read
+	 * @return hexadecimal checksum
+	 * @throws IOException if file cannot be read
+	 */
+	static String checksum(Path file) throws IOException {
+		try(InputStream in = Files.newInputStream(file)) {
+			return hex(digest(in,null,null));
+		}
+	}
+
+	/**
+	 * SHA-256 checksum of given content
+	 * @param content	to digest
+	 * @return hexadecimal checksum
+	 */
+	static String checksum(byte[] content) {
+		return hex(sha256().digest(content));
+	}
+
+	/**
+	 * Read a stream computing its SHA-256 digest and, optionally,
+	 * its CRC and a copy
+	 * @param in	stream to read
+	 * @param crc	to update, if not {@code null}
+	 * @param out	where stream is copied, if not {@code null}
+	 * @return SHA-256 digest
+	 * @throws IOException
+	 */
+	private static byte[] digest(InputStream in,CRC32 crc,OutputStream out)
+			throws IOException {
+		MessageDigest digest = sha256();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int len;
+
+		while((len = in.read(buffer)) > 0) {
+			digest.update(buffer, 0, len);
+			if(crc != null)
+				crc.update(buffer, 0, len);
+			if(out != null)
+				out.write(buffer, 0, len);
+		}
+		return digest.digest();
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException cause) {
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+
+		for(byte b: bytes)
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+}
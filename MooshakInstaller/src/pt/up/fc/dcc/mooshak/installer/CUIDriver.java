@@ -252,6 +252,11 @@ public class CUIDriver implements Driver {
 		
 	}
 	
+	@Override
+	public void setAbortHandler(Runnable handler) {
+		// there is no abort command; interrupting terminates the installer 
+	}
+	
 	@Override
 	public void showProgress(Consumer<Progressable> consumer) {
 		consumer.accept(new StdioProgress());	
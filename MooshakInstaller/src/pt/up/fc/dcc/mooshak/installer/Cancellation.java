@@ -0,0 +1,70 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Token for cooperative cancellation of installation operations.
+ * Long running operations check this token periodically and stop,
+ * by throwing a {@link CancellationException}, once it is cancelled.
+ */
+public class Cancellation {
+
+	/**
+	 * A token that is never cancelled
+	 */
+	public static final Cancellation NONE = new Cancellation() {
+		@Override
+		public void cancel() {}
+	};
+
+	private volatile boolean cancelled = false;
+	List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Request cancellation and notify listeners
+	 */
+	public void cancel() {
+		if(! cancelled) {
+			cancelled = true;
+			listeners.forEach(Runnable::run);
+		}
+	}
+
+	/**
+	 * Checks if cancellation was requested
+	 * @return {@code true} if cancelled; {@code false} otherwise
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Stop current operation if cancellation was requested
+	 * @throws CancellationException if cancelled
+	 */
+	public void check() {
+		if(cancelled)
+			throw new CancellationException("Installation cancelled");
+	}
+
+	/**
+	 * Runnable to execute when cancellation is requested
+	 * @param listener
+	 */
+	public void onCancel(Runnable listener) {
+		listeners.add(listener);
+		if(cancelled)
+			listener.run();
+	}
+
+	/**
+	 * Runnable no longer executed when cancellation is requested
+	 * (e.g. because the operation it stops has completed)
+	 * @param listener	previously added with {@link #onCancel(Runnable)}
+	 */
+	public void removeOnCancel(Runnable listener) {
+		listeners.remove(listener);
+	}
+}
@@ -5,15 +5,22 @@ import static pt.up.fc.dcc.mooshak.installer.Utils.getPropertyValues;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipFile;
@@ -33,10 +40,21 @@ public class Configurator {
 	private static final String BASH = "/bin/bash";
 	private static final String DEFAULT_MASTER_HOST = "127.0.0.1";
 	private static final String DEFAULT_VERSION = "";
+	private static final int ARCHIVE_RETRIES = 20;
+	private static final long ARCHIVE_DELAY = 500;
 	
 	
 	private Consumer<String> errorHandler;
+	private ThreadLocal<Consumer<String>> taskErrorHandler = new ThreadLocal<>();
+	private Executor executor = null;
+	private Cancellation cancellation = Cancellation.NONE;
+	private PeerCache peers = null;
+	private Bundle bundle = null;
+	private ZipFilter dataFilter = ZipFilter.fromProperties("data");
+	private DeltaUpgrade webAppUpgrade = null;
+	private int instances = 1;
 	
+	private Path root = null;
 	private Path servletContainerPath = null;
 	private Path homeDirectory = null;
 	private String masterHost = DEFAULT_MASTER_HOST;
@@ -54,7 +72,7 @@ public class Configurator {
 		for(String location: 
 				Utils.getPropertyValues("container.locations")) {
 			Path path = Paths.get(location);
-			if(Files.isReadable(path))
+			if(Files.isReadable(resolve(path)))
 				found = path;
 		}
 		
@@ -76,13 +94,14 @@ public class Configurator {
 	 */
 	public boolean hasServeletContainer(Path path) {
 		String webappsName = Utils.getProperty("container.webapps");
-		Path webapps = path.resolve(webappsName);
+		Path folder = resolve(path);
+		Path webapps = folder.resolve(webappsName);
 		
-		return Files.isDirectory(path) &&
-				Files.isReadable(path) &&
+		return Files.isDirectory(folder) &&
+				Files.isReadable(folder) &&
 				Files.isDirectory(webapps) &&
 				Files.isReadable(webapps) &&
-				Files.isWritable(path);
+				Files.isWritable(folder);
 	}
 	
 	
@@ -128,10 +147,11 @@ public class Configurator {
 		if(homePath == null)
 			return false;
 		else {	
-			Path dataPath = homePath.resolve(Utils.getProperty("home.root"));
+			Path homeFolder = resolve(homePath);
+			Path dataPath = homeFolder.resolve(Utils.getProperty("home.root"));
 			return 
-				Files.isDirectory(homePath) && 
-				Files.isReadable(homePath) 	&&
+				Files.isDirectory(homeFolder) && 
+				Files.isReadable(homeFolder) 	&&
 				Files.isDirectory(dataPath) &&
 				Files.isReadable(dataPath);
 		}
@@ -165,24 +185,27 @@ public class Configurator {
 				try(InputStream stream = Files.newInputStream(path)) {
 					properties.loadFromXML(stream);
 				} catch (IOException e) {
-				errorHandler.accept(e.toString());
+				reportError(e.toString());
 			}
 		} 
 	}
 	
 	
 	/**
-	 * Make an XML property file.  Save it in servlet container
+	 * Make an XML property file.  Save it in servlet container.
+	 * The file is written atomically and remains readable by
+	 * the servlet container.
 	 */
 	public void saveProperties() {
+		Path file = getPropertyFile();
 		
-		try(OutputStream stream = Files.newOutputStream(getPropertyFile())) {
-			
-			properties.storeToXML(stream, 
-					getProperty("properties.comment"), 
-					getProperty("properties.encoding"));
+		try {
+			Utils.writeAtomically(file, stream -> 
+				properties.storeToXML(stream, 
+						getProperty("properties.comment"), 
+						getProperty("properties.encoding")));
 		} catch (IOException cause) {
-			errorHandler.accept(cause.getLocalizedMessage());
+			reportError(cause.getLocalizedMessage());
 		} 
 		
 	}
@@ -205,6 +228,7 @@ public class Configurator {
 	 */
 	public void setServletContainerPath(Path serveletContainerPath) {
 		this.servletContainerPath = serveletContainerPath;
+		this.webAppUpgrade = null;
 		properties.setProperty("servletContainer",
 				serveletContainerPath.getFileName().toString());
 	}
@@ -244,6 +268,62 @@ public class Configurator {
 	}
 
 	
+	/**
+	 * Get root prefix of the file system where Mooshak is installed
+	 * @return the root or {@code null} if installing in this system 
+	 */
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Set root prefix of the file system where Mooshak is installed
+	 * (e.g. a chroot or a directory with a system image). 
+	 * Configured paths, such as servlet container and home directory, 
+	 * are as seen from that file system and resolved against this root 
+	 * when accessing files.
+	 * @param root the root to set, or {@code null} for this system
+	 */
+	public void setRoot(Path root) {
+		this.root = root;
+	}
+	
+	/**
+	 * Resolve a configured path against the root of the file system
+	 * where Mooshak is installed, if any
+	 * @param path as seen from the installation file system
+	 * @return path in this file system
+	 */
+	public Path resolve(Path path) {
+		if(root == null || path == null)
+			return path;
+		else if(path.isAbsolute())
+			return root.resolve(path.getRoot().relativize(path));
+		else
+			return root.resolve(path);
+	}
+	
+	/**
+	 * Configurator for the same installation in another root,
+	 * sharing properties and error handler with this one 
+	 * @param root of file system where Mooshak is installed
+	 * @return configurator 
+	 */
+	public Configurator forRoot(Path root) {
+		Configurator configurator = new Configurator();
+		
+		configurator.properties = properties;
+		configurator.errorHandler = errorHandler;
+		configurator.cancellation = cancellation;
+		configurator.servletContainerPath = servletContainerPath;
+		configurator.homeDirectory = homeDirectory;
+		configurator.version = version;
+		configurator.masterHost = masterHost;
+		configurator.root = root;
+		
+		return configurator;
+	}
+	
 	/**
 	 * Get Mooshak version selected for installation
 	 * @return the version
@@ -258,6 +338,7 @@ public class Configurator {
 	 */
 	public void setVersion(String version) {
 		this.version = version;
+		this.webAppUpgrade = null;
 		properties.setProperty("version", version);
 	}
 	
@@ -313,6 +394,125 @@ public class Configurator {
 	}
 
 	
+	/**
+	 * Report an error to the handler of the asynchronous operation 
+	 * running in this thread, if any, or to the error handler otherwise
+	 * @param message
+	 */
+	private void reportError(String message) {
+		Consumer<String> handler = taskErrorHandler.get();
+		
+		if(handler == null)
+			errorHandler.accept(message);
+		else
+			handler.accept(message);
+	}
+	
+	/**
+	 * Get executor of asynchronous operations, creating a default one 
+	 * (using virtual threads, if available) if none was set
+	 * @return the executor
+	 */
+	public synchronized Executor getExecutor() {
+		if(executor == null)
+			executor = InstallerExecutors.newExecutor("configurator-");
+		return executor;
+	}
+
+	/**
+	 * Set executor of asynchronous operations
+	 * @param executor the executor to set
+	 */
+	public synchronized void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * Get token checked by downloads and extractions for cancellation
+	 * @return the cancellation
+	 */
+	public Cancellation getCancellation() {
+		return cancellation;
+	}
+
+	/**
+	 * Set token checked by downloads and extractions for cancellation
+	 * @param cancellation the cancellation to set
+	 */
+	public void setCancellation(Cancellation cancellation) {
+		this.cancellation = cancellation;
+	}
+
+	/**
+	 * Get cache shared with peers, if downloads use peers
+	 * @return the peers or {@code null} if none
+	 */
+	public PeerCache getPeers() {
+		return peers;
+	}
+
+	/**
+	 * Set cache shared with peers: ZIP files are fetched from peers 
+	 * before their origin, and those downloaded from origin are cached
+	 * @param peers the peers to set ({@code null} to download from origin)
+	 */
+	public void setPeers(PeerCache peers) {
+		this.peers = peers;
+	}
+
+	/**
+	 * Get bundle used for offline installation, if any
+	 * @return the bundle or {@code null} if artifacts are downloaded
+	 */
+	public Bundle getBundle() {
+		return bundle;
+	}
+
+	/**
+	 * Set bundle for offline installation: the bundled version is 
+	 * the only one listed and artifacts are extracted from the bundle
+	 * @param bundle the bundle to set ({@code null} to download artifacts)
+	 */
+	public void setBundle(Bundle bundle) {
+		this.bundle = bundle;
+	}
+
+	/**
+	 * Get filter of the entries of default data that are extracted 
+	 * @return the filter
+	 */
+	public ZipFilter getDataFilter() {
+		return dataFilter;
+	}
+
+	/**
+	 * Set filter of the entries of default data that are extracted,
+	 * by default defined by properties {@code data.include} and
+	 * {@code data.exclude}
+	 * @param dataFilter the filter to set
+	 */
+	public void setDataFilter(ZipFilter dataFilter) {
+		this.dataFilter = dataFilter;
+	}
+	
+	/**
+	 * Get number of instances of the servlet container
+	 * @return the number of instances
+	 */
+	public int getInstances() {
+		return instances;
+	}
+	
+	/**
+	 * Set number of instances of the servlet container, 
+	 * including the container itself (by default, 1)
+	 * @param instances the number of instances to set
+	 * @see ContainerInstances
+	 */
+	public void setInstances(int instances) {
+		this.instances = Math.max(1,instances);
+	}
+	
 	/**
 	 * Get a URL for WAR or data of a given version 
 	 * @return
@@ -334,61 +534,136 @@ public class Configurator {
 		return url.toString();
 	}
 	
+	/**
+	 * Get URL of an artifact of given type: types prefixed by 
+	 * {@code version.} are relative to the selected version, 
+	 * others are URLs in installer properties
+	 * @param type	of artifact (e.g. container.download, version.war)
+	 * @return URL of artifact
+	 */
+	public String getArtifactURL(String type) {
+		if(type.startsWith("version."))
+			return getVersionedURL(type);
+		else
+			return Utils.getProperty(type);
+	}
+	
 	// download methods
 	
 
 	/**
-	 * Download a listing (HTTP server generated index) from remote server
+	 * Get source of artifacts of given type, as defined by the property
+	 * of its URL suffixed by {@code .source}. Versioned types share the
+	 * source of {@code version.base}.
+	 * @param type	of artifact (e.g. container.download, version.war)
+	 * @return source of artifacts
+	 * @see ArtifactSource
+	 */
+	public ArtifactSource getSource(String type) {
+		String property = type.startsWith("version.") ? "version.base" : type;
+		String specification = Utils.getProperty(property+".source",null);
+		
+		return ArtifactSource.of(specification,Utils.getProperty(property));
+	}
+	
+	/**
+	 * Open the ZIP file of an artifact of given type without downloading
+	 * it, reading only its central directory from the source of that type
+	 * @param type	of artifact (e.g. container.download, version.war)
+	 * @return ZIP file with entries available for listing and reading
+	 * @throws IOException if the ZIP file cannot be read from its source
+	 */
+	public RemoteZip openRemoteZip(String type) throws IOException {
+		return new RemoteZip(getSource(type).ranges(getArtifactURL(type)));
+	}
+	
+	/**
+	 * Download a listing (sub-directories, such as versions) from 
+	 * the source of the given type
 	 * @param type			installation parameter holding directory URL
 	 * @param progressable	for monitoring download
 	 * @return
 	 */
 	public List<String> downloadListing(String type,Progressable progressable){
-		String url = Utils.getProperty(type);
-		Path path = Utils.dowloadFrom(url, ".zip", progressable);
 		List<String> listing = null;
 		
-		cleanLater(path);
+		if(bundle != null) {
+			progressable.update(progressable.getMaximum());
+			return new ArrayList<>(Arrays.asList(bundle.getVersion()));
+		}
+		
+		progressable.updatable(false);
 		try {
-			listing = Utils.parseListing(path);
-		} catch (IOException e) {
-			errorHandler.accept(e.toString());
-		} finally {
-			cleanup();
+			listing = getSource(type).list(Utils.getProperty(type));
+		} catch (IOException | RuntimeException e) {
+			reportError(e.toString());
 		}
 		
 		return listing;
 	}
 	
 	/**
-	 * Download ZIP file from given URL
+	 * Download ZIP file from given URL, selecting the source 
+	 * by the scheme of the URL
 	 * @param url
 	 * @param progressable
 	 * @return
 	 */
 	public Path downloadZipFrom(String url,Progressable progressable)  {	
-		Path path = null;
-		
-		path = Utils.dowloadFrom(url, ".zip", progressable);
-		cleanLater(path);
-		
-		return path;
+		return download(ArtifactSource.of(null,url),url,progressable);
 	}
 	
 	/**
-	 * Download ZIP file of given type (URL in installer properties)
+	 * Download ZIP file of given type (URL in installer properties) 
+	 * from the source selected for that type
 	 * @param type
 	 * @param progressable
 	 * @return
 	 */
 	public Path downloadZip(String type,Progressable progressable)  {	
-		String url = Utils.getProperty(type);
-		return downloadZipFrom(url,progressable);
+		return download(getSource(type),getArtifactURL(type),progressable);
+	}
+	
+	/**
+	 * Download ZIP file with given URL from source, preferring 
+	 * a verified copy from peers if they are used. Downloads from
+	 * source are cached only if artifacts are seeded to peers.
+	 * @param source
+	 * @param url
+	 * @param progressable
+	 * @return
+	 */
+	private Path download(ArtifactSource source,String url,
+			Progressable progressable) {
+		Path path = null;
+		
+		if(peers != null)
+			path = peers.fetch(url, progressable, cancellation);
+		
+		try {
+			if(path == null) {
+				path = source.fetch(url, progressable, cancellation);
+				if(peers != null && peers.isServing() && path != null)
+					peers.store(url, path);
+			}
+		} catch (IOException e) {
+			reportError(e.toString());
+		}
+		cleanLater(path);
+		
+		return path;
 	}
 	
 	/**
 	 * Expand ZIP file to target directory, 
 	 * making that directory first, if necessary.
+	 * The ZIP file is extracted to a staging folder and its content moved 
+	 * to target only when completely extracted; if cancelled the 
+	 * staging folder is removed and the ZIP file is kept.
+	 * A ZIP file in a {@link Bundle} is streamed from the bundle, 
+	 * which is never removed. A ZIP file is removed after expansion 
+	 * only if it is a temporary download of this configurator; 
+	 * downloads kept in the {@link Journal} are removed with it.
 	 * The progress of this operation is reported to progressable 
 	 * @param zipSource
 	 * @param target
@@ -397,30 +672,164 @@ public class Configurator {
 	 */
 	public void expandZip(Path zipSource,Path target,
 			boolean makeTarget,Progressable progressable) {
+		expandZip(zipSource,target,makeTarget,ZipFilter.ALL,progressable);
+	}
+	
+	/**
+	 * Expand entries of ZIP file accepted by filter to target directory,
+	 * as in {@link #expandZip(Path, Path, boolean, Progressable)}.
+	 * Entries that are not accepted are skipped without being inflated.
+	 * @param zipSource
+	 * @param target
+	 * @param makeTarget
+	 * @param filter
+	 * @param progressable
+	 */
+	public void expandZip(Path zipSource,Path target,
+			boolean makeTarget,ZipFilter filter,Progressable progressable) {
 
+		Path staging = getStagingFolder(target);
+		boolean bundled = Bundle.isBundled(zipSource);
+		boolean temporary = ! bundled && tempFiles.contains(zipSource);
+		
 		try {
 			try {
-				ZipFile zipFile = new ZipFile(zipSource.toFile());
-				cleanLater(zipSource);
-				if(makeTarget) {
-					Files.createDirectories(target);
-					Utils.extractTo(zipFile,target, progressable);
-				} else {
-					Path root = Utils.extractTo(zipFile,target.getParent(), 
-							progressable);
-					if(root != null)
-						Files.move(root, target);
-				}
+				Path root;
+				
+				Utils.deleteTree(staging);
+				Files.createDirectories(staging);
+				if(bundled)
+					root = Utils.extractFrom(zipSource,staging,filter,
+							progressable,cancellation);
+				else
+					try(ZipFile zipFile = new ZipFile(zipSource.toFile())) {
+						root = Utils.extractTo(zipFile,staging,filter,
+								progressable,cancellation);
+					}
 				
+				if(makeTarget) 
+					Utils.moveInto(staging, target);
+				else if(root != null)
+					Files.move(root, target);
 			} finally {
-				cleanup();
+				Utils.deleteTree(staging);
 			}
+			if(temporary)
+				cleanup(zipSource);
 		} catch (IOException e) {
-			errorHandler.accept(e.toString());
+			if(temporary)
+				cleanup(zipSource);
+			reportError(e.toString());
 		}	
 
 	}
 	
+	/**
+	 * Expand the skeleton of a ZIP file to target directory, as in
+	 * {@link #expandZip(Path, Path, boolean, ZipFilter, Progressable)},
+	 * keeping the ZIP file to hydrate the remaining entries later.
+	 * @param zipSource
+	 * @param target
+	 * @param filter
+	 * @param progressable
+	 * @return hydrator of the remaining entries, not yet started,
+	 * 		or {@code null} if the skeleton could not be expanded
+	 * @see Hydrator
+	 */
+	public Hydrator expandSkeleton(Path zipSource,Path target,
+			ZipFilter filter,Progressable progressable) {
+		Path staging = getStagingFolder(target);
+		Hydrator hydrator = null;
+		
+		try {
+			hydrator = new Hydrator(zipSource,target,filter);
+			try {
+				Utils.deleteTree(staging);
+				Files.createDirectories(staging);
+				try(ZipFile zipFile = new ZipFile(zipSource.toFile())) {
+					Utils.extractTo(zipFile,staging,hydrator.getSkeleton(),
+							progressable,cancellation);
+				}
+				Utils.moveInto(staging, target);
+			} finally {
+				Utils.deleteTree(staging);
+			}
+		} catch (IOException e) {
+			reportError(e.toString());
+			if(hydrator != null)
+				try {
+					hydrator.close();
+				} catch (IOException cause) {
+					// already reported
+				}
+			hydrator = null;
+		}
+		return hydrator;
+	}
+	
+	/**
+	 * Delta upgrade of the installed webapp to the WAR of the selected
+	 * version. It is opened once, since reading the central directory 
+	 * of the remote WAR and checking the installed files is needed
+	 * both to check disk space and to upgrade.
+	 * @return upgrade of the installed webapp
+	 * @throws IOException if the remote WAR cannot be read by ranges
+	 * @see DeltaUpgrade
+	 */
+	public synchronized DeltaUpgrade getWebAppUpgrade() throws IOException {
+		if(webAppUpgrade == null)
+			webAppUpgrade = new DeltaUpgrade(openRemoteZip("version.war"),
+					getMooshakWebAppFolder(),
+					getServletContainerFolder().resolve(SharedLibraries.SHARED));
+		return webAppUpgrade;
+	}
+	
+	/**
+	 * Upgrade the installed webapp to the WAR of the selected version,
+	 * fetching only the entries that changed into a staging folder
+	 * that is then moved into the webapp.
+	 * @param progressable	to report progress
+	 * @return upgrade that was applied, or {@code null} if the remote WAR
+	 * 		cannot be read by ranges and must be downloaded in full
+	 * @see #getWebAppUpgrade()
+	 */
+	public DeltaUpgrade upgradeWebApp(Progressable progressable) {
+		Path webapp = getMooshakWebAppFolder();
+		Path staging = getStagingFolder(webapp);
+		DeltaUpgrade upgrade;
+		
+		try {
+			upgrade = getWebAppUpgrade();
+		} catch (IOException e) {
+			return null;
+		}
+		
+		try {
+			try {
+				Utils.deleteTree(staging);
+				Files.createDirectories(staging);
+				upgrade.fetch(staging,progressable,cancellation);
+				Utils.moveInto(staging, webapp);
+			} finally {
+				Utils.deleteTree(staging);
+			}
+		} catch (IOException e) {
+			reportError(e.toString());
+		}
+		return upgrade;
+	}
+	
+	/**
+	 * Folder where a ZIP file is extracted before being moved to 
+	 * given target, in the same file system. Hence, a cancelled 
+	 * extraction never leaves partial content in the target.
+	 * @param target of extraction
+	 * @return staging folder
+	 */
+	private Path getStagingFolder(Path target) {
+		return target.resolveSibling("."+target.getFileName()+".staging");
+	}
+	
 	/**
 	 * Download servlet container to given path
 	 * @param path
@@ -440,7 +849,7 @@ public class Configurator {
 				cleanup();
 			}
 		} catch (IOException e) {
-			errorHandler.accept(e.toString());
+			reportError(e.toString());
 		}				
 	}
 
@@ -465,20 +874,21 @@ public class Configurator {
 				cleanup();
 			}
 		} catch (IOException e) {
-			errorHandler.accept(e.toString());
+			reportError(e.toString());
 		}
 		
 		if(Utils.isRoot())
 			grantPermissions();
 		else
-			errorHandler.accept("Could not grant root permissions to safeexec");
+			reportError("Could not grant root permissions to safeexec");
 	}
 	
 	
-	Set<Path> tempFiles = new HashSet<>();
+	Set<Path> tempFiles = ConcurrentHashMap.newKeySet();
 	
 	private void cleanLater(Path file) {
-		tempFiles.add(file);
+		if(file != null)
+			tempFiles.add(file);
 	}
 	
 	/**
@@ -486,16 +896,24 @@ public class Configurator {
 	 */
 	public void cleanup() {
 		
-		tempFiles.forEach( path -> {
-			try {
-				Files.deleteIfExists(path);
-			} catch (IOException e) {
-				errorHandler.accept(e.toString());
-			}
-		});
+		tempFiles.forEach(this::cleanup);
 
 	}
 	
+	/**
+	 * Cleanup a single temporary file, leaving other temporary files 
+	 * that may be in use by concurrent operations
+	 * @param path of temporary file
+	 */
+	private void cleanup(Path path) {
+		try {
+			Files.deleteIfExists(path);
+			tempFiles.remove(path);
+		} catch (IOException e) {
+			reportError(e.toString());
+		}
+	}
+	
 	
 	/**
 	 * Grant permissions to all files with name starting in safeexec
@@ -510,10 +928,10 @@ public class Configurator {
 			.forEach( p -> { try {
 						runtime.exec("chmod u+s,o+x "+p.toString());
 					} catch (Exception cause) {
-						errorHandler.accept(cause.getLocalizedMessage());
+						reportError(cause.getLocalizedMessage());
 					}});
 		} catch (IOException cause) {
-			errorHandler.accept(cause.toString());
+			reportError(cause.toString());
 		}
 	}
 	
@@ -551,34 +969,466 @@ public class Configurator {
 	}
 	
 	/**
-	 * Check if servlet container is running
-	 * @return
+	 * Check if servlet container is running, i.e. if any of its instances
+	 * responds to a HEAD request within the probe timeout
+	 * @return {@code true} if running; {@code false} otherwise
+	 * @see ReadinessProbe
 	 */
 	public boolean isServletContainerRunning() {
-		String url = Utils.getProperty("container.url");
-		DummyProgressable dummy = new DummyProgressable();
+		return getRunningInstances() > 0;
+	}
+	
+	/**
+	 * Number of instances of the servlet container that respond 
+	 * to a HEAD request within the probe timeout
+	 * @return number of running instances
+	 * @see #getContainerInstances()
+	 */
+	public int getRunningInstances() {
+		ContainerInstances all = getContainerInstances();
+		String url = getProperty("container.url");
+		int running = 0;
 		
-		Path html = Utils.dowloadFrom(url, ".html",dummy);
-		cleanLater(html);
+		try {
+			for(int instance = 0; instance < all.getCount(); instance++)
+				if(new ReadinessProbe(all.getURL(url,instance)).isResponding())
+					running++;
+		} catch (IOException cause) {
+			reportError(cause.toString());
+		}
+		return running;
+	}
+	
+	/**
+	 * Instances of the servlet container: as many as configured or, if 
+	 * more, as those with a folder, which may be running (e.g. created 
+	 * by a previous installation). Before the container is selected 
+	 * only the configured instances are known, and only by their URLs.
+	 * @return instances of the container
+	 * @see ContainerInstances
+	 */
+	ContainerInstances getContainerInstances() {
+		Path container = getServletContainerFolder();
+		
+		if(container == null)
+			return new ContainerInstances(Paths.get(""),
+					Paths.get(getProperty("webapp.name")),instances);
+		return new ContainerInstances(container,getMooshakWebAppFolder(),
+				Math.max(instances,ContainerInstances.countExisting(container)));
+	}
+	
+	/**
+	 * URL of Mooshak's webapp in the local servlet container
+	 * @return URL
+	 */
+	public String getMooshakURL() {
+		String url = getProperty("container.url");
+		
+		return (url.endsWith("/") ? url : url+"/")+
+				getProperty("webapp.name")+"/";
+	}
+	
+	/**
+	 * Wait until Mooshak's webapp is ready after starting the servlet
+	 * container, probing it with exponential backoff up to the time
+	 * defined by the {@code probe.wait} property (in seconds)
+	 * @return startup time in milliseconds, or -1 if not ready
+	 * @throws CancellationException if cancelled
+	 */
+	public long awaitMooshak() {
+		long wait = TimeUnit.SECONDS.toMillis(
+				Long.parseLong(getProperty("probe.wait").trim()));
 		
-		return dummy.isComplete();
+		try {
+			return new ReadinessProbe(getMooshakURL()).await(wait,cancellation);
+		} catch (IOException cause) {
+			reportError(cause.toString());
+		} catch (InterruptedException cause) {
+			Thread.currentThread().interrupt();
+		}
+		return -1;
+	}
+	
+	/**
+	 * Tune the JVM of the servlet container for this machine, writing
+	 * its {@code bin/setenv.sh} and recording the tuning in properties.
+	 * Processors and memory are shared by all its instances, hence
+	 * the JVM of each instance (with a copy of {@code bin/setenv.sh})
+	 * is sized for its share of the machine.
+	 * @param profile	name (small, large or auto), 
+	 * 			or {@code null} for the {@code jvm.profile} property
+	 * @param sharedArchive	if starts load a class-data sharing archive
+	 * @return tuning that was applied, or {@code null} if the container 
+	 * 			has no {@code bin} folder or tuning failed
+	 * @see JvmTuning
+	 * @see #trainSharedArchive()
+	 */
+	public JvmTuning tuneServletContainer(String profile,boolean sharedArchive) {
+		Path container = getServletContainerFolder();
+		JvmTuning tuning;
+		
+		if(! Files.isDirectory(container.resolve("bin")))
+			return null;
+		try {
+			if(profile == null)
+				tuning = new JvmTuning(instances);
+			else
+				tuning = new JvmTuning(profile,
+						Runtime.getRuntime().availableProcessors(),
+						JvmTuning.getPhysicalMemory(),instances);
+			tuning.setSharedArchive(sharedArchive);
+			tuning.write(container);
+			tuning.record(properties);
+			return tuning;
+		} catch (IOException | IllegalArgumentException cause) {
+			reportError(cause.toString());
+			return null;
+		}
+	}
+	
+	/**
+	 * Tune the HTTP connectors and logging of the servlet container 
+	 * for contest load, recording the tuning in properties.
+	 * Users are spread over all its instances, hence the connectors
+	 * of each instance (with a copy of {@code conf/server.xml}) are 
+	 * sized for its share of the users.
+	 * @param users	expected number of concurrent users, 
+	 * 			or 0 for the {@code server.users} property
+	 * @return tuning that was applied, or {@code null} if the container
+	 * 			has no {@code conf/server.xml} or tuning failed
+	 * @see ServerTuning
+	 */
+	public ServerTuning tuneServer(int users) {
+		Path container = getServletContainerFolder();
+		ServerTuning tuning;
+		
+		if(! Files.exists(container.resolve(ServerTuning.SERVER_XML)))
+			return null;
+		try {
+			if(users <= 0)
+				users = Integer.parseInt(getProperty("server.users").trim());
+			tuning = new ServerTuning(users,
+					ServerTuning.getVersion(container),instances);
+			tuning.write(container);
+			tuning.record(properties);
+			return tuning;
+		} catch (IOException | NumberFormatException cause) {
+			reportError(cause.toString());
+			return null;
+		}
 	}
 	
 	/**
 	 * Start the servlet container 
 	 */
 	public void startServletContainer() {
-		String system = Utils.isWindows() ? "window" : "linux";
-		String startCommand  = Utils.getProperty("container.start."+system);
-		Path startCommandPath = getServletContainerPath().resolve(startCommand);
-		
 		try {
-			runtime.exec(BASH+" "+startCommandPath.toString());
+			launchServletContainer("start");
 		} catch (Exception cause) {
-			errorHandler.accept(cause.getLocalizedMessage());
+			reportError(cause.getLocalizedMessage());
 		};
 	}
 	
+	/**
+	 * Launch a command of the servlet container (start or stop) with 
+	 * given variables added to the environment of the installer
+	 * @param command	name, as in the {@code container.start} property
+	 * @param variables	definitions of variables ({@code name=value})
+	 * @return process running the command
+	 * @throws IOException if the command cannot be launched
+	 */
+	private Process launchServletContainer(String command,String... variables) 
+			throws IOException {
+		String system = Utils.isWindows() ? "window" : "linux";
+		String commandName = Utils.getProperty("container."+command+"."+system);
+		Path commandPath = resolve(getServletContainerPath())
+				.resolve(commandName);
+		List<String> environment = new ArrayList<>();
+		
+		if(variables.length == 0)
+			return runtime.exec(BASH+" "+commandPath.toString());
+		
+		for(Map.Entry<String,String> variable: System.getenv().entrySet())
+			environment.add(variable.getKey()+"="+variable.getValue());
+		environment.addAll(Arrays.asList(variables));
+		
+		return runtime.exec(BASH+" "+commandPath.toString(),
+				environment.toArray(new String[environment.size()]));
+	}
+	
+	/**
+	 * Variables selecting an instance of the servlet container
+	 * in the environment of its commands
+	 * @param all		instances of the container
+	 * @param instance	number, 0 for the container itself
+	 * @return definitions of variables ({@code name=value})
+	 */
+	private static String[] baseOf(ContainerInstances all,int instance) {
+		if(instance == 0)
+			return new String[0];
+		else
+			return new String[] { "CATALINA_BASE="+
+					all.getBase(instance).toAbsolutePath() };
+	}
+	
+	/**
+	 * Stop the servlet container, including all its instances, and wait 
+	 * until they no longer respond, up to the time defined by the 
+	 * {@code probe.wait} property
+	 * @return {@code true} if stopped; {@code false} otherwise
+	 * @throws CancellationException if cancelled
+	 */
+	public boolean stopServletContainer() {
+		return stopInstances(getContainerInstances(),0);
+	}
+	
+	/**
+	 * Stop the instances of the servlet container from the given one 
+	 * onwards and wait until they no longer respond. The container itself
+	 * is always stopped; the other instances only if they respond.
+	 * @param all	instances of the container
+	 * @param first	instance to stop, 0 for the container itself
+	 * @return {@code true} if stopped; {@code false} otherwise
+	 * @throws CancellationException if cancelled
+	 */
+	private boolean stopInstances(ContainerInstances all,int first) {
+		String url = getProperty("container.url");
+		long wait = TimeUnit.SECONDS.toMillis(
+				Long.parseLong(getProperty("probe.wait").trim()));
+		boolean stopped = true;
+		
+		try {
+			for(int instance = first; instance < all.getCount(); instance++) {
+				ReadinessProbe probe = 
+						new ReadinessProbe(all.getURL(url,instance));
+				
+				if(instance > 0 && ! probe.isResponding())
+					continue;
+				launchServletContainer("stop",baseOf(all,instance)).waitFor();
+				if(probe.awaitStopped(wait,cancellation) < 0)
+					stopped = false;
+			}
+			return stopped;
+		} catch (InterruptedException cause) {
+			Thread.currentThread().interrupt();
+		} catch (IOException cause) {
+			reportError(cause.getLocalizedMessage());
+		}
+		return false;
+	}
+	
+	/**
+	 * Precompress static files of Mooshak's webapp and configure it to
+	 * serve them, with a resource cache sized to its footprint, 
+	 * recording the precompression in properties
+	 * @param progressable	to report progress
+	 * @return precompression that was applied, or {@code null} if
+	 * 			the webapp was not expanded or precompression failed
+	 * @throws CancellationException if cancelled
+	 * @see Precompression
+	 */
+	public Precompression precompressWebApp(Progressable progressable) {
+		Path webapp = getMooshakWebAppFolder();
+		Precompression precompression;
+		
+		if(! Files.isDirectory(webapp))
+			return null;
+		try {
+			precompression = new Precompression(webapp,
+					ServerTuning.getVersion(getServletContainerFolder()));
+			precompression.apply(progressable,cancellation);
+			precompression.record(properties);
+			return precompression;
+		} catch (IOException | NumberFormatException cause) {
+			reportError(cause.toString());
+			return null;
+		}
+	}
+	
+	/**
+	 * Warm up Mooshak's webapp, replaying read-only requests at 
+	 * increasing concurrency until its latency is stable
+	 * @param progressable	to report progress
+	 * @return phases of the warm-up, empty if it failed
+	 * @throws CancellationException if cancelled
+	 * @see WarmUp
+	 */
+	public List<WarmUp.Phase> warmUpMooshak(Progressable progressable) {
+		try {
+			return new WarmUp(getMooshakURL()).run(progressable,cancellation);
+		} catch (IOException | NumberFormatException cause) {
+			reportError(cause.toString());
+			return new ArrayList<>();
+		}
+	}
+	
+	/**
+	 * Create the instances of the servlet container besides itself, 
+	 * with the configuration of the container, and write an upstream
+	 * snippet for a load balancer, recording the instances in properties.
+	 * Instances that are running (e.g. from a previous installation) are
+	 * stopped before their folders are recreated or removed.
+	 * @return instances that were created, or {@code null} if the 
+	 * 			container has a single instance or creation failed
+	 * @throws CancellationException if cancelled
+	 * @see ContainerInstances
+	 */
+	public ContainerInstances createInstances() {
+		ContainerInstances created = new ContainerInstances(
+				getServletContainerFolder(),getMooshakWebAppFolder(),instances);
+		
+		if(! stopInstances(getContainerInstances(),1)) {
+			reportError("Could not stop running servlet container instances");
+			return null;
+		}
+		try {
+			created.create();
+			if(instances == 1)
+				return null;
+			created.writeUpstream(getProperty("container.url"));
+			created.record(properties);
+			return created;
+		} catch (IOException | NumberFormatException cause) {
+			reportError(cause.toString());
+			return null;
+		}
+	}
+	
+	/**
+	 * Start the instances of the servlet container besides itself,
+	 * each with its own {@code CATALINA_BASE}, and wait until Mooshak 
+	 * is ready in all of them
+	 * @param created	instances of the container
+	 * @return longest startup time in milliseconds, or -1 if Mooshak
+	 * 			is not ready in some instance
+	 * @throws CancellationException if cancelled
+	 */
+	public long startInstances(ContainerInstances created) {
+		long wait = TimeUnit.SECONDS.toMillis(
+				Long.parseLong(getProperty("probe.wait").trim()));
+		long startup = 0;
+		
+		try {
+			for(int instance = 1; instance < created.getCount(); instance++)
+				launchServletContainer("start",baseOf(created,instance));
+			for(int instance = 1; instance < created.getCount(); instance++) {
+				long time = new ReadinessProbe(created.getURL(getMooshakURL(),
+						instance)).await(wait,cancellation);
+				
+				if(time < 0) {
+					reportError("Mooshak not ready in instance "+instance);
+					return -1;
+				}
+				startup = Math.max(startup,time);
+			}
+			return startup;
+		} catch (IOException cause) {
+			reportError(cause.getLocalizedMessage());
+		} catch (InterruptedException cause) {
+			Thread.currentThread().interrupt();
+		}
+		return -1;
+	}
+	
+	/**
+	 * Place libraries common to several webapps of the servlet container
+	 * in its shared class loader, recording the placement in properties
+	 * @return placement that was applied, or {@code null} if it failed
+	 * @see SharedLibraries
+	 */
+	public SharedLibraries shareLibraries() {
+		SharedLibraries libraries = new SharedLibraries(
+				getServletContainerFolder(),getWebAppsFolder());
+		
+		try {
+			libraries.apply();
+			libraries.record(properties);
+			return libraries;
+		} catch (IOException cause) {
+			reportError(cause.toString());
+			return null;
+		}
+	}
+	
+	/**
+	 * Train the class-data sharing archive of the servlet container:
+	 * start it with the archive dumped at exit, wait until Mooshak 
+	 * is ready, hence its classes are loaded, and stop it. 
+	 * The JVM tuning must have enabled the archive in {@code setenv.sh};
+	 * JDKs that cannot dump it simply start the container as usual.
+	 * Training is skipped if any instance is running; the other instances
+	 * receive a copy of the archive when they are created.
+	 * @return size of the archive in bytes, or -1 if none was dumped
+	 * @throws CancellationException if cancelled
+	 * @see JvmTuning#setSharedArchive(boolean)
+	 */
+	public long trainSharedArchive() {
+		Path archive = getServletContainerFolder()
+				.resolve(JvmTuning.CDS_ARCHIVE);
+		
+		if(isServletContainerRunning())
+			return -1;
+		
+		try {
+			Files.createDirectories(archive.getParent());
+			Files.deleteIfExists(archive);
+			launchServletContainer("start",JvmTuning.CDS_TRAINING+"=1");
+			if(awaitMooshak() < 0 || ! stopServletContainer())
+				return -1;
+			return awaitArchive(archive);
+		} catch (IOException cause) {
+			reportError(cause.getLocalizedMessage());
+			return -1;
+		} catch (InterruptedException cause) {
+			Thread.currentThread().interrupt();
+			return -1;
+		}
+	}
+	
+	/**
+	 * Wait until the archive dumped by an exiting JVM is complete,
+	 * i.e. its size is stable, up to a few seconds
+	 * @param archive	file
+	 * @return size of the archive in bytes, or -1 if none was dumped
+	 * @throws IOException if archive cannot be read
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private long awaitArchive(Path archive) 
+			throws IOException, InterruptedException {
+		long size = -1;
+		
+		for(int retry = 0; retry < ARCHIVE_RETRIES; retry++) {
+			long current = Files.exists(archive) ? Files.size(archive) : -1;
+			
+			if(current > 0 && current == size)
+				return size;
+			size = current;
+			cancellation.check();
+			Thread.sleep(ARCHIVE_DELAY);
+		}
+		return size > 0 ? size : -1;
+	}
+	
+	/**
+	 * Tune the servlet container for a faster startup, 
+	 * recording the tuning in properties
+	 * @return tuning that was applied, or {@code null} if tuning failed
+	 * @see StartupTuning
+	 */
+	public StartupTuning tuneStartup() {
+		StartupTuning tuning = new StartupTuning(getServletContainerFolder(),
+				getWebAppsFolder(),getMooshakWebAppFolder());
+		
+		try {
+			tuning.apply();
+			tuning.record(properties);
+			return tuning;
+		} catch (IOException cause) {
+			reportError(cause.toString());
+			return null;
+		}
+	}
+	
 	/**
 	 * Download remote content to the specified location
 	 * @throws IOException
@@ -595,12 +1445,172 @@ public class Configurator {
 				Files.deleteIfExists(tmp);
 			}
 		} catch (IOException e) {
-			errorHandler.accept(e.toString());
+			reportError(e.toString());
 		}
 
 	}	
 	
+	// asynchronous methods
+	
+	/**
+	 * Download a listing asynchronously
+	 * @see #downloadListing(String, Progressable)
+	 * @param type			installation parameter holding directory URL
+	 * @param progressable	for monitoring download
+	 * @return future with listing
+	 */
+	public CompletableFuture<List<String>> downloadListingAsync(String type,
+			Progressable progressable) {
+		return async(progressable, p -> downloadListing(type,p));
+	}
+	
+	/**
+	 * Download ZIP file from given URL asynchronously
+	 * @see #downloadZipFrom(String, Progressable)
+	 * @param url			of ZIP file
+	 * @param progressable	for monitoring download
+	 * @return future with path to downloaded file
+	 */
+	public CompletableFuture<Path> downloadZipFromAsync(String url,
+			Progressable progressable) {
+		return async(progressable, p -> downloadZipFrom(url,p));
+	}
+	
+	/**
+	 * Expand ZIP file to target directory asynchronously
+	 * @see #expandZip(Path, Path, boolean, Progressable)
+	 * @param zipSource		ZIP file to expand
+	 * @param target		directory where it is expanded
+	 * @param makeTarget	if target is created
+	 * @param progressable	for monitoring expansion
+	 * @return future with target, when expanded
+	 */
+	public CompletableFuture<Path> expandZipAsync(Path zipSource,Path target,
+			boolean makeTarget,Progressable progressable) {
+		return async(progressable, p -> { 
+			expandZip(zipSource,target,makeTarget,p);
+			return target;
+		});
+	}
+	
+	/**
+	 * Check asynchronously if servlet container is running
+	 * @see #isServletContainerRunning()
+	 * @return future with {@code true} if running 
+	 */
+	public CompletableFuture<Boolean> isServletContainerRunningAsync() {
+		return async(new DummyProgressable(), p -> isServletContainerRunning());
+	}
+	
+	/**
+	 * Execute an operation in this configurator's executor. 
+	 * Errors reported by the operation complete the future exceptionally 
+	 * with an {@link InstallerException}. Cancelling the future, or the
+	 * cancellation token of this configurator, stops the operation 
+	 * the next time it reports progress.
+	 * 
+	 * @param progressable	to report progress of operation
+	 * @param operation		consuming a progressable and producing a result 
+	 * @return future with result of operation
+	 */
+	private <T> CompletableFuture<T> async(Progressable progressable,
+			Function<Progressable,T> operation) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		Cancellation token = cancellation;
+		Runnable cancel = () -> future.cancel(false);
+		
+		token.onCancel(cancel);
+		future.whenComplete((result,cause) -> token.removeOnCancel(cancel));
+		getExecutor().execute(() -> {
+			AsyncProgressable progress = 
+					new AsyncProgressable(progressable,future);
+			
+			taskErrorHandler.set(progress::taskError);
+			try {
+				progress.check();
+				T result = operation.apply(progress);
+				
+				if(progress.error == null)
+					future.complete(result);
+				else
+					future.completeExceptionally(
+							new InstallerException(progress.error));
+			} catch(CancellationException cause) {
+				future.cancel(false);
+			} catch(RuntimeException cause) {
+				future.completeExceptionally(
+						new InstallerException(cause.toString(),cause));
+			} finally {
+				taskErrorHandler.remove();
+			}
+		});
+		
+		return future;
+	}
+	
+	/**
+	 * Progressable of an asynchronous operation, delegating on another. 
+	 * Records the first reported error and stops the operation, 
+	 * when it reports progress, if its future was cancelled.
+	 */
+	private static class AsyncProgressable implements Progressable {
+		Progressable progressable;
+		CompletableFuture<?> future;
+		String error = null;
+		
+		AsyncProgressable(Progressable progressable,CompletableFuture<?> future) {
+			this.progressable = progressable;
+			this.future = future;
+		}
+		
+		void check() {
+			if(future.isCancelled())
+				throw new CancellationException();
+		}
+		
+		@Override
+		public void updatable(boolean isUpdatable) {
+			check();
+			progressable.updatable(isUpdatable);
+		}
+
+		@Override
+		public int getMaximum() {
+			return progressable.getMaximum();
+		}
+
+		@Override
+		public void update(int part) {
+			check();
+			progressable.update(part);
+		}
+
+		@Override
+		public synchronized void taskError(String message) {
+			if(error == null)
+				error = message;
+			progressable.taskError(message);
+		}
+	}
+	
 	// Special locations
+	
+	/**
+	 * Get servlet container folder in the file system where
+	 * Mooshak is installed
+	 * @return path to servlet container folder
+	 */
+	public Path getServletContainerFolder() {
+		return resolve(getServletContainerPath());
+	}
+	
+	/**
+	 * Get home folder in the file system where Mooshak is installed
+	 * @return path to home folder
+	 */
+	public Path getHomeFolder() {
+		return resolve(getHomeDirectory());
+	}
 
 	/**
 	 * Get webapps folder of servlet container
@@ -608,7 +1618,7 @@ public class Configurator {
 	 */
 	private Path getWebAppsFolder() {
 		String name = getProperty("container.webapps");
-		return servletContainerPath.resolve(name);
+		return resolve(servletContainerPath).resolve(name);
 	}
 	
 	public Path getMooshakWebAppFolder() {
@@ -0,0 +1,282 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Instances of the servlet container sharing its installation
+ * ({@code CATALINA_HOME}), to spread load over several JVMs in large
+ * machines. The container itself is the first instance; each of the
+ * others has its own {@code CATALINA_BASE}, under the {@code instances}
+ * folder of the container, with a copy of the container configuration
+ * (hence its tuning, JVM settings and class-data sharing archive, if any,
+ * sized for the share of the machine and of the users of each instance)
+ * where all ports are shifted by a multiple of an offset, and its own
+ * deployment of Mooshak's webapp, from the folder of the container.
+ * An upstream snippet for a load balancer (nginx) covers all instances.
+ */
+public class ContainerInstances {
+
+	static final String INSTANCES = "instances";
+	static final String UPSTREAM = "upstream.conf";
+	static final String CONF = "conf";
+	static final String DESCRIPTORS = "conf/Catalina/localhost";
+	static final List<String> FOLDERS =
+			Arrays.asList("bin","conf","logs","temp","webapps","work");
+
+	static final int DEFAULT_OFFSET = 10;
+	static final String DEFAULT_UPSTREAM = "mooshak";
+
+	private Path container;
+	private Path webapp;
+	private String name;
+	private int count;
+	private int offset;
+
+	/**
+	 * Given number of instances of a container, with ports shifted by
+	 * an offset defined by the {@code instances.offset} property
+	 * @param container	folder of servlet container (CATALINA_HOME)
+	 * @param webapp	folder of Mooshak's webapp
+	 * @param count		number of instances, including the container
+	 */
+	public ContainerInstances(Path container,Path webapp,int count) {
+		this(container,webapp,count,
+				Integer.parseInt(Utils.getProperty("instances.offset",
+						Integer.toString(DEFAULT_OFFSET))));
+	}
+
+	/**
+	 * Given number of instances of a container
+	 * @param container	folder of servlet container (CATALINA_HOME)
+	 * @param webapp	folder of Mooshak's webapp
+	 * @param count		number of instances, including the container
+	 * @param offset	between ports of consecutive instances
+	 */
+	public ContainerInstances(Path container,Path webapp,int count,int offset) {
+		this.container = container;
+		this.webapp = webapp;
+		this.name = webapp.getFileName().toString();
+		this.count = Math.max(1,count);
+		this.offset = offset;
+	}
+
+	/**
+	 * Number of instances, including the container
+	 * @return count
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Number of instances of a container with a folder, including the
+	 * container, hence that may be running
+	 * @param container	folder of servlet container (CATALINA_HOME)
+	 * @return count
+	 */
+	public static int countExisting(Path container) {
+		int count = 1;
+
+		while(Files.isDirectory(container.resolve(INSTANCES)
+				.resolve(Integer.toString(count))))
+			count++;
+		return count;
+	}
+
+	/**
+	 * Folder of an instance ({@code CATALINA_BASE})
+	 * @param instance	number, 0 for the container itself
+	 * @return folder
+	 */
+	public Path getBase(int instance) {
+		return instance == 0 ? container :
+			container.resolve(INSTANCES).resolve(Integer.toString(instance));
+	}
+
+	/**
+	 * Port of an instance, shifted from the port of the container
+	 * @param port		of the container
+	 * @param instance	number, 0 for the container itself
+	 * @return port
+	 */
+	public int getPort(int port,int instance) {
+		return port + instance * offset;
+	}
+
+	/**
+	 * URL of an instance, shifted from an URL of the container
+	 * @param url		of the container
+	 * @param instance	number, 0 for the container itself
+	 * @return URL
+	 * @throws MalformedURLException if URL is invalid
+	 */
+	public String getURL(String url,int instance) throws MalformedURLException {
+		URL original = new URL(url);
+		int port = original.getPort() < 0 ?
+				original.getDefaultPort() : original.getPort();
+
+		return new URL(original.getProtocol(),original.getHost(),
+				getPort(port,instance),original.getFile()).toString();
+	}
+
+	/**
+	 * Create (or update) the folders of all instances, besides the
+	 * container, and remove instances beyond the given count
+	 * @throws IOException if an instance cannot be created
+	 */
+	public void create() throws IOException {
+		for(int instance = 1; instance < count; instance++)
+			create(instance);
+
+		for(int instance = count; Files.isDirectory(getBase(instance)); instance++)
+			Utils.deleteTree(getBase(instance));
+	}
+
+	/**
+	 * Create (or update) an instance: copy the configuration and the JVM
+	 * settings of the container, shift its ports and deploy Mooshak
+	 * @param instance	number (greater than 0)
+	 * @throws IOException if instance cannot be created
+	 */
+	void create(int instance) throws IOException {
+		Path base = getBase(instance);
+		Path setenv = container.resolve(JvmTuning.SETENV);
+		Path archive = container.resolve(JvmTuning.CDS_ARCHIVE);
+		Path server = base.resolve(ServerTuning.SERVER_XML);
+		Path descriptor = base.resolve(DESCRIPTORS).resolve(name+".xml");
+
+		for(String folder: FOLDERS)
+			Files.createDirectories(base.resolve(folder));
+
+		try(DirectoryStream<Path> files =
+				Files.newDirectoryStream(container.resolve(CONF))) {
+			for(Path file: files)
+				if(Files.isRegularFile(file) && ! file.toString()
+						.endsWith(ServerTuning.ORIGINAL))
+					Files.copy(file,base.resolve(CONF).resolve(file.getFileName()),
+							REPLACE_EXISTING);
+		}
+		if(Files.exists(setenv))
+			Utils.writeAtomically(base.resolve(JvmTuning.SETENV),"rwxr-xr-x",
+					out -> Files.copy(setenv,out));
+		if(Files.exists(archive)) {
+			Files.createDirectories(base.resolve(JvmTuning.CDS_ARCHIVE).getParent());
+			Files.copy(archive,base.resolve(JvmTuning.CDS_ARCHIVE),REPLACE_EXISTING);
+		}
+
+		if(Files.exists(server)) {
+			Document document = ServerTuning.read(server);
+
+			shift(document,instance);
+			ServerTuning.write(document,server);
+		}
+
+		Files.createDirectories(descriptor.getParent());
+		Files.write(descriptor,Arrays.asList(
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+				"<Context docBase=\""+webapp.toAbsolutePath()+"\"/>"),
+				StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Shift the ports of the server (shutdown port) and its connectors
+	 * (ports and redirect ports) for given instance
+	 * @param document	of server.xml
+	 * @param instance	number
+	 */
+	void shift(Document document,int instance) {
+		Element server = document.getDocumentElement();
+		NodeList connectors = document.getElementsByTagName("Connector");
+
+		shift(server,"port",instance);
+		for(int i = 0; i < connectors.getLength(); i++) {
+			Element connector = (Element) connectors.item(i);
+
+			shift(connector,"port",instance);
+			shift(connector,"redirectPort",instance);
+		}
+	}
+
+	private void shift(Element element,String attribute,int instance) {
+		String value = element.getAttribute(attribute);
+
+		if(value.matches("\\d+") && Integer.parseInt(value) > 0)
+			element.setAttribute(attribute,
+					Integer.toString(getPort(Integer.parseInt(value),instance)));
+	}
+
+	/**
+	 * Upstream snippet for nginx with all instances, whose port is
+	 * shifted from the port of given URL of the container. Sessions
+	 * of Mooshak are kept in each instance, hence clients stick to
+	 * an instance (by IP address).
+	 * @param url	of the container
+	 * @return lines of snippet
+	 * @throws MalformedURLException if URL is invalid
+	 */
+	public List<String> upstream(String url) throws MalformedURLException {
+		List<String> lines = new ArrayList<>();
+		String upstream = Utils.getProperty("instances.upstream",DEFAULT_UPSTREAM);
+
+		lines.add("# Mooshak servlet container instances, generated by the installer");
+		lines.add("# include in the http block and proxy to it, e.g.");
+		lines.add("#   location /"+name+"/ { proxy_pass http://"+upstream+"; }");
+		lines.add("upstream "+upstream+" {");
+		lines.add("    ip_hash;");
+		for(int instance = 0; instance < count; instance++) {
+			URL shifted = new URL(getURL(url,instance));
+
+			lines.add("    server "+shifted.getHost()+":"+shifted.getPort()+";");
+		}
+		lines.add("}");
+
+		return lines;
+	}
+
+	/**
+	 * File of the upstream snippet, in the {@code instances} folder
+	 * @return file of snippet
+	 */
+	public Path getUpstream() {
+		return container.resolve(INSTANCES).resolve(UPSTREAM);
+	}
+
+	/**
+	 * Write the upstream snippet to the {@code instances} folder
+	 * @param url	of the container
+	 * @return file of snippet
+	 * @throws IOException if snippet cannot be written
+	 */
+	public Path writeUpstream(String url) throws IOException {
+		Path file = getUpstream();
+
+		Files.createDirectories(file.getParent());
+		Files.write(file,upstream(url),StandardCharsets.UTF_8);
+		return file;
+	}
+
+	/**
+	 * Record the instances in installation properties
+	 * @param properties	of installation
+	 */
+	public void record(Properties properties) {
+		properties.setProperty("containerInstances",String.format(
+				"%d instances, ports shifted by %d",count,offset));
+	}
+}
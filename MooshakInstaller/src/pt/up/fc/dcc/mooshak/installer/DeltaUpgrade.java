@@ -0,0 +1,185 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+import pt.up.fc.dcc.mooshak.installer.RemoteZip.Entry;
+
+/**
+ * Upgrade of an installed webapp to a new WAR by fetching only the
+ * entries that changed. The entries of the remote WAR are compared with
+ * the files of the installed webapp by size and CRC, and only those that
+ * differ (or are missing) are read from the remote WAR, coalescing nearby
+ * entries in the same range request. Files of the webapp that are not
+ * in the new WAR are kept, as in a full expansion. Jars moved to the
+ * shared loader of the container are installed if their shared copy is
+ * unchanged.
+ * @see SharedLibraries
+ */
+public class DeltaUpgrade {
+
+	private static final long MAX_GAP = 1L<<16;
+	private static final long MAX_RANGE = 1L<<24;
+
+	private RemoteZip war;
+	private Path webapp;
+	private Path shared;
+	private List<Entry> changed = new ArrayList<>();
+	private long total = 0;
+	private long fetched = 0;
+	private long expanded = 0;
+
+	/**
+	 * Compare remote WAR with installed webapp
+	 * @param war		remote WAR, with central directory
+	 * @param webapp	installed webapp folder
+	 * @throws IOException if webapp cannot be read
+	 * @throws ZipException if an entry is outside the webapp
+	 */
+	public DeltaUpgrade(RemoteZip war,Path webapp) throws IOException {
+		this(war,webapp,null);
+	}
+
+	/**
+	 * Compare remote WAR with installed webapp, whose jars may have been
+	 * moved to a shared folder of the container
+	 * @param war		remote WAR, with central directory
+	 * @param webapp	installed webapp folder
+	 * @param shared	folder of shared jars, or {@code null} if none
+	 * @throws IOException if webapp cannot be read
+	 * @throws ZipException if an entry is outside the webapp
+	 */
+	public DeltaUpgrade(RemoteZip war,Path webapp,Path shared) 
+			throws IOException {
+		this.war = war;
+		this.webapp = webapp;
+		this.shared = shared;
+
+		for(Entry entry: war.getEntries()) {
+			total += entry.getCompressedSize();
+			if(! entry.isDirectory() && ! isUnchanged(entry)) {
+				changed.add(entry);
+				fetched += entry.getCompressedSize();
+				expanded += entry.getSize();
+			}
+		}
+	}
+
+	/**
+	 * Checks if the installed file of an entry has the same size and CRC
+	 * @param entry	of remote WAR
+	 * @return {@code true} if file is unchanged; {@code false} otherwise
+	 * @throws IOException if file cannot be read
+	 */
+	private boolean isUnchanged(Entry entry) throws IOException {
+		Path file = Utils.resolveEntry(webapp, entry.getName());
+
+		if(shared != null && ! Files.exists(file) && file.getParent()
+				.equals(webapp.normalize().resolve(StartupTuning.LIB)))
+			file = shared.resolve(file.getFileName());
+
+		if(! Files.isRegularFile(file) || Files.size(file) != entry.getSize())
+			return false;
+
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[1<<16];
+
+		try(InputStream in = Files.newInputStream(file)) {
+			int len;
+			while((len = in.read(buffer)) > 0)
+				crc.update(buffer, 0, len);
+		}
+		return crc.getValue() == entry.getCrc();
+	}
+
+	/**
+	 * Entries that changed, hence must be fetched
+	 * @return list of entries
+	 */
+	public List<Entry> getChanged() {
+		return Collections.unmodifiableList(changed);
+	}
+
+	/**
+	 * Number of entries (excluding directories) in the remote WAR
+	 * @return count
+	 */
+	public int getEntryCount() {
+		int count = 0;
+
+		for(Entry entry: war.getEntries())
+			if(! entry.isDirectory())
+				count++;
+		return count;
+	}
+
+	/**
+	 * Compressed size of the changed entries, i.e. the bytes to fetch
+	 * @return number of bytes
+	 */
+	public long getFetchSize() {
+		return fetched;
+	}
+
+	/**
+	 * Uncompressed size of the changed entries, i.e. the bytes written
+	 * @return number of bytes
+	 */
+	public long getChangedSize() {
+		return expanded;
+	}
+
+	/**
+	 * Compressed size of all entries, i.e. the bytes of a full download
+	 * @return number of bytes
+	 */
+	public long getFullSize() {
+		return total;
+	}
+
+	/**
+	 * Fetch changed entries into a staging folder, to be moved into
+	 * the webapp when complete
+	 * @param staging		folder where changed entries are written
+	 * @param progressable	to report progress, in fetched bytes
+	 * @param cancellation	checked after each entry
+	 * @throws IOException if entries cannot be fetched or written
+	 * @throws CancellationException if cancelled
+	 */
+	public void fetch(Path staging,Progressable progressable,
+			Cancellation cancellation) throws IOException {
+		int parts = progressable.getMaximum();
+		AtomicLong done = new AtomicLong();
+
+		progressable.updatable(fetched > 0);
+		war.read(changed, MAX_GAP, MAX_RANGE, (entry,content) -> {
+			Path file = Utils.resolveEntry(staging, entry.getName());
+
+			cancellation.check();
+			Files.createDirectories(file.getParent());
+			Files.write(file, content);
+			progressable.update((int) (done.addAndGet(
+					entry.getCompressedSize()) * parts / fetched));
+		});
+		progressable.update(parts);
+	}
+
+	/**
+	 * Summary of this upgrade, for reporting
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d of %d files changed, fetching %d KB of %d KB",
+				changed.size(), getEntryCount(), fetched >> 10, total >> 10);
+	}
+}
@@ -111,6 +111,72 @@ public interface Driver {
 	 */
 	void askPath(String promptText, Path defaultPath,Consumer<Path> consumer);
 	
+	/**
+	 * Ask a question answerable with a boolean, identified by a key
+	 * that does not change when its text is reworded (e.g. to take 
+	 * answers from a file). By default the key is ignored.
+	 * 
+	 * @param key			stable identifier of question
+	 * @param promptText	text asking for a boolean
+	 * @param defaultValue	default or initial value
+	 * @param consumer		method that consumes collected value
+	 */
+	default void askBoolean(String key, String promptText, 
+			boolean defaultValue, Consumer<Boolean> consumer) {
+		askBoolean(promptText, defaultValue, consumer);
+	}
+	
+	/**
+	 * Ask a question answerable with a string, identified by a key
+	 * 
+	 * @param key			stable identifier of question
+	 * @param promptText	text asking for a string
+	 * @param defaultValue	default or initial value
+	 * @param consumer		method that consumes collected value
+	 * @see #askBoolean(String, String, boolean, Consumer)
+	 */
+	default void askString(String key, String promptText, 
+			String defaultValue, Consumer<String> consumer) {
+		askString(promptText, defaultValue, consumer);
+	}
+	
+	/**
+	 * Select a string from a list, identified by a key
+	 * 
+	 * @param key			stable identifier of question
+	 * @param promptText	text asking for a string
+	 * @param values		list of values for selection
+	 * @param defaultValue	default or initial value
+	 * @param consumer		method that consumes collected value
+	 * @see #askBoolean(String, String, boolean, Consumer)
+	 */
+	default void askList(String key, String promptText, List<String> values, 
+			String defaultValue, Consumer<String> consumer) {
+		askList(promptText, values, defaultValue, consumer);
+	}
+	
+	/**
+	 * Ask a question answerable with a path, identified by a key
+	 * 
+	 * @param key			stable identifier of question
+	 * @param promptText	text asking for a path
+	 * @param defaultPath	default path
+	 * @param consumer		method that consumes collected value
+	 * @see #askBoolean(String, String, boolean, Consumer)
+	 */
+	default void askPath(String key, String promptText, Path defaultPath,
+			Consumer<Path> consumer) {
+		askPath(promptText, defaultPath, consumer);
+	}
+	
+	/**
+	 * Runnable to execute when the user requests to abort installation.
+	 * If no handler is set, aborting terminates the installer.
+	 * 
+	 * @param handler of abort requests
+	 */
+	void setAbortHandler(Runnable handler);
+	
 	/**
 	 * Show a progress bar associated with a given task.
 	 * The consumer receives an object that knows of to display progress
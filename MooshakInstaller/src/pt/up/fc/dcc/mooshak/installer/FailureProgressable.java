@@ -0,0 +1,73 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * Progressable forwarding progress to another one, if any, while
+ * recording the error of a task. Errors are forwarded only if requested,
+ * since a failed download may not be an installation error
+ * (e.g. it is thrown, or the artifact is downloaded elsewhere).
+ */
+class FailureProgressable implements Progressable {
+	private final Progressable progressable;
+	private final boolean forwardingErrors;
+	private volatile String error = null;
+
+	/**
+	 * Progressable recording errors without forwarding them
+	 * @param progressable	to forward progress ({@code null} if none)
+	 */
+	FailureProgressable(Progressable progressable) {
+		this(progressable,false);
+	}
+
+	/**
+	 * Progressable recording errors and forwarding them, if requested
+	 * @param progressable		to forward progress ({@code null} if none)
+	 * @param forwardingErrors	if errors are also forwarded
+	 */
+	FailureProgressable(Progressable progressable,boolean forwardingErrors) {
+		this.progressable = progressable;
+		this.forwardingErrors = forwardingErrors;
+	}
+
+	/**
+	 * Checks if a task failed
+	 * @return {@code true} if an error was reported; {@code false} otherwise
+	 */
+	boolean hasFailed() {
+		return error != null;
+	}
+
+	/**
+	 * Last error reported
+	 * @return message or {@code null} if none
+	 */
+	String getError() {
+		return error;
+	}
+
+	@Override
+	public void updatable(boolean isUpdatable) {
+		if(progressable != null)
+			progressable.updatable(isUpdatable);
+	}
+
+	@Override
+	public int getMaximum() {
+		return progressable == null ? 1 : progressable.getMaximum();
+	}
+
+	@Override
+	public void update(int part) {
+		if(progressable != null)
+			progressable.update(part);
+	}
+
+	@Override
+	public void taskError(String message) {
+		error = message;
+		if(forwardingErrors && progressable != null)
+			progressable.taskError(message);
+	}
+}
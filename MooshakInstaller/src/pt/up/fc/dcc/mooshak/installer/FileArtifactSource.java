@@ -0,0 +1,110 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * Artifacts read from the local file system, given by {@code file://} URLs.
+ * Artifacts are copied with {@link FileChannel#transferTo}, hence the
+ * copy is made by the operating system (without passing the content
+ * through the JVM) in chunks, checking for cancellation between them.
+ * Listings are the sub-directories of a directory.
+ */
+public class FileArtifactSource implements ArtifactSource {
+
+	private static final long CHUNK_SIZE = 1L<<23;
+
+	@Override
+	public Path fetch(String url,Progressable progressable,
+			Cancellation cancellation) throws IOException {
+		return copy(toPath(url),progressable,cancellation);
+	}
+
+	@Override
+	public List<String> list(String url) throws IOException {
+		return list(toPath(url));
+	}
+
+	@Override
+	public RangeReader ranges(String url) throws IOException {
+		return new FileRangeReader(toPath(url));
+	}
+
+	/**
+	 * Path in local file system of given URL
+	 * @param url	of artifact
+	 * @return path
+	 * @throws IOException if URL is not a file URL
+	 */
+	protected Path toPath(String url) throws IOException {
+		try {
+			return Paths.get(new URI(url));
+		} catch(URISyntaxException | IllegalArgumentException cause) {
+			throw new IOException("Not a file URL: "+url);
+		}
+	}
+
+	/**
+	 * Copy a local file to a temporary file, reporting progress
+	 * @param file			to copy
+	 * @param progressable	to report progress
+	 * @param cancellation	checked after each chunk
+	 * @return temporary file
+	 * @throws IOException
+	 * @throws CancellationException if cancelled
+	 */
+	protected Path copy(Path file,Progressable progressable,
+			Cancellation cancellation) throws IOException {
+		Path tmp = Files.createTempFile("mooshak", ".zip");
+		int parts = progressable.getMaximum();
+
+		try(FileChannel in  = FileChannel.open(file,READ);
+			FileChannel out = FileChannel.open(tmp,WRITE)) {
+			long size = in.size();
+			long position = 0;
+
+			progressable.updatable(size > 0);
+			while(position < size) {
+				cancellation.check();
+				position += in.transferTo(position,
+						Math.min(CHUNK_SIZE,size-position), out);
+				progressable.update((int) (position * parts / size));
+			}
+			progressable.update(parts);
+		} catch(IOException | CancellationException cause) {
+			Files.deleteIfExists(tmp);
+			throw cause;
+		}
+		return tmp;
+	}
+
+	/**
+	 * Names of sub-directories of given directory, sorted
+	 * @param directory	to list
+	 * @return list of names
+	 * @throws IOException
+	 */
+	protected List<String> list(Path directory) throws IOException {
+		try(Stream<Path> paths = Files.list(directory)) {
+			return paths
+					.filter(Files::isDirectory)
+					.map(path -> path.getFileName().toString())
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+}
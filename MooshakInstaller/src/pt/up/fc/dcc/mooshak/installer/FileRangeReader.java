@@ -0,0 +1,45 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Ranges of a local file, read with positional reads
+ */
+public class FileRangeReader implements RangeReader {
+
+	private Path file;
+
+	/**
+	 * Reader of given file
+	 * @param file	to read
+	 */
+	public FileRangeReader(Path file) {
+		this.file = file;
+	}
+
+	@Override
+	public long size() throws IOException {
+		try(FileChannel channel = FileChannel.open(file,READ)) {
+			return channel.size();
+		}
+	}
+
+	@Override
+	public byte[] read(long offset,int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+
+		try(FileChannel channel = FileChannel.open(file,READ)) {
+			while(buffer.hasRemaining())
+				if(channel.read(buffer, offset+buffer.position()) < 0)
+					throw new EOFException(file+" shorter than "+
+							(offset+length)+" bytes");
+		}
+		return buffer.array();
+	}
+}
@@ -10,12 +10,17 @@ import java.awt.Font;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -30,7 +35,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JTextArea;
-import javax.swing.SwingWorker;
+import javax.swing.SwingUtilities;
 import javax.swing.border.Border;
 
 
@@ -62,8 +67,16 @@ public class GUIDriver implements Driver {
 	
 	private static int PROGRESS_MAXIMUM = 100;
 	
-	private Set<Runnable> actions = new HashSet<>();
-	private Runnable continuation;
+	private static final int SHUTDOWN_TIMEOUT		=   5; // seconds
+	
+	private List<Runnable> actions = new CopyOnWriteArrayList<>();
+	private volatile Runnable continuation;
+	private volatile int panel = 0;
+	private Runnable abortHandler = null;
+	
+	// executes actions, continuations and tasks with progress 
+	private ExecutorService executor = 
+			InstallerExecutors.newExecutor("installer-gui-");
 	
 	// widgets accessed by several methods
 	private JPanel currentPanel = makePanel();
@@ -87,11 +100,13 @@ public class GUIDriver implements Driver {
 	public void conclude() {
 		proceed.setEnabled(false);
 		finish.setEnabled(true);
+		executor.shutdown();
 	}
 	
 	@Override
 	public void startPanel(int part) {
 
+		panel = part;
 		globalProgress.setValue(part);
 		
 		currentPanel.removeAll();
@@ -258,12 +273,16 @@ public class GUIDriver implements Driver {
 		
 		@Override
 		public void updatable(boolean isUpdating) {
-			progressBar.setIndeterminate(! isUpdating);
+			SwingUtilities.invokeLater(() -> {
+				progressBar.setIndeterminate(! isUpdating);
+			});
 		}
 		
 		@Override
 		public void update(int progress) {
-			progressBar.setValue(progress);
+			SwingUtilities.invokeLater(() -> {
+				progressBar.setValue(progress);
+			});
 		}
 
 		@Override
@@ -278,6 +297,11 @@ public class GUIDriver implements Driver {
 	}
 	
 	
+	@Override
+	public void setAbortHandler(Runnable handler) {
+		abortHandler = handler;
+	}
+	
 	@Override
 	public void showProgress(Consumer<Progressable> consumer) {
 	
@@ -291,15 +315,9 @@ public class GUIDriver implements Driver {
 		currentPanel.revalidate();
 		currentPanel.repaint();
 		
-		new SwingWorker<Void,Void>() {
-
-			@Override
-			protected Void doInBackground() throws Exception {
-				consumer.accept(new SwingProgress(progress));
-				return null;
-			}
-			
-		}.execute();
+		executor.execute(named("progress", () -> { 
+			consumer.accept(new SwingProgress(progress));
+		}));
 	}
 	
 	
@@ -402,12 +420,22 @@ public class GUIDriver implements Driver {
         			"Exit confirmation",
         			JOptionPane.YES_NO_OPTION)) {
         	case JOptionPane.YES_OPTION:
-        		System.exit(0);
+        		abort.setEnabled(false);
+        		if(abortHandler == null) {
+        			executor.shutdownNow();
+        			System.exit(0);
+        		} else
+        			executor.execute(named("abort",abortHandler));
         		break;
         	}
         	
         });
-        finish.addActionListener(e -> { System.exit(0); });
+        finish.addActionListener(e -> { 
+        	// waiting for running tasks must not block the event dispatch thread
+        	finish.setEnabled(false);
+        	new Thread(() -> { shutdown(); System.exit(0); },
+        			"installer-finish").start();
+        });
         
         finish.setEnabled(false);
         
@@ -415,20 +443,87 @@ public class GUIDriver implements Driver {
 	}
 	
 	/**
-	 * Go to next panel, as defined in continuation
+	 * Go to next panel, as defined in continuation.
+	 * Actions collecting the answers of this panel are executed 
+	 * concurrently and the continuation is executed after all of them
+	 * are completed, without blocking the event dispatch thread.
+	 * Failures are reported in the event dispatch thread.
 	 */
 	private void proceed() {
-		actions.forEach(r -> { 
-			Thread thread = new Thread(r);
-			thread.start();
+		List<Runnable> named = new ArrayList<>();
+		
+		proceed.setEnabled(false);
+		for(Runnable action: actions)
+			named.add(named("action",action));
+		
+		proceed(named,() -> named("continuation",continuation),executor)
+			.whenComplete((result,cause) -> {
+				if(cause != null)
+					SwingUtilities.invokeLater(() -> {
+						error((cause.getCause() == null ? 
+								cause : cause.getCause()).toString());
+						proceed.setEnabled(true);
+					});
+			});
+	}
+	
+	/**
+	 * Execute actions concurrently and then a continuation, obtained
+	 * only after all actions completed, since actions may select it 
+	 * (with {@link #nextPanel(Runnable)}). If an action fails the 
+	 * continuation is not executed.
+	 * @param actions		to execute concurrently
+	 * @param continuation	supplier of continuation
+	 * @param executor		of actions and continuation
+	 * @return future completed after the continuation
+	 */
+	static CompletableFuture<Void> proceed(List<Runnable> actions,
+			Supplier<Runnable> continuation,Executor executor) {
+		List<CompletableFuture<Void>> pending = new ArrayList<>();
+		
+		for(Runnable action: actions) 
+			pending.add(CompletableFuture.runAsync(action,executor));
+		
+		return CompletableFuture
+			.allOf(pending.toArray(new CompletableFuture<?>[0]))
+			.thenRunAsync(() -> continuation.get().run(),executor);
+	}
+	
+	/**
+	 * Wrap a runnable to execute in a thread named after the current 
+	 * panel and the given role, for diagnostics
+	 * @param role		of runnable in panel 
+	 * @param runnable	to wrap
+	 * @return wrapped runnable
+	 */
+	private Runnable named(String role,Runnable runnable) {
+		String name = "installer-panel-"+panel+"-"+role;
+		
+		return () -> {
+			Thread thread = Thread.currentThread();
+			String previous = thread.getName();
+			
+			thread.setName(name);
 			try {
-				thread.join();
-			} catch (Exception e) {
-				e.printStackTrace();
+				runnable.run();
+			} finally {
+				thread.setName(previous);
 			}
-			} 
-		);
-		new Thread(continuation).start();
+		};
+	}
+	
+	/**
+	 * Orderly shutdown of executor, waiting a few seconds 
+	 * for running tasks to complete
+	 */
+	private void shutdown() {
+		executor.shutdown();
+		try {
+			if(! executor.awaitTermination(SHUTDOWN_TIMEOUT,TimeUnit.SECONDS))
+				executor.shutdownNow();
+		} catch (InterruptedException cause) {
+			executor.shutdownNow();
+		}
 	}
 
 }
@@ -0,0 +1,328 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Driver for unattended installations. Answers are never read from
+ * standard input; they are taken from environment variables or from a
+ * property file and, if missing, the default value of each question
+ * is used. Progress is written to standard output as machine readable
+ * lines, each with an event name and its fields separated by tabs.
+ * <pre>
+ *	panel	part	maximum
+ *	say		message
+ *	error	message
+ *	answer	key		value
+ *	progress	part	maximum
+ *	conclude	errors
+ * </pre>
+ * Each question is identified by a stable key given by the installer,
+ * as lower case words separated by dots, e.g. {@code select.version},
+ * {@code install.a.new.servlet.container},
+ * {@code enter.servlet.container.path}, {@code start.servlet.container},
+ * {@code install.another.home.directory} or
+ * {@code enter.home.directory.path}. The corresponding environment
+ * variable is in upper case, with underscores and prefixed by
+ * {@code MOOSHAK_}, e.g. {@code MOOSHAK_SELECT_VERSION}, and takes
+ * precedence over the property file. Questions asked without a key
+ * have a key derived from their text. An answer that cannot be parsed
+ * aborts the installation with an error.
+ */
+public class HeadlessDriver implements Driver {
+
+	private static final String ENVIRONMENT_PREFIX = "MOOSHAK_";
+	private static final int MAXIMUM = 100;
+	private static final char SEPARATOR = '\t';
+
+	private Properties answers;
+	private Map<String,String> environment;
+	private PrintStream out;
+	private int maximum;
+	private int errors = 0;
+
+	/**
+	 * Headless driver with answers from environment variables only,
+	 * reporting to standard output
+	 */
+	public HeadlessDriver() {
+		this(new Properties(), System.getenv(), System.out);
+	}
+
+	/**
+	 * Headless driver with answers from given property file and
+	 * environment variables, reporting to standard output
+	 * @param answerFile	property file with answers
+	 * @throws IOException	if file cannot be read
+	 */
+	public HeadlessDriver(Path answerFile) throws IOException {
+		this(load(answerFile), System.getenv(), System.out);
+	}
+
+	/**
+	 * Headless driver with given answers, reporting to given stream
+	 * @param answers		properties with answers
+	 * @param environment	variables with answers (overriding properties)
+	 * @param out			stream where progress is reported
+	 */
+	public HeadlessDriver(Properties answers,Map<String,String> environment,
+			PrintStream out) {
+		this.answers = answers;
+		this.environment = environment;
+		this.out = out;
+	}
+
+	private static Properties load(Path answerFile) throws IOException {
+		Properties answers = new Properties();
+
+		try(InputStream stream = Files.newInputStream(answerFile)) {
+			answers.load(stream);
+		}
+		return answers;
+	}
+
+	@Override
+	public void init(int maximum) {
+		this.maximum = maximum;
+	}
+
+	@Override
+	public void conclude() {
+		emit("conclude",String.valueOf(errors));
+	}
+
+	@Override
+	public void startPanel(int part) {
+		emit("panel",String.valueOf(part),String.valueOf(maximum));
+	}
+
+	@Override
+	public void endPanel(Runnable continuation) {
+		continuation.run();
+	}
+
+	@Override
+	public void endPanel() {}
+
+	@Override
+	public void nextPanel(Runnable continuation) {
+		continuation.run();
+	}
+
+	@Override
+	public void goPanel(Runnable continuation) {
+		continuation.run();
+	}
+
+	@Override
+	public void say(String message) {
+		emit("say",message);
+	}
+
+	@Override
+	public synchronized void error(String message) {
+		errors++;
+		emit("error",message);
+	}
+
+	@Override
+	public void askBoolean(String promptText, boolean defaultValue,
+			Consumer<Boolean> consumer) {
+		askBoolean(keyOf(promptText), promptText, defaultValue, consumer);
+	}
+
+	@Override
+	public void askBoolean(String key, String promptText,
+			boolean defaultValue, Consumer<Boolean> consumer) {
+		answer(key, defaultValue, value -> {
+			switch(value.trim().toLowerCase()) {
+			case "y":
+			case "yes":
+			case "true":
+				return true;
+			case "n":
+			case "no":
+			case "false":
+				return false;
+			default:
+				throw new IllegalArgumentException("yes or no? "+value);
+			}
+		}, consumer);
+	}
+
+	@Override
+	public void askString(String promptText, String defaultValue,
+			Consumer<String> consumer) {
+		askString(keyOf(promptText), promptText, defaultValue, consumer);
+	}
+
+	@Override
+	public void askString(String key, String promptText,
+			String defaultValue, Consumer<String> consumer) {
+		answer(key, defaultValue, x -> x, consumer);
+	}
+
+	@Override
+	public void askList(String promptText, List<String> values,
+			String defaultValue, Consumer<String> consumer) {
+		askList(keyOf(promptText), promptText, values, defaultValue, consumer);
+	}
+
+	@Override
+	public void askList(String key, String promptText, List<String> values,
+			String defaultValue, Consumer<String> consumer) {
+		answer(key, defaultValue, value -> {
+			if(values.contains(value))
+				return value;
+			else
+				throw new IllegalArgumentException("not in "+values+": "+value);
+		}, consumer);
+	}
+
+	@Override
+	public void askPath(String promptText, Path defaultPath,
+			Consumer<Path> consumer) {
+		askPath(keyOf(promptText), promptText, defaultPath, consumer);
+	}
+
+	@Override
+	public void askPath(String key, String promptText, Path defaultPath,
+			Consumer<Path> consumer) {
+		answer(key, defaultPath, Paths::get, consumer);
+	}
+
+	/**
+	 * Answer a question with the value from environment or property file,
+	 * or with its default value if none is available. An answer that 
+	 * cannot be parsed aborts the installation, rather than silently 
+	 * installing something else (e.g. the latest version).
+	 * @param key			of question
+	 * @param defaultValue	of question
+	 * @param parser		of textual answer
+	 * @param consumer		of answer
+	 * @throws IllegalArgumentException if the answer is invalid
+	 */
+	private <T> void answer(String key, T defaultValue,
+			Function<String,T> parser, Consumer<T> consumer) {
+		String text = environment.get(variableOf(key));
+		T value = defaultValue;
+
+		if(text == null)
+			text = answers.getProperty(key);
+
+		if(text != null)
+			try {
+				value = parser.apply(text);
+			} catch(RuntimeException cause) {
+				throw new IllegalArgumentException("Invalid answer to "+key+
+						": "+cause.getMessage(),cause);
+			}
+
+		emit("answer",key,String.valueOf(value));
+		consumer.accept(value);
+	}
+
+	/**
+	 * Key of answer to given prompt, for questions asked without a key:
+	 * its words in lower case, separated by dots 
+	 * (e.g. "Start servlet container?" is start.servlet.container)
+	 * @param promptText	of question
+	 * @return key
+	 */
+	public static String keyOf(String promptText) {
+		return promptText
+				.toLowerCase()
+				.replaceAll("[^a-z0-9]+",".")
+				.replaceAll("^\\.|\\.$","");
+	}
+
+	/**
+	 * Environment variable with answer for given key
+	 * (e.g. MOOSHAK_START_SERVLET_CONTAINER)
+	 * @param key of answer
+	 * @return name of environment variable
+	 */
+	public static String variableOf(String key) {
+		return ENVIRONMENT_PREFIX+key.toUpperCase().replace('.','_');
+	}
+
+	@Override
+	public void setAbortHandler(Runnable handler) {
+		// no interaction, hence no abort command
+	}
+
+	/**
+	 * Progress reported as a line each time its percentage changes
+	 */
+	class LineProgress implements Progressable {
+		int part = -1;
+
+		@Override
+		public void updatable(boolean isUpdatable) {
+			if(! isUpdatable)
+				emit("progress","?",String.valueOf(MAXIMUM));
+		}
+
+		@Override
+		public int getMaximum() {
+			return MAXIMUM;
+		}
+
+		@Override
+		public synchronized void update(int part) {
+			if(part != this.part)
+				emit("progress",String.valueOf(this.part = part),
+						String.valueOf(MAXIMUM));
+		}
+
+		@Override
+		public void taskError(String message) {
+			error(message);
+		}
+	}
+
+	@Override
+	public void showProgress(Consumer<Progressable> consumer) {
+		consumer.accept(new LineProgress());
+	}
+
+	/**
+	 * Number of errors reported so far
+	 * @return errors
+	 */
+	public int getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Write an event as a single line, with fields separated by tabs.
+	 * Line breaks and tabs in fields are escaped.
+	 * @param event		name
+	 * @param fields	of event
+	 */
+	private void emit(String event,String... fields) {
+		StringBuilder line = new StringBuilder(event);
+
+		for(String field: fields) {
+			line.append(SEPARATOR);
+			line.append(field
+					.replace("\\","\\\\")
+					.replace("\t","\\t")
+					.replace("\n","\\n"));
+		}
+
+		synchronized(out) {
+			out.println(line);
+			out.flush();
+		}
+	}
+}
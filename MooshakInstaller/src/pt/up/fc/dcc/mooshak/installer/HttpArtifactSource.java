@@ -0,0 +1,44 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * Artifacts downloaded with HTTP(S). Listings are HTML directory indexes
+ * generated by an Apache server.
+ */
+public class HttpArtifactSource implements ArtifactSource {
+
+	@Override
+	public Path fetch(String url,Progressable progressable,
+			Cancellation cancellation) throws IOException {
+		FailureProgressable failure = new FailureProgressable(progressable);
+		Path path = Utils.dowloadFrom(url, ".zip", failure, cancellation);
+
+		if(failure.hasFailed()) {
+			if(path != null)
+				Files.deleteIfExists(path);
+			throw new IOException(failure.getError());
+		}
+		return path;
+	}
+
+	@Override
+	public List<String> list(String url) throws IOException {
+		FailureProgressable failure = new FailureProgressable(null);
+		Path path = Utils.dowloadFrom(url, ".html", failure);
+
+		try {
+			if(failure.hasFailed())
+				throw new IOException(failure.getError());
+			return Utils.parseListing(path);
+		} finally {
+			if(path != null)
+				Files.deleteIfExists(path);
+		}
+	}
+}
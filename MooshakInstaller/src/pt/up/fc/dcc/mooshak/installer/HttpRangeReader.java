@@ -0,0 +1,90 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Ranges of a remote file, read with HTTP Range requests.
+ * The server must support byte ranges (status 206); a server ignoring
+ * the Range header is detected and reported as an error, rather than
+ * downloading the whole file.
+ */
+public class HttpRangeReader implements RangeReader {
+
+	private static final int TIMEOUT = 30*1000;
+
+	private String url;
+	private long size = -1;
+
+	/**
+	 * Reader of file with given URL
+	 * @param url	of file
+	 */
+	public HttpRangeReader(String url) {
+		this.url = url;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		if(size < 0) {
+			HttpURLConnection connection = open();
+
+			try {
+				connection.setRequestMethod("HEAD");
+				check(connection,HttpURLConnection.HTTP_OK);
+				size = connection.getContentLengthLong();
+				if(size < 0)
+					throw new IOException("Unknown size of "+url);
+			} finally {
+				connection.disconnect();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public byte[] read(long offset,int length) throws IOException {
+		HttpURLConnection connection = open();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(length);
+		byte[] buffer = new byte[1<<12];
+
+		connection.setRequestProperty("Range",
+				"bytes="+offset+"-"+(offset+length-1));
+		try {
+			check(connection,HttpURLConnection.HTTP_PARTIAL);
+			try(InputStream in = connection.getInputStream()) {
+				int len;
+				while(bytes.size() < length && (len = in.read(buffer,0,
+						Math.min(buffer.length,length-bytes.size()))) > 0)
+					bytes.write(buffer, 0, len);
+			}
+		} finally {
+			connection.disconnect();
+		}
+
+		if(bytes.size() < length)
+			throw new IOException("Incomplete range of "+url);
+		return bytes.toByteArray();
+	}
+
+	private HttpURLConnection open() throws IOException {
+		HttpURLConnection connection =
+				(HttpURLConnection) new URL(url).openConnection();
+
+		connection.setConnectTimeout(TIMEOUT);
+		connection.setReadTimeout(TIMEOUT);
+		return connection;
+	}
+
+	private void check(HttpURLConnection connection,int expected)
+			throws IOException {
+		int code = connection.getResponseCode();
+
+		if(code != expected)
+			throw new IOException(url+": "+code+" "+
+					connection.getResponseMessage());
+	}
+}
@@ -0,0 +1,376 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * Lazy expansion of a ZIP file (e.g. default data) into a directory
+ * that is already in use. A skeleton of the ZIP file, with all its
+ * directories, is expanded first, as usual, and the remaining entries
+ * are then hydrated in background, by a low priority thread whose 
+ * output is limited to a given rate.
+ * Entries are hydrated in name order, except those in directories
+ * touched in the meantime (i.e. where files were created, modified or
+ * deleted) that are hydrated first. Hydrated files are atomically moved
+ * into place and never replace existing files, that may have been
+ * created after the skeleton was expanded.
+ */
+public class Hydrator implements Closeable {
+
+	private static final int POLL_TIME = 200;
+	private static final int BUFFER_SIZE = 1<<16;
+	private static final String PART = ".hydrating";
+
+	private ZipFile zipFile;
+	private Path target;
+	private ZipFilter skeleton;
+	private NavigableMap<String,ZipEntry> pending = new TreeMap<>();
+	private Deque<String> touched = new LinkedList<>();
+	private Map<WatchKey,String> watched = new HashMap<>();
+	private Set<String> hydratedNames = new HashSet<>();
+	private WatchService watcher = null;
+	private long rate = 0;
+	private long total = 0;
+	private volatile long hydrated = 0;
+	private volatile String error = null;
+	private Thread worker = null;
+
+	/**
+	 * Hydrator of target directory with entries of ZIP file
+	 * accepted by filter, given the skeleton expanded first
+	 * @param zip		file to expand
+	 * @param target	directory where entries are expanded
+	 * @param filter	of entries to expand
+	 * @param skeleton	filter of files expanded before hydration
+	 * @throws IOException if ZIP file cannot be opened or has an entry
+	 * 			that would be expanded outside the target directory
+	 */
+	public Hydrator(Path zip,Path target,ZipFilter filter,ZipFilter skeleton)
+			throws IOException {
+		Enumeration<? extends ZipEntry> entries;
+
+		this.zipFile = new ZipFile(zip.toFile());
+		this.target = target;
+		this.skeleton = filter.and(new ZipFilter(null,null) {
+
+			@Override
+			public boolean accepts(String name) {
+				return name.endsWith("/") || skeleton.accepts(name);
+			}
+		});
+
+		entries = zipFile.entries();
+		while(entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			String name = entry.getName();
+
+			if(filter.accepts(name) && ! this.skeleton.accepts(name)) {
+				try {
+					Utils.resolveEntry(target, name);
+				} catch(ZipException cause) {
+					zipFile.close();
+					throw cause;
+				}
+				pending.put(name, entry);
+				total += Math.max(entry.getSize(),0);
+			}
+		}
+	}
+
+	/**
+	 * Hydrator with skeleton defined by the {@code data.skeleton} property
+	 * and rate defined by {@code data.hydration.rate} (in MB per second)
+	 * @param zip		file to expand
+	 * @param target	directory where entries are expanded
+	 * @param filter	of entries to expand
+	 * @throws IOException if ZIP file cannot be opened
+	 */
+	public Hydrator(Path zip,Path target,ZipFilter filter) throws IOException {
+		this(zip,target,filter,
+				new ZipFilter(Utils.getProperty("data.skeleton"),null));
+		
+		try {
+			setRate(Long.parseLong(
+					Utils.getProperty("data.hydration.rate").trim()) << 20);
+		} catch(RuntimeException cause) {
+			// unlimited by default
+		}
+	}
+
+	/**
+	 * Filter of entries in the skeleton, expanded before hydration:
+	 * directories and files accepted by both filters
+	 * @return filter
+	 */
+	public ZipFilter getSkeleton() {
+		return skeleton;
+	}
+
+	/**
+	 * Maximum rate at which entries are hydrated
+	 * @param rate in bytes per second (0 if unlimited)
+	 */
+	public void setRate(long rate) {
+		this.rate = rate;
+	}
+
+	/**
+	 * Uncompressed size of entries to hydrate
+	 * @return number of bytes
+	 */
+	public long getSize() {
+		return total;
+	}
+
+	/**
+	 * Number of entries not yet hydrated
+	 * @return count
+	 */
+	public synchronized int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Start hydrating in background, watching the directories
+	 * of the skeleton for changes to hydrate their content first
+	 * @param cancellation	checked after each buffer
+	 */
+	public synchronized void start(Cancellation cancellation) {
+		if(worker != null)
+			return;
+
+		watch();
+		worker = new Thread(() -> hydrate(cancellation),"hydrator");
+		worker.setDaemon(true);
+		worker.setPriority(Thread.MIN_PRIORITY);
+		worker.start();
+	}
+
+	/**
+	 * Hydrate the entries under given directory before the others
+	 * @param directory	name, relative to the ZIP file root
+	 */
+	public synchronized void prioritize(String directory) {
+		touched.addFirst(directory.endsWith("/") ? directory : directory+"/");
+	}
+
+	/**
+	 * Wait until hydration is complete, reporting progress in bytes
+	 * @param progressable	to report progress
+	 * @return {@code true} if all entries were hydrated;
+	 * 			{@code false} if hydration failed or was cancelled
+	 */
+	public boolean await(Progressable progressable) {
+		int parts = progressable.getMaximum();
+
+		progressable.updatable(total > 0);
+		try {
+			while(worker.isAlive()) {
+				worker.join(POLL_TIME);
+				if(total > 0)
+					progressable.update((int) (hydrated * parts / total));
+			}
+		} catch (InterruptedException cause) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		if(error != null) {
+			progressable.taskError(error);
+			return false;
+		}
+		progressable.update(parts);
+		return getPending() == 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(watcher != null)
+			watcher.close();
+		zipFile.close();
+	}
+
+	/**
+	 * Register existing directories with pending entries in a watcher.
+	 * If file systems cannot be watched, entries are hydrated in order.
+	 */
+	private void watch() {
+		try {
+			watcher = target.getFileSystem().newWatchService();
+
+			Set<String> directories = new HashSet<>();
+
+			for(String name: pending.keySet()) {
+				String directory = name.substring(0,name.lastIndexOf('/')+1);
+				Path path = target.resolve(directory);
+
+				if(directories.add(directory) && Files.isDirectory(path))
+					watched.put(path.register(watcher,
+							ENTRY_CREATE,ENTRY_MODIFY,ENTRY_DELETE), directory);
+			}
+		} catch (IOException | UnsupportedOperationException cause) {
+			watcher = null;
+		}
+	}
+
+	/**
+	 * Collect directories touched since last checked, 
+	 * ignoring changes made by hydration itself
+	 */
+	private void poll() {
+		WatchKey key;
+
+		if(watcher == null)
+			return;
+		try {
+			while((key = watcher.poll()) != null) {
+				String directory = watched.get(key);
+
+				for(WatchEvent<?> event: key.pollEvents()) {
+					String name = directory+event.context();
+
+					if(directory != null && ! name.endsWith(PART) && 
+							! hydratedNames.contains(name)) {
+						prioritize(directory);
+						break;
+					}
+				}
+				key.reset();
+			}
+		} catch(ClosedWatchServiceException cause) {
+			watcher = null;
+		}
+	}
+
+	/**
+	 * Next entry to hydrate: first pending entry in a touched directory,
+	 * otherwise first pending entry in name order
+	 * @return entry or {@code null} if none is pending
+	 */
+	private synchronized ZipEntry next() {
+		while(! touched.isEmpty()) {
+			String directory = touched.peekFirst();
+			Map.Entry<String,ZipEntry> first = pending.ceilingEntry(directory);
+
+			if(first != null && first.getKey().startsWith(directory))
+				return pending.remove(first.getKey());
+			touched.removeFirst();
+		}
+
+		return pending.isEmpty() ? null : pending.pollFirstEntry().getValue();
+	}
+
+	private void hydrate(Cancellation cancellation) {
+		long start = System.nanoTime();
+		ZipEntry entry;
+
+		try {
+			for(poll(); (entry = next()) != null; poll()) {
+				hydrate(entry,cancellation);
+				hydratedNames.add(entry.getName());
+				hydrated += Math.max(entry.getSize(),0);
+				throttle(start);
+			}
+		} catch(CancellationException cause) {
+			// pending entries remain pending
+		} catch(IOException cause) {
+			error = cause.toString();
+		} finally {
+			try {
+				close();
+			} catch (IOException cause) {
+				// hydration is complete, only closing failed
+			}
+		}
+	}
+
+	/**
+	 * Hydrate a single entry, unless a file with its name already exists.
+	 * The entry is written aside and then linked to its name, which fails
+	 * if the webapp created that file meanwhile, hence it is never replaced.
+	 * @param entry			to hydrate
+	 * @param cancellation	checked after each buffer
+	 * @throws IOException if entry cannot be hydrated
+	 */
+	private void hydrate(ZipEntry entry,Cancellation cancellation)
+			throws IOException {
+		Path path = Utils.resolveEntry(target, entry.getName());
+
+		if(Files.exists(path))
+			return;
+
+		Path part = path.resolveSibling(path.getFileName()+PART);
+		byte[] buffer = new byte[BUFFER_SIZE];
+
+		Files.createDirectories(path.getParent());
+		try {
+			try(InputStream in = zipFile.getInputStream(entry);
+				OutputStream out = Files.newOutputStream(part)) {
+				int len;
+
+				while((len = in.read(buffer)) >= 0) {
+					cancellation.check();
+					out.write(buffer, 0, len);
+				}
+			}
+			try {
+				Files.createLink(path, part);
+			} catch(FileAlreadyExistsException cause) {
+				throw cause;
+			} catch(IOException | UnsupportedOperationException cause) {
+				Files.move(part, path); // without hard links, never replacing
+			}
+		} catch(FileAlreadyExistsException cause) {
+			// created by the webapp meanwhile, thus already hydrated
+		} finally {
+			Files.deleteIfExists(part);
+		}
+	}
+
+	/**
+	 * Sleep if hydration is ahead of the maximum rate
+	 * @param start		of hydration, in nanoseconds
+	 */
+	private void throttle(long start) {
+		if(rate <= 0)
+			return;
+
+		long ahead = TimeUnit.SECONDS.toMillis(hydrated) / rate -
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		if(ahead > 0)
+			try {
+				Thread.sleep(ahead);
+			} catch (InterruptedException cause) {
+				Thread.currentThread().interrupt();
+			}
+	}
+}
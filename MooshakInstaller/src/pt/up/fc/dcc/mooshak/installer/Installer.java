@@ -1,9 +1,33 @@
 package pt.up.fc.dcc.mooshak.installer;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+import pt.up.fc.dcc.mooshak.installer.Journal.Step;
+import pt.up.fc.dcc.mooshak.installer.TaskGraph.Kind;
+import pt.up.fc.dcc.mooshak.installer.TaskGraph.Task;
 
 public class Installer {
 	
@@ -12,34 +36,400 @@ public class Installer {
 	
 	Driver driver;
 	Configurator configurator = new Configurator();
+	Journal journal = new Journal();
+	Cancellation cancellation = new Cancellation();
+	
+	private boolean agent = false;
+	private boolean installContainer = false;
+	private boolean startContainer = false;
+	private volatile boolean installing = false;
+	private volatile DeltaUpgrade upgrade = null;
+	private volatile Hydrator hydrator = null;
+	private volatile long startup = -1;
+	private volatile long untunedStartup = -1;
+	private boolean tuneExisting = false;
+	private boolean fastStartup = false;
+	private boolean sharedArchive = false;
+	private boolean warmUp = false;
+	private volatile ContainerInstances containerInstances = null;
+	private CompletableFuture<Boolean> running = null;
+	private boolean sharedLibraries = false;
+	private volatile SharedLibraries libraries = null;
+	private volatile long archived = -1;
+	private String profile = null;
+	private int users = 0;
+	private boolean lazy = false;
+	private List<Path> roots = Collections.emptyList();
+	private boolean seedingReported = false;
 	
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 		Driver driver = new CUIDriver();
 		boolean checkRoot = true;
+		List<Path> roots = new ArrayList<>();
+		PeerCache peers = null;
+		boolean seed = false;
+		Bundle bundle = null;
+		String include = null;
+		String exclude = null;
+		boolean lazy = false;
+		String profile = null;
+		int users = 0;
+		boolean tuneExisting = false;
+		boolean fastStartup = false;
+		boolean sharedArchive = false;
+		boolean warmUp = false;
+		int instances = 0;
+		boolean sharedLibraries = false;
+		boolean agent = false;
 		
-		for(String arg: args)
-			switch(arg) {
+		for(int pos = 0; pos < args.length; pos++)
+			switch(args[pos]) {
 			case "-cui":
 				driver = new CUIDriver();
 				break;
 			case "-gui":
 				driver = new GUIDriver();
 				break;
+			case "-headless":
+				driver = new HeadlessDriver();
+				break;
+			case "-answers":
+				if(++pos == args.length)
+					throw new RuntimeException("Missing answer file");
+				driver = new HeadlessDriver(Paths.get(args[pos]));
+				break;
+			case "-roots":
+				if(++pos == args.length)
+					throw new RuntimeException("Missing list of roots");
+				for(String root: args[pos].split(";"))
+					roots.add(Paths.get(root));
+				break;
 			case "-norootcheck":
 				checkRoot = false;
 				break;
+			case "-peers":
+				peers = peers == null ? new PeerCache() : peers;
+				break;
+			case "-seed":
+				peers = peers == null ? new PeerCache() : peers;
+				seed = true;
+				break;
+			case "-bundle":
+				if(++pos == args.length)
+					throw new RuntimeException("Missing bundle file");
+				System.exit(bundle(driver,Paths.get(args[pos]),
+						pos+1 < args.length && ! args[pos+1].startsWith("-") ?
+								args[pos+1] : null) ? 0 : 1);
+				return;
+			case "-capacity":
+				if(++pos == args.length)
+					throw new RuntimeException("Missing report file");
+				System.exit(capacity(driver,Paths.get(args[pos]),
+						pos+1 < args.length && ! args[pos+1].startsWith("-") ?
+								Integer.parseInt(args[pos+1]) : 0) ? 0 : 1);
+				return;
+			case "-offline":
+				if(++pos == args.length)
+					throw new RuntimeException("Missing bundle file");
+				bundle = openBundle(Paths.get(args[pos]));
+				break;
+			case "-include":
+				if(++pos == args.length)
+					throw new RuntimeException("Missing include patterns");
+				include = args[pos];
+				break;
+			case "-exclude":
+				if(++pos == args.length)
+					throw new RuntimeException("Missing exclude patterns");
+				exclude = args[pos];
+				break;
+			case "-profile":
+				if(++pos == args.length)
+					throw new RuntimeException("Missing JVM profile");
+				profile = args[pos];
+				break;
+			case "-users":
+				if(++pos == args.length)
+					throw new RuntimeException("Missing number of users");
+				users = Integer.parseInt(args[pos]);
+				break;
+			case "-tuneexisting":
+				tuneExisting = true;
+				break;
+			case "-faststart":
+				fastStartup = true;
+				break;
+			case "-cds":
+				sharedArchive = true;
+				break;
+			case "-warmup":
+				warmUp = true;
+				break;
+			case "-instances":
+				if(++pos == args.length)
+					throw new RuntimeException("Missing number of instances");
+				instances = Integer.parseInt(args[pos]);
+				break;
+			case "-sharedlibs":
+				sharedLibraries = true;
+				break;
+			case "-lazy":
+				lazy = true;
+				break;
+			case "-agent":
+				agent = true;
+				break;
+			case "-controller":
+				if(pos+2 >= args.length)
+					throw new RuntimeException("Missing plan or list of agents");
+				System.exit(control(Paths.get(args[pos+1]),args[pos+2]) ? 0 : 1);
+				return;
 			default:
-				throw new RuntimeException("Invalid arg:"+arg);
+				throw new RuntimeException("Invalid arg:"+args[pos]);
 			}
 		
+		if(agent) {
+			agent(driver,checkRoot);
+			return;
+		}
+		
 		Installer installer = new Installer(driver,checkRoot);
+		
+		installer.setRoots(roots);
+		installer.configurator.setPeers(peers);
+		installer.configurator.setBundle(bundle);
+		installer.lazy = lazy;
+		installer.profile = profile;
+		installer.users = users;
+		installer.tuneExisting = tuneExisting;
+		installer.fastStartup = fastStartup;
+		installer.sharedArchive = sharedArchive;
+		installer.warmUp = warmUp;
+		installer.sharedLibraries = sharedLibraries;
+		if(instances <= 0)
+			try {
+				instances = Integer.parseInt(Utils.getProperty("instances","1"));
+			} catch(NumberFormatException cause) {
+				instances = 1;
+			}
+		installer.configurator.setInstances(instances);
+		if(include != null || exclude != null)
+			installer.configurator.setDataFilter(new ZipFilter(include,exclude));
+		if(seed)
+			peers.serve();
+		try {
+			installer.install();
+		} catch(IllegalArgumentException cause) {
+			// invalid answer in an unattended installation
+			driver.error(cause.getMessage());
+			driver.conclude();
+		}
+		
+		if(driver instanceof HeadlessDriver && ! seed)
+			System.exit(((HeadlessDriver) driver).getErrors() == 0 ? 0 : 1);
+	}
+	
+	
+	/**
+	 * Build a bundle for offline installations, downloading artifacts 
+	 * of given version (or the latest version) from their origin
+	 * @param driver	to report progress, on the console
+	 * @param file		of bundle
+	 * @param version	to bundle ({@code null} for the latest)
+	 * @return {@code true} if bundle was built; {@code false} otherwise
+	 */
+	private static boolean bundle(Driver driver,Path file,String version) {
+		Driver console = driver instanceof HeadlessDriver ? 
+				driver : new CUIDriver();
+		Configurator configurator = new Configurator();
+		AtomicReference<Boolean> built = new AtomicReference<>(false);
+		
+		configurator.setErrorHandler(console::error);
+		if(version != null)
+			configurator.setVersion(version);
+		
+		console.init(1);
+		console.startPanel(1);
+		console.say("Building bundle "+file);
+		console.showProgress(p -> {
+			try {
+				Bundle.build(configurator, file, p);
+				built.set(true);
+			} catch (IOException cause) {
+				console.error(cause.getMessage());
+			}
+		});
+		configurator.cleanup();
+		if(built.get())
+			console.say("Bundle of Mooshak "+configurator.getVersion()+
+					" written to "+file);
+		console.endPanel();
+		console.conclude();
+		
+		return built.get();
+	}
+	
+	/**
+	 * Test the capacity of the local installation, simulating virtual
+	 * users of Mooshak, and write a report with throughput, error rate
+	 * and latency histograms. A test that is aborted (e.g. with Ctrl-C)
+	 * stops its virtual users and reports the requests sent until then.
+	 * @param driver	to report progress, on the console
+	 * @param file		of report
+	 * @param users		number of virtual users, or 0 for the 
+	 * 					{@code capacity.users} property
+	 * @return {@code true} if the test completed with an error rate within
+	 * 			the maximum defined by the {@code capacity.errors} property;
+	 * 			{@code false} otherwise
+	 */
+	private static boolean capacity(Driver driver,Path file,int users) {
+		Driver console = driver instanceof HeadlessDriver ? 
+				driver : new CUIDriver();
+		Configurator configurator = new Configurator();
+		AtomicReference<LoadGenerator> tested = new AtomicReference<>();
+		Cancellation cancellation = new Cancellation();
+		CountDownLatch reported = new CountDownLatch(1);
+		Thread interrupt = new Thread(() -> {
+			// Ctrl-C stops the test, waiting for its partial report
+			cancellation.cancel();
+			try {
+				reported.await(SHOW_ERROR_TIME,TimeUnit.MILLISECONDS);
+			} catch (InterruptedException cause) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		
+		configurator.setErrorHandler(console::error);
+		console.setAbortHandler(cancellation::cancel);
+		Runtime.getRuntime().addShutdownHook(interrupt);
+		
+		console.init(1);
+		console.startPanel(1);
+		console.say("Testing capacity of "+configurator.getMooshakURL());
+		console.showProgress(p -> {
+			try {
+				LoadGenerator generator = 
+						new LoadGenerator(configurator.getMooshakURL(),users);
 				
-		installer.install();
+				try {
+					generator.run(p,cancellation);
+				} catch(CancellationException cause) {
+					console.error("Capacity test aborted, reporting requests sent");
+				}
+				generator.write(file);
+				tested.set(generator);
+			} catch (IOException | NumberFormatException cause) {
+				console.error(cause.getMessage());
+			}
+		});
+		if(tested.get() != null) {
+			console.say(tested.get().getSummary());
+			console.say("Capacity report written to "+file);
+		}
+		console.endPanel();
+		console.conclude();
+		
+		reported.countDown();
+		try {
+			Runtime.getRuntime().removeShutdownHook(interrupt);
+		} catch(IllegalStateException cause) {
+			// already shutting down
+		}
+		
+		return tested.get() != null && ! cancellation.isCancelled() &&
+				tested.get().getErrorRate() <= Double.parseDouble(
+						Utils.getProperty("capacity.errors").trim());
 	}
 	
+	/**
+	 * Open a bundle for an offline installation, checking its artifacts
+	 * @param file	of bundle
+	 * @return bundle
+	 * @throws IOException if bundle cannot be read
+	 */
+	private static Bundle openBundle(Path file) throws IOException {
+		Bundle bundle = new Bundle(file);
+		List<String> invalid = bundle.verify();
+		
+		if(! invalid.isEmpty())
+			throw new IOException("Invalid artifacts in bundle: "+invalid);
+		return bundle;
+	}
 	
+	/**
+	 * Run as an agent, installing plans received from a controller.
+	 * Listens on {@code agent.address} and {@code agent.port}.
+	 * @param driver	to report the port, on the console
+	 * @param checkRoot	if installer must run as root
+	 * @throws IOException if port is not available
+	 */
+	private static void agent(Driver driver,boolean checkRoot)
+			throws IOException {
+		Driver console = driver instanceof HeadlessDriver ? 
+				driver : new CUIDriver();
+		String address = Utils.getProperty("agent.address","127.0.0.1");
+		int port = Integer.parseInt(Utils.getProperty("agent.port").trim());
+		InstallerAgent agent;
+
+		if(! Utils.isRoot() && checkRoot)
+			throw new RuntimeException("Must be root to run Mooshak's agent\n"+
+						"or use the -norootcheck command line option");
+
+		agent = new InstallerAgent(new InetSocketAddress(address,port),
+				getAgentToken());
+		agent.start();
+		console.say("Agent listening on port "+agent.getPort());
+	}
+
+	/**
+	 * Roll out the plan in given file to a list of agents
+	 * @param planFile	properties with answers of installation
+	 * @param agents	separated by semicolons, each as host:port
+	 * @return {@code true} if all agents completed installation
+	 * @throws IOException if plan cannot be read
+	 */
+	private static boolean control(Path planFile,String agents)
+			throws IOException {
+		Properties plan = new Properties();
+
+		try(InputStream stream = Files.newInputStream(planFile)) {
+			plan.load(stream);
+		}
+
+		return new InstallerController(plan,
+				Arrays.asList(agents.split(";")),
+				getAgentToken(),System.out).rollout();
+	}
+
+	/**
+	 * Token shared by agents and controller, from environment variable
+	 * {@code MOOSHAK_AGENT_TOKEN} or property {@code agent.token}
+	 * @return token or {@code null} if none
+	 */
+	private static String getAgentToken() {
+		String token = System.getenv("MOOSHAK_AGENT_TOKEN");
+
+		if(token == null)
+			token = Utils.getProperty("agent.token",null);
+		return token == null || token.trim().isEmpty() ? null : token.trim();
+	}
+
 	Installer(Driver driver,boolean checkRoot) {
+		this(driver,checkRoot,false);
+	}
+	
+	/**
+	 * Installer reporting to given driver. In an agent the installer 
+	 * never terminates the JVM: a fatal error ends the installation 
+	 * with an exception, reported by the agent, and temporary files 
+	 * are removed by {@link #release()} rather than on shutdown.
+	 * @param driver	to interact with
+	 * @param checkRoot	if installer must run as root
+	 * @param agent		if installer runs in an agent
+	 */
+	Installer(Driver driver,boolean checkRoot,boolean agent) {
 		this.driver = driver;
+		this.agent = agent;
 		
 		if( Utils.isWindows())
 			fatalError("Installation on windows not supported");
@@ -51,32 +441,142 @@ public class Installer {
 				
 		
 		configurator.setErrorHandler(driver::error);
-		driver.init(14);
+		journal.setErrorHandler(driver::error);
+		configurator.setCancellation(cancellation);
+		driver.setAbortHandler(this::abort);
+		driver.init(9);
+		
+		if(! agent)
+			Runtime.getRuntime().addShutdownHook(
+					new Thread(configurator::cleanup));
+	}
+	
+	/**
+	 * Release the resources of an installation that ended in an agent:
+	 * remove its temporary files and stop its asynchronous operations
+	 */
+	void release() {
+		Executor executor = configurator.getExecutor();
 		
-		Runtime.getRuntime().addShutdownHook(new Thread(configurator::cleanup));
+		configurator.cleanup();
+		if(executor instanceof ExecutorService)
+			((ExecutorService) executor).shutdownNow();
+	}
+	
+	/**
+	 * Abort installation without terminating the installer. Running 
+	 * downloads and expansions stop, removing their partial output, 
+	 * and pending tasks are skipped; completed steps remain journaled.
+	 */
+	private void abort() {
+		cancellation.cancel();
+		if(! installing)
+			driver.goPanel(() -> conclude(false));
 	}
 	
 	private void fatalError(String message) {
+		if(agent)
+			throw new IllegalStateException(message);
+		
 		driver.error(message);
-		try {
-			Thread.sleep(SHOW_ERROR_TIME);
-		} catch (InterruptedException e) {}
+		if(! (driver instanceof HeadlessDriver))
+			try {
+				Thread.sleep(SHOW_ERROR_TIME);
+			} catch (InterruptedException e) {}
 		System.exit(1);
 	}
 
 	
 
-	// Servlet Container installation
+	// Resuming an interrupted installation
+	
+	void install() {
+		
+		running = configurator.isServletContainerRunningAsync();
+		
+		if(journal.load()) {
+			driver.startPanel(1);
+			reportSeeding();
+			
+			driver.say("A previous installation was interrupted after: "+
+						journal.last().getLabel());
+			
+			driver.askBoolean("resume.previous.installation",
+					"Resume previous installation?",
+					true,
+					resume -> {
+						if(resume)
+							driver.nextPanel(this::resume);
+						else {
+							journal.clear();
+							driver.nextPanel(this::listVersions);
+						}
+					}
+			);
+			driver.endPanel();
+		} else
+			listVersions();
+	}
 	
-	private void install() {
+	/**
+	 * Report the port where artifacts are seeded to peers, if they are,
+	 * in the first panel of the installation
+	 */
+	private void reportSeeding() {
+		PeerCache peers = configurator.getPeers();
+		
+		if(! seedingReported && peers != null && peers.isServing()) {
+			driver.say("Seeding artifacts on port "+peers.getPort());
+			seedingReported = true;
+		}
+	}
+	
+	/**
+	 * Restore answers recorded in the journal and ask the remaining ones.
+	 * Steps already completed are skipped when installing.
+	 */
+	private void resume() {
+		
+		if(journal.has(Step.VERSION))
+			configurator.setVersion(journal.get(Step.VERSION));
+		if(journal.has(Step.HOME))
+			configurator.setHomeDirectory(Paths.get(journal.get(Step.HOME)));
+		
+		if(! journal.has(Step.VERSION))
+			listVersions();
+		else if(! journal.has(Step.CONTAINER))
+			checkServletContainer();
+		else {
+			Path path = Paths.get(journal.get(Step.CONTAINER));
+			
+			configurator.setServletContainerPath(path);
+			installContainer = ! configurator.hasServeletContainer(path);
+			askStartServletContainer();
+		}
+	}
+
+	// Questions: all answers are collected before installing
+	
+	private void listVersions() {
 		driver.startPanel(1);
+		reportSeeding();
 		
 		driver.say("Checking Mooshak versions avaiable for installation");
 
 		driver.showProgress( p -> {
-			List<String> versions = 
-					configurator.downloadListing("version.base",p);
-			driver.goPanel(() -> selectVersion(versions));
+			List<String> versions;
+			
+			try {
+				versions = configurator.downloadListingAsync("version.base",p)
+						.join();
+			} catch(CompletionException | CancellationException cause) {
+				versions = new ArrayList<>();
+			}
+			if(! cancellation.isCancelled()) {
+				List<String> listed = versions;
+				
+				driver.goPanel(() -> selectVersion(listed));
+			}
 		});
 		
 		
@@ -91,11 +591,14 @@ public class Installer {
 		if(versions.size() == 0)
 			fatalError("No Mooshak versions avaliable");
 		else {
-			driver.askList(
+			driver.askList("select.version",
 				"Select version",
 				versions,
 				versions.get(0),
-				configurator::setVersion
+				version -> {
+					configurator.setVersion(version);
+					journal.record(Step.VERSION,version);
+				}
 			);
 		}
 		
@@ -111,13 +614,16 @@ public class Installer {
 		if(path == null) {
 			driver.say("No servlet container found");
 			
-			driver.askBoolean (
+			driver.askBoolean ("install.a.new.servlet.container",
 					"Install a new servlet container? ",
 					true,
 					install -> { 
-						if(install) 
-							driver.nextPanel(this::downloadServletContainer);
-						else 
+						if(install) {
+							selectServletContainer(
+								configurator.getPreferredServletContainerPath(),
+								true);
+							driver.nextPanel(this::askStartServletContainer);
+						} else 
 							driver.nextPanel(this::searchServletContainer);
 					} 
 			);
@@ -125,15 +631,15 @@ public class Installer {
 		} else	{
 			driver.say("Servlet container found at "+path);
 
-			driver.askBoolean (
+			driver.askBoolean ("install.another.servlet.container",
 					"Install another servlet container?",
 					false,
 					install -> { 
 						if(install)  
 							driver.nextPanel(this::searchServletContainer);
 						else {
-							configurator.setServletContainerPath(path);
-							driver.nextPanel(this::startServletContainer);
+							selectServletContainer(path,false);
+							driver.nextPanel(this::askStartServletContainer);
 						}
 					}
 			);
@@ -146,124 +652,87 @@ public class Installer {
 	private void searchServletContainer() {
 		driver.startPanel(4);
 		
-		driver.askPath("Enter servlet container path", 
+		driver.askPath("enter.servlet.container.path",
+				"Enter servlet container path", 
 				configurator.getPreferredServletContainerPath(),
 				path -> {
-					configurator.setServletContainerPath(path);
-					if(configurator.hasServeletContainer(path))
-						driver.nextPanel(this::startServletContainer);
+					selectServletContainer(path,
+							! configurator.hasServeletContainer(path));
 				}
 		);
-		driver.endPanel(this::downloadServletContainer);
+		driver.endPanel(this::askStartServletContainer);
 	}
 	
-	
-	private void downloadServletContainer() {
-		
-		driver.startPanel(5);
-		
-
-		driver.say("Dowloading servlet container");
-						
-						
-		driver.showProgress( p -> {
-					Path zip;
-					zip = configurator.downloadZip("container.download",p);
-					driver.goPanel( () -> { 
-						expandServletContainer(zip);
-					});
-		});		
+	/**
+	 * Servlet container path selected for this installation
+	 * @param path		of servlet container
+	 * @param install	a new servlet container at path
+	 */
+	private void selectServletContainer(Path path,boolean install) {
+		configurator.setServletContainerPath(path);
+		installContainer = install;
+		journal.record(Step.CONTAINER,path);
 	}
-		
 	
-	private void expandServletContainer(Path zip) {
-		Path path = configurator.getServletContainerPath();
-		
-		driver.startPanel(6);
-		
-		driver.say("Installing servlet container at "+path);
-		
-		driver.showProgress( p -> {
-			configurator.expandZip(zip,path,false,p);
-			configurator.setServletContainerVersion(zip);
-			driver.goPanel(this::startServletContainer);
-		});
+	/**
+	 * Checks if the servlet container was running when the installer 
+	 * started, probed concurrently with the first questions
+	 * @return {@code true} if running; {@code false} otherwise
+	 */
+	private boolean wasServletContainerRunning() {
+		if(running == null)
+			return configurator.isServletContainerRunning();
+		try {
+			return running.join();
+		} catch(CompletionException | CancellationException cause) {
+			return false;
+		}
 	}
 	
-	
-	private void startServletContainer() {
-		boolean isRunning = configurator.isServletContainerRunning();
+	private void askStartServletContainer() {
+		boolean isRunning = ! installContainer && roots.isEmpty() &&
+				wasServletContainerRunning();
 		
-		driver.startPanel(7);
+		driver.startPanel(5);
 		
-		driver.say("The servlet container is "+(isRunning?"":"NOT")+" running");
+		if(roots.isEmpty()) {
+			driver.say("The servlet container is "+(isRunning?"":"NOT")+" running");
 		
-		driver.askBoolean (
+			driver.askBoolean ("start.servlet.container",
 				"Start servlet container?",
 				! isRunning,
-				start -> { 
-					if(start)  
-						configurator.startServletContainer();
-				}
-		);
-		
-		driver.endPanel(this::downloadMooshakWAR);
-		
-	}
-	
-	
-	private void downloadMooshakWAR() {
-		
-		driver.startPanel(8);
-		
-		driver.say("Downloading Mooshak's WAR");
-		
-		driver.showProgress(p -> { 
-			String url = configurator.getVersionedURL("version.war");
-			Path zip = configurator.downloadZipFrom(url,p);
-			driver.goPanel(() -> { expandMooshakWAR(zip); });
-		} );
-		
-	}
-	
-	private void expandMooshakWAR(Path zip) {
-		Path webapp = configurator.getMooshakWebAppFolder();
-		driver.startPanel(9);
-		
-		driver.say("Expanding Mooshak's WAR on servlet container");
+				start -> { startContainer = start; }
+			);
+		} else
+			driver.say("Installing into "+roots.size()+" roots: "+roots+
+					"\nThe servlet container will NOT be started");
 		
-		driver.showProgress(p -> { 
-			configurator.expandZip(zip,webapp,true,p);
-			
-			if(Utils.isRoot())
-				configurator.grantPermissions();
-			else
-				driver.error("Could not grant root permissions to safeexec");
-			
-			driver.goPanel(this::content);
-		});
+		if(journal.has(Step.HOME))
+			driver.endPanel(this::installation);
+		else
+			driver.endPanel(this::content);
 	}
 	
-	
-	// Content installation
-	
 	private void content() {
 		Path path;
 		
 		configurator.loadProperties(); // try reading existing properties
 		path = configurator.getExistingtHomeDirectory();
 		
-		driver.startPanel(10);
+		driver.startPanel(6);
 		
 		if(path == null) {
 			driver.say("No home directory found");
 			
-			driver.askBoolean (
+			driver.askBoolean ("install.a.new.home.or.exit",
 					"Install a new home (or exit)",
 					true,
 					install -> { 
 						if(install) 
 							driver.nextPanel(this::installHomeDirectory);
+						else if(agent)
+							throw new IllegalStateException(
+									"No home directory to install");
 						else 
 							System.exit(0);
 					} 
@@ -272,14 +741,17 @@ public class Installer {
 		} else	{
 			driver.say("Home directory found at "+path);
 
-			driver.askBoolean (
+			driver.askBoolean ("install.another.home.directory",
 					"Install another home directory?",
 					false,
 					install -> { 
 						if(install)
 							driver.nextPanel(this::installHomeDirectory);
-						else	
-							driver.nextPanel(this::downloadContent);
+						else {
+							configurator.setHomeDirectory(path);
+							journal.record(Step.HOME,path);
+							driver.nextPanel(this::installation);
+						}
 					}
 			);
 		
@@ -288,72 +760,652 @@ public class Installer {
 	}
 	
 	private void installHomeDirectory() {
-		driver.startPanel(11);
+		driver.startPanel(7);
 		
-		driver.askPath("Enter home directory path", 
+		driver.askPath("enter.home.directory.path",
+				"Enter home directory path", 
 				configurator.getPreferredHomeDirectory(),
 				path -> {  
-					driver.say("Installing home directory at "+path);
 					configurator.setHomeDirectory(path);
-					configurator.saveProperties();
+					journal.record(Step.HOME,path);
 				});
 
-		driver.endPanel(this::downloadContent);
+		driver.endPanel(this::installation);
 	
 	}
 	
-	private void downloadContent() {
+	// Installation: independent tasks are executed concurrently
+	
+	private void installation() {
+		TaskGraph graph = new TaskGraph(cancellation);
+		Task container = null;
+		Task war;
+		Task permissions;
+		Task data;
+		Task properties;
+		Task space;
+		Task tuning = null;
+		Task fast = null;
+		Task training = null;
+		Task precompression = null;
+		Task instances = null;
+		Task shared = null;
+		
+		installing = true;
+		driver.startPanel(8);
+		
+		driver.say("Installing Mooshak "+configurator.getVersion());
+		if(! isContainerTunable() && (isTuned("jvm.tuning") || 
+				isTuned("server.tuning") || isFastStartup()))
+			driver.say("Configuration of the existing servlet container "+
+					"is kept (tune it with -tuneexisting)");
+		
+		space = graph.add("Check disk space",Kind.IO,this::checkDiskSpace);
+		
+		if(installContainer)
+			container = artifact(graph,"servlet container","container.download",
+					Step.CONTAINER_DOWNLOAD,Step.CONTAINER_EXPANDED,
+					configurator.getServletContainerFolder(),
+					(zip,p) -> {
+						Path path = configurator.getServletContainerFolder();
+						
+						configurator.expandZip(zip,path,false,p);
+						configurator.setServletContainerVersion(zip);
+					},
+					space);
+		
+		if(isUpgrade())
+			war = upgrade(graph,container,space);
+		else
+			war = artifact(graph,"Mooshak's WAR","version.war",
+				Step.WAR_DOWNLOAD,Step.WAR_EXPANDED,
+				configurator.getMooshakWebAppFolder(),
+				(zip,p) -> {
+					Path webapp = configurator.getMooshakWebAppFolder();
+					
+					configurator.expandZip(zip,webapp,true,p);
+				},
+				container,space);
+		
+		if(isTuned("static.precompression"))
+			precompression = graph.add("Precompress static files",Kind.CPU,
+				p -> { configurator.precompressWebApp(p); },
+				container,war);
+		
+		if(isSharedLibraries())
+			shared = graph.add("Share common libraries",Kind.IO,
+				p -> { libraries = configurator.shareLibraries(); },
+				container,war);
+		
+		permissions = graph.add("Grant permissions",Kind.CPU,
+				p -> {
+					if(Utils.isRoot())
+						configurator.grantPermissions();
+					else
+						driver.error("Could not grant root permissions to safeexec");
+				},
+				war);
+		
+		if(isLazy())
+			data = skeleton(graph,space);
+		else
+			data = artifact(graph,"default data","version.data",
+				Step.DATA_DOWNLOAD,Step.DATA_EXPANDED,
+				configurator.getHomeFolder(),
+				(zip,p) -> {
+					Path home = configurator.getHomeFolder();
+					
+					configurator.expandZip(zip,home,true,
+							configurator.getDataFilter(),p);
+				},
+				space);
+		
+		if(isContainerTunable() && 
+				(isTuned("jvm.tuning") || isTuned("server.tuning")))
+			tuning = graph.add("Tune servlet container",Kind.CPU,
+				p -> { 
+					if(isTuned("jvm.tuning"))
+						configurator.tuneServletContainer(profile,
+								isSharedArchive());
+					if(isTuned("server.tuning"))
+						configurator.tuneServer(users);
+				},
+				container);
+		
+		properties = graph.add("Save properties",Kind.CPU,
+				p -> { configurator.saveProperties(); },
+				container,data,tuning,precompression,shared);
+		
+		if(isContainerTunable() && isFastStartup())
+			fast = graph.add("Speed up servlet container startup",Kind.IO,
+				p -> {
+					if(startContainer && 
+							! configurator.isServletContainerRunning()) {
+						configurator.startServletContainer();
+						untunedStartup = configurator.awaitMooshak();
+						configurator.stopServletContainer();
+					}
+					configurator.tuneStartup();
+					configurator.saveProperties();
+				},
+				permissions,properties);
+		
+		if(startContainer && tuning != null && isSharedArchive() && 
+				isTuned("jvm.tuning"))
+			training = graph.add("Train class-data sharing archive",Kind.IO,
+				p -> { archived = configurator.trainSharedArchive(); },
+				permissions,properties,fast);
+		
+		if(configurator.getInstances() > 1 || hasInstances())
+			instances = graph.add("Create servlet container instances",Kind.IO,
+				p -> { 
+					containerInstances = configurator.createInstances();
+					configurator.saveProperties();
+				},
+				war,permissions,properties,tuning,fast,training);
+		
+		if(startContainer)
+			graph.add("Start servlet container",Kind.IO,
+				p -> { 
+					configurator.startServletContainer();
+					startup = configurator.awaitMooshak();
+					if(containerInstances != null && startup >= 0) {
+						long others = 
+								configurator.startInstances(containerInstances);
+						
+						startup = others < 0 ? -1 : Math.max(startup,others);
+					}
+				},
+				permissions,properties,fast,training,instances);
+		
+		if(roots.size() > 1) {
+			Replicator replicator = new Replicator(cancellation);
+			
+			for(Path root: roots.subList(1, roots.size()))
+				graph.add("Replicate to "+root,Kind.IO,
+					p -> { replicate(replicator,root,p); },
+					container,war,permissions,data,properties,tuning,fast,
+					training,precompression,instances,shared);
+		}
 		
-		driver.startPanel(12);
-				
-		driver.say("Downloading default data");
-
 		driver.showProgress(p -> {
-			String url = configurator.getVersionedURL("version.data");
-			Path zip = configurator.downloadZipFrom(url,p);
-			driver.goPanel(() -> { expandContent(zip); } );
+			boolean completed;
+			
+			configurator.setErrorHandler(graph.reportingTo(driver::error));
+			completed = graph.run(p);
+			configurator.setErrorHandler(driver::error);
+			
+			if(completed && hydrator != null)
+				hydrator.start(cancellation);
+			
+			driver.goPanel(() -> conclude(completed));
 		});
+	}
+	
+	/**
+	 * Checks if the configuration of the servlet container may be changed
+	 * by tuning: always if installed now, but if it already existed only 
+	 * when requested with {@code -tuneexisting} or the 
+	 * {@code container.tuning.existing} property
+	 * @return {@code true} if the container may be tuned
+	 */
+	private boolean isContainerTunable() {
+		return installContainer || tuneExisting || "true".equals(
+				Utils.getProperty("container.tuning.existing","false"));
+	}
+	
+	/**
+	 * Checks if an aspect of the servlet container is tuned, 
+	 * unless disabled by given property (e.g. {@code jvm.tuning}
+	 * for the JVM, {@code server.tuning} for the connectors)
+	 * @param property	enabling tuning
+	 * @return {@code true} if tuned
+	 */
+	private boolean isTuned(String property) {
+		return ! "false".equals(Utils.getProperty(property,"true"));
+	}
+	
+	/**
+	 * Checks if the servlet container is tuned for a faster startup, 
+	 * requested with {@code -faststart} or the {@code startup.tuning} property
+	 * @return {@code true} if tuned
+	 */
+	private boolean isFastStartup() {
+		return fastStartup || 
+				"true".equals(Utils.getProperty("startup.tuning","false"));
+	}
+	
+	/**
+	 * Checks if the servlet container starts from a class-data sharing 
+	 * archive, requested with {@code -cds} or the {@code jvm.cds} property
+	 * @return {@code true} if an archive is trained and used
+	 */
+	private boolean isSharedArchive() {
+		return sharedArchive || 
+				"true".equals(Utils.getProperty("jvm.cds","false"));
+	}
+	
+	/**
+	 * Checks if instances of the servlet container were created by
+	 * a previous installation (and must be removed if no longer used)
+	 * @return {@code true} if instances exist
+	 */
+	private boolean hasInstances() {
+		return Files.isDirectory(configurator.getServletContainerFolder()
+				.resolve(ContainerInstances.INSTANCES));
+	}
+	
+	/**
+	 * Checks if libraries common to several webapps are placed in the 
+	 * shared class loader, requested with {@code -sharedlibs} or the 
+	 * {@code shared.libraries} property
+	 * @return {@code true} if libraries are shared
+	 */
+	private boolean isSharedLibraries() {
+		return sharedLibraries || 
+				"true".equals(Utils.getProperty("shared.libraries","false"));
+	}
+	
+	/**
+	 * Checks if Mooshak is warmed up after starting, 
+	 * requested with {@code -warmup} or the {@code warmup} property
+	 * @return {@code true} if warmed up
+	 */
+	private boolean isWarmUp() {
+		return warmUp || "true".equals(Utils.getProperty("warmup","false"));
+	}
+	
+	/**
+	 * Checks if default data is expanded lazily, either requested 
+	 * (with {@code -lazy} or the {@code data.lazy} property) or resumed.
+	 * Data in a bundle is always expanded eagerly.
+	 * @return {@code true} if data is hydrated after the skeleton
+	 */
+	private boolean isLazy() {
+		boolean enabled = lazy || 
+				"true".equals(Utils.getProperty("data.lazy","false"));
 		
+		return journal.has(Step.DATA_SKELETON) || 
+				(enabled && configurator.getBundle() == null);
 	}
 	
+	/**
+	 * Add tasks to expand the skeleton of default data to the graph,
+	 * preparing the hydration of the remaining entries, that starts 
+	 * when all tasks are completed (hence after starting the container).
+	 * If the skeleton was expanded in a previous installation, 
+	 * hydration is resumed with the kept download.
+	 * @param graph			of tasks
+	 * @param dependencies	of the expansion task
+	 * @return task expanding the skeleton or resuming hydration,
+	 * 		or {@code null} if data is already expanded
+	 */
+	private Task skeleton(TaskGraph graph,Task... dependencies) {
+		Path home = configurator.getHomeFolder();
+		ZipFilter filter = configurator.getDataFilter();
+		
+		if(journal.has(Step.DATA_EXPANDED))
+			return null;
+		else if(journal.has(Step.DATA_SKELETON))
+			return graph.add("Resume hydration of default data",Kind.IO,
+				p -> {
+					Path zip = journal.getPath(Step.DATA_DOWNLOAD);
+					
+					if(zip == null)
+						p.taskError("Download of default data is missing");
+					else
+						try {
+							hydrator = new Hydrator(zip,home,filter);
+						} catch (IOException cause) {
+							p.taskError(cause.toString());
+						}
+				});
+		else
+			return artifact(graph,"default data skeleton","version.data",
+				Step.DATA_DOWNLOAD,Step.DATA_SKELETON,home,
+				(zip,p) -> {
+					hydrator = configurator.expandSkeleton(zip,home,filter,p);
+				},
+				dependencies);
+	}
 	
-	private void expandContent(Path zip) {
-		Path homeDirectory = configurator.getHomeDirectory();
+	/**
+	 * Checks if Mooshak's webapp is already installed and may be 
+	 * upgraded with only the entries that changed in the WAR
+	 * (unless disabled by the {@code webapp.delta} property).
+	 * Entries are read by ranges from the origin, hence the WAR 
+	 * is not upgraded this way if it comes from a bundle or peers.
+	 * @return {@code true} if delta upgrade is possible
+	 */
+	private boolean isUpgrade() {
+		boolean enabled = 
+				! "false".equals(Utils.getProperty("webapp.delta","true"));
 		
-		driver.startPanel(13);
+		return enabled && configurator.getBundle() == null &&
+				configurator.getPeers() == null &&
+				Files.isDirectory(configurator.getMooshakWebAppFolder());
+	}
+	
+	/**
+	 * Add a task to upgrade the installed webapp to the graph, fetching 
+	 * only the changed entries of the WAR, or downloading it in full 
+	 * if its entries cannot be read by ranges
+	 * @param graph			of tasks
+	 * @param dependencies	of the upgrade task
+	 * @return upgrade task, or {@code null} if already completed
+	 */
+	private Task upgrade(TaskGraph graph,Task... dependencies) {
+		Path webapp = configurator.getMooshakWebAppFolder();
 		
-		driver.say("Expanding default data at "+homeDirectory);
+		if(journal.has(Step.WAR_EXPANDED))
+			return null;
 		
-		driver.showProgress(p -> {
-			configurator.expandZip(zip,homeDirectory,true,p);
-			driver.goPanel(this::conclude);
-		});
+		return graph.add("Upgrade Mooshak's WAR",Kind.IO,
+				p -> {
+					upgrade = configurator.upgradeWebApp(p);
+					
+					if(upgrade == null) {
+						Path zip = configurator.downloadZip("version.war",p);
+						
+						if(zip != null)
+							configurator.expandZip(zip,webapp,true,p);
+					}
+				},
+				dependencies)
+				.onSuccess(() -> { journal.record(Step.WAR_EXPANDED,webapp); });
+	}
+	
+	/**
+	 * Check that the file systems where artifacts are expanded have space
+	 * for their content. Only the central directory of each ZIP file is 
+	 * read from its source, before downloading it. Artifacts already 
+	 * expanded, bundled or fetched from peers (not to load the origin),
+	 * or whose ZIP file cannot be read this way (e.g. if the server does 
+	 * not support ranges) are not considered. When upgrading an installed 
+	 * webapp only the changed entries count, and the upgrade is kept
+	 * to be applied.
+	 * @param progressable	to report errors
+	 */
+	private void checkDiskSpace(Progressable progressable) {
+		Map<String,Path> targets = new LinkedHashMap<>();
+		Map<FileStore,Long> required = new LinkedHashMap<>();
+		
+		if(configurator.getBundle() != null || configurator.getPeers() != null)
+			return;
+		
+		if(installContainer && ! journal.has(Step.CONTAINER_EXPANDED))
+			targets.put("container.download",
+					configurator.getServletContainerFolder());
+		if(! journal.has(Step.WAR_EXPANDED))
+			targets.put("version.war",configurator.getMooshakWebAppFolder());
+		if(! journal.has(Step.DATA_EXPANDED))
+			targets.put("version.data",configurator.getHomeFolder());
+		
+		for(String type: targets.keySet())
+			try {
+				Path existing = targets.get(type).toAbsolutePath();
+				long size;
+				
+				while(! Files.exists(existing) && existing.getParent() != null)
+					existing = existing.getParent();
+				
+				if(type.equals("version.war") && isUpgrade())
+					size = configurator.getWebAppUpgrade().getChangedSize();
+				else if(type.equals("version.data"))
+					size = sizeOf(configurator.openRemoteZip(type),
+							configurator.getDataFilter());
+				else
+					size = configurator.openRemoteZip(type).getSize();
+				
+				required.merge(Files.getFileStore(existing),size,Long::sum);
+			} catch (IOException cause) {
+				// size unknown, checked only when expanding
+			}
+		
+		for(FileStore store: required.keySet())
+			try {
+				long needed = required.get(store);
+				long available = store.getUsableSpace();
+				
+				if(needed > available)
+					progressable.taskError(String.format(
+							"%d MB required in %s but only %d MB available",
+							needed >> 20, store, available >> 20));
+			} catch (IOException cause) {
+				// space unknown
+			}
+	}
+	
+	/**
+	 * Uncompressed size of the entries of a remote ZIP accepted by filter
+	 * @param zip		remote ZIP file
+	 * @param filter	of entries
+	 * @return number of bytes
+	 */
+	private static long sizeOf(RemoteZip zip,ZipFilter filter) {
+		long size = 0;
+		
+		for(RemoteZip.Entry entry: zip.getEntries())
+			if(filter.accepts(entry.getName()))
+				size += entry.getSize();
+		return size;
+	}
+	
+	/**
+	 * Replicate installation in the first root to another root,
+	 * by linking or copying files. Home content is always copied 
+	 * since Mooshak modifies it in place.
+	 * @param replicator	of files
+	 * @param root			where installation is replicated
+	 * @param progressable	to report errors
+	 */
+	private void replicate(Replicator replicator,Path root,
+			Progressable progressable) {
+		Configurator replica = configurator.forRoot(root);
+		
+		try {
+			if(installContainer)
+				replicator.replicate(configurator.getServletContainerFolder(),
+						replica.getServletContainerFolder());
+			else
+				replicator.replicate(configurator.getMooshakWebAppFolder(),
+						replica.getMooshakWebAppFolder());
+			
+			replicator.copy(configurator.getHomeFolder(), 
+					replica.getHomeFolder());
+			
+			replica.saveProperties();
+			if(Utils.isRoot())
+				replica.grantPermissions();
+		} catch (IOException cause) {
+			progressable.taskError(cause.toString());
+		}
+	}
+	
+	/**
+	 * Add tasks to download and expand an artifact to the graph.
+	 * Steps completed in a previous installation are not repeated: 
+	 * a kept download is reused and a completed expansion is skipped.
+	 * In an offline installation the artifact is expanded from the bundle.
+	 * 
+	 * @param graph			of tasks
+	 * @param name			of artifact
+	 * @param type			of artifact, defining its URL
+	 * @param downloaded	step recording the download in the journal
+	 * @param expanded		step recording the expansion in the journal
+	 * @param target		where artifact is expanded
+	 * @param expander		of downloaded artifact, reporting progress
+	 * @param dependencies	of the expansion task
+	 * @return expansion task, or {@code null} if already completed
+	 */
+	private Task artifact(TaskGraph graph,String name,String type,
+			Step downloaded,Step expanded,Path target,
+			BiConsumer<Path,Progressable> expander,Task... dependencies) {
+		AtomicReference<Path> zip = new AtomicReference<>();
+		List<Task> before = new ArrayList<>(Arrays.asList(dependencies));
+		Bundle bundle = configurator.getBundle();
+		String url = configurator.getArtifactURL(type);
+		
+		if(journal.has(expanded))
+			return null;
+		
+		if(bundle != null)
+			zip.set(bundle.getEntry(type));
+		else
+			zip.set(journal.getPath(downloaded));
+		
+		if(zip.get() == null && bundle != null)
+			before.add(graph.add("Find "+name,Kind.IO,
+					p -> { p.taskError("not in bundle"); }));
+		else if(zip.get() == null)
+			before.add(graph.add("Download "+name,Kind.IO,
+					p -> { 
+						zip.set(configurator.downloadZip(type,p));
+						if(! Utils.isCompleteZip(zip.get()))
+							p.taskError("incomplete download");
+					})
+					.onSuccess(() -> { 
+						zip.set(journal.keep(downloaded,zip.get(),url));
+					}));
 		
+		return graph.add("Expand "+name,Kind.CPU,
+				p -> { expander.accept(zip.get(),p); },
+				before.toArray(new Task[before.size()]))
+				.onSuccess(() -> { journal.record(expanded,target); });
 	}
 
 
-	private void conclude() {	
-		boolean isRunning = configurator.isServletContainerRunning();
+	private void conclude(boolean completed) {	
+		int running = configurator.getRunningInstances();
+		boolean isRunning = running > 0;
 		
-		driver.startPanel(14);
-		
-		configurator.saveProperties();
+		driver.startPanel(9);
 		
-		driver.say("Mooshak was successfully installed"+
-				   " with the following configurations");
+		if(completed) {
+			if(hydrator == null)
+				journal.clear();
+			
+			driver.say("Mooshak was successfully installed"+
+					   " with the following configurations");
+		} else if(cancellation.isCancelled())
+			driver.say("Mooshak's installation was aborted."+
+					   " Run the installer again to resume it."+
+					   " Current configurations are");
+		else
+			driver.say("Mooshak's installation was NOT completed."+
+					   " Run the installer again to resume it."+
+					   " Current configurations are");
 		
 		driver.say(getConfiguration());
 		
+		if(upgrade != null)
+			driver.say("Mooshak's WAR upgraded: "+upgrade);
+		
+		if(roots.size() > 0)
+			driver.say("Installed into roots: "+roots);
+		
 		driver.say("The servlet container is "+(isRunning?"":"NOT")+" running");
+		if(isRunning && configurator.getInstances() > 1)
+			driver.say(String.format("%d of %d servlet container instances"+
+					" are running",running,configurator.getInstances()));
+		
+		if(startContainer && startup >= 0 && untunedStartup >= 0)
+			driver.say(String.format("Mooshak started in %.1f seconds"+
+					" (%.1f seconds before startup tuning)",
+					startup / 1000.0, untunedStartup / 1000.0));
+		else if(startContainer && startup >= 0)
+			driver.say(String.format("Mooshak started in %.1f seconds",
+					startup / 1000.0));
+		else if(startContainer && completed)
+			driver.say("Mooshak did NOT respond after starting the container");
+		
+		if(libraries != null)
+			driver.say(String.format("%d common libraries in the shared"+
+					" class loader, saving about %.1f MB of memory",
+					libraries.getShared().size(),
+					libraries.getSaved() / (double) (1<<20)));
+		
+		if(containerInstances != null)
+			driver.say(String.format("%d servlet container instances,"+
+					" balanced by the upstream in %s",
+					containerInstances.getCount(),
+					containerInstances.getUpstream()));
+		
+		if(startContainer && isSharedArchive() && archived >= 0)
+			driver.say(String.format("Class-data sharing archive with %.1f MB",
+					archived / (double) (1<<20)));
+		else if(startContainer && isSharedArchive() && completed)
+			driver.say("Class-data sharing archive NOT dumped"+
+					" (requires JDK "+JvmTuning.CDS_VERSION+" or later)");
 		
 		if(! Utils.isRoot()) 
 			driver.say("You still need to grant root permissions to safeexec!!");
 		else if(isRunning)
 			driver.say("You can access this istallation at http://localhost:8080/Mooshak ");
-					
-		driver.endPanel();
 		
-		driver.conclude();
+		if(completed && hydrator != null)
+			hydrate();
+		else
+			warmUp();
+	}
+	
+	/**
+	 * Wait for the hydration of default data in background, showing
+	 * its progress, and then conclude. The journal is kept until
+	 * hydration is complete, hence an interrupted hydration is resumed.
+	 */
+	private void hydrate() {
+		driver.say(String.format("Hydrating %d MB of default data in background",
+				hydrator.getSize() >> 20));
+		
+		driver.showProgress(p -> {
+			boolean hydrated = hydrator.await(p);
+			
+			if(hydrated) {
+				journal.record(Step.DATA_EXPANDED,configurator.getHomeFolder());
+				journal.clear();
+			}
+			
+			driver.goPanel(() -> {
+				driver.say("Default data was "+(hydrated ? "" : "NOT ")+
+						"completely hydrated");
+				warmUp();
+			});
+		});
+	}
+	
+	/**
+	 * Warm up Mooshak, if requested and started, reporting latency
+	 * percentiles of each phase, and then conclude the installation
+	 */
+	private void warmUp() {
+		if(! isWarmUp() || startup < 0) {
+			driver.endPanel();
+			
+			driver.conclude();
+			return;
+		}
+		
+		driver.say("Warming up Mooshak before contestants arrive");
+		
+		driver.showProgress(p -> {
+			List<String> results = new ArrayList<>();
+			
+			try {
+				for(WarmUp.Phase phase: configurator.warmUpMooshak(p))
+					results.add("Warm-up with "+phase);
+			} catch(CancellationException cause) {
+				results.add("Warm-up was aborted");
+			}
+			
+			driver.goPanel(() -> {
+				for(String result: results)
+					driver.say(result);
+				driver.endPanel();
+				
+				driver.conclude();
+			});
+		});
 	}
 
 	/**
@@ -382,6 +1434,25 @@ public class Installer {
 	}
 
 	
+	/**
+	 * Roots prefixes of file systems where Mooshak is installed
+	 * @return the roots (empty if installing in this system)
+	 */
+	public List<Path> getRoots() {
+		return roots;
+	}
+
+	/**
+	 * Install into given root prefixes (e.g. chroots or system images).
+	 * Artifacts are downloaded and expanded once, in the first root, 
+	 * and then replicated concurrently into the others.
+	 * @param roots the roots to set (empty to install in this system)
+	 */
+	public void setRoots(List<Path> roots) {
+		this.roots = roots;
+		configurator.setRoot(roots.isEmpty() ? null : roots.get(0));
+	}
+
 	/**
 	 * @return the driver
 	 */
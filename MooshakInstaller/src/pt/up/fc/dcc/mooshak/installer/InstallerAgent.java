@@ -0,0 +1,262 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Lightweight agent that installs Mooshak on request of a
+ * {@link InstallerController}. It listens on an HTTP port for
+ * install plans (answers of a {@link HeadlessDriver}, as properties)
+ * and runs one installation at a time, collecting its events.
+ * <pre>
+ *	POST /install		body with plan; 202 if accepted, 409 if busy
+ *	GET  /status?from=n	events from line n, followed by a state line
+ * </pre>
+ * If a token is configured, requests must present it in the
+ * {@code X-Installer-Token} header. A token is required unless
+ * the agent listens only on a loopback address.
+ */
+public class InstallerAgent {
+
+	static final String TOKEN_HEADER = "X-Installer-Token";
+	static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * States of the agent, reported after the events of an installation
+	 */
+	public enum State { IDLE, RUNNING, COMPLETED, FAILED }
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private String token;
+	private BiConsumer<Properties,HeadlessDriver> installation;
+
+	private volatile State state = State.IDLE;
+	private List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * Agent on given address running installations with the installer
+	 * @param address	where agent listens
+	 * @param token		required from clients ({@code null} if none)
+	 * @throws IOException if address is not available
+	 */
+	public InstallerAgent(InetSocketAddress address,String token)
+			throws IOException {
+		this(address,token,InstallerAgent::install);
+	}
+
+	/**
+	 * Agent on given address running installations with given function.
+	 * Without a token, the agent only listens on a loopback address,
+	 * since any host reaching it could install as root.
+	 * @param address		where agent listens
+	 * @param token			required from clients ({@code null} if none)
+	 * @param installation	consuming a plan and a driver to report to
+	 * @throws IOException if address is not available
+	 * @throws IllegalArgumentException if a token is required but missing
+	 */
+	public InstallerAgent(InetSocketAddress address,String token,
+			BiConsumer<Properties,HeadlessDriver> installation)
+					throws IOException {
+		if(token == null && (address.getAddress() == null ||
+				! address.getAddress().isLoopbackAddress()))
+			throw new IllegalArgumentException("Agent on "+address+
+					" requires a token (agent.token or MOOSHAK_AGENT_TOKEN)");
+		
+		this.token = token;
+		this.installation = installation;
+		this.executor = InstallerExecutors.newExecutor("installer-agent-");
+		this.server = HttpServer.create(address, 0);
+
+		server.setExecutor(executor);
+		server.createContext("/install", this::handleInstall);
+		server.createContext("/status", this::handleStatus);
+	}
+
+	/**
+	 * Installation with the installer, using plan as answers.
+	 * A {@code roots} property in the plan selects root prefixes.
+	 * The installer never terminates the agent: fatal errors are
+	 * thrown, to be reported, and its resources are released.
+	 * @param plan		answers of installation
+	 * @param driver	to report to
+	 */
+	private static void install(Properties plan,HeadlessDriver driver) {
+		Installer installer = new Installer(driver,false,true);
+		List<Path> roots = new ArrayList<>();
+
+		if(plan.getProperty("roots") != null)
+			for(String root: plan.getProperty("roots").split(";"))
+				roots.add(Paths.get(root));
+
+		installer.setRoots(roots);
+		try {
+			installer.install();
+		} finally {
+			installer.release();
+		}
+	}
+
+	/**
+	 * Start listening for requests
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stop listening and release threads
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Port where this agent is listening
+	 * @return port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Current state of this agent
+	 * @return state
+	 */
+	public State getState() {
+		return state;
+	}
+
+	private void handleInstall(HttpExchange exchange) throws IOException {
+		Properties plan = new Properties();
+
+		if(! authorized(exchange))
+			return;
+		else if(! "POST".equals(exchange.getRequestMethod()))
+			reply(exchange,405,"POST an install plan");
+		else {
+			try(InputStream in = exchange.getRequestBody()) {
+				plan.load(in);
+			}
+
+			synchronized(this) {
+				if(state == State.RUNNING) {
+					reply(exchange,409,"Installation already running");
+					return;
+				}
+				state = State.RUNNING;
+				events.clear();
+			}
+
+			reply(exchange,202,"Installation started");
+			executor.execute(() -> run(plan));
+		}
+	}
+
+	/**
+	 * Run an installation, collecting the events of its driver
+	 * @param plan of installation
+	 */
+	private void run(Properties plan) {
+		PrintStream out = new PrintStream(new LineCollector(),true);
+		HeadlessDriver driver =
+				new HeadlessDriver(plan,Collections.emptyMap(),out);
+
+		try {
+			installation.accept(plan, driver);
+			state = driver.getErrors() == 0 ? State.COMPLETED : State.FAILED;
+		} catch(RuntimeException cause) {
+			driver.error(cause.getMessage() == null ? 
+					cause.toString() : cause.getMessage());
+			driver.conclude();
+			state = State.FAILED;
+		}
+	}
+
+	private void handleStatus(HttpExchange exchange) throws IOException {
+		StringBuilder status = new StringBuilder();
+		String query = exchange.getRequestURI().getQuery();
+		State current = state; // before events, to include all when done
+		int from = 0;
+
+		if(! authorized(exchange))
+			return;
+
+		if(query != null && query.startsWith("from="))
+			try {
+				from = Integer.parseInt(query.substring("from=".length()));
+			} catch(NumberFormatException cause) {
+				reply(exchange,400,"Invalid query: "+query);
+				return;
+			}
+
+		synchronized(events) {
+			for(String event: events.subList(
+					Math.min(from,events.size()), events.size())) {
+				status.append(event);
+				status.append('\n');
+			}
+		}
+		status.append("state\t");
+		status.append(current.name());
+		status.append('\n');
+
+		reply(exchange,200,status.toString());
+	}
+
+	private boolean authorized(HttpExchange exchange) throws IOException {
+		if(token == null ||
+				token.equals(exchange.getRequestHeaders().getFirst(TOKEN_HEADER)))
+			return true;
+		else {
+			reply(exchange,403,"Invalid token");
+			return false;
+		}
+	}
+
+	private void reply(HttpExchange exchange,int code,String body)
+			throws IOException {
+		byte[] bytes = body.getBytes(CHARSET);
+
+		exchange.getResponseHeaders().set("Content-Type",
+				"text/plain; charset="+CHARSET.name());
+		exchange.sendResponseHeaders(code, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Stream collecting each written line as an event
+	 */
+	private class LineCollector extends OutputStream {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		@Override
+		public synchronized void write(int b) {
+			if(b == '\n') {
+				events.add(new String(line.toByteArray(),CHARSET)
+						.replace("\r",""));
+				line.reset();
+			} else
+				line.write(b);
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import pt.up.fc.dcc.mooshak.installer.InstallerAgent.State;
+
+/**
+ * Controller of a fleet of {@link InstallerAgent}s. It pushes the same
+ * install plan to all agents in parallel, polls their status and
+ * aggregates their events in a single stream, each line prefixed by
+ * the agent that produced it. After all agents finish, a summary line
+ * is written per agent.
+ * <pre>
+ *	host:port	event	fields...
+ *	summary	host:port	state	errors
+ * </pre>
+ */
+public class InstallerController {
+
+	private static final int DEFAULT_POLL = 1000;
+	private static final int DEFAULT_DEADLINE = 60*60;
+	private static final int TIMEOUT = 10*1000;
+
+	private Properties plan;
+	private List<String> agents;
+	private String token;
+	private PrintStream out;
+	private int poll = DEFAULT_POLL;
+	private long deadline = TimeUnit.SECONDS.toMillis(DEFAULT_DEADLINE);
+
+	private Map<String,State> states = new LinkedHashMap<>();
+	private Map<String,Integer> errors = new LinkedHashMap<>();
+
+	/**
+	 * Controller pushing a plan to given agents
+	 * @param plan		answers of installation
+	 * @param agents	as host:port
+	 * @param token		presented to agents ({@code null} if none)
+	 * @param out		stream where aggregated events are written
+	 */
+	public InstallerController(Properties plan,List<String> agents,
+			String token,PrintStream out) {
+		this.plan = plan;
+		this.agents = agents;
+		this.token = token;
+		this.out = out;
+
+		try {
+			poll = Integer.parseInt(Utils.getProperty("agent.poll").trim());
+		} catch(RuntimeException cause) {
+			// use default polling interval
+		}
+		try {
+			deadline = TimeUnit.SECONDS.toMillis(Integer.parseInt(
+					Utils.getProperty("agent.timeout").trim()));
+		} catch(RuntimeException cause) {
+			// use default overall timeout
+		}
+	}
+
+	/**
+	 * Set interval between status requests to each agent
+	 * @param poll	interval in milliseconds
+	 */
+	public void setPoll(int poll) {
+		this.poll = poll;
+	}
+
+	/**
+	 * Set overall timeout of a rollout: agents still running when
+	 * it expires are reported as failed
+	 * @param deadline	timeout in milliseconds
+	 */
+	public void setTimeout(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Install the plan in all agents and wait until they are done,
+	 * or until the overall timeout expires
+	 * @return {@code true} if all agents completed without errors;
+	 * 			{@code false} otherwise
+	 */
+	public boolean rollout() {
+		ExecutorService executor =
+				InstallerExecutors.newExecutor("installer-controller-");
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		long expires = System.currentTimeMillis() + deadline;
+
+		try {
+			for(String agent: agents)
+				futures.add(CompletableFuture.runAsync(
+						() -> control(agent,expires), executor));
+
+			CompletableFuture.allOf(
+					futures.toArray(new CompletableFuture<?>[0])).join();
+		} finally {
+			executor.shutdown();
+		}
+
+		boolean completed = true;
+		for(String agent: agents) {
+			State state = getState(agent);
+
+			emit("summary",agent,state.name(),
+					String.valueOf(getErrors(agent)));
+			completed &= state == State.COMPLETED;
+		}
+		return completed;
+	}
+
+	/**
+	 * Final state reported by given agent
+	 * ({@link State#FAILED} if it could not be reached)
+	 * @param agent	as host:port
+	 * @return state
+	 */
+	public synchronized State getState(String agent) {
+		return states.getOrDefault(agent,State.FAILED);
+	}
+
+	/**
+	 * Number of errors reported by given agent
+	 * @param agent	as host:port
+	 * @return errors
+	 */
+	public synchronized int getErrors(String agent) {
+		return errors.getOrDefault(agent,0);
+	}
+
+	/**
+	 * Push plan to an agent and follow its events until it is done
+	 * or the rollout expires
+	 * @param agent		as host:port
+	 * @param expires	time when rollout expires, in milliseconds
+	 */
+	private void control(String agent,long expires) {
+		int from = 0;
+
+		try {
+			request(agent,"POST","/install",plan);
+
+			while(true) {
+				State state = State.RUNNING;
+
+				for(String line: request(agent,"GET","/status?from="+from,null)
+						.split("\n")) {
+					if(line.isEmpty())
+						continue;
+					else if(line.startsWith("state\t"))
+						state = State.valueOf(line.substring("state\t".length()));
+					else {
+						if(line.startsWith("error\t"))
+							count(agent);
+						emit(agent,line);
+						from++;
+					}
+				}
+
+				if(state != State.RUNNING && state != State.IDLE) {
+					synchronized(this) {
+						states.put(agent,state);
+					}
+					return;
+				}
+				if(System.currentTimeMillis() >= expires) {
+					count(agent);
+					emit(agent,"error","Timed out after "+
+							TimeUnit.MILLISECONDS.toSeconds(deadline)+" s");
+					return;
+				}
+				Thread.sleep(poll);
+			}
+		} catch(IOException | RuntimeException cause) {
+			count(agent);
+			emit(agent,"error",cause.getMessage());
+		} catch(InterruptedException cause) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized void count(String agent) {
+		errors.merge(agent,1,Integer::sum);
+	}
+
+	/**
+	 * Send a request to an agent and return the body of its reply
+	 * @param agent		as host:port
+	 * @param method	of HTTP request
+	 * @param path		of HTTP request, including query
+	 * @param body		sent as properties, if not {@code null}
+	 * @return body of reply
+	 * @throws IOException if the agent is not reachable or rejects request
+	 */
+	private String request(String agent,String method,String path,
+			Properties body) throws IOException {
+		URL url = new URL("http://"+agent+path);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(TIMEOUT);
+		connection.setReadTimeout(TIMEOUT);
+		if(token != null)
+			connection.setRequestProperty(InstallerAgent.TOKEN_HEADER,token);
+
+		if(body != null) {
+			connection.setDoOutput(true);
+			try(OutputStream stream = connection.getOutputStream()) {
+				body.store(stream,null);
+			}
+		}
+
+		int code = connection.getResponseCode();
+		InputStream stream = code < 400 ?
+				connection.getInputStream() : connection.getErrorStream();
+		String reply = read(stream);
+
+		connection.disconnect();
+		if(code >= 400)
+			throw new IOException(method+" "+path+": "+code+" "+reply.trim());
+		return reply;
+	}
+
+	private String read(InputStream stream) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		if(stream != null)
+			try(BufferedReader reader = new BufferedReader(
+					new InputStreamReader(stream,InstallerAgent.CHARSET))) {
+				String line;
+				while((line = reader.readLine()) != null) {
+					bytes.write(line.getBytes(InstallerAgent.CHARSET));
+					bytes.write('\n');
+				}
+			}
+		return new String(bytes.toByteArray(),InstallerAgent.CHARSET);
+	}
+
+	/**
+	 * Write a line with given fields separated by tabs
+	 * @param fields	of line
+	 */
+	private void emit(String... fields) {
+		synchronized(out) {
+			out.println(String.join("\t",fields));
+			out.flush();
+		}
+	}
+}
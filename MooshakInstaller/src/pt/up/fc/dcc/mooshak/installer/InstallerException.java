@@ -0,0 +1,19 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+/**
+ * Failure of an installation operation, as reported
+ * by asynchronous methods of the {@link Configurator}
+ */
+public class InstallerException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public InstallerException(String message) {
+		super(message);
+	}
+
+	public InstallerException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,131 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory of executors for installer tasks. Virtual threads are used
+ * when the JDK supports them (and {@code executor.virtual} is not
+ * disabled); otherwise a bounded pool of daemon threads is used, with
+ * size given by {@code executor.threads}.
+ *
+ * Virtual threads are obtained by reflection since the installer is
+ * compiled for older JDKs.
+ */
+public class InstallerExecutors {
+
+	private static final int DEFAULT_THREADS = 8;
+
+	private InstallerExecutors() {}
+
+	/**
+	 * Checks if this JVM supports virtual threads
+	 * @return {@code true} if virtual threads are available;
+	 * 			{@code false} otherwise
+	 */
+	public static boolean hasVirtualThreads() {
+		return virtualThreadFactory("probe-") != null;
+	}
+
+	/**
+	 * Executor for installer tasks with threads named after given prefix
+	 * @param prefix	of thread names
+	 * @return executor service
+	 */
+	public static ExecutorService newExecutor(String prefix) {
+		ThreadFactory factory = null;
+
+		if(useVirtualThreads())
+			factory = virtualThreadFactory(prefix);
+
+		if(factory == null)
+			return Executors.newFixedThreadPool(
+					getThreads(),newThreadFactory(prefix));
+		else
+			return newThreadPerTaskExecutor(factory);
+	}
+
+	/**
+	 * Executor starting a thread for each task, for tasks that mostly
+	 * wait (e.g. simulated users): threads are virtual when the JDK 
+	 * supports them (and {@code executor.virtual} is not disabled), 
+	 * otherwise daemon platform threads
+	 * @param prefix	of thread names
+	 * @return executor service
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+		ThreadFactory factory = null;
+
+		if(useVirtualThreads())
+			factory = virtualThreadFactory(prefix);
+		if(factory == null)
+			factory = newThreadFactory(prefix);
+
+		return newThreadPerTaskExecutor(factory);
+	}
+
+	/**
+	 * Factory of daemon platform threads named with given prefix
+	 * followed by a sequence number
+	 * @param prefix	of thread names
+	 * @return thread factory
+	 */
+	public static ThreadFactory newThreadFactory(String prefix) {
+		AtomicInteger count = new AtomicInteger();
+
+		return runnable -> {
+			Thread thread = new Thread(runnable,
+					prefix+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private static boolean useVirtualThreads() {
+		return ! "false".equals(Utils.getProperty("executor.virtual","true"));
+	}
+
+	private static int getThreads() {
+		try {
+			return Math.max(1,Integer.parseInt(
+					Utils.getProperty("executor.threads").trim()));
+		} catch(RuntimeException cause) {
+			return DEFAULT_THREADS;
+		}
+	}
+
+	/**
+	 * Factory of virtual threads named with given prefix, if available
+	 * @param prefix	of thread names
+	 * @return factory or {@code null} if virtual threads are not supported
+	 */
+	private static ThreadFactory virtualThreadFactory(String prefix) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> type = Class.forName("java.lang.Thread$Builder$OfVirtual");
+			Method name = type.getMethod("name", String.class, long.class);
+			Method factory = type.getMethod("factory");
+
+			builder = name.invoke(builder, prefix, 0L);
+
+			return (ThreadFactory) factory.invoke(builder);
+		} catch(ReflectiveOperationException | RuntimeException cause) {
+			return null;
+		}
+	}
+
+	private static ExecutorService newThreadPerTaskExecutor(
+			ThreadFactory factory) {
+		try {
+			Method method = Executors.class.getMethod(
+					"newThreadPerTaskExecutor",ThreadFactory.class);
+
+			return (ExecutorService) method.invoke(null, factory);
+		} catch(ReflectiveOperationException | RuntimeException cause) {
+			return Executors.newCachedThreadPool(factory);
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of completed installation steps.
+ * Each record is appended to a small state file and forced to disk
+ * before the installer proceeds, hence an interrupted installation
+ * can be resumed from the last completed step. Downloaded artifacts
+ * are kept in the state directory to be reused when resuming.
+ *
+ * Records are lines with a step, a value and a checksum of both,
+ * separated by tabs. Torn or corrupted records are ignored when loading.
+ */
+public class Journal {
+
+	private static final String JOURNAL_NAME = "journal";
+	private static final char SEPARATOR = '\t';
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Installation steps. Some steps may be completed concurrently,
+	 * hence they are not necessarily completed in this order.
+	 */
+	public enum Step {
+		VERSION("version selected"),
+		CONTAINER("servlet container path selected"),
+		HOME("home directory selected"),
+		CONTAINER_DOWNLOAD("servlet container downloaded"),
+		CONTAINER_EXPANDED("servlet container installed"),
+		WAR_DOWNLOAD("Mooshak's WAR downloaded"),
+		WAR_EXPANDED("Mooshak's WAR expanded"),
+		DATA_DOWNLOAD("default data downloaded"),
+		DATA_SKELETON("default data skeleton expanded"),
+		DATA_EXPANDED("default data expanded");
+
+		private String label;
+
+		Step(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Human readable description of this step
+		 * @return label
+		 */
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	private Path directory;
+	private Path file;
+	private Map<Step,String> records = new LinkedHashMap<>();
+	private Consumer<String> errorHandler = System.err::println;
+
+	/**
+	 * Journal on state directory defined in installer properties
+	 */
+	public Journal() {
+		this(Paths.get(Utils.getProperty("state.directory")));
+	}
+
+	/**
+	 * Journal on given state directory
+	 * @param directory
+	 */
+	public Journal(Path directory) {
+		this.directory = directory;
+		this.file = directory.resolve(JOURNAL_NAME);
+	}
+
+	/**
+	 * Load records from the state file, if it exists.
+	 * Invalid records (e.g. partially written) are discarded.
+	 * @return {@code true} if some step was previously completed;
+	 * 			{@code false} otherwise
+	 */
+	public synchronized boolean load() {
+		records.clear();
+
+		if(Files.exists(file)) {
+			try {
+				for(String line: Files.readAllLines(file, CHARSET)) {
+					String[] fields = line.split(String.valueOf(SEPARATOR),-1);
+
+					if(fields.length == 3 &&
+							checksum(fields[0],fields[1]).equals(fields[2]))
+						try {
+							records.put(Step.valueOf(fields[0]), fields[1]);
+						} catch(IllegalArgumentException cause) {
+							// step from a different installer version
+						}
+				}
+			} catch (IOException cause) {
+				errorHandler.accept(cause.toString());
+			}
+		}
+		return ! records.isEmpty();
+	}
+
+	/**
+	 * Record the completion of given step with an associated value,
+	 * forcing it to disk before returning
+	 * @param step 	completed
+	 * @param value	associated with step (version, path, ...)
+	 */
+	public synchronized void record(Step step,String value) {
+		StringBuilder line = new StringBuilder();
+
+		line.append(step.name());
+		line.append(SEPARATOR);
+		line.append(value);
+		line.append(SEPARATOR);
+		line.append(checksum(step.name(),value));
+		line.append('\n');
+
+		try {
+			Files.createDirectories(directory);
+			try(FileChannel channel = FileChannel.open(file,CREATE,READ,WRITE)){
+				if(isTorn(channel))
+					line.insert(0,'\n');
+				channel.write(ByteBuffer.wrap(line.toString().getBytes(CHARSET)),
+						channel.size());
+				channel.force(true);
+			}
+			records.put(step, value);
+		} catch (IOException cause) {
+			errorHandler.accept(cause.toString());
+		}
+	}
+
+	/**
+	 * Checks if the last record of the journal was torn, i.e. if it 
+	 * does not end with a new line, hence the next record must start 
+	 * in a new line to be readable 
+	 * @param channel	of journal
+	 * @return {@code true} if torn; {@code false} otherwise
+	 * @throws IOException if journal cannot be read
+	 */
+	private static boolean isTorn(FileChannel channel) throws IOException {
+		ByteBuffer last = ByteBuffer.allocate(1);
+		
+		if(channel.size() == 0)
+			return false;
+		channel.read(last,channel.size()-1);
+		return last.get(0) != '\n';
+	}
+
+	/**
+	 * Record the completion of given step with an associated path
+	 * @param step
+	 * @param path
+	 */
+	public void record(Step step,Path path) {
+		record(step,path.toAbsolutePath().toString());
+	}
+
+	/**
+	 * Keep a downloaded file in the state directory, to be reused
+	 * if installation is resumed, and record the completion of given step.
+	 * The kept file is named after the last segment of the URL
+	 * it was downloaded from.
+	 *
+	 * @param step		download step
+	 * @param download	temporary file with download
+	 * @param url		from which file was downloaded
+	 * @return path to kept file, or the given download if it cannot be kept
+	 */
+	public Path keep(Step step,Path download,String url) {
+		Path kept = directory.resolve(url.substring(url.lastIndexOf('/')+1));
+
+		try {
+			Files.createDirectories(directory);
+			Files.move(download, kept, REPLACE_EXISTING);
+			record(step,kept);
+		} catch (IOException cause) {
+			errorHandler.accept(cause.toString());
+			kept = download;
+		}
+		return kept;
+	}
+
+	/**
+	 * Checks if given step was completed
+	 * @param step
+	 * @return {@code true} if completed; {@code false} otherwise
+	 */
+	public synchronized boolean has(Step step) {
+		return records.containsKey(step);
+	}
+
+	/**
+	 * Value recorded with given step
+	 * @param step
+	 * @return value or {@code null} if step was not completed
+	 */
+	public synchronized String get(Step step) {
+		return records.get(step);
+	}
+
+	/**
+	 * Path recorded with given step, if it still exists
+	 * @param step
+	 * @return path or {@code null} if step was not completed
+	 * 		or its file is no longer available
+	 */
+	public synchronized Path getPath(Step step) {
+		String value = records.get(step);
+		Path path = null;
+
+		if(value != null && Files.exists(Paths.get(value)))
+			path = Paths.get(value);
+
+		return path;
+	}
+
+	/**
+	 * Last completed step, in the order they were recorded
+	 * @return step or {@code null} if none was completed
+	 */
+	public synchronized Step last() {
+		Step last = null;
+
+		for(Step step: records.keySet())
+			last = step;
+
+		return last;
+	}
+
+	/**
+	 * Discard all records and kept downloads
+	 */
+	public synchronized void clear() {
+		records.clear();
+
+		if(Files.isDirectory(directory)) {
+			try(Stream<Path> paths = Files.list(directory)) {
+				paths.forEach( path -> {
+					try {
+						Files.deleteIfExists(path);
+					} catch (IOException cause) {
+						errorHandler.accept(cause.toString());
+					}
+				});
+				Files.deleteIfExists(directory);
+			} catch (IOException cause) {
+				errorHandler.accept(cause.toString());
+			}
+		}
+	}
+
+	/**
+	 * Checksum of a record, to detect torn writes
+	 * @param step
+	 * @param value
+	 * @return hexadecimal CRC32
+	 */
+	private static String checksum(String step, String value) {
+		CRC32 crc = new CRC32();
+
+		crc.update((step+SEPARATOR+value).getBytes(CHARSET));
+
+		return Long.toHexString(crc.getValue());
+	}
+
+	/**
+	 * Get the state directory of this journal
+	 * @return the directory
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Set a consumer of strings that reports them as errors
+	 * @param errorHandler the errorHandler to set
+	 */
+	public void setErrorHandler(Consumer<String> errorHandler) {
+		this.errorHandler = errorHandler;
+	}
+
+}
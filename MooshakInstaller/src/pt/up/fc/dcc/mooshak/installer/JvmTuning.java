@@ -0,0 +1,345 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * JVM options of the servlet container sized for this machine,
+ * according to a profile: a small lab server, where the container
+ * shares the machine with other services, or a large contest server,
+ * dedicated to the container and tuned for short pauses.
+ * If the machine runs several instances of the container, each
+ * instance gets its share of the memory and processors.
+ * Options are written to the container's {@code bin/setenv.sh},
+ * with those depending on the JDK version selected by the script,
+ * in a delimited block, replaced on each installation, preserving
+ * any other content of that script.
+ */
+public class JvmTuning {
+
+	static final String BEGIN = "# BEGIN Mooshak installer JVM tuning";
+	static final String END = "# END Mooshak installer JVM tuning";
+	static final String SETENV = "bin/setenv.sh";
+	static final String GC_LOG = "$CATALINA_BASE/logs/gc.log";
+
+	static final long MB = 1L<<20;
+	static final long MINIMUM_HEAP = 256;
+	static final long SERIAL_HEAP = 1792;
+	static final long AUTO_LARGE_MEMORY = 16*1024;
+	static final int AUTO_LARGE_CORES = 8;
+	static final String GC_LOG_FILES = "filecount=5,filesize=10M";
+	static final String JAVA_MAJOR = "MOOSHAK_JAVA_MAJOR";
+	static final String CDS_TRAINING = "MOOSHAK_CDS_TRAINING";
+	static final String CDS_ARCHIVE = "cds/mooshak.jsa";
+	static final int CDS_VERSION = 13;
+
+	/**
+	 * Profile of the server where the container runs
+	 */
+	public enum Profile {
+		SMALL, LARGE;
+
+		/**
+		 * Profile with given name (case insensitive), or selected from
+		 * hardware if name is {@code auto}
+		 * @param name		of profile
+		 * @param cores		number of processors
+		 * @param memory	physical memory in MB
+		 * @return profile
+		 */
+		static Profile of(String name,int cores,long memory) {
+			if("auto".equalsIgnoreCase(name))
+				return cores >= AUTO_LARGE_CORES && memory >= AUTO_LARGE_MEMORY ?
+						LARGE : SMALL;
+			else
+				return valueOf(name.trim().toUpperCase());
+		}
+
+		/**
+		 * Name of this profile, as in properties
+		 * @return name
+		 */
+		String getName() {
+			return name().toLowerCase();
+		}
+	}
+
+	private Profile profile;
+	private int cores;
+	private long memory;
+	private int instances;
+	private long heap;
+	private String collector;
+	private List<String> options = new ArrayList<>();
+	private List<String> extra = new ArrayList<>();
+	private String archive = null;
+
+	/**
+	 * Tuning for this machine with profile defined by the
+	 * {@code jvm.profile} property (by default, selected from hardware)
+	 */
+	public JvmTuning() {
+		this(1);
+	}
+
+	/**
+	 * Tuning of each of the given number of instances of the container
+	 * in this machine with profile defined by the {@code jvm.profile}
+	 * property (by default, selected from hardware)
+	 * @param instances	of the container sharing this machine
+	 */
+	public JvmTuning(int instances) {
+		this(Utils.getProperty("jvm.profile","auto"),
+				Runtime.getRuntime().availableProcessors(),getPhysicalMemory(),
+				instances);
+	}
+
+	/**
+	 * Tuning for given profile and hardware, with parameters
+	 * defined by installer properties with prefix {@code jvm.<profile>}
+	 * @param profile	name (small, large or auto)
+	 * @param cores		number of processors
+	 * @param memory	physical memory in MB
+	 */
+	public JvmTuning(String profile,int cores,long memory) {
+		this(profile,cores,memory,1);
+	}
+
+	/**
+	 * Tuning of each of the given number of instances of the container
+	 * for given profile and hardware, shared by all instances.
+	 * The profile is selected from the whole machine.
+	 * @param profile	name (small, large or auto)
+	 * @param cores		number of processors
+	 * @param memory	physical memory in MB
+	 * @param instances	of the container sharing this machine
+	 */
+	public JvmTuning(String profile,int cores,long memory,int instances) {
+		this.cores = cores;
+		this.memory = memory;
+		this.instances = Math.max(1,instances);
+		this.profile = Profile.of(profile,cores,memory);
+
+		size();
+	}
+
+	private long parameter(String name,long value) {
+		return Long.parseLong(Utils.getProperty("jvm."+profile.getName()+"."+name,
+				Long.toString(value)));
+	}
+
+	/**
+	 * Physical memory of this machine, as reported by the JVM
+	 * or by {@code /proc/meminfo}
+	 * @return memory in MB, or 0 if unknown
+	 */
+	// getTotalMemorySize() replaces it only from JDK 14, after Java 8
+	@SuppressWarnings("deprecation")
+	static long getPhysicalMemory() {
+		OperatingSystemMXBean system = ManagementFactory.getOperatingSystemMXBean();
+
+		if(system instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) system)
+					.getTotalPhysicalMemorySize() / MB;
+
+		try {
+			Matcher matcher = Pattern.compile("MemTotal:\\s+(\\d+) kB")
+					.matcher(new String(Files.readAllBytes(
+							Paths.get("/proc/meminfo")),StandardCharsets.US_ASCII));
+			if(matcher.find())
+				return Long.parseLong(matcher.group(1)) >> 10;
+		} catch (IOException | RuntimeException cause) {
+			// unknown
+		}
+		return 0;
+	}
+
+	/**
+	 * Size heap and select collector from profile and hardware.
+	 * The heap is a fraction of the memory of each instance, up to
+	 * a maximum (below 32 GB to keep compressed pointers), hence all
+	 * instances together take that fraction of the machine's memory;
+	 * a large profile fixes its size
+	 * and touches it at startup. Small heaps on few cores use
+	 * the serial collector and the others G1 with a pause target.
+	 */
+	private void size() {
+		long fraction = parameter("heap.fraction",
+				profile == Profile.LARGE ? 50 : 25);
+		long maximum = parameter("heap.maximum",
+				profile == Profile.LARGE ? 30*1024 : 2048);
+		long metaspace = parameter("metaspace",
+				profile == Profile.LARGE ? 512 : 256);
+		long pause = parameter("pause",profile == Profile.LARGE ? 100 : 200);
+
+		heap = Math.max(MINIMUM_HEAP,Math.min(maximum,
+				memory * fraction / 100 / instances));
+
+		if(profile == Profile.LARGE) {
+			options.add("-Xms"+heap+"m");
+			options.add("-Xmx"+heap+"m");
+			options.add("-XX:+AlwaysPreTouch");
+		} else {
+			options.add("-Xms"+Math.max(MINIMUM_HEAP,heap / 4)+"m");
+			options.add("-Xmx"+heap+"m");
+		}
+
+		if(cores / instances <= 2 && heap < SERIAL_HEAP) {
+			collector = "Serial";
+			options.add("-XX:+UseSerialGC");
+		} else {
+			collector = "G1";
+			options.add("-XX:+UseG1GC");
+			options.add("-XX:MaxGCPauseMillis="+pause);
+		}
+
+		options.add("-XX:MaxMetaspaceSize="+metaspace+"m");
+		options.add("-XX:+HeapDumpOnOutOfMemoryError");
+		options.add("-XX:HeapDumpPath=$CATALINA_BASE/logs");
+	}
+
+	/**
+	 * Selected profile
+	 * @return profile
+	 */
+	public Profile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Size of heap of each instance
+	 * @return maximum heap in MB
+	 */
+	public long getHeap() {
+		return heap;
+	}
+
+	/**
+	 * Options of the JVM, excluding GC logging (that depends
+	 * on the JVM version, hence is selected by the script)
+	 * @return list of options
+	 */
+	public List<String> getOptions() {
+		List<String> all = new ArrayList<>(options);
+
+		all.addAll(extra);
+		return Collections.unmodifiableList(all);
+	}
+
+	/**
+	 * Add an option to those of the profile
+	 * @param option	of the JVM
+	 */
+	public void addOption(String option) {
+		extra.add(option);
+	}
+
+	/**
+	 * Use an application class-data sharing archive of the container,
+	 * dumped by a training run (with the {@value #CDS_TRAINING} variable
+	 * set) and then loaded by each start. Archives are dynamic, hence
+	 * only JDK {@value #CDS_VERSION} or later use them; older JDKs start
+	 * as usual, as do those that cannot map the archive.
+	 * @param enabled	if the archive is used
+	 */
+	public void setSharedArchive(boolean enabled) {
+		archive = enabled ? "$CATALINA_BASE/"+CDS_ARCHIVE : null;
+	}
+
+	/**
+	 * Record this tuning in installation properties
+	 * @param properties	of installation
+	 */
+	public void record(Properties properties) {
+		properties.setProperty("jvmProfile",String.format("%s (%d cores, %d MB)",
+				profile.getName(),cores,memory));
+		properties.setProperty("jvmHeap",instances == 1 ? heap+" MB" :
+				heap+" MB in each of "+instances+" instances");
+		properties.setProperty("jvmGarbageCollector",collector);
+		properties.setProperty("jvmOptions",String.join(" ",getOptions()));
+		properties.setProperty("jvmSharedArchive",
+				archive == null ? "none" : archive);
+	}
+
+	/**
+	 * Block of shell script setting {@code CATALINA_OPTS}
+	 * @return lines of script
+	 */
+	List<String> script() {
+		List<String> lines = new ArrayList<>();
+
+		lines.add(BEGIN);
+		lines.add(String.format("# profile %s: %d cores, %d MB of memory",
+				profile.getName(),cores,memory)+(instances == 1 ? "" :
+					String.format(", shared by %d instances",instances)));
+		lines.add("CATALINA_OPTS=\"$CATALINA_OPTS "+
+				String.join(" ",getOptions())+"\"");
+		lines.add("MOOSHAK_JAVA=\"${JRE_HOME:-$JAVA_HOME}\"");
+		lines.add(JAVA_MAJOR+"=$(\"${MOOSHAK_JAVA:+$MOOSHAK_JAVA/bin/}java\""+
+				" -version 2>&1 | sed -n 's/.*version \"\\([0-9]*\\).*/\\1/p'"+
+				" | head -n 1)");
+		lines.add("if [ \"${"+JAVA_MAJOR+":-1}\" -le 8 ]; then");
+		lines.add("  CATALINA_OPTS=\"$CATALINA_OPTS -Xloggc:"+GC_LOG+
+				" -XX:+PrintGCDetails -XX:+PrintGCDateStamps"+
+				" -XX:+UseGCLogFileRotation -XX:NumberOfGCLogFiles=5"+
+				" -XX:GCLogFileSize=10M\"");
+		lines.add("else");
+		lines.add("  CATALINA_OPTS=\"$CATALINA_OPTS -Xlog:gc*:file="+GC_LOG+
+				":time,uptime:"+GC_LOG_FILES+"\"");
+		lines.add("fi");
+		if(archive != null) {
+			lines.add("if [ \"${"+JAVA_MAJOR+":-1}\" -ge "+CDS_VERSION+" ]; then");
+			lines.add("  if [ -n \"$"+CDS_TRAINING+"\" ]; then");
+			lines.add("    CATALINA_OPTS=\"$CATALINA_OPTS -XX:ArchiveClassesAtExit="+
+					archive+"\"");
+			lines.add("  elif [ -f \""+archive+"\" ]; then");
+			lines.add("    CATALINA_OPTS=\"$CATALINA_OPTS -XX:SharedArchiveFile="+
+					archive+" -Xshare:auto\"");
+			lines.add("  fi");
+			lines.add("fi");
+		}
+		lines.add("export CATALINA_OPTS");
+		lines.add(END);
+
+		return lines;
+	}
+
+	/**
+	 * Write options to {@code bin/setenv.sh} of the servlet container,
+	 * replacing a block written by a previous installation, if any
+	 * @param container	folder of servlet container
+	 * @throws IOException if script cannot be written
+	 */
+	public void write(Path container) throws IOException {
+		Path setenv = container.resolve(SETENV);
+		List<String> lines = new ArrayList<>();
+		boolean skip = false;
+
+		if(Files.exists(setenv))
+			for(String line: Files.readAllLines(setenv,StandardCharsets.UTF_8))
+				if(line.equals(BEGIN))
+					skip = true;
+				else if(line.equals(END))
+					skip = false;
+				else if(! skip)
+					lines.add(line);
+
+		if(lines.isEmpty())
+			lines.add("#!/bin/sh");
+		lines.addAll(script());
+
+		Utils.writeAtomically(setenv,"rwxr-xr-x",out -> out.write(
+				(String.join("\n",lines)+"\n").getBytes(StandardCharsets.UTF_8)));
+	}
+}
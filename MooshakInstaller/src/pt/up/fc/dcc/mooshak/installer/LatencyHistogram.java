@@ -0,0 +1,159 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with bounded relative error, in the style of
+ * HdrHistogram. Latencies are recorded in microseconds into buckets,
+ * one for each power of two, each divided in {@value #SUB_BUCKETS}
+ * linear sub-buckets; hence any recorded value is reported with an
+ * error below 1/{@value #SUB_BUCKETS} of its value, using a fixed
+ * amount of memory. Recording is lock free and thread safe.
+ */
+public class LatencyHistogram {
+
+	static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKETS = 1<<SUB_BUCKET_BITS;
+	static final int BUCKETS = 64 - SUB_BUCKET_BITS;
+
+	private AtomicLongArray counts =
+			new AtomicLongArray((BUCKETS + 1) * SUB_BUCKETS);
+	private AtomicLong total = new AtomicLong();
+	private AtomicLong sum = new AtomicLong();
+	private AtomicLong maximum = new AtomicLong();
+
+	/**
+	 * Record a latency
+	 * @param nanos	latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0,nanos / 1000);
+
+		counts.incrementAndGet(index(micros));
+		total.incrementAndGet();
+		sum.addAndGet(micros);
+		maximum.accumulateAndGet(micros,Math::max);
+	}
+
+	/**
+	 * Add all latencies recorded in another histogram to this one
+	 * @param other	histogram
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < counts.length(); i++)
+			counts.addAndGet(i,other.counts.get(i));
+		total.addAndGet(other.total.get());
+		sum.addAndGet(other.sum.get());
+		maximum.accumulateAndGet(other.maximum.get(),Math::max);
+	}
+
+	/**
+	 * Index of the sub-bucket of a value: values below twice
+	 * {@value #SUB_BUCKETS} have a sub-bucket each; larger values are
+	 * shifted right until they are below that limit, and each shift
+	 * is a new bucket of {@value #SUB_BUCKETS} sub-buckets
+	 * @param value	in microseconds
+	 * @return index
+	 */
+	static int index(long value) {
+		int shift = Math.max(0,
+				63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/**
+	 * Highest value in the sub-bucket with given index
+	 * @param index	of sub-bucket
+	 * @return value in microseconds
+	 */
+	static long highest(int index) {
+		int shift = Math.max(0,index / SUB_BUCKETS - 1);
+		long sub = index - shift * SUB_BUCKETS;
+
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Number of recorded latencies
+	 * @return count
+	 */
+	public long getCount() {
+		return total.get();
+	}
+
+	/**
+	 * Mean of recorded latencies
+	 * @return mean in milliseconds, or 0 if none was recorded
+	 */
+	public double getMean() {
+		long count = total.get();
+
+		return count == 0 ? 0 : sum.get() / 1000.0 / count;
+	}
+
+	/**
+	 * Maximum of recorded latencies
+	 * @return maximum in milliseconds
+	 */
+	public double getMaximum() {
+		return maximum.get() / 1000.0;
+	}
+
+	/**
+	 * Latency below which a given percentage of latencies was recorded
+	 * (the highest equivalent value of the sub-bucket where that
+	 * percentage is reached, but not above the maximum)
+	 * @param percent	between 0 and 100
+	 * @return latency in milliseconds, or 0 if none was recorded
+	 */
+	public double getPercentile(double percent) {
+		long count = total.get();
+		long rank = Math.max(1,(long) Math.ceil(percent / 100 * count));
+		long seen = 0;
+
+		if(count == 0)
+			return 0;
+		for(int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if(seen >= rank)
+				return Math.min(highest(i),maximum.get()) / 1000.0;
+		}
+		return getMaximum();
+	}
+
+	/**
+	 * Percentile distribution, as reported by HdrHistogram: latency,
+	 * percentile and cumulative count at percentiles halving the
+	 * distance to 100% on each step, 5 steps at a time
+	 * @return lines of distribution, with a header
+	 */
+	public List<String> getDistribution() {
+		List<String> lines = new ArrayList<>();
+		long count = total.get();
+		double percent = 0;
+
+		lines.add(String.format("%12s %14s %10s %14s",
+				"Value (ms)","Percentile","TotalCount","1/(1-Percentile)"));
+		if(count == 0)
+			return lines;
+		for(double step = 10; percent < 100; step /= 2) {
+			for(int i = 0; i < 5 && percent < 100; i++) {
+				long rank = Math.max(1,(long) Math.ceil(percent / 100 * count));
+
+				lines.add(String.format("%12.3f %14.12f %10d %14.2f",
+						getPercentile(percent),percent / 100,rank,
+						100 / (100 - percent)));
+				percent += step;
+				if(rank == count)
+					percent = 100;
+			}
+		}
+		lines.add(String.format("%12.3f %14.12f %10d %14s",
+				getMaximum(),1.0,count,"inf"));
+		return lines;
+	}
+}
@@ -0,0 +1,331 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * Load generator to validate the capacity of an installation before a
+ * contest. A number of virtual users, each with its own (virtual, if
+ * supported) thread, start gradually during a ramp-up and then send
+ * requests chosen at random from a weighted mix, pausing for a think
+ * time around a mean between requests, until the test duration ends.
+ * Throughput, error rate and latency histograms (for each request of
+ * the mix and overall) are reported.
+ */
+public class LoadGenerator {
+
+	static final int DEFAULT_USERS = 300;
+	static final int DEFAULT_DURATION = 60;
+	static final int DEFAULT_RAMPUP = 30;
+	static final int DEFAULT_THINK = 5000;
+	static final int DEFAULT_TIMEOUT = 10000;
+	static final String DEFAULT_MIX = ":4;/:1";
+	static final int POLL_TIME = 200;
+	static final Pattern WEIGHTED = Pattern.compile("(.*):\\s*(\\d+)\\s*");
+
+	/**
+	 * Request of the mix, with its weight and statistics
+	 */
+	public static class Request {
+		private URL url;
+		private int weight;
+		private LatencyHistogram histogram = new LatencyHistogram();
+		private AtomicLong errors = new AtomicLong();
+
+		Request(URL base,String path,int weight) throws IOException {
+			this.url = new URL(base,path);
+			this.weight = weight;
+		}
+
+		/**
+		 * Histogram of latencies of successful requests
+		 * @return histogram
+		 */
+		public LatencyHistogram getHistogram() {
+			return histogram;
+		}
+
+		/**
+		 * Number of failed requests
+		 * @return errors
+		 */
+		public long getErrors() {
+			return errors.get();
+		}
+	}
+
+	private List<Request> mix = new ArrayList<>();
+	private int users;
+	private long duration;
+	private long rampUp;
+	private long think;
+	private int timeout = DEFAULT_TIMEOUT;
+	private long elapsed = 0;
+
+	/**
+	 * Load generator for given number of users of the webapp with given
+	 * base URL, with settings defined by installer properties with
+	 * prefix {@code capacity}
+	 * @param base	URL of the webapp
+	 * @param users	number of virtual users, or 0 for the
+	 * 				{@code capacity.users} property
+	 * @throws IOException if an URL of the mix is invalid
+	 */
+	public LoadGenerator(String base,int users) throws IOException {
+		this(base,Utils.getProperty("capacity.mix",DEFAULT_MIX),
+				users > 0 ? users : parameter("capacity.users",DEFAULT_USERS),
+				TimeUnit.SECONDS.toMillis(
+						parameter("capacity.duration",DEFAULT_DURATION)),
+				TimeUnit.SECONDS.toMillis(
+						parameter("capacity.rampup",DEFAULT_RAMPUP)),
+				parameter("capacity.think",DEFAULT_THINK));
+		timeout = parameter("capacity.timeout",DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Load generator for the webapp with given base URL
+	 * @param base		URL of the webapp
+	 * @param mix		{@code ;} separated paths, relative to the base URL,
+	 * 					each optionally followed by {@code :} and a weight
+	 * @param users		number of virtual users
+	 * @param duration	of the test, in milliseconds
+	 * @param rampUp	time until all users started, in milliseconds
+	 * @param think		mean time between requests of a user, in milliseconds
+	 * @throws IOException if an URL of the mix is invalid
+	 */
+	public LoadGenerator(String base,String mix,int users,long duration,
+			long rampUp,long think) throws IOException {
+		URL root = new URL(base.endsWith("/") ? base : base+"/");
+
+		for(String request: mix.split(";")) {
+			Matcher matcher = WEIGHTED.matcher(request);
+			String path = matcher.matches() ? matcher.group(1) : request;
+			int weight = matcher.matches() ?
+					Integer.parseInt(matcher.group(2)) : 1;
+
+			if(weight > 0)
+				this.mix.add(new Request(root,path.trim(),weight));
+		}
+		if(this.mix.isEmpty())
+			throw new IOException("Empty request mix");
+
+		this.users = Math.max(1,users);
+		this.duration = duration;
+		this.rampUp = Math.min(rampUp,duration);
+		this.think = think;
+	}
+
+	private static int parameter(String name,int value) {
+		return Integer.parseInt(Utils.getProperty(name,Integer.toString(value)));
+	}
+
+	/**
+	 * Run the test, reporting progress over its duration
+	 * @param progressable	to report progress
+	 * @param cancellation	checked before each request
+	 * @throws CancellationException if cancelled
+	 */
+	public void run(Progressable progressable,Cancellation cancellation) {
+		ExecutorService executor =
+				InstallerExecutors.newThreadPerTaskExecutor("vuser-");
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(duration);
+		int parts = progressable.getMaximum();
+
+		progressable.updatable(true);
+		try {
+			for(int user = 0; user < users; user++) {
+				long delay = rampUp * user / users;
+
+				executor.execute(() -> user(delay,deadline,cancellation));
+			}
+			executor.shutdown();
+			while(! executor.awaitTermination(POLL_TIME,TimeUnit.MILLISECONDS)) {
+				cancellation.check();
+				progressable.update((int) Math.min(parts,
+						(System.nanoTime() - start) * parts /
+						Math.max(1,deadline - start)));
+			}
+		} catch (InterruptedException cause) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted");
+		} finally {
+			executor.shutdownNow();
+			elapsed = System.nanoTime() - start;
+		}
+		progressable.update(parts);
+	}
+
+	/**
+	 * Virtual user: wait for its turn in the ramp-up and then send
+	 * requests, with think time between them, until the deadline
+	 * @param delay			before the first request, in milliseconds
+	 * @param deadline		of the test, in nanoseconds
+	 * @param cancellation	checked before each request
+	 */
+	private void user(long delay,long deadline,Cancellation cancellation) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		try {
+			Thread.sleep(delay);
+			while(System.nanoTime() < deadline && ! cancellation.isCancelled()) {
+				Request request = choose(random.nextInt(getWeight()));
+				long latency = WarmUp.request(request.url,timeout);
+
+				if(latency < 0)
+					request.errors.incrementAndGet();
+				else
+					request.histogram.record(latency);
+
+				Thread.sleep(Math.min(think / 2 + random.nextLong(think + 1),
+						Math.max(0,TimeUnit.NANOSECONDS.toMillis(
+								deadline - System.nanoTime()))));
+			}
+		} catch (InterruptedException cause) {
+			// test ended
+		}
+	}
+
+	private int getWeight() {
+		int weight = 0;
+
+		for(Request request: mix)
+			weight += request.weight;
+		return weight;
+	}
+
+	/**
+	 * Request of the mix for a given draw
+	 * @param draw	between 0 and total weight (exclusive)
+	 * @return request
+	 */
+	Request choose(int draw) {
+		for(Request request: mix)
+			if((draw -= request.weight) < 0)
+				return request;
+		return mix.get(mix.size()-1);
+	}
+
+	/**
+	 * Requests of the mix, with their statistics
+	 * @return list of requests
+	 */
+	public List<Request> getMix() {
+		return mix;
+	}
+
+	/**
+	 * Histogram of latencies of all successful requests
+	 * @return histogram
+	 */
+	public LatencyHistogram getHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		for(Request request: mix)
+			histogram.add(request.histogram);
+		return histogram;
+	}
+
+	/**
+	 * Number of failed requests
+	 * @return errors
+	 */
+	public long getErrors() {
+		long errors = 0;
+
+		for(Request request: mix)
+			errors += request.errors.get();
+		return errors;
+	}
+
+	/**
+	 * Throughput of the test
+	 * @return requests (successful or failed) per second
+	 */
+	public double getThroughput() {
+		return elapsed == 0 ? 0 : (getHistogram().getCount() + getErrors()) /
+				(elapsed / 1e9);
+	}
+
+	/**
+	 * Percentage of failed requests
+	 * @return error rate
+	 */
+	public double getErrorRate() {
+		long requests = getHistogram().getCount() + getErrors();
+
+		return requests == 0 ? 0 : 100.0 * getErrors() / requests;
+	}
+
+	/**
+	 * Summary of the test, in a single line
+	 * @return summary
+	 */
+	public String getSummary() {
+		LatencyHistogram histogram = getHistogram();
+
+		return String.format("%d users: %.1f requests/s, %.2f%% errors,"+
+				" p50 %.1f ms, p99 %.1f ms, max %.1f ms",users,getThroughput(),
+				getErrorRate(),histogram.getPercentile(50),
+				histogram.getPercentile(99),histogram.getMaximum());
+	}
+
+	/**
+	 * Report of the test, with its settings, a summary and
+	 * the latency percentiles of each request, followed by
+	 * the latency distribution of all requests
+	 * @return lines of report
+	 */
+	public List<String> report() {
+		List<String> lines = new ArrayList<>();
+
+		lines.add("# Mooshak capacity test, "+new Date());
+		lines.add(String.format("# %d users, %d s (%d s ramp-up),"+
+				" %d ms think time, %d cores, %d MB",users,
+				TimeUnit.MILLISECONDS.toSeconds(duration),
+				TimeUnit.MILLISECONDS.toSeconds(rampUp),think,
+				Runtime.getRuntime().availableProcessors(),
+				JvmTuning.getPhysicalMemory()));
+		lines.add("");
+		lines.add(getSummary());
+		lines.add("");
+		lines.add(String.format("%-40s %6s %8s %8s %8s %8s %8s %8s",
+				"Request","Weight","Count","Errors","p50","p90","p99","Max"));
+		for(Request request: mix)
+			lines.add(String.format(
+					"%-40s %6d %8d %8d %8.1f %8.1f %8.1f %8.1f",
+					request.url,request.weight,request.histogram.getCount(),
+					request.errors.get(),request.histogram.getPercentile(50),
+					request.histogram.getPercentile(90),
+					request.histogram.getPercentile(99),
+					request.histogram.getMaximum()));
+		lines.add("");
+		lines.addAll(getHistogram().getDistribution());
+
+		return lines;
+	}
+
+	/**
+	 * Write the report of the test to a file
+	 * @param file	of report
+	 * @throws IOException if file cannot be written
+	 */
+	public void write(Path file) throws IOException {
+		Files.write(file,report(),StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,52 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.nio.file.Path;
+
+/**
+ * Artifacts read from a local directory that mirrors a remote location.
+ * A URL under the base URL of the mirror is mapped to the same relative
+ * path in the directory (e.g. {@code version.base/2.0/Mooshak.war} to
+ * {@code dir/2.0/Mooshak.war}); any other URL is mapped to its last segment
+ * in the directory. The base URL of a file (e.g. the servlet container
+ * ZIP file) is its parent, hence the file is expected in the directory.
+ */
+public class MirrorArtifactSource extends FileArtifactSource {
+
+	private Path directory;
+	private String base;
+
+	/**
+	 * Mirror of given base URL in a local directory
+	 * @param directory	laid out as the base URL
+	 * @param base		URL mirrored by directory, or of a file in it
+	 */
+	public MirrorArtifactSource(Path directory,String base) {
+		this.directory = directory;
+		this.base = base.substring(0,base.lastIndexOf('/')+1);
+	}
+
+	/**
+	 * Path in mirror directory of given URL
+	 * @param url	of artifact or directory
+	 * @return path
+	 */
+	@Override
+	protected Path toPath(String url) {
+		String relative;
+
+		if(url.startsWith(base))
+			relative = url.substring(base.length());
+		else
+			relative = url.substring(url.lastIndexOf('/')+1);
+
+		return directory.resolve(relative);
+	}
+
+	/**
+	 * Get the directory of this mirror
+	 * @return the directory
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+}
@@ -0,0 +1,405 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * Cache of downloaded artifacts shared with other installers on the LAN.
+ * When many machines are installed at the same time, only a few need to
+ * download artifacts from their origin; the others fetch them from peers
+ * that serve their cache over HTTP.
+ * <pre>
+ *	GET /artifacts/key	cached artifact, where key is the SHA-256 of its URL
+ * </pre>
+ * Peers are either discovered by multicast, answering a discovery
+ * datagram with the port where they serve artifacts, or listed in the
+ * {@code peers.list} property.
+ *
+ * Artifacts obtained from peers (or from the local cache) are verified
+ * against the SHA-256 checksum published by the origin, next to the
+ * artifact with a {@code .sha256} suffix. If the origin publishes no
+ * checksum, or no peer has a valid copy, the artifact is downloaded from
+ * its origin.
+ */
+public class PeerCache {
+
+	static final String DISCOVER = "MOOSHAK-PEER?";
+	static final String ANNOUNCE = "MOOSHAK-PEER ";
+	static final String CHECKSUM_SUFFIX = ".sha256";
+	static final String CONTEXT = "/artifacts/";
+	static final Charset CHARSET = Charset.forName("US-ASCII");
+
+	private static final int DEFAULT_TIMEOUT = 500;
+
+	private Path directory;
+	private List<String> peers = new ArrayList<>();
+	private HttpServer server;
+	private ExecutorService executor;
+	private MulticastSocket responder;
+
+	/**
+	 * Cache on directory defined in installer properties,
+	 * with peers listed in installer properties
+	 */
+	public PeerCache() {
+		this(Paths.get(Utils.getProperty("peers.cache")));
+
+		try {
+			for(String peer: Utils.getPropertyValues("peers.list"))
+				if(! peer.trim().isEmpty())
+					peers.add(peer.trim());
+		} catch(RuntimeException cause) {
+			// no static peers
+		}
+	}
+
+	/**
+	 * Cache on given directory, without static peers
+	 * @param directory where artifacts are cached
+	 */
+	public PeerCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Add a peer to be tried, besides the discovered ones
+	 * @param peer	as host:port
+	 */
+	public void addPeer(String peer) {
+		peers.add(peer);
+	}
+
+	/**
+	 * Get the directory of this cache
+	 * @return the directory
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	// serving artifacts to peers
+
+	/**
+	 * Serve cached artifacts on port defined by {@code peers.port}
+	 * and answer discovery datagrams
+	 * @throws IOException if port is not available
+	 */
+	public void serve() throws IOException {
+		serve(Integer.parseInt(Utils.getProperty("peers.port").trim()));
+	}
+
+	/**
+	 * Serve cached artifacts on given port and answer discovery datagrams,
+	 * if multicast is available
+	 * @param port	where artifacts are served (0 for an ephemeral port)
+	 * @throws IOException if port is not available
+	 */
+	public void serve(int port) throws IOException {
+		executor = InstallerExecutors.newExecutor("installer-peer-");
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.setExecutor(executor);
+		server.createContext(CONTEXT, this::handleArtifact);
+		server.start();
+
+		try {
+			InetSocketAddress group = getDiscoveryGroup();
+
+			responder = new MulticastSocket(group.getPort());
+			responder.joinGroup(group,null); // on the default interface
+			executor.execute(this::respond);
+		} catch(IOException | RuntimeException cause) {
+			responder = null; // only reachable through static lists
+		}
+	}
+
+	/**
+	 * Checks if artifacts are served to peers
+	 * @return {@code true} if serving; {@code false} otherwise
+	 */
+	public boolean isServing() {
+		return server != null;
+	}
+
+	/**
+	 * Port where artifacts are served
+	 * @return port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stop serving artifacts
+	 */
+	public void stop() {
+		if(responder != null)
+			responder.close();
+		if(server != null)
+			server.stop(0);
+		server = null;
+		if(executor != null)
+			executor.shutdownNow();
+	}
+
+	private void handleArtifact(HttpExchange exchange) throws IOException {
+		String key = exchange.getRequestURI().getPath()
+				.substring(CONTEXT.length());
+		Path file = directory.resolve(key);
+
+		if(! key.matches("[0-9a-f]{64}") || ! Files.isRegularFile(file))
+			exchange.sendResponseHeaders(404, -1);
+		else {
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/octet-stream");
+			exchange.sendResponseHeaders(200, Files.size(file));
+			try(OutputStream out = exchange.getResponseBody()) {
+				Files.copy(file, out);
+			}
+		}
+		exchange.close();
+	}
+
+	/**
+	 * Answer discovery datagrams with the port where artifacts are served
+	 */
+	private void respond() {
+		byte[] buffer = new byte[DISCOVER.length()];
+		byte[] announce = (ANNOUNCE+getPort()).getBytes(CHARSET);
+
+		while(! responder.isClosed())
+			try {
+				DatagramPacket packet = new DatagramPacket(buffer,buffer.length);
+
+				responder.receive(packet);
+				if(DISCOVER.equals(new String(packet.getData(),0,
+						packet.getLength(),CHARSET)))
+					responder.send(new DatagramPacket(announce,announce.length,
+							packet.getSocketAddress()));
+			} catch(IOException cause) {
+				// closed or transient failure
+			}
+	}
+
+	// fetching artifacts from peers
+
+	/**
+	 * Peers known to this cache: those listed and those that answer a
+	 * discovery datagram within {@code peers.discovery.timeout}
+	 * @return peers as host:port
+	 */
+	public List<String> discover() {
+		Set<String> found = new LinkedHashSet<>(peers);
+		byte[] discover = DISCOVER.getBytes(CHARSET);
+		byte[] buffer = new byte[64];
+
+		try(DatagramSocket socket = new DatagramSocket()) {
+			InetSocketAddress group = getDiscoveryGroup();
+			long deadline = System.currentTimeMillis() + getTimeout();
+
+			socket.send(new DatagramPacket(discover,discover.length,group));
+
+			while(true) {
+				long remaining = deadline - System.currentTimeMillis();
+				DatagramPacket packet = new DatagramPacket(buffer,buffer.length);
+
+				if(remaining <= 0)
+					break;
+				socket.setSoTimeout((int) remaining);
+				socket.receive(packet);
+
+				String reply = new String(packet.getData(),0,
+						packet.getLength(),CHARSET);
+				if(reply.startsWith(ANNOUNCE) && ! isSelf(packet, reply))
+					found.add(packet.getAddress().getHostAddress()+":"+
+							reply.substring(ANNOUNCE.length()).trim());
+			}
+		} catch(SocketTimeoutException cause) {
+			// no more answers
+		} catch(IOException | RuntimeException cause) {
+			// multicast unavailable, use listed peers only
+		}
+
+		return new ArrayList<>(found);
+	}
+
+	/**
+	 * Checks if a discovery reply comes from this cache, i.e. if it
+	 * announces the port where this cache serves artifacts and
+	 * comes from an address of a local network interface
+	 * @param packet	with reply
+	 * @param reply		announcement
+	 * @return {@code true} if reply is from this cache
+	 */
+	private boolean isSelf(DatagramPacket packet,String reply) {
+		return isServing() && reply.equals(ANNOUNCE+getPort()) &&
+				isLocal(packet.getAddress());
+	}
+
+	private static boolean isLocal(InetAddress address) {
+		if(address.isLoopbackAddress() || address.isAnyLocalAddress())
+			return true;
+		try {
+			return NetworkInterface.getByInetAddress(address) != null;
+		} catch (SocketException cause) {
+			return false;
+		}
+	}
+
+	/**
+	 * Obtain an artifact from the local cache or from a peer, verified
+	 * against the checksum published by its origin
+	 * @param url			of artifact at its origin
+	 * @param progressable	to report download progress
+	 * @param cancellation	checked while downloading
+	 * @return temporary file with artifact, or {@code null} if it must
+	 * 			be downloaded from origin
+	 * @throws CancellationException if cancelled
+	 */
+	public Path fetch(String url,Progressable progressable,
+			Cancellation cancellation) {
+		String checksum = getOriginChecksum(url);
+		Path cached = directory.resolve(keyOf(url));
+
+		if(checksum == null)
+			return null;
+
+		if(Files.isRegularFile(cached) && isValid(cached,checksum))
+			try {
+				Path copy = Files.createTempFile("mooshak", ".zip");
+
+				Files.copy(cached, copy, REPLACE_EXISTING);
+				progressable.update(progressable.getMaximum());
+				return copy;
+			} catch (IOException cause) {
+				// try peers
+			}
+
+		for(String peer: discover()) {
+			FailureProgressable quiet = new FailureProgressable(progressable);
+			Path download = Utils.dowloadFrom(
+					"http://"+peer+CONTEXT+keyOf(url),".zip",quiet,cancellation);
+
+			if(! quiet.hasFailed() && download != null &&
+					isValid(download,checksum))
+				return download;
+
+			Utils.deleteQuietly(download);
+		}
+		return null;
+	}
+
+	/**
+	 * Store an artifact downloaded from its origin, to be served to peers.
+	 * The artifact is copied and moved into the cache, hence peers never
+	 * get a partially stored artifact.
+	 * @param url		of artifact at its origin
+	 * @param download	file with artifact
+	 * @return {@code true} if stored; {@code false} otherwise
+	 */
+	public boolean store(String url,Path download) {
+		Path stored = directory.resolve(keyOf(url));
+		Path partial = null;
+
+		try {
+			Files.createDirectories(directory);
+			partial = Files.createTempFile(directory, ".", ".part");
+			Files.copy(download, partial, REPLACE_EXISTING);
+			Files.move(partial, stored, ATOMIC_MOVE, REPLACE_EXISTING);
+			return true;
+		} catch (IOException cause) {
+			Utils.deleteQuietly(partial);
+			return false;
+		}
+	}
+
+	/**
+	 * SHA-256 checksum published by the origin next to the artifact
+	 * @param url	of artifact at its origin
+	 * @return hexadecimal checksum or {@code null} if not available
+	 */
+	String getOriginChecksum(String url) {
+		try(InputStream stream = new URL(url+CHECKSUM_SUFFIX).openStream();
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(stream,CHARSET))) {
+			String line = reader.readLine();
+
+			if(line != null) {
+				String checksum = line.trim().split("\\s+")[0].toLowerCase();
+
+				if(checksum.matches("[0-9a-f]{64}"))
+					return checksum;
+			}
+		} catch(IOException cause) {
+			// not published
+		}
+		return null;
+	}
+
+	/**
+	 * Key of an artifact in the cache: the SHA-256 of its URL
+	 * @param url	of artifact at its origin
+	 * @return hexadecimal key
+	 */
+	static String keyOf(String url) {
+		return Bundle.checksum(url.getBytes(Charset.forName("UTF-8")));
+	}
+
+	/**
+	 * Checks if a file has given SHA-256 checksum
+	 * @param file		to check
+	 * @param checksum	hexadecimal
+	 * @return {@code true} if file is readable and has checksum
+	 */
+	private static boolean isValid(Path file,String checksum) {
+		try {
+			return checksum.equals(Bundle.checksum(file));
+		} catch (IOException cause) {
+			return false;
+		}
+	}
+
+	private static InetSocketAddress getDiscoveryGroup() throws IOException {
+		return new InetSocketAddress(
+				InetAddress.getByName(Utils.getProperty("peers.group").trim()),
+				Integer.parseInt(Utils.getProperty("peers.discovery.port").trim()));
+	}
+
+	private static int getTimeout() {
+		try {
+			return Integer.parseInt(
+					Utils.getProperty("peers.discovery.timeout").trim());
+		} catch(RuntimeException cause) {
+			return DEFAULT_TIMEOUT;
+		}
+	}
+}
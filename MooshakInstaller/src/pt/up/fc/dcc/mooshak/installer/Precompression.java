@@ -0,0 +1,393 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * Precompression of the static files of Mooshak's webapp, served by
+ * the container without compressing them on each request.
+ * Compressible files (e.g. scripts and style sheets) outside
+ * {@code WEB-INF} and {@code META-INF} get a {@code .gz} sibling,
+ * compressed in parallel with the best compression level, unless it is
+ * already up to date or compression saves nothing. The default servlet
+ * of the webapp is configured to serve these siblings, and the static
+ * resource cache of its context is sized to the webapp footprint.
+ */
+public class Precompression {
+
+	static final String GZ = ".gz";
+	static final String WEB_XML = "WEB-INF/web.xml";
+	static final String CONTEXT_XML = "META-INF/context.xml";
+	static final String DEFAULT_SERVLET =
+			"org.apache.catalina.servlets.DefaultServlet";
+
+	static final String DEFAULT_TYPES = "js;css;html;htm;svg;json;xml;txt";
+	static final long DEFAULT_SIZE = 1024;
+	static final long MINIMUM_CACHE = 10240;
+	static final long MAXIMUM_CACHE = 262144;
+	static final long KB = 1L<<10;
+
+	private Path webapp;
+	private int version;
+	private Set<String> types = new HashSet<>();
+	private long minimum;
+	private AtomicInteger compressed = new AtomicInteger();
+	private AtomicLong saved = new AtomicLong();
+	private long footprint = 0;
+	private long cache = 0;
+
+	/**
+	 * Precompression of given webapp in a container with given major
+	 * version, for types and minimum size defined by the installer
+	 * properties {@code static.compression.types} and
+	 * {@code static.compression.size}
+	 * @param webapp	folder of Mooshak's webapp
+	 * @param version	major version of the container (e.g. 7), or 0
+	 */
+	public Precompression(Path webapp,int version) {
+		this.webapp = webapp;
+		this.version = version;
+
+		for(String type: Utils.getProperty("static.compression.types",DEFAULT_TYPES)
+				.split(";"))
+			if(! type.trim().isEmpty())
+				types.add(type.trim().toLowerCase());
+		minimum = Long.parseLong(Utils.getProperty("static.compression.size",
+				Long.toString(DEFAULT_SIZE)));
+	}
+
+	/**
+	 * Apply precompression: compress static files
+	 * and configure the webapp to serve them
+	 * @param progressable	to report progress
+	 * @param cancellation	checked before each file
+	 * @throws IOException if a file cannot be compressed or configured
+	 */
+	public void apply(Progressable progressable,Cancellation cancellation)
+			throws IOException {
+		compress(progressable,cancellation);
+		configure();
+	}
+
+	/**
+	 * Static files of the webapp to compress, measuring its footprint
+	 * @return list of files
+	 * @throws IOException if the webapp cannot be traversed
+	 */
+	List<Path> collect() throws IOException {
+		List<Path> files = new ArrayList<>();
+
+		footprint = 0;
+		Files.walkFileTree(webapp,new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attributes) throws IOException {
+				Path relative = webapp.relativize(dir);
+
+				return relative.startsWith("WEB-INF") ||
+						relative.startsWith("META-INF") ?
+						FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attributes) throws IOException {
+				String name = file.getFileName().toString();
+
+				if(name.endsWith(GZ))
+					return FileVisitResult.CONTINUE;
+				footprint += attributes.size();
+				if(attributes.size() >= minimum && isCompressible(name))
+					files.add(file);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return files;
+	}
+
+	private boolean isCompressible(String name) {
+		int dot = name.lastIndexOf('.');
+
+		return dot >= 0 && types.contains(name.substring(dot+1).toLowerCase());
+	}
+
+	/**
+	 * Compress static files in parallel, with as many threads as processors
+	 * @param progressable	to report progress
+	 * @param cancellation	checked before each file
+	 * @return number of files compressed
+	 * @throws IOException if a file cannot be compressed
+	 * @throws CancellationException if cancelled
+	 */
+	public int compress(Progressable progressable,Cancellation cancellation)
+			throws IOException {
+		List<Path> files = collect();
+		int parts = progressable.getMaximum();
+		AtomicInteger done = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors(),
+				InstallerExecutors.newThreadFactory("precompress-"));
+		List<Future<?>> futures = new ArrayList<>();
+
+		progressable.updatable(! files.isEmpty());
+		try {
+			for(Path file: files)
+				futures.add(executor.submit(() -> {
+					cancellation.check();
+					compress(file);
+					progressable.update(done.incrementAndGet() * parts /
+							files.size());
+					return null;
+				}));
+			for(Future<?> future: futures)
+				future.get();
+		} catch (InterruptedException cause) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted");
+		} catch (ExecutionException cause) {
+			if(cause.getCause() instanceof IOException)
+				throw (IOException) cause.getCause();
+			else if(cause.getCause() instanceof RuntimeException)
+				throw (RuntimeException) cause.getCause();
+			else
+				throw new IOException(cause.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return compressed.get();
+	}
+
+	/**
+	 * Compress a single file into a {@code .gz} sibling with the same
+	 * modification time, unless the sibling is up to date. Siblings
+	 * that are not smaller than the file are discarded.
+	 * @param file	to compress
+	 * @throws IOException if file cannot be compressed
+	 */
+	void compress(Path file) throws IOException {
+		Path gz = file.resolveSibling(file.getFileName()+GZ);
+		FileTime modified = Files.getLastModifiedTime(file);
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		if(Files.exists(gz) && Files.getLastModifiedTime(gz).equals(modified))
+			return;
+
+		try(OutputStream out = new GZIPOutputStream(buffer) {
+			{ def.setLevel(Deflater.BEST_COMPRESSION); }
+		}) {
+			Files.copy(file,out);
+		}
+		if(buffer.size() < Files.size(file)) {
+			saved.addAndGet(Files.size(file) - buffer.size());
+			Utils.writeAtomically(gz,buffer::writeTo);
+			Files.setLastModifiedTime(gz,modified);
+			compressed.incrementAndGet();
+		} else
+			Files.deleteIfExists(gz);
+	}
+
+	/**
+	 * Configure the webapp to serve precompressed files, overriding
+	 * its default servlet in {@code WEB-INF/web.xml}, and size
+	 * the resource cache of its context in {@code META-INF/context.xml}
+	 * @throws IOException if configuration cannot be read or written
+	 */
+	public void configure() throws IOException {
+		Path web = webapp.resolve(WEB_XML);
+
+		if(Files.exists(web)) {
+			Document document = ServerTuning.read(web);
+
+			precompressed(document);
+			ServerTuning.write(document,web);
+		}
+
+		configureCache();
+	}
+
+	/**
+	 * Define the default servlet of a webapp deployment descriptor, if
+	 * needed, with precompressed files enabled: {@code precompressed} since
+	 * Tomcat 8.5 and {@code gzip} in earlier versions
+	 * @param document	of web.xml
+	 */
+	void precompressed(Document document) {
+		Element root = document.getDocumentElement();
+		Element servlet = findServlet(document,"default");
+
+		if(servlet == null) {
+			servlet = document.createElement("servlet");
+			append(servlet,"servlet-name","default");
+			append(servlet,"servlet-class",DEFAULT_SERVLET);
+			append(servlet,"load-on-startup","1");
+			root.insertBefore(servlet,first(root,"servlet","servlet-mapping"));
+		}
+
+		setInitParameter(servlet,"precompressed","true");
+		if(version > 0 && version < 9)
+			setInitParameter(servlet,"gzip","true");
+	}
+
+	private static Element findServlet(Document document,String name) {
+		NodeList servlets = document.getElementsByTagName("servlet");
+
+		for(int i = 0; i < servlets.getLength(); i++) {
+			Element servlet = (Element) servlets.item(i);
+
+			if(name.equals(text(servlet,"servlet-name")))
+				return servlet;
+		}
+		return null;
+	}
+
+	private static void setInitParameter(Element servlet,String name,
+			String value) {
+		NodeList parameters = servlet.getElementsByTagName("init-param");
+		Element parameter;
+
+		for(int i = 0; i < parameters.getLength(); i++) {
+			parameter = (Element) parameters.item(i);
+
+			if(name.equals(text(parameter,"param-name"))) {
+				parameter.getElementsByTagName("param-value").item(0)
+					.setTextContent(value);
+				return;
+			}
+		}
+
+		parameter = servlet.getOwnerDocument().createElement("init-param");
+		append(parameter,"param-name",name);
+		append(parameter,"param-value",value);
+		servlet.insertBefore(parameter,first(servlet,"load-on-startup"));
+	}
+
+	private static String text(Element element,String tag) {
+		NodeList children = element.getElementsByTagName(tag);
+
+		return children.getLength() == 0 ? null :
+			children.item(0).getTextContent().trim();
+	}
+
+	private static void append(Element parent,String tag,String text) {
+		Element child = parent.getOwnerDocument().createElement(tag);
+
+		child.setTextContent(text);
+		parent.appendChild(child);
+	}
+
+	/**
+	 * First child element of parent with one of given tags
+	 * @param parent	element
+	 * @param tags		of children
+	 * @return child, or {@code null} if none
+	 */
+	private static Node first(Element parent,String... tags) {
+		List<String> names = Arrays.asList(tags);
+
+		for(Node node = parent.getFirstChild(); node != null;
+				node = node.getNextSibling())
+			if(node instanceof Element && names.contains(node.getNodeName()))
+				return node;
+		return null;
+	}
+
+	/**
+	 * Size the static resource cache of the webapp context to its
+	 * footprint, with a margin of one quarter, bounded by the properties
+	 * {@code static.cache.minimum} and {@code static.cache.maximum} (in KB).
+	 * The cache is configured in the {@code Resources} element since
+	 * Tomcat 8 and in the {@code Context} element in earlier versions.
+	 * @throws IOException if context cannot be read or written
+	 */
+	void configureCache() throws IOException {
+		Path context = webapp.resolve(CONTEXT_XML);
+		Document document;
+		Element element;
+
+		if(footprint == 0)
+			collect();
+		cache = Math.max(Long.parseLong(Utils.getProperty("static.cache.minimum",
+					Long.toString(MINIMUM_CACHE))),
+				Math.min(Long.parseLong(Utils.getProperty("static.cache.maximum",
+					Long.toString(MAXIMUM_CACHE))),
+				footprint * 5 / 4 / KB));
+
+		if(! Files.exists(context)) {
+			Files.createDirectories(context.getParent());
+			Files.write(context,"<Context/>".getBytes(StandardCharsets.UTF_8));
+		}
+
+		document = ServerTuning.read(context);
+		element = document.getDocumentElement();
+		if(version >= 8 || version == 0) {
+			NodeList resources = element.getElementsByTagName("Resources");
+
+			if(resources.getLength() == 0)
+				element = (Element) element.appendChild(
+						document.createElement("Resources"));
+			else
+				element = (Element) resources.item(0);
+		}
+		element.setAttribute("cachingAllowed","true");
+		element.setAttribute("cacheMaxSize",Long.toString(cache));
+
+		ServerTuning.write(document,context);
+	}
+
+	/**
+	 * Record this precompression in installation properties
+	 * @param properties	of installation
+	 */
+	public void record(Properties properties) {
+		properties.setProperty("staticCompression",String.format(
+				"%d files compressed, %d KB saved, %d KB of resource cache",
+				compressed.get(),saved.get() / KB,cache));
+	}
+
+	/**
+	 * Number of files compressed
+	 * @return count
+	 */
+	public int getCompressed() {
+		return compressed.get();
+	}
+
+	/**
+	 * Size of the static resource cache
+	 * @return size in KB
+	 */
+	public long getCache() {
+		return cache;
+	}
+}
@@ -0,0 +1,28 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.IOException;
+
+/**
+ * Random access to the bytes of a (possibly remote) file, used to read
+ * parts of ZIP files without downloading them entirely.
+ *
+ * @see RemoteZip
+ */
+public interface RangeReader {
+
+	/**
+	 * Size of file
+	 * @return number of bytes
+	 * @throws IOException if size cannot be obtained
+	 */
+	long size() throws IOException;
+
+	/**
+	 * Read a range of bytes
+	 * @param offset	of first byte
+	 * @param length	number of bytes
+	 * @return bytes in range
+	 * @throws IOException if range cannot be read entirely
+	 */
+	byte[] read(long offset,int length) throws IOException;
+}
@@ -0,0 +1,165 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Probe of an HTTP server, checking if a URL responds without
+ * downloading its content. A bare TCP connection is attempted first,
+ * failing fast when nothing listens on the port, and then a HEAD
+ * request is sent. Both are limited by a tight timeout, hence a
+ * hung server is reported as not responding.
+ */
+public class ReadinessProbe {
+
+	static final int DEFAULT_TIMEOUT = 500;
+	static final long INITIAL_DELAY = 100;
+	static final long MAXIMUM_DELAY = 2000;
+
+	private URL url;
+	private int timeout;
+
+	/**
+	 * Probe of given URL with timeout defined by the
+	 * {@code probe.timeout} property, if defined
+	 * @param url	to probe
+	 * @throws IOException if URL is invalid
+	 */
+	public ReadinessProbe(String url) throws IOException {
+		this(url,getTimeout());
+	}
+
+	/**
+	 * Probe of given URL with given timeout
+	 * @param url		to probe
+	 * @param timeout	in milliseconds, for connecting and for responding
+	 * @throws IOException if URL is invalid
+	 */
+	public ReadinessProbe(String url,int timeout) throws IOException {
+		this.url = new URL(url);
+		this.timeout = timeout;
+	}
+
+	private static int getTimeout() {
+		try {
+			return Integer.parseInt(Utils.getProperty("probe.timeout").trim());
+		} catch(RuntimeException cause) {
+			return DEFAULT_TIMEOUT;
+		}
+	}
+
+	/**
+	 * Checks if the server responds to a HEAD request of the URL,
+	 * with any status (e.g. a container without a root webapp)
+	 * @return {@code true} if it responds; {@code false} otherwise
+	 */
+	public boolean isResponding() {
+		return status() > 0;
+	}
+
+	/**
+	 * Checks if the URL is ready, i.e. responds with a successful
+	 * or redirection status to a HEAD request
+	 * @return {@code true} if ready; {@code false} otherwise
+	 */
+	public boolean isReady() {
+		int status = status();
+
+		return status >= 200 && status < 400;
+	}
+
+	/**
+	 * Wait until URL is ready, probing it with exponential backoff
+	 * @param maximum		time to wait, in milliseconds
+	 * @param cancellation	checked before each probe
+	 * @return time until URL was ready, in milliseconds,
+	 * 		or -1 if it was not ready in the maximum time
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws CancellationException if cancelled
+	 */
+	public long await(long maximum,Cancellation cancellation) 
+			throws InterruptedException {
+		return await(maximum,cancellation,this::isReady);
+	}
+
+	/**
+	 * Wait until server is no longer responding (e.g. after a shutdown),
+	 * probing it with exponential backoff
+	 * @param maximum		time to wait, in milliseconds
+	 * @param cancellation	checked before each probe
+	 * @return time until server stopped responding, in milliseconds,
+	 * 		or -1 if it was still responding after the maximum time
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws CancellationException if cancelled
+	 */
+	public long awaitStopped(long maximum,Cancellation cancellation) 
+			throws InterruptedException {
+		return await(maximum,cancellation,() -> ! isResponding());
+	}
+
+	private long await(long maximum,Cancellation cancellation,
+			BooleanSupplier condition) throws InterruptedException {
+		long start = System.nanoTime();
+		long delay = INITIAL_DELAY;
+		long elapsed;
+
+		while(! condition.getAsBoolean()) {
+			cancellation.check();
+			elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			if(elapsed >= maximum)
+				return -1;
+			Thread.sleep(Math.min(delay,maximum - elapsed));
+			delay = Math.min(delay * 2,MAXIMUM_DELAY);
+		}
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	/**
+	 * Status of a HEAD request of the URL
+	 * @return HTTP status, or -1 if server is not responding
+	 */
+	private int status() {
+		if(! isListening())
+			return -1;
+
+		try {
+			HttpURLConnection connection =
+					(HttpURLConnection) url.openConnection();
+
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+			connection.setInstanceFollowRedirects(false);
+			connection.setUseCaches(false);
+			try {
+				connection.setRequestMethod("HEAD");
+				return connection.getResponseCode();
+			} finally {
+				connection.disconnect();
+			}
+		} catch (IOException | ClassCastException cause) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Checks if something is listening on the port of the URL
+	 * @return {@code true} if a connection was accepted;
+	 * 		{@code false} otherwise
+	 */
+	private boolean isListening() {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+
+		try(Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(url.getHost(),port),timeout);
+			return true;
+		} catch (IOException cause) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,513 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Random access to a ZIP file through a {@link RangeReader}, hence
+ * without downloading it. Only the End Of Central Directory record and
+ * the central directory are read when opening, giving the entries of
+ * the ZIP file with their sizes and CRCs. Entries are read on demand,
+ * with a range covering their local header and data, and nearby entries
+ * may be read together in a single range.
+ *
+ * ZIP64 archives are supported; encrypted entries and compression
+ * methods other than STORED and DEFLATED are not.
+ */
+public class RemoteZip {
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+	private static final int CENTRAL_SIGNATURE = 0x02014b50;
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+	private static final int EOCD_SIZE = 22;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int ZIP64_EOCD_SIZE = 56;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int MAX_COMMENT = 0xFFFF;
+	private static final long UNKNOWN = 0xFFFFFFFFL;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	private RangeReader reader;
+	private Map<String,Entry> entries = new LinkedHashMap<>();
+	private long directoryOffset;
+
+	/**
+	 * Consumer of the content of entries read in a batch
+	 */
+	public interface EntryHandler {
+		/**
+		 * Handle the uncompressed content of an entry
+		 * @param entry		that was read
+		 * @param content	of entry
+		 * @throws IOException
+		 */
+		void accept(Entry entry,byte[] content) throws IOException;
+	}
+
+	/**
+	 * An entry of the ZIP file, as recorded in its central directory
+	 */
+	public static class Entry {
+		private String name;
+		private int method;
+		private long crc;
+		private long compressedSize;
+		private long size;
+		private long offset;
+		private long end;
+
+		/**
+		 * Name of entry, including its path in the archive
+		 * @return name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Checks if this entry is a directory
+		 * @return {@code true} if directory; {@code false} otherwise
+		 */
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+
+		/**
+		 * Compression method (0 for STORED and 8 for DEFLATED)
+		 * @return method
+		 */
+		public int getMethod() {
+			return method;
+		}
+
+		/**
+		 * CRC-32 of uncompressed content
+		 * @return crc
+		 */
+		public long getCrc() {
+			return crc;
+		}
+
+		/**
+		 * Size of content in the archive
+		 * @return number of bytes
+		 */
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		/**
+		 * Size of uncompressed content
+		 * @return number of bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Open a ZIP file reading only its central directory
+	 * @param reader	of ZIP file
+	 * @throws IOException if ZIP file cannot be read or is invalid
+	 */
+	public RemoteZip(RangeReader reader) throws IOException {
+		this.reader = reader;
+
+		readCentralDirectory();
+	}
+
+	/**
+	 * Entries of ZIP file, in the order of its central directory
+	 * @return list of entries
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+	}
+
+	/**
+	 * Entry with given name
+	 * @param name	of entry
+	 * @return entry or {@code null} if none
+	 */
+	public Entry getEntry(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Total size of uncompressed content, i.e. the space required
+	 * to extract this ZIP file
+	 * @return number of bytes
+	 */
+	public long getSize() {
+		long size = 0;
+
+		for(Entry entry: entries.values())
+			size += entry.size;
+		return size;
+	}
+
+	/**
+	 * Read the uncompressed content of an entry, checking its CRC.
+	 * A single range is read, from its local header to the next entry.
+	 * @param entry	to read
+	 * @return content
+	 * @throws IOException if entry cannot be read or is corrupted
+	 */
+	public byte[] read(Entry entry) throws IOException {
+		ByteBuffer range = buffer(reader.read(entry.offset,
+				toInt(entry.end - entry.offset)));
+
+		return decode(range,0,entry);
+	}
+
+	/**
+	 * Read several entries, coalescing those that are close in the ZIP
+	 * file in a single range. Entries are handled in the order they 
+	 * appear in the ZIP file.
+	 * @param selected	entries to read
+	 * @param maxGap	maximum number of unwanted bytes between entries
+	 * 					in the same range
+	 * @param maxRange	maximum size of a range, unless a single entry
+	 * 					is larger
+	 * @param handler	of the content of each entry
+	 * @throws IOException if entries cannot be read or are corrupted
+	 */
+	public void read(Collection<Entry> selected,long maxGap,long maxRange,
+			EntryHandler handler) throws IOException {
+		List<Entry> sorted = new ArrayList<>(selected);
+		int first = 0;
+
+		sorted.sort(Comparator.comparingLong(entry -> entry.offset));
+
+		while(first < sorted.size()) {
+			long start = sorted.get(first).offset;
+			int last = first;
+			ByteBuffer range;
+
+			while(last+1 < sorted.size() &&
+					sorted.get(last+1).offset - sorted.get(last).end <= maxGap &&
+					sorted.get(last+1).end - start <= maxRange)
+				last++;
+
+			range = buffer(reader.read(start,
+					toInt(sorted.get(last).end - start)));
+
+			for(Entry entry: sorted.subList(first, last+1))
+				handler.accept(entry,
+						decode(range,toInt(entry.offset - start),entry));
+
+			first = last+1;
+		}
+	}
+
+	/**
+	 * Decode an entry from a range starting at its local header
+	 * @param range		read from the ZIP file
+	 * @param position	of local header in range
+	 * @param entry		to decode
+	 * @return uncompressed content
+	 * @throws IOException if entry is corrupted or truncated
+	 */
+	private byte[] decode(ByteBuffer range,int position,Entry entry)
+			throws IOException {
+		byte[] data;
+		byte[] content;
+		CRC32 crc = new CRC32();
+		int start;
+
+		check(range,position,LOCAL_HEADER_SIZE,"local header of "+entry);
+		if(range.getInt(position) != LOCAL_SIGNATURE)
+			throw new ZipException("Invalid local header of "+entry);
+
+		start = position + LOCAL_HEADER_SIZE +
+				unsignedShort(range,position+26) +
+				unsignedShort(range,position+28);
+		check(range,start,entry.compressedSize,"data of "+entry);
+		data = new byte[toInt(entry.compressedSize)];
+		range.position(start);
+		range.get(data);
+
+		switch(entry.method) {
+		case STORED:
+			content = data;
+			break;
+		case DEFLATED:
+			content = inflate(data,toInt(entry.size));
+			break;
+		default:
+			throw new ZipException("Unsupported method "+entry.method+
+					" of "+entry);
+		}
+
+		crc.update(content);
+		if(crc.getValue() != entry.crc)
+			throw new ZipException("Invalid CRC of "+entry);
+
+		return content;
+	}
+
+	/**
+	 * Extract an entry to a directory, creating its parent directories.
+	 * Entries with names outside the directory are rejected.
+	 * @param entry		to extract
+	 * @param target	directory where entry is written
+	 * @return path of extracted file
+	 * @throws IOException if entry cannot be read or file written
+	 */
+	public Path extract(Entry entry,Path target) throws IOException {
+		Path file = Utils.resolveEntry(target, entry.getName());
+
+		Files.createDirectories(file.getParent());
+		Files.write(file, read(entry));
+		return file;
+	}
+
+	/**
+	 * Read the End Of Central Directory record (at most the size of the
+	 * record plus the maximum comment from the end) and then the central
+	 * directory it points to, in a single range each
+	 * @throws IOException
+	 */
+	private void readCentralDirectory() throws IOException {
+		long size = reader.size();
+		int tailSize = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT +
+				ZIP64_LOCATOR_SIZE);
+		long tailOffset = size - tailSize;
+		ByteBuffer tail = buffer(reader.read(tailOffset,tailSize));
+		int eocd = -1;
+		long count;
+		long directorySize;
+
+		for(int pos = tail.limit() - EOCD_SIZE; pos >= 0 && eocd < 0; pos--)
+			if(tail.getInt(pos) == EOCD_SIGNATURE)
+				eocd = pos;
+
+		if(eocd < 0)
+			throw new ZipException("Not a ZIP file: no end of central directory");
+
+		count = unsignedShort(tail,eocd+10);
+		directorySize = unsignedInt(tail,eocd+12);
+		directoryOffset = unsignedInt(tail,eocd+16);
+
+		if(eocd >= ZIP64_LOCATOR_SIZE &&
+				tail.getInt(eocd-ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR_SIGNATURE) {
+			long zip64 = tail.getLong(eocd-ZIP64_LOCATOR_SIZE+8);
+			ByteBuffer record;
+
+			if(zip64 < 0 || zip64 > size - ZIP64_EOCD_SIZE)
+				throw new ZipException("Invalid ZIP64 end of central directory");
+			record = buffer(reader.read(zip64,ZIP64_EOCD_SIZE));
+			check(record,0,ZIP64_EOCD_SIZE,"ZIP64 end of central directory");
+			if(record.getInt(0) != ZIP64_EOCD_SIGNATURE)
+				throw new ZipException("Invalid ZIP64 end of central directory");
+
+			count = record.getLong(32);
+			directorySize = record.getLong(40);
+			directoryOffset = record.getLong(48);
+		}
+
+		if(count < 0 || directorySize < 0 || directoryOffset < 0 ||
+				directoryOffset > size - directorySize)
+			throw new ZipException("Invalid end of central directory");
+
+		parse(buffer(reader.read(directoryOffset,toInt(directorySize))),count);
+		computeEnds();
+	}
+
+	/**
+	 * The end of each entry is the start of the next one in the ZIP file
+	 * (including a data descriptor, if any) or the central directory
+	 */
+	private void computeEnds() {
+		List<Entry> sorted = new ArrayList<>(entries.values());
+		long next = directoryOffset;
+
+		sorted.sort(Comparator.comparingLong(entry -> entry.offset));
+		for(int index = sorted.size()-1; index >= 0; index--) {
+			sorted.get(index).end = next;
+			next = sorted.get(index).offset;
+		}
+	}
+
+	/**
+	 * Parse central directory headers
+	 * @param directory	with headers
+	 * @param count		of headers
+	 * @throws ZipException if headers are invalid
+	 */
+	private void parse(ByteBuffer directory,long count) throws ZipException {
+		int pos = 0;
+
+		for(long index = 0; index < count; index++) {
+			Entry entry = new Entry();
+			int nameLength;
+			int extraLength;
+			int commentLength;
+			byte[] name;
+
+			check(directory,pos,CENTRAL_HEADER_SIZE,"central directory header");
+			if(directory.getInt(pos) != CENTRAL_SIGNATURE)
+				throw new ZipException("Invalid central directory header");
+
+			entry.method = unsignedShort(directory,pos+10);
+			entry.crc = unsignedInt(directory,pos+16);
+			entry.compressedSize = unsignedInt(directory,pos+20);
+			entry.size = unsignedInt(directory,pos+24);
+			nameLength = unsignedShort(directory,pos+28);
+			extraLength = unsignedShort(directory,pos+30);
+			commentLength = unsignedShort(directory,pos+32);
+			entry.offset = unsignedInt(directory,pos+42);
+			check(directory,pos+CENTRAL_HEADER_SIZE,
+					nameLength + extraLength + commentLength,
+					"central directory header");
+
+			name = new byte[nameLength];
+			directory.position(pos+CENTRAL_HEADER_SIZE);
+			directory.get(name);
+			entry.name = new String(name,charset(unsignedShort(directory,pos+8)));
+
+			readZip64Extra(directory,pos+CENTRAL_HEADER_SIZE+nameLength,
+					extraLength,entry);
+			if(entry.offset < 0 || entry.offset >= directoryOffset ||
+					entry.compressedSize < 0 || entry.size < 0)
+				throw new ZipException("Invalid central directory header of "+
+						entry);
+
+			entries.put(entry.name, entry);
+			pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+	}
+
+	/**
+	 * Replace sizes and offset of an entry that overflow 32 bits by those
+	 * in its ZIP64 extra field, which are present in this order only
+	 * for overflown values
+	 * @throws ZipException if a field exceeds the extra field
+	 */
+	private void readZip64Extra(ByteBuffer directory,int start,int length,
+			Entry entry) throws ZipException {
+		int pos = start;
+
+		while(pos + 4 <= start + length) {
+			int id = unsignedShort(directory,pos);
+			int size = unsignedShort(directory,pos+2);
+			int field = pos + 4;
+			int limit = Math.min(field + size, start + length);
+
+			if(id == 0x0001) {
+				if(entry.size == UNKNOWN) {
+					entry.size = zip64Field(directory,field,limit);
+					field += 8;
+				}
+				if(entry.compressedSize == UNKNOWN) {
+					entry.compressedSize = zip64Field(directory,field,limit);
+					field += 8;
+				}
+				if(entry.offset == UNKNOWN)
+					entry.offset = zip64Field(directory,field,limit);
+			}
+			pos += 4 + size;
+		}
+	}
+
+	private static long zip64Field(ByteBuffer directory,int field,int limit)
+			throws ZipException {
+		if(field + 8 > limit)
+			throw new ZipException("Truncated ZIP64 extra field");
+		return directory.getLong(field);
+	}
+
+	private static byte[] inflate(byte[] data,int size) throws IOException {
+		Inflater inflater = new Inflater(true);
+		byte[] content = new byte[size];
+		int inflated = 0;
+
+		try {
+			inflater.setInput(data);
+			while(inflated < size && ! inflater.finished()) {
+				int len = inflater.inflate(content, inflated, size - inflated);
+
+				if(len == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				inflated += len;
+			}
+		} catch (DataFormatException cause) {
+			throw new ZipException(cause.getMessage());
+		} finally {
+			inflater.end();
+		}
+
+		if(inflated < size)
+			throw new ZipException("Truncated compressed data");
+		return content;
+	}
+
+	private static ByteBuffer buffer(byte[] bytes) {
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int unsignedShort(ByteBuffer buffer,int pos) {
+		return buffer.getShort(pos) & 0xFFFF;
+	}
+
+	private static long unsignedInt(ByteBuffer buffer,int pos) {
+		return buffer.getInt(pos) & UNKNOWN;
+	}
+
+	private static int toInt(long size) throws ZipException {
+		if(size < 0)
+			throw new ZipException("Invalid size: "+size);
+		if(size > Integer.MAX_VALUE)
+			throw new ZipException("Too large to read in memory: "+size);
+		return (int) size;
+	}
+
+	/**
+	 * Check that a structure of the ZIP file lies within the bytes read,
+	 * which are fewer than expected if the file is truncated
+	 * @param buffer	with bytes read
+	 * @param position	of structure in buffer
+	 * @param length	of structure
+	 * @param what		structure, to report
+	 * @throws ZipException if structure exceeds the buffer
+	 */
+	private static void check(ByteBuffer buffer,long position,long length,
+			String what) throws ZipException {
+		if(position < 0 || length < 0 || position + length > buffer.limit())
+			throw new ZipException("Truncated "+what);
+	}
+
+	/**
+	 * Charset of names: UTF-8 if flagged (bit 11), otherwise the
+	 * original IBM PC charset, approximated by ISO-8859-1
+	 */
+	private static Charset charset(int flags) {
+		return Charset.forName((flags & 0x0800) != 0 ? "UTF-8" : "ISO-8859-1");
+	}
+}
@@ -0,0 +1,145 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replicates an installed tree (servlet container, webapp, home) into
+ * another location, typically the same path under another root prefix.
+ * Files are either hard linked to the source, sharing its content and
+ * avoiding any copy, or copied. Linking falls back to copying when the
+ * target is on a different file system.
+ *
+ * Linked files share content with the source, hence
+ * they should not be modified in place after replication.
+ */
+public class Replicator {
+
+	/**
+	 * Replication modes
+	 */
+	public enum Mode { LINK, COPY }
+
+	private Mode mode;
+	private Cancellation cancellation;
+	private AtomicLong linked = new AtomicLong();
+	private AtomicLong copied = new AtomicLong();
+
+	/**
+	 * Replicator in given mode
+	 * @param mode			of replication
+	 * @param cancellation	checked after each file
+	 */
+	public Replicator(Mode mode,Cancellation cancellation) {
+		this.mode = mode;
+		this.cancellation = cancellation;
+	}
+
+	/**
+	 * Replicator in mode defined by {@code roots.replicate} property
+	 * @param cancellation	checked after each file
+	 */
+	public Replicator(Cancellation cancellation) {
+		this(getDefaultMode(),cancellation);
+	}
+
+	private static Mode getDefaultMode() {
+		try {
+			return Mode.valueOf(Utils.getProperty("roots.replicate")
+					.trim().toUpperCase());
+		} catch(RuntimeException cause) {
+			return Mode.LINK;
+		}
+	}
+
+	/**
+	 * Replicate source tree to target, replacing existing files
+	 * @param source	directory
+	 * @param target	directory
+	 * @throws IOException
+	 */
+	public void replicate(Path source,Path target) throws IOException {
+		replicate(source,target,mode);
+	}
+
+	/**
+	 * Replicate source tree to target, always copying files.
+	 * Used for content that is modified in place after installation.
+	 * @param source	directory
+	 * @param target	directory
+	 * @throws IOException
+	 */
+	public void copy(Path source,Path target) throws IOException {
+		replicate(source,target,Mode.COPY);
+	}
+
+	private void replicate(Path source,Path target,Mode mode)
+			throws IOException {
+
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(target.resolve(source.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attrs) throws IOException {
+				Path replica = target.resolve(source.relativize(file));
+
+				cancellation.check();
+				if(mode == Mode.LINK && link(file,replica))
+					linked.incrementAndGet();
+				else {
+					Files.copy(file,replica,REPLACE_EXISTING,COPY_ATTRIBUTES);
+					copied.incrementAndGet();
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Hard link replica to file, replacing an existing replica
+	 * @param file		existing file
+	 * @param replica	link to create
+	 * @return {@code true} if linked; {@code false} if links are not
+	 * 			supported (e.g. different file systems)
+	 */
+	private boolean link(Path file,Path replica) {
+		try {
+			Files.deleteIfExists(replica);
+			Files.createLink(replica, file);
+			return true;
+		} catch(IOException | UnsupportedOperationException cause) {
+			return false;
+		}
+	}
+
+	/**
+	 * Number of files replicated by linking
+	 * @return
+	 */
+	public long getLinked() {
+		return linked.get();
+	}
+
+	/**
+	 * Number of files replicated by copying
+	 * @return
+	 */
+	public long getCopied() {
+		return copied.get();
+	}
+}
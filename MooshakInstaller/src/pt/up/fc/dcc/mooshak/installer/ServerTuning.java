@@ -0,0 +1,276 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Tuning of the servlet container configuration for contest load.
+ * HTTP connectors in {@code conf/server.xml} use a non blocking protocol,
+ * with threads, accept queue and connections sized from the expected
+ * number of concurrent users (of each instance of the container, if
+ * several share the users), bounded keep-alive and compression of
+ * text responses. The access log is buffered and file logging is
+ * asynchronous. Attributes are set in place, hence tuning is idempotent
+ * and the remaining configuration is preserved; the original
+ * {@code server.xml} is kept the first time it is tuned.
+ */
+public class ServerTuning {
+
+	static final String SERVER_XML = "conf/server.xml";
+	static final String LOGGING = "conf/logging.properties";
+	static final String ORIGINAL = ".orig";
+	static final String CATALINA_JAR = "lib/catalina.jar";
+	static final String SERVER_INFO =
+			"org/apache/catalina/util/ServerInfo.properties";
+
+	static final String NIO = "org.apache.coyote.http11.Http11NioProtocol";
+	static final String NIO2 = "org.apache.coyote.http11.Http11Nio2Protocol";
+	static final String ACCESS_LOG = "org.apache.catalina.valves.AccessLogValve";
+	static final String FILE_HANDLER = "org.apache.juli.FileHandler";
+	static final String ASYNC_FILE_HANDLER = "org.apache.juli.AsyncFileHandler";
+
+	private int users;
+	private int instances;
+	private int version;
+	private String protocol;
+	private int maxThreads;
+	private int acceptCount;
+	private int maxConnections;
+
+	/**
+	 * Tuning for given number of concurrent users of a container
+	 * with given major version, with settings defined by installer
+	 * properties with prefix {@code server}
+	 * @param users		expected number of concurrent users
+	 * @param version	major version of the container (e.g. 7)
+	 */
+	public ServerTuning(int users,int version) {
+		this(users,version,1);
+	}
+
+	/**
+	 * Tuning of each of the given number of instances of a container
+	 * with given major version, sharing the concurrent users, with
+	 * settings defined by installer properties with prefix {@code server}
+	 * @param users		expected number of concurrent users of all instances
+	 * @param version	major version of the container (e.g. 7)
+	 * @param instances	of the container sharing the users
+	 */
+	public ServerTuning(int users,int version,int instances) {
+		int share;
+
+		this.users = users;
+		this.instances = Math.max(1,instances);
+		this.version = version;
+
+		share = (users + this.instances - 1) / this.instances;
+		maxThreads = Math.max(200,share);
+		acceptCount = Math.max(100,share);
+		maxConnections = Math.max(1024,4*share);
+		protocol = "nio2".equalsIgnoreCase(
+				Utils.getProperty("server.protocol","nio"))
+				&& version >= 8 ? NIO2 : NIO;
+	}
+
+	/**
+	 * Major version of the container in given folder, from
+	 * the server information in its {@code lib/catalina.jar}
+	 * @param container	folder
+	 * @return major version, or 0 if unknown
+	 */
+	static int getVersion(Path container) {
+		Path jar = container.resolve(CATALINA_JAR);
+
+		if(Files.exists(jar))
+			try(ZipFile zip = new ZipFile(jar.toFile())) {
+				ZipEntry entry = zip.getEntry(SERVER_INFO);
+				Properties info = new Properties();
+
+				if(entry != null) {
+					try(InputStream in = zip.getInputStream(entry)) {
+						info.load(in);
+					}
+					return Integer.parseInt(info.getProperty("server.number",
+							"0").replaceAll("\\..*",""));
+				}
+			} catch (IOException | NumberFormatException cause) {
+				// unknown version
+			}
+		return 0;
+	}
+
+	/**
+	 * Tune {@code conf/server.xml} and {@code conf/logging.properties}
+	 * of the container in given folder
+	 * @param container	folder of servlet container
+	 * @return number of tuned HTTP connectors
+	 * @throws IOException if configuration cannot be read or written
+	 */
+	public int write(Path container) throws IOException {
+		Path server = container.resolve(SERVER_XML);
+		Path original = server.resolveSibling(server.getFileName()+ORIGINAL);
+		Document document = read(server);
+		int connectors = tune(document);
+
+		if(! Files.exists(original))
+			Files.copy(server, original);
+		write(document,server);
+
+		async(container.resolve(LOGGING));
+		return connectors;
+	}
+
+	/**
+	 * Tune HTTP connectors and access log valves of a server configuration
+	 * @param document	of server.xml
+	 * @return number of tuned HTTP connectors
+	 */
+	int tune(Document document) {
+		NodeList connectors = document.getElementsByTagName("Connector");
+		NodeList valves = document.getElementsByTagName("Valve");
+		int count = 0;
+
+		for(int i = 0; i < connectors.getLength(); i++) {
+			Element connector = (Element) connectors.item(i);
+
+			if(isHttp(connector)) {
+				tune(connector);
+				count++;
+			}
+		}
+
+		for(int i = 0; i < valves.getLength(); i++) {
+			Element valve = (Element) valves.item(i);
+
+			if(ACCESS_LOG.equals(valve.getAttribute("className")))
+				valve.setAttribute("buffered","true");
+		}
+
+		return count;
+	}
+
+	/**
+	 * Checks if connector handles HTTP (rather than AJP)
+	 * @param connector	element
+	 * @return {@code true} if HTTP; {@code false} otherwise
+	 */
+	private static boolean isHttp(Element connector) {
+		String protocol = connector.getAttribute("protocol");
+
+		return protocol.isEmpty() || protocol.startsWith("HTTP/") ||
+				protocol.contains("Http11");
+	}
+
+	private void tune(Element connector) {
+		String compressible = version >= 9 || version == 0 ?
+				"compressibleMimeType" : "compressableMimeType";
+
+		connector.setAttribute("protocol",protocol);
+		connector.setAttribute("maxThreads",Integer.toString(maxThreads));
+		connector.setAttribute("minSpareThreads",
+				Integer.toString(Math.max(25,maxThreads/10)));
+		connector.setAttribute("acceptCount",Integer.toString(acceptCount));
+		connector.setAttribute("maxConnections",Integer.toString(maxConnections));
+		connector.setAttribute("keepAliveTimeout",
+				Utils.getProperty("server.keepalive.timeout","15000"));
+		connector.setAttribute("maxKeepAliveRequests",
+				Utils.getProperty("server.keepalive.requests","100"));
+		connector.setAttribute("compression","on");
+		connector.setAttribute("compressionMinSize",
+				Utils.getProperty("server.compression.size","1024"));
+		connector.setAttribute(compressible,
+				Utils.getProperty("server.compression.types","text/html,text/css"));
+	}
+
+	/**
+	 * Make file handlers of logging configuration asynchronous
+	 * @param logging	properties file
+	 * @throws IOException if file cannot be read or written
+	 */
+	private static void async(Path logging) throws IOException {
+		if(! Files.exists(logging))
+			return;
+
+		String content = new String(Files.readAllBytes(logging),
+				StandardCharsets.ISO_8859_1);
+		String tuned = content.replace(FILE_HANDLER,ASYNC_FILE_HANDLER);
+
+		if(! tuned.equals(content))
+			Utils.writeAtomically(logging,out -> 
+				out.write(tuned.getBytes(StandardCharsets.ISO_8859_1)));
+	}
+
+	/**
+	 * Record this tuning in installation properties
+	 * @param properties	of installation
+	 */
+	public void record(Properties properties) {
+		properties.setProperty("serverConnector",String.format(
+				"%s for %d users: %d threads, %d queued, %d connections",
+				protocol.substring(protocol.lastIndexOf('.')+1),users,
+				maxThreads,acceptCount,maxConnections)+(instances == 1 ? "" :
+					String.format(" in each of %d instances",instances)));
+	}
+
+	/**
+	 * Maximum number of request processing threads
+	 * @return threads
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Protocol of HTTP connectors
+	 * @return class name of protocol
+	 */
+	public String getProtocol() {
+		return protocol;
+	}
+
+	static Document read(Path file) throws IOException {
+		try(InputStream in = Files.newInputStream(file)) {
+			return DocumentBuilderFactory.newInstance()
+					.newDocumentBuilder().parse(in);
+		} catch (ParserConfigurationException | SAXException cause) {
+			throw new IOException("Invalid "+file+": "+cause.getMessage());
+		}
+	}
+
+	static void write(Document document,Path file) throws IOException {
+		Utils.writeAtomically(file,out -> {
+			try {
+				Transformer transformer =
+						TransformerFactory.newInstance().newTransformer();
+
+				document.setXmlStandalone(true);
+				transformer.setOutputProperty(OutputKeys.ENCODING,"UTF-8");
+				transformer.transform(new DOMSource(document),
+						new StreamResult(out));
+			} catch (TransformerException cause) {
+				throw new IOException("Cannot write "+file+": "+
+						cause.getMessage());
+			}
+		});
+	}
+}
@@ -0,0 +1,293 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Placement of libraries common to several webapps of the servlet
+ * container (e.g. parallel versions of Mooshak) in its shared class
+ * loader, so that their classes are loaded once rather than once per
+ * webapp. Jars with the same name and content in the {@code WEB-INF/lib}
+ * folder of at least two webapps are moved to the {@code shared/lib}
+ * folder of the container if they are explicitly included by name.
+ * Only jars known to be safe may be shared: a jar that loads classes of
+ * the webapp by name (e.g. GWT RPC, logging bridges) fails when loaded
+ * by the shared loader, hence none is included by default. Jars scanned
+ * by the container (with TLDs, web fragments, container initializers or
+ * servlet annotations) always stay in each webapp. The shared loader is
+ * defined in a delimited block of {@code conf/catalina.properties},
+ * replaced on each installation. The delta upgrade of a webapp takes
+ * its jars in the shared folder as installed.
+ * @see DeltaUpgrade
+ */
+public class SharedLibraries {
+
+	static final String SHARED = "shared/lib";
+	static final String SHARED_LOADER = "shared.loader";
+	static final String BEGIN = "# BEGIN Mooshak installer shared loader";
+	static final String END = "# END Mooshak installer shared loader";
+	static final String REPOSITORIES =
+			"${catalina.home}/shared/lib,${catalina.home}/shared/lib/*.jar";
+
+	/**
+	 * Jar common to several webapps
+	 */
+	public static class Library {
+		private String name;
+		private List<Path> copies = new ArrayList<>();
+		private long classes = 0;
+
+		Library(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Name of jar
+		 * @return name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Number of webapps with this jar
+		 * @return count
+		 */
+		public int getCopies() {
+			return copies.size();
+		}
+
+		/**
+		 * Uncompressed size of the classes in this jar, an estimate
+		 * of the memory (metaspace and heap) taken by each copy
+		 * @return size in bytes
+		 */
+		public long getClasses() {
+			return classes;
+		}
+	}
+
+	private Path container;
+	private Path webapps;
+	private List<PathMatcher> included = new ArrayList<>();
+	private List<Library> shared = new ArrayList<>();
+	private int contexts = 0;
+
+	/**
+	 * Shared libraries of webapps in given folder, including only jars
+	 * with names matched by the {@code shared.include} property
+	 * @param container	folder of servlet container
+	 * @param webapps	folder of webapps
+	 */
+	public SharedLibraries(Path container,Path webapps) {
+		this(container,webapps,Utils.getProperty("shared.include",""));
+	}
+
+	/**
+	 * Shared libraries of webapps in given folder, including only jars
+	 * with names matched by given patterns
+	 * @param container	folder of servlet container
+	 * @param webapps	folder of webapps
+	 * @param include	; separated glob patterns of names of jars
+	 */
+	public SharedLibraries(Path container,Path webapps,String include) {
+		this.container = container;
+		this.webapps = webapps;
+
+		for(String pattern: include.split(";"))
+			if(! pattern.trim().isEmpty())
+				included.add(FileSystems.getDefault()
+						.getPathMatcher("glob:"+pattern.trim()));
+	}
+
+	/**
+	 * Move jars common to several webapps to the shared folder
+	 * and configure the shared loader of the container
+	 * @return libraries that were shared
+	 * @throws IOException if jars cannot be moved or configured
+	 */
+	public List<Library> apply() throws IOException {
+		Path folder = container.resolve(SHARED);
+
+		for(Library library: detect()) {
+			Path target = folder.resolve(library.name);
+
+			Files.createDirectories(folder);
+			Files.copy(library.copies.get(0),target,REPLACE_EXISTING);
+			for(Path copy: library.copies)
+				Files.delete(copy);
+			shared.add(library);
+		}
+
+		configure();
+		return shared;
+	}
+
+	/**
+	 * Detect jars with the same name and content in the libraries of
+	 * at least two webapps, that are safe to share
+	 * @return common libraries, sorted by name
+	 * @throws IOException if webapps cannot be read
+	 */
+	List<Library> detect() throws IOException {
+		Map<String,Library> libraries = new TreeMap<>();
+		List<Library> common = new ArrayList<>();
+
+		contexts = 0;
+		try(DirectoryStream<Path> folders = Files.newDirectoryStream(webapps)) {
+			for(Path webapp: folders) {
+				Path lib = webapp.resolve(StartupTuning.LIB);
+
+				if(! Files.isDirectory(lib))
+					continue;
+				contexts++;
+				try(DirectoryStream<Path> jars = Files.newDirectoryStream(lib,"*.jar")) {
+					for(Path jar: jars) {
+						String key = jar.getFileName()+" "+Bundle.checksum(jar);
+
+						libraries.computeIfAbsent(key,
+								k -> new Library(jar.getFileName().toString()))
+							.copies.add(jar);
+					}
+				}
+			}
+		}
+
+		for(Library library: libraries.values())
+			if(library.copies.size() > 1 && isShareable(library.copies.get(0))) {
+				library.classes = measure(library.copies.get(0));
+				common.add(library);
+			}
+		return common;
+	}
+
+	/**
+	 * Checks if a jar can be placed in the shared loader: it must be
+	 * included by name and not scanned by the container
+	 * @param jar	file
+	 * @return {@code true} if shareable; {@code false} otherwise
+	 * @throws IOException if jar cannot be read
+	 */
+	boolean isShareable(Path jar) throws IOException {
+		for(PathMatcher matcher: included)
+			if(matcher.matches(jar.getFileName()))
+				return ! StartupTuning.isScanned(jar);
+		return false;
+	}
+
+	/**
+	 * Uncompressed size of the classes in a jar
+	 * @param jar	file
+	 * @return size in bytes
+	 * @throws IOException if jar cannot be read
+	 */
+	static long measure(Path jar) throws IOException {
+		long size = 0;
+
+		try(ZipFile zip = new ZipFile(jar.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+
+				if(entry.getName().endsWith(".class"))
+					size += Math.max(0,entry.getSize());
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Add the shared folder to the repositories of the shared loader
+	 * in {@code conf/catalina.properties}, if it has jars
+	 * @throws IOException if configuration cannot be read or written
+	 */
+	void configure() throws IOException {
+		Path file = container.resolve(StartupTuning.CATALINA_PROPERTIES);
+		Path folder = container.resolve(SHARED);
+		List<String> lines = new ArrayList<>();
+		Properties properties = new Properties();
+		boolean skip = false;
+
+		if(! Files.exists(file))
+			return;
+
+		for(String line: Files.readAllLines(file,StandardCharsets.ISO_8859_1))
+			if(line.equals(BEGIN))
+				skip = true;
+			else if(line.equals(END))
+				skip = false;
+			else if(! skip)
+				lines.add(line);
+
+		if(Files.isDirectory(folder) && hasJars(folder)) {
+			String current;
+
+			try(Reader reader = new StringReader(String.join("\n",lines))) {
+				properties.load(reader);
+			}
+			current = properties.getProperty(SHARED_LOADER,"").trim();
+
+			lines.add(BEGIN);
+			lines.add(SHARED_LOADER+"="+
+					(current.isEmpty() ? "" : current+",")+REPOSITORIES);
+			lines.add(END);
+		}
+
+		StartupTuning.replace(file,lines);
+	}
+
+	private static boolean hasJars(Path folder) throws IOException {
+		try(DirectoryStream<Path> jars = Files.newDirectoryStream(folder,"*.jar")) {
+			return jars.iterator().hasNext();
+		}
+	}
+
+	/**
+	 * Libraries that were shared
+	 * @return list of libraries
+	 */
+	public List<Library> getShared() {
+		return shared;
+	}
+
+	/**
+	 * Memory saved by sharing libraries: the classes of each library
+	 * are loaded once instead of once per webapp
+	 * @return estimate in bytes
+	 */
+	public long getSaved() {
+		long saved = 0;
+
+		for(Library library: shared)
+			saved += library.classes * (library.getCopies() - 1);
+		return saved;
+	}
+
+	/**
+	 * Record this placement in installation properties
+	 * @param properties	of installation
+	 */
+	public void record(Properties properties) {
+		properties.setProperty("sharedLibraries",String.format(
+				"%d jars shared by %d webapps, about %d MB of memory saved",
+				shared.size(),contexts,getSaved() >> 20));
+	}
+}
@@ -0,0 +1,245 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tuning of the servlet container for faster startup. Unused default
+ * webapps are disabled, moving them out of the webapps folder; jars of
+ * Mooshak's webapp that need no scanning (without TLDs, web fragments,
+ * container initializers or servlet annotations) are skipped by the
+ * jar scanner; and contexts of each host are started in parallel.
+ * Tuning is idempotent: skipped jars are defined in a delimited block
+ * of {@code conf/catalina.properties}, replaced on each installation.
+ */
+public class StartupTuning {
+
+	static final String CATALINA_PROPERTIES = "conf/catalina.properties";
+	static final String DISABLED = "webapps.disabled";
+	static final String LIB = "WEB-INF/lib";
+	static final String BEGIN = "# BEGIN Mooshak installer jar scanning";
+	static final String END = "# END Mooshak installer jar scanning";
+
+	static final String JARS_TO_SKIP_7 =
+			"tomcat.util.scan.DefaultJarScanner.jarsToSkip";
+	static final String JARS_TO_SKIP =
+			"tomcat.util.scan.StandardJarScanFilter.jarsToSkip";
+
+	static final String DEFAULT_WEBAPPS = "docs;examples;manager;host-manager";
+	static final String SERVLET_ANNOTATION = "javax/servlet/annotation/";
+
+	private Path container;
+	private Path webapps;
+	private Path webapp;
+	private List<String> disabled = new ArrayList<>();
+	private List<String> skipped = new ArrayList<>();
+	private int hosts = 0;
+
+	/**
+	 * Tuning of container with given folders
+	 * @param container	folder of servlet container
+	 * @param webapps	folder of webapps
+	 * @param webapp	folder of Mooshak's webapp
+	 */
+	public StartupTuning(Path container,Path webapps,Path webapp) {
+		this.container = container;
+		this.webapps = webapps;
+		this.webapp = webapp;
+	}
+
+	/**
+	 * Apply all tunings
+	 * @throws IOException if configuration cannot be read or written
+	 */
+	public void apply() throws IOException {
+		prune();
+		skipJars();
+		parallelStartup();
+	}
+
+	/**
+	 * Disable unused webapps, defined by the {@code startup.prune}
+	 * property, moving them to a sibling folder of the webapps folder
+	 * @return names of webapps disabled
+	 * @throws IOException if a webapp cannot be moved
+	 */
+	public List<String> prune() throws IOException {
+		Path folder = webapps.resolveSibling(DISABLED);
+
+		for(String name: Utils.getProperty("startup.prune",DEFAULT_WEBAPPS)
+				.split(";")) {
+			Path path = webapps.resolve(name.trim());
+
+			if(name.trim().isEmpty() || ! Files.exists(path))
+				continue;
+
+			Files.createDirectories(folder);
+			Utils.deleteTree(folder.resolve(name.trim()));
+			Files.move(path,folder.resolve(name.trim()),ATOMIC_MOVE);
+			disabled.add(name.trim());
+		}
+		return disabled;
+	}
+
+	/**
+	 * Skip jars of Mooshak's webapp that need no scanning,
+	 * appending them to jars skipped by the container
+	 * @return names of skipped jars
+	 * @throws IOException if configuration cannot be read or written
+	 */
+	public List<String> skipJars() throws IOException {
+		Path file = container.resolve(CATALINA_PROPERTIES);
+		Path lib = webapp.resolve(LIB);
+		List<String> lines = new ArrayList<>();
+		Properties properties = new Properties();
+		String key;
+		boolean skip = false;
+
+		if(! Files.exists(file) || ! Files.isDirectory(lib))
+			return skipped;
+
+		for(String line: Files.readAllLines(file,StandardCharsets.ISO_8859_1))
+			if(line.equals(BEGIN))
+				skip = true;
+			else if(line.equals(END))
+				skip = false;
+			else if(! skip)
+				lines.add(line);
+
+		try(Reader reader = new StringReader(String.join("\n",lines))) {
+			properties.load(reader);
+		}
+		key = properties.containsKey(JARS_TO_SKIP_7) ? JARS_TO_SKIP_7 : JARS_TO_SKIP;
+
+		try(DirectoryStream<Path> jars = Files.newDirectoryStream(lib,"*.jar")) {
+			for(Path jar: jars)
+				if(! isScanned(jar))
+					skipped.add(jar.getFileName().toString());
+		}
+		skipped.sort(null);
+
+		if(! skipped.isEmpty()) {
+			String current = properties.getProperty(key,"").trim();
+			List<String> values = new ArrayList<>();
+
+			if(! current.isEmpty())
+				values.addAll(Arrays.asList(current.split("\\s*,\\s*")));
+			values.addAll(skipped);
+
+			lines.add(BEGIN);
+			lines.add(key+"="+String.join(",\\\n",values));
+			lines.add(END);
+		}
+
+		replace(file,lines);
+		return skipped;
+	}
+
+	/**
+	 * Checks if a jar must be scanned by the container, i.e. if it
+	 * has TLDs, a web fragment, a container initializer or classes
+	 * referring to servlet annotations
+	 * @param jar	file
+	 * @return {@code true} if scanned; {@code false} otherwise
+	 * @throws IOException if jar cannot be read
+	 */
+	static boolean isScanned(Path jar) throws IOException {
+		try(ZipFile zip = new ZipFile(jar.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+
+				if(name.startsWith("META-INF/") && (name.endsWith(".tld") ||
+						name.equals("META-INF/web-fragment.xml") ||
+						name.equals("META-INF/services/"+
+								"javax.servlet.ServletContainerInitializer")))
+					return true;
+				else if(name.endsWith(".class") && refersAnnotation(zip,entry))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean refersAnnotation(ZipFile zip,ZipEntry entry)
+			throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1<<13];
+
+		try(InputStream in = zip.getInputStream(entry)) {
+			int len;
+			while((len = in.read(buffer)) > 0)
+				content.write(buffer, 0, len);
+		}
+		return content.toString("ISO-8859-1").contains(SERVLET_ANNOTATION);
+	}
+
+	/**
+	 * Start contexts of each host of {@code conf/server.xml} in parallel,
+	 * with as many threads as processors
+	 * @return number of hosts
+	 * @throws IOException if configuration cannot be read or written
+	 */
+	public int parallelStartup() throws IOException {
+		Path server = container.resolve(ServerTuning.SERVER_XML);
+		Document document;
+		NodeList elements;
+
+		if(! Files.exists(server))
+			return hosts;
+
+		document = ServerTuning.read(server);
+		elements = document.getElementsByTagName("Host");
+		for(int i = 0; i < elements.getLength(); i++)
+			((Element) elements.item(i)).setAttribute("startStopThreads","0");
+		hosts = elements.getLength();
+
+		ServerTuning.write(document,server);
+		return hosts;
+	}
+
+	/**
+	 * Record this tuning in installation properties
+	 * @param properties	of installation
+	 */
+	public void record(Properties properties) {
+		properties.setProperty("startupTuning",String.format(
+				"%d webapps disabled, %d jars skipped, %d hosts in parallel",
+				disabled.size(),skipped.size(),hosts));
+	}
+
+	/**
+	 * Replace the lines of a configuration file atomically
+	 * @param file	to replace
+	 * @param lines	new content
+	 * @throws IOException if file cannot be written
+	 */
+	static void replace(Path file,List<String> lines)
+			throws IOException {
+		Utils.writeAtomically(file,out -> out.write((String.join(
+				System.lineSeparator(),lines)+System.lineSeparator())
+				.getBytes(StandardCharsets.ISO_8859_1)));
+	}
+}
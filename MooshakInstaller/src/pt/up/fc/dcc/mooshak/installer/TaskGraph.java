@@ -0,0 +1,278 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * A dependency graph of installation tasks. Each task starts as soon as
+ * all the tasks it depends on are successfully completed, on a bounded
+ * pool according to its kind: I/O bound tasks (e.g. downloads) and
+ * CPU bound tasks (e.g. expansions) have separate pools.
+ *
+ * Tasks must be added after their dependencies, hence the graph is
+ * acyclic by construction. A task fails if it reports an error,
+ * either to its progressable or to an error handler obtained from
+ * {@link #reportingTo(Consumer)}, and tasks depending on it are skipped.
+ */
+public class TaskGraph {
+
+	/**
+	 * Kinds of task, each executed in its own pool
+	 */
+	public enum Kind { IO, CPU }
+
+	private Cancellation cancellation;
+	private List<Task> tasks = new ArrayList<>();
+	private ThreadLocal<Task> current = new ThreadLocal<>();
+	private Progressable progressable;
+	private int maximum;
+	private int reported;
+
+	/**
+	 * A node in the graph: a named body depending on other tasks
+	 */
+	public class Task implements Progressable {
+		private String name;
+		private Kind kind;
+		private Consumer<Progressable> body;
+		private Task[] dependencies;
+		private List<Runnable> onSuccess = new ArrayList<>();
+
+		private volatile boolean failed = false;
+		private volatile int part = 0;
+		private CompletableFuture<Void> future;
+
+		Task(String name, Kind kind, Consumer<Progressable> body,
+				Task[] dependencies) {
+			this.name = name;
+			this.kind = kind;
+			this.body = body;
+			this.dependencies = dependencies;
+		}
+
+		/**
+		 * Action to execute after this task completes without errors
+		 * and before any of its dependents start
+		 * @param action
+		 * @return this task
+		 */
+		public Task onSuccess(Runnable action) {
+			onSuccess.add(action);
+			return this;
+		}
+
+		/**
+		 * Name of this task
+		 * @return
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Checks if this task reported an error
+		 * @return
+		 */
+		public boolean hasFailed() {
+			return failed;
+		}
+
+		private void execute() {
+			current.set(this);
+			try {
+				cancellation.check();
+				body.accept(this);
+			} catch(CancellationException cause) {
+				failed = true;
+			} catch(RuntimeException cause) {
+				taskError(cause.toString());
+			} finally {
+				current.remove();
+			}
+
+			if(failed)
+				throw new CompletionException(
+						new IllegalStateException(name+" failed"));
+
+			onSuccess.forEach(Runnable::run);
+			update(maximum);
+		}
+
+		@Override
+		public void updatable(boolean isUpdatable) {}
+
+		@Override
+		public int getMaximum() {
+			return maximum;
+		}
+
+		@Override
+		public void update(int part) {
+			if(part > this.part) {
+				this.part = Math.min(part, maximum);
+				progress();
+			}
+		}
+
+		@Override
+		public void taskError(String message) {
+			failed = true;
+			progressable.taskError(name+": "+message);
+		}
+	}
+
+	/**
+	 * Graph of tasks that are never cancelled
+	 */
+	public TaskGraph() {
+		this(Cancellation.NONE);
+	}
+	
+	/**
+	 * Graph of tasks that stops when given token is cancelled: 
+	 * running tasks are expected to check it and tasks not yet 
+	 * started are skipped
+	 * @param cancellation token
+	 */
+	public TaskGraph(Cancellation cancellation) {
+		this.cancellation = cancellation;
+	}
+	
+	/**
+	 * Add a task to this graph. Tasks it depends on must already
+	 * be in the graph; {@code null} dependencies are ignored.
+	 *
+	 * @param name			of task, for reporting
+	 * @param kind			of task, to select pool
+	 * @param body			of task, receiving a progressable
+	 * @param dependencies	tasks that must complete before this one
+	 * @return the added task
+	 */
+	public Task add(String name, Kind kind, Consumer<Progressable> body,
+			Task... dependencies) {
+		Task task = new Task(name,kind,body,dependencies);
+
+		tasks.add(task);
+		return task;
+	}
+
+	/**
+	 * Error handler that fails the task running in the current thread,
+	 * if any, before delegating on the given handler
+	 * @param handler	to which errors are delegated
+	 * @return error handler
+	 */
+	public Consumer<String> reportingTo(Consumer<String> handler) {
+		return message -> {
+			Task task = current.get();
+
+			if(task == null)
+				handler.accept(message);
+			else
+				task.taskError(message);
+		};
+	}
+
+	/**
+	 * Execute all tasks and wait for their completion.
+	 * The progress of the graph is reported to the given progressable
+	 * as the average progress of its tasks.
+	 *
+	 * @param progressable	to report progress and errors
+	 * @return {@code true} if all tasks completed without errors;
+	 * 			{@code false} otherwise
+	 */
+	public boolean run(Progressable progressable) {
+		ExecutorService io  = newPool(Kind.IO,"tasks.io.threads");
+		ExecutorService cpu = newPool(Kind.CPU,"tasks.cpu.threads");
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+		this.progressable = progressable;
+		this.maximum = progressable.getMaximum();
+		this.reported = 0;
+		progressable.updatable(true);
+
+		try {
+			for(Task task: tasks) {
+				List<CompletableFuture<Void>> before = new ArrayList<>();
+
+				for(Task dependency: task.dependencies)
+					if(dependency != null)
+						before.add(dependency.future);
+
+				task.future = CompletableFuture
+						.allOf(before.toArray(new CompletableFuture<?>[0]))
+						.thenRunAsync(task::execute,
+								task.kind == Kind.IO ? io : cpu)
+						.whenComplete((result,cause) -> {
+							if(cause != null)
+								task.update(maximum);
+						});
+				futures.add(task.future);
+			}
+
+			CompletableFuture.allOf(
+					futures.toArray(new CompletableFuture<?>[0])).join();
+
+			return true;
+		} catch(CompletionException cause) {
+			return false;
+		} finally {
+			io.shutdown();
+			cpu.shutdown();
+		}
+	}
+
+	/**
+	 * Report the average progress of all tasks, if it increased
+	 */
+	private synchronized void progress() {
+		long total = 0;
+		int part;
+
+		for(Task task: tasks)
+			total += task.part;
+
+		part = (int) (total / tasks.size());
+
+		if(part > reported)
+			progressable.update(reported = part);
+	}
+
+	/**
+	 * Bounded pool for given kind of tasks
+	 * @param kind		of tasks
+	 * @param property	with the number of threads, if defined
+	 * @return
+	 */
+	private ExecutorService newPool(Kind kind,String property) {
+		int size = Runtime.getRuntime().availableProcessors();
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = runnable -> {
+			Thread thread = new Thread(runnable,
+					"installer-"+kind.name().toLowerCase()+"-"+
+					count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		try {
+			size = Integer.parseInt(Utils.getProperty(property).trim());
+		} catch(RuntimeException cause) {
+			// use the number of processors
+		}
+
+		return Executors.newFixedThreadPool(Math.max(1,size),factory);
+	}
+
+}
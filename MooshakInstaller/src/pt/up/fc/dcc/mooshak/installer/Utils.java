@@ -1,24 +1,34 @@
 package pt.up.fc.dcc.mooshak.installer;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
 
@@ -50,6 +60,18 @@ public class Utils {
 		return properties.get(name).toString();
 	}
 	
+	/**
+	 * Get installer property, trimmed, or a default value if undefined
+	 * @param name
+	 * @param value	default
+	 * @return
+	 */
+	public static String getProperty(String name,String value) {
+		Object property = properties.get(name);
+
+		return property == null ? value : property.toString().trim();
+	}
+
 	/**
 	 * Get installer property as an array or values
 	 * @param name
@@ -106,6 +128,23 @@ public class Utils {
 	 */
 	public static Path dowloadFrom(String address,String suffix,
 			Progressable progressable) {
+		return dowloadFrom(address,suffix,progressable,Cancellation.NONE);
+	}
+	
+	/**
+	 * Download the content of an URL to a temporary file, as in
+	 * {@link #dowloadFrom(String, String, Progressable)}, checking
+	 * for cancellation after each buffer. If cancelled, the partially
+	 * downloaded file is removed.
+	 * @param address of file (URL) 
+	 * @param suffix of temporary file
+	 * @param progressable to report progress
+	 * @param cancellation token checked after each buffer
+	 * @return path to the download file
+	 * @throws CancellationException if cancelled
+	 */
+	public static Path dowloadFrom(String address,String suffix,
+			Progressable progressable,Cancellation cancellation) {
 		Path tmp=null;
 		
 		try {	
@@ -124,11 +163,12 @@ public class Utils {
 				OutputStream out= Files.newOutputStream(tmp);
 						) {
 			int part = 0;
-			int read = 0;
+			long read = 0;
 			while(true) {
 				int len = in.read(buffer,0, BUFFER_SIZE);
 				if(len < 0) 
 					break;
+				cancellation.check();
 				out.write(buffer, 0, len);
 				read += len;
 				int next = (int) (read * parts / length);
@@ -136,16 +176,54 @@ public class Utils {
 					progressable.update(part = next);
 				}
 			}
-			if(isUpdatable)
+			if(isUpdatable && read < length) {
+				deleteQuietly(tmp);
+				tmp = null;
+				progressable.taskError("Incomplete download of "+address+
+						": "+read+" of "+length+" bytes");
+			} else if(isUpdatable)
 				progressable.update(parts);
 		}
 		
 		} catch(IOException cause) {
 			progressable.taskError(cause.toString());
+		} catch(CancellationException cause) {
+			deleteQuietly(tmp);
+			throw cause;
 		}
 		return tmp;
 	}
 	
+	/**
+	 * Checks if a file is a complete ZIP file, i.e. if its central
+	 * directory, at the end of the file, can be read
+	 * @param path of file (may be {@code null})
+	 * @return {@code true} if complete; {@code false} otherwise
+	 */
+	public static boolean isCompleteZip(Path path) {
+		if(path == null || ! Files.isRegularFile(path))
+			return false;
+		try {
+			new ZipFile(path.toFile()).close();
+			return true;
+		} catch (IOException cause) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Delete a file, if it exists, ignoring errors
+	 * @param path of file (may be {@code null})
+	 */
+	static void deleteQuietly(Path path) {
+		if(path != null)
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException cause) {
+				// nothing else to do
+			}
+	}
+	
 	
 	/**
 	 * Extract ZIP file with a single directory to given path
@@ -159,6 +237,24 @@ public class Utils {
 			Files.move(root, as);
 	}
 	
+	/**
+	 * Path of a ZIP entry extracted to given directory. Names are
+	 * normalized and those that would be written outside the directory
+	 * (e.g. with {@code ..} or absolute) are rejected.
+	 * @param to	directory where entries are extracted
+	 * @param name	of entry
+	 * @return path of extracted entry
+	 * @throws ZipException if entry is outside the directory
+	 */
+	public static Path resolveEntry(Path to, String name) throws ZipException {
+		Path target = to.normalize();
+		Path path = target.resolve(name).normalize();
+
+		if(! path.startsWith(target))
+			throw new ZipException("Invalid entry name: "+name);
+		return path;
+	}
+
 	/**
 	 * Extract ZIP file to given location
 	 * @param zipFile
@@ -172,7 +268,7 @@ public class Utils {
 		while(entries.hasMoreElements()) { 	  
 		        ZipEntry entry = (ZipEntry)entries.nextElement();
 		    	String name = entry.getName();
-		        Path path = to.resolve(name);
+		        Path path = resolveEntry(to,name);
 
 		        if(entry.isDirectory()) {
 		        	Files.createDirectories(path);
@@ -193,6 +289,43 @@ public class Utils {
 	
 	public static Path extractTo(ZipFile zipFile, Path to,
 			Progressable progressable) throws IOException { 
+		return extractTo(zipFile,to,progressable,Cancellation.NONE);
+	}
+	
+	/**
+	 * Extract ZIP file to given location, reporting progress and 
+	 * checking for cancellation after each buffer. Cancellation leaves
+	 * partial output, hence target should be a staging directory. 
+	 * @param zipFile		to extract
+	 * @param to			directory where files are extracted
+	 * @param progressable	to report progress
+	 * @param cancellation	token checked after each buffer
+	 * @return root directory of archive, if it has a single one 
+	 * @throws IOException
+	 * @throws CancellationException if cancelled
+	 */
+	public static Path extractTo(ZipFile zipFile, Path to,
+			Progressable progressable,Cancellation cancellation) 
+					throws IOException { 
+		return extractTo(zipFile,to,ZipFilter.ALL,progressable,cancellation);
+	}
+	
+	/**
+	 * Extract entries of ZIP file accepted by filter to given location,
+	 * as in {@link #extractTo(ZipFile, Path, Progressable, Cancellation)}.
+	 * Entries that are not accepted are never read, hence never inflated.
+	 * @param zipFile		to extract
+	 * @param to			directory where files are extracted
+	 * @param filter		of entries to extract
+	 * @param progressable	to report progress
+	 * @param cancellation	token checked after each buffer
+	 * @return root directory of archive, if it has a single one 
+	 * @throws IOException
+	 * @throws CancellationException if cancelled
+	 */
+	public static Path extractTo(ZipFile zipFile, Path to,ZipFilter filter,
+			Progressable progressable,Cancellation cancellation) 
+					throws IOException { 
 		Path root = null;
 		Enumeration<? extends ZipEntry> entries = zipFile.entries();
 	
@@ -206,17 +339,21 @@ public class Utils {
 		while(entries.hasMoreElements()) { 	  
 		        ZipEntry entry = (ZipEntry)entries.nextElement();
 		    	String name = entry.getName();
-		        Path path = to.resolve(name);
+		        Path path = resolveEntry(to,name);
 
-		        if(entry.isDirectory()) {
+		        if(! filter.accepts(name)) {
+		        	if(name.matches("[^/]+/"))
+		        		root = Files.createDirectories(path);
+		        } else if(entry.isDirectory()) {
 		        	Files.createDirectories(path);
 		        	if(name.matches("[^/]+/"))
 		        		root = path;
 		        } else {
 		        	// make sure parent directories were created
 		        	Files.createDirectories(path.getParent());
-		        	Files.copy(zipFile.getInputStream(entry),
-		        			path,REPLACE_EXISTING);
+		        	try(InputStream in = zipFile.getInputStream(entry)) {
+		        		copy(in,path,cancellation);
+		        	}
 		        }
 		        if(++count > size*(part+1)/parts)
 					progressable.update(++part);
@@ -226,6 +363,232 @@ public class Utils {
 		return root;
 	}
 	
+	/**
+	 * Extract a ZIP file by streaming its entries, as in 
+	 * {@link #extractTo(ZipFile, Path, Progressable, Cancellation)}.
+	 * Unlike {@link ZipFile}, the ZIP file may be in any file system
+	 * (e.g. an entry of another ZIP file) and is read sequentially.
+	 * Progress is reported in proportion to the bytes read.
+	 * @param zip			file to extract
+	 * @param to			directory where files are extracted
+	 * @param progressable	to report progress
+	 * @param cancellation	token checked after each buffer
+	 * @return root directory of archive, if it has a single one 
+	 * @throws IOException
+	 * @throws CancellationException if cancelled
+	 */
+	public static Path extractFrom(Path zip, Path to,
+			Progressable progressable,Cancellation cancellation) 
+					throws IOException { 
+		return extractFrom(zip,to,ZipFilter.ALL,progressable,cancellation);
+	}
+	
+	/**
+	 * Extract entries of ZIP file accepted by filter by streaming them, as in
+	 * {@link #extractFrom(Path, Path, Progressable, Cancellation)}.
+	 * Entries that are not accepted are not written but, being streamed,
+	 * compressed entries are still inflated to reach the next one.
+	 * @param zip			file to extract
+	 * @param to			directory where files are extracted
+	 * @param filter		of entries to extract
+	 * @param progressable	to report progress
+	 * @param cancellation	token checked after each buffer
+	 * @return root directory of archive, if it has a single one 
+	 * @throws IOException
+	 * @throws CancellationException if cancelled
+	 */
+	public static Path extractFrom(Path zip, Path to,ZipFilter filter,
+			Progressable progressable,Cancellation cancellation) 
+					throws IOException { 
+		Path root = null;
+		long size = Files.size(zip);
+		int parts = progressable.getMaximum();
+		AtomicLong read = new AtomicLong();
+		
+		progressable.updatable(size > 0);
+		
+		try(ZipInputStream in = new ZipInputStream(
+				new FilterInputStream(Files.newInputStream(zip)) {
+					@Override
+					public int read(byte[] buffer,int offset,int length) 
+							throws IOException {
+						int len = super.read(buffer, offset, length);
+						if(len > 0 && size > 0)
+							progressable.update((int) 
+									(read.addAndGet(len) * parts / size));
+						return len;
+					}
+				})) {
+			ZipEntry entry;
+			
+			while((entry = in.getNextEntry()) != null) {
+		    	String name = entry.getName();
+		        Path path = resolveEntry(to,name);
+
+		        if(! filter.accepts(name)) {
+		        	if(name.matches("[^/]+/"))
+		        		root = Files.createDirectories(path);
+		        } else if(entry.isDirectory()) {
+		        	Files.createDirectories(path);
+		        	if(name.matches("[^/]+/"))
+		        		root = path;
+		        } else {
+		        	// make sure parent directories were created
+		        	Files.createDirectories(path.getParent());
+		        	copy(in,path,cancellation);
+		        }
+			}
+		}
+		progressable.update(parts);
+		return root;
+	}
+	
+	/**
+	 * Copy a stream to a file, replacing it if it exists, 
+	 * and checking for cancellation after each buffer
+	 * @param in			stream to copy
+	 * @param path			of file
+	 * @param cancellation	token checked after each buffer
+	 * @throws IOException
+	 */
+	private static void copy(InputStream in,Path path,
+			Cancellation cancellation) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		
+		try(OutputStream out = Files.newOutputStream(path)) {
+			int len;
+			
+			while((len = in.read(buffer,0, BUFFER_SIZE)) >= 0) {
+				cancellation.check();
+				out.write(buffer, 0, len);
+			}
+		}
+	}
+	
+	/**
+	 * Move all files in a staging directory into a target directory,
+	 * replacing existing files and keeping those not in staging.
+	 * The (empty) staging directories are removed.
+	 * @param staging	directory with files to move
+	 * @param target	directory where files are moved
+	 * @throws IOException
+	 */
+	public static void moveInto(Path staging,Path target) throws IOException {
+		
+		if(! Files.exists(target)) {
+			Files.createDirectories(target.getParent());
+			Files.move(staging, target, ATOMIC_MOVE);
+		} else {
+			Files.walkFileTree(staging, new SimpleFileVisitor<Path>() {
+				
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir,
+						BasicFileAttributes attrs) throws IOException {
+					Files.createDirectories(
+							target.resolve(staging.relativize(dir)));
+					return FileVisitResult.CONTINUE;
+				}
+				
+				@Override
+				public FileVisitResult visitFile(Path file,
+						BasicFileAttributes attrs) throws IOException {
+					Files.move(file, target.resolve(staging.relativize(file)),
+							REPLACE_EXISTING,ATOMIC_MOVE);
+					return FileVisitResult.CONTINUE;
+				}
+				
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir,
+						IOException exc) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+	}
+	
+	private static final String DEFAULT_PERMISSIONS = "rw-r--r--";
+
+	/**
+	 * Content written to a stream, as by {@link #writeAtomically}
+	 */
+	@FunctionalInterface
+	public interface Content {
+		void writeTo(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Write a file atomically with permissions {@code rw-r--r--},
+	 * unless it already exists.
+	 * @see #writeAtomically(Path, String, Content)
+	 * @param file		to write
+	 * @param content	written to file
+	 * @throws IOException
+	 */
+	public static void writeAtomically(Path file,Content content)
+			throws IOException {
+		writeAtomically(file,DEFAULT_PERMISSIONS,content);
+	}
+
+	/**
+	 * Write a file atomically: content is written to a temporary file
+	 * aside that then replaces the file, hence it is never partially
+	 * written nor shared with a link. Temporary files are owner only,
+	 * thus the file keeps its POSIX permissions or, if new, gets the
+	 * given ones, so that it remains readable by the servlet container.
+	 * @param file			to write
+	 * @param permissions	of new file (e.g. {@code rwxr-xr-x})
+	 * @param content		written to file
+	 * @throws IOException
+	 */
+	public static void writeAtomically(Path file,String permissions,
+			Content content) throws IOException {
+		Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(),
+				"."+file.getFileName(),null);
+
+		try {
+			try(OutputStream out = Files.newOutputStream(tmp)) {
+				content.writeTo(out);
+			}
+			try {
+				Files.setPosixFilePermissions(tmp, Files.exists(file) ?
+						Files.getPosixFilePermissions(file) :
+						PosixFilePermissions.fromString(permissions));
+			} catch(UnsupportedOperationException cause) {
+				// not a POSIX file system: permissions are inherited
+			}
+			Files.move(tmp,file,REPLACE_EXISTING,ATOMIC_MOVE);
+		} finally {
+			deleteQuietly(tmp);
+		}
+	}
+
+	/**
+	 * Delete a directory tree, if it exists.
+	 * @param path	of directory to delete
+	 * @throws IOException
+	 */
+	public static void deleteTree(Path path) throws IOException {
+		
+		if(Files.exists(path))
+			Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+				
+				@Override
+				public FileVisitResult visitFile(Path file,
+						BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+				
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir,
+						IOException exc) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+	}
+	
 	private static Charset charset = Charset.forName("UTF-8");
 	private static Pattern dirPattern = Pattern.compile("<tr><td valign=\"top\">"+
 			"<img src=\"/icons/folder.png\" alt=\"\\[DIR\\]\">"+
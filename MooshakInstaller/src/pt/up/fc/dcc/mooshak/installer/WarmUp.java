@@ -0,0 +1,275 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * Warm-up of Mooshak after the servlet container starts, so that hot
+ * paths are compiled by the JIT before contestants arrive. A set of
+ * read-only (GET) requests is replayed in phases, doubling the number
+ * of concurrent clients up to a maximum, and then repeated at that
+ * concurrency until the latency of consecutive phases is stable
+ * (within a tolerance) or the maximum number of phases is reached.
+ * Latency percentiles are collected for each phase.
+ */
+public class WarmUp {
+
+	static final String DEFAULT_PATHS = "";
+	static final int DEFAULT_CONCURRENCY = 16;
+	static final int DEFAULT_REQUESTS = 200;
+	static final int DEFAULT_TOLERANCE = 10;
+	static final int DEFAULT_PHASES = 12;
+	static final int DEFAULT_TIMEOUT = 10000;
+	static final int BUFFER_SIZE = 1<<13;
+
+	/**
+	 * Latencies of the requests of a phase
+	 */
+	public static class Phase {
+		private int concurrency;
+		private int errors;
+		private long[] latencies;
+
+		/**
+		 * Phase with given concurrency and latencies of its requests
+		 * @param concurrency	number of concurrent clients
+		 * @param latencies		in nanoseconds, or negative for failed requests
+		 */
+		Phase(int concurrency,long[] latencies) {
+			this.concurrency = concurrency;
+			this.latencies = Arrays.stream(latencies).filter(l -> l >= 0)
+					.sorted().toArray();
+			this.errors = latencies.length - this.latencies.length;
+		}
+
+		/**
+		 * Number of concurrent clients
+		 * @return clients
+		 */
+		public int getConcurrency() {
+			return concurrency;
+		}
+
+		/**
+		 * Number of successful requests
+		 * @return requests
+		 */
+		public int getRequests() {
+			return latencies.length;
+		}
+
+		/**
+		 * Number of failed requests
+		 * @return errors
+		 */
+		public int getErrors() {
+			return errors;
+		}
+
+		/**
+		 * Latency percentile of successful requests (nearest rank)
+		 * @param percent	between 0 and 100
+		 * @return latency in milliseconds, or 0 if no request succeeded
+		 */
+		public double getPercentile(double percent) {
+			int rank;
+
+			if(latencies.length == 0)
+				return 0;
+			rank = (int) Math.ceil(percent / 100 * latencies.length);
+			return latencies[Math.max(0,Math.min(latencies.length,rank) - 1)]
+					/ 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d clients: %d requests (%d failed),"+
+					" p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+					concurrency,latencies.length+errors,errors,
+					getPercentile(50),getPercentile(90),getPercentile(99),
+					getPercentile(100));
+		}
+	}
+
+	private List<URL> urls = new ArrayList<>();
+	private int concurrency;
+	private int requests;
+	private int tolerance;
+	private int phases;
+	private int timeout;
+
+	/**
+	 * Warm-up of the webapp with given base URL, with settings defined
+	 * by installer properties with prefix {@code warmup}
+	 * @param base	URL of the webapp
+	 * @throws IOException if an URL is invalid
+	 */
+	public WarmUp(String base) throws IOException {
+		this(base,Arrays.asList(Utils.getProperty("warmup.paths",DEFAULT_PATHS)
+				.split(";",-1)),
+				parameter("warmup.concurrency",DEFAULT_CONCURRENCY),
+				parameter("warmup.requests",DEFAULT_REQUESTS),
+				parameter("warmup.tolerance",DEFAULT_TOLERANCE),
+				parameter("warmup.phases",DEFAULT_PHASES));
+		timeout = parameter("warmup.timeout",DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Warm-up of the webapp with given base URL
+	 * @param base			URL of the webapp
+	 * @param paths			relative to the base URL, requested in turn
+	 * @param concurrency	maximum number of concurrent clients
+	 * @param requests		number of requests of each phase
+	 * @param tolerance		percentage of variation of latency deemed stable
+	 * @param phases		maximum number of phases
+	 * @throws IOException if an URL is invalid
+	 */
+	public WarmUp(String base,List<String> paths,int concurrency,int requests,
+			int tolerance,int phases) throws IOException {
+		URL root = new URL(base.endsWith("/") ? base : base+"/");
+
+		for(String path: paths)
+			urls.add(new URL(root,path.trim()));
+		this.concurrency = Math.max(1,concurrency);
+		this.requests = Math.max(1,requests);
+		this.tolerance = tolerance;
+		this.phases = Math.max(1,phases);
+		this.timeout = DEFAULT_TIMEOUT;
+	}
+
+	private static int parameter(String name,int value) {
+		return Integer.parseInt(Utils.getProperty(name,Integer.toString(value)));
+	}
+
+	/**
+	 * Run phases until latency is stable at maximum concurrency
+	 * @param progressable	to report progress, in phases
+	 * @param cancellation	checked before each request
+	 * @return phases that were run
+	 * @throws CancellationException if cancelled
+	 */
+	public List<Phase> run(Progressable progressable,Cancellation cancellation) {
+		List<Phase> done = new ArrayList<>();
+		int parts = progressable.getMaximum();
+		int clients = 1;
+		Phase previous = null;
+
+		progressable.updatable(true);
+		while(done.size() < phases) {
+			Phase phase = phase(clients,cancellation);
+
+			done.add(phase);
+			progressable.update(done.size() * parts / phases);
+			if(clients == concurrency && isStable(previous,phase))
+				break;
+			previous = clients == concurrency ? phase : null;
+			clients = Math.min(concurrency,clients * 2);
+		}
+		progressable.update(parts);
+		return done;
+	}
+
+	/**
+	 * Checks if the latency of a phase is stable, i.e. if its median and
+	 * 90th percentile are within the tolerance of the previous phase
+	 * @param previous	phase with same concurrency, or {@code null}
+	 * @param current	phase
+	 * @return {@code true} if stable; {@code false} otherwise
+	 */
+	boolean isStable(Phase previous,Phase current) {
+		if(previous == null || current.getRequests() == 0)
+			return false;
+
+		for(double percent: new double[] { 50, 90 }) {
+			double before = previous.getPercentile(percent);
+			double after = current.getPercentile(percent);
+
+			if(Math.abs(after - before) > before * tolerance / 100)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Run a phase with given number of concurrent clients,
+	 * each requesting the next URL until all requests were sent
+	 * @param clients		number of concurrent clients
+	 * @param cancellation	checked before each request
+	 * @return phase
+	 * @throws CancellationException if cancelled
+	 */
+	Phase phase(int clients,Cancellation cancellation) {
+		long[] latencies = new long[requests];
+		AtomicInteger next = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(clients,
+				InstallerExecutors.newThreadFactory("warmup-"));
+		List<Future<?>> futures = new ArrayList<>();
+
+		try {
+			for(int i = 0; i < clients; i++)
+				futures.add(executor.submit(() -> {
+					int request;
+
+					while((request = next.getAndIncrement()) < requests) {
+						cancellation.check();
+						latencies[request] =
+								request(urls.get(request % urls.size()),timeout);
+					}
+				}));
+			for(Future<?> future: futures)
+				future.get();
+		} catch (InterruptedException cause) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted");
+		} catch (ExecutionException cause) {
+			if(cause.getCause() instanceof RuntimeException)
+				throw (RuntimeException) cause.getCause();
+			throw new IllegalStateException(cause.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return new Phase(clients,latencies);
+	}
+
+	/**
+	 * Request an URL, reading its whole content
+	 * @param url		to request
+	 * @param timeout	in milliseconds, for connecting and for reading
+	 * @return latency in nanoseconds, or -1 if request failed
+	 */
+	static long request(URL url,int timeout) {
+		long start = System.nanoTime();
+		byte[] buffer = new byte[BUFFER_SIZE];
+
+		try {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+			connection.setUseCaches(false);
+			if(connection.getResponseCode() >= 400) {
+				connection.disconnect();
+				return -1;
+			}
+			try(InputStream in = connection.getInputStream()) {
+				while(in.read(buffer) >= 0);
+			}
+			return System.nanoTime() - start;
+		} catch (IOException | ClassCastException cause) {
+			return -1;
+		}
+	}
+}
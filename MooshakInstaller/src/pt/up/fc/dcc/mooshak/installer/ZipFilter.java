@@ -0,0 +1,125 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filter of ZIP entries by name, with include and exclude glob patterns
+ * (as in {@link java.nio.file.FileSystem#getPathMatcher(String)}).
+ * An entry is accepted if it matches some include pattern (or there
+ * are none) and it matches no exclude pattern. A pattern ending in
+ * {@code /**} also matches the directory itself, hence
+ * {@code data/contests/sample/**} excludes that directory and all its content.
+ *
+ * Entries that are not accepted are never extracted (nor inflated,
+ * when extracting from a ZIP file).
+ */
+public class ZipFilter {
+
+	/**
+	 * Filter accepting all entries
+	 */
+	public static final ZipFilter ALL = new ZipFilter(null,null);
+
+	private static final String ANY_DESCENDANT = "/**";
+
+	private List<PathMatcher> includes = new ArrayList<>();
+	private List<PathMatcher> excludes = new ArrayList<>();
+
+	/**
+	 * Filter with given patterns, separated by semicolons
+	 * @param includes	patterns of included entries ({@code null} for all)
+	 * @param excludes	patterns of excluded entries ({@code null} for none)
+	 */
+	public ZipFilter(String includes,String excludes) {
+		compile(includes,this.includes);
+		compile(excludes,this.excludes);
+	}
+
+	/**
+	 * Filter with patterns in installer properties with given prefix
+	 * and suffixes {@code .include} and {@code .exclude}, if defined
+	 * @param prefix	of properties (e.g. data)
+	 * @return filter
+	 */
+	public static ZipFilter fromProperties(String prefix) {
+		return new ZipFilter(Utils.getProperty(prefix+".include",null),
+				Utils.getProperty(prefix+".exclude",null));
+	}
+
+	private static void compile(String patterns,List<PathMatcher> matchers) {
+		if(patterns == null)
+			return;
+
+		for(String pattern: patterns.split(";")) {
+			pattern = pattern.trim();
+			if(pattern.isEmpty())
+				continue;
+
+			matchers.add(matcher(pattern));
+			if(pattern.endsWith(ANY_DESCENDANT))
+				matchers.add(matcher(pattern.substring(0,
+						pattern.length()-ANY_DESCENDANT.length())));
+		}
+	}
+
+	private static PathMatcher matcher(String pattern) {
+		return FileSystems.getDefault().getPathMatcher("glob:"+pattern);
+	}
+
+	/**
+	 * Checks if this filter accepts all entries
+	 * @return {@code true} if no patterns were given
+	 */
+	public boolean acceptsAll() {
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+	/**
+	 * Filter accepting entries accepted by both this filter and another
+	 * @param other	filter
+	 * @return combined filter
+	 */
+	public ZipFilter and(ZipFilter other) {
+		ZipFilter self = this;
+
+		return new ZipFilter(null,null) {
+
+			@Override
+			public boolean acceptsAll() {
+				return self.acceptsAll() && other.acceptsAll();
+			}
+
+			@Override
+			public boolean accepts(String name) {
+				return self.accepts(name) && other.accepts(name);
+			}
+		};
+	}
+
+	/**
+	 * Checks if an entry with given name is accepted
+	 * @param name	of entry (directories end with a slash)
+	 * @return {@code true} if accepted; {@code false} otherwise
+	 */
+	public boolean accepts(String name) {
+		String trimmed = name.endsWith("/") ?
+				name.substring(0,name.length()-1) : name;
+
+		if(trimmed.isEmpty())
+			return true;
+
+		return (includes.isEmpty() || matches(includes,trimmed)) &&
+				! matches(excludes,trimmed);
+	}
+
+	private static boolean matches(List<PathMatcher> matchers,String name) {
+		for(PathMatcher matcher: matchers)
+			if(matcher.matches(Paths.get(name)))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,172 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArtifactSourceTest {
+
+	static final String BASE = "https://mooshak.dcc.fc.up.pt/install/";
+	static final byte[] CONTENT = "war content".getBytes();
+
+	Properties saved;
+	Path mirror;
+
+	@Before
+	public void setUp() throws Exception {
+		saved = (Properties) Utils.properties.clone();
+		mirror = Files.createTempDirectory("mirror");
+
+		Files.createDirectories(mirror.resolve("1.9"));
+		Files.createDirectories(mirror.resolve("2.0"));
+		Files.write(mirror.resolve("2.0/Mooshak.war"), CONTENT);
+		Files.write(mirror.resolve("apache-tomcat-7.0.53.zip"), CONTENT);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.properties = saved;
+		Utils.deleteTree(mirror);
+	}
+
+	@Test
+	public void testOf() {
+		assertTrue(ArtifactSource.of(null,BASE) instanceof HttpArtifactSource);
+		assertTrue(ArtifactSource.of("",mirror.toUri().toString())
+				instanceof FileArtifactSource);
+		assertTrue(ArtifactSource.of("mirror:"+mirror,BASE)
+				instanceof MirrorArtifactSource);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testOfUnknown() {
+		ArtifactSource.of("ftp",BASE);
+	}
+
+	@Test
+	public void testFile() throws IOException {
+		ArtifactSource source = new FileArtifactSource();
+		Path copy = source.fetch(mirror.resolve("2.0/Mooshak.war").toUri().toString(),
+				new NullProgressable(), Cancellation.NONE);
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(copy));
+		Files.delete(copy);
+
+		assertEquals(Arrays.asList("1.9","2.0"),
+				source.list(mirror.toUri().toString()));
+	}
+
+	@Test
+	public void testMirror() throws IOException {
+		ArtifactSource versions = new MirrorArtifactSource(mirror,BASE);
+		ArtifactSource container = new MirrorArtifactSource(mirror,
+				"http://mirrors.fe.up.pt/tomcat-7/apache-tomcat-7.0.53.zip");
+		Path copy;
+
+		assertEquals(Arrays.asList("1.9","2.0"), versions.list(BASE));
+
+		copy = versions.fetch(BASE+"2.0/Mooshak.war",
+				new NullProgressable(), Cancellation.NONE);
+		assertArrayEquals(CONTENT, Files.readAllBytes(copy));
+		Files.delete(copy);
+
+		copy = container.fetch(
+				"http://mirrors.fe.up.pt/tomcat-7/apache-tomcat-7.0.53.zip",
+				new NullProgressable(), Cancellation.NONE);
+		assertArrayEquals(CONTENT, Files.readAllBytes(copy));
+		Files.delete(copy);
+	}
+
+	@Test
+	public void testConfiguratorSource() throws IOException {
+		Configurator configurator = new Configurator();
+		Path war;
+
+		Utils.properties.setProperty("version.base", BASE);
+		Utils.properties.setProperty("version.base.source", "mirror:"+mirror);
+		configurator.setVersion("2.0");
+
+		assertEquals(Arrays.asList("1.9","2.0"),
+				configurator.downloadListing("version.base",new NullProgressable()));
+
+		war = configurator.downloadZip("version.war",new NullProgressable());
+		assertArrayEquals(CONTENT, Files.readAllBytes(war));
+		Files.delete(war);
+	}
+
+	@Test
+	public void testConfiguratorAsyncListing() {
+		Configurator configurator = new Configurator();
+
+		Utils.properties.setProperty("version.base", mirror.toUri().toString());
+
+		assertEquals(Arrays.asList("1.9","2.0"), configurator
+				.downloadListingAsync("version.base",new NullProgressable())
+				.join());
+	}
+
+	@Test
+	public void testConfiguratorAsyncListingError() {
+		Configurator configurator = new Configurator();
+
+		Utils.properties.setProperty("version.base",
+				mirror.resolve("missing").toUri().toString());
+
+		try {
+			configurator.downloadListingAsync("version.base",
+					new NullProgressable()).join();
+			fail("listing of missing directory");
+		} catch(CompletionException cause) {
+			assertTrue(cause.getCause() instanceof InstallerException);
+		}
+	}
+
+	@Test(expected=CancellationException.class)
+	public void testConfiguratorAsyncCancelled() {
+		Configurator configurator = new Configurator();
+		Cancellation cancellation = new Cancellation();
+
+		Utils.properties.setProperty("version.base", mirror.toUri().toString());
+		configurator.setCancellation(cancellation);
+		cancellation.cancel();
+
+		configurator.downloadListingAsync("version.base",
+				new NullProgressable()).join();
+	}
+
+	@Test
+	public void testConfiguratorAsyncExpansion() throws Exception {
+		Configurator configurator = new Configurator();
+		Cancellation cancellation = new Cancellation();
+		Path zip = mirror.resolve("2.0/Mooshak.zip");
+		Path webapp = mirror.resolve("webapps/Mooshak");
+
+		BundleTest.zip(zip,"index.html");
+		configurator.setCancellation(cancellation);
+
+		assertEquals(webapp, configurator
+				.downloadZipFromAsync(zip.toUri().toString(),new NullProgressable())
+				.thenCompose(download -> configurator.expandZipAsync(download,
+						webapp,true,new NullProgressable()))
+				.join());
+		assertTrue(Files.exists(webapp.resolve("index.html")));
+
+		// listeners of completed operations are removed
+		for(int retry = 0; retry < 50 && ! cancellation.listeners.isEmpty(); retry++)
+			Thread.sleep(10);
+		assertTrue(cancellation.listeners.isEmpty());
+	}
+}
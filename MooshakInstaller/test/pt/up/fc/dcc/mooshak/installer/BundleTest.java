@@ -0,0 +1,121 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+public class BundleTest {
+
+	Properties saved;
+	Path origin;
+	Path file;
+	Configurator configurator;
+
+	@Before
+	public void setUp() throws Exception {
+		saved = (Properties) Utils.properties.clone();
+		origin = Files.createTempDirectory("origin");
+		file = origin.resolve("mooshak.bundle");
+
+		zip(origin.resolve("apache-tomcat-7.0.53.zip"),
+				"apache-tomcat-7.0.53/","apache-tomcat-7.0.53/bin/startup.sh");
+		zip(origin.resolve("2.0/Mooshak.war"),"index.html","WEB-INF/web.xml");
+		zip(origin.resolve("2.0/MooshakData.zip"),"data/contests/");
+
+		Utils.properties.setProperty("version.base", origin.toUri().toString());
+		Utils.properties.setProperty("container.download",
+				origin.resolve("apache-tomcat-7.0.53.zip").toUri().toString());
+
+		configurator = new Configurator() {
+			@Override
+			public List<String> downloadListing(String type,
+					Progressable progressable) {
+				return new ArrayList<>(Arrays.asList("1.9","2.0"));
+			}
+		};
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.properties = saved;
+		Utils.deleteTree(origin);
+	}
+
+	static void zip(Path file,String... names) throws IOException {
+		Files.createDirectories(file.getParent());
+		try(OutputStream out = Files.newOutputStream(file);
+			ZipOutputStream zip = new ZipOutputStream(out)) {
+			for(String name: names) {
+				zip.putNextEntry(new ZipEntry(name));
+				if(! name.endsWith("/"))
+					zip.write(name.getBytes());
+				zip.closeEntry();
+			}
+		}
+	}
+
+	@Test
+	public void testBuild() throws Exception {
+		Bundle.build(configurator, file, new NullProgressable());
+
+		try(ZipFile zip = new ZipFile(file.toFile())) {
+			for(String name: Arrays.asList("apache-tomcat-7.0.53.zip",
+					"Mooshak.war","MooshakData.zip",
+					Bundle.MANIFEST,Bundle.CHECKSUMS))
+				assertEquals(ZipEntry.STORED, zip.getEntry(name).getMethod());
+		}
+
+		try(Bundle bundle = new Bundle(file)) {
+			assertEquals("2.0", bundle.getVersion());
+			assertEquals(Arrays.asList("1.9","2.0"), bundle.getListing());
+			assertEquals("Mooshak.war",
+					bundle.getEntry("version.war").getFileName().toString());
+			assertTrue(bundle.verify().isEmpty());
+		}
+	}
+
+	@Test
+	public void testOfflineExpansion() throws Exception {
+		Path tomcat = origin.resolve("installed/tomcat");
+		Path webapp = tomcat.resolve("webapps/Mooshak");
+
+		Bundle.build(configurator, file, new NullProgressable());
+
+		try(Bundle bundle = new Bundle(file)) {
+			Configurator offline = new Configurator();
+
+			offline.setBundle(bundle);
+			assertEquals(Arrays.asList("2.0"),
+					offline.downloadListing("version.base",new NullProgressable()));
+
+			offline.expandZip(bundle.getEntry("container.download"),tomcat,
+					false,new NullProgressable());
+			offline.expandZip(bundle.getEntry("version.war"),webapp,
+					true,new NullProgressable());
+
+			assertTrue(Files.exists(bundle.getEntry("version.war")));
+		}
+
+		assertTrue(Files.exists(tomcat.resolve("bin/startup.sh")));
+		assertEquals("index.html",
+				new String(Files.readAllBytes(webapp.resolve("index.html"))));
+		assertTrue(Files.exists(webapp.resolve("WEB-INF/web.xml")));
+	}
+}
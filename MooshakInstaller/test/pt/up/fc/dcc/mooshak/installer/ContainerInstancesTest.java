@@ -0,0 +1,188 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class ContainerInstancesTest {
+
+	Path container;
+	Path webapp;
+
+	@Before
+	public void setUp() throws Exception {
+		container = Files.createTempDirectory("tomcat");
+		webapp = container.resolve("webapps/Mooshak");
+
+		Files.createDirectories(webapp);
+		Files.createDirectories(container.resolve("bin"));
+		Files.createDirectories(container.resolve("conf"));
+		Files.write(container.resolve(JvmTuning.SETENV),
+				Arrays.asList("#!/bin/sh","CATALINA_OPTS=-Xmx1g"));
+		Files.write(container.resolve("conf/web.xml"),"<web-app/>".getBytes());
+		Files.write(container.resolve(ServerTuning.SERVER_XML),
+				("<Server port=\"8005\"><Service>"+
+				"<Connector port=\"8080\" redirectPort=\"8443\"/>"+
+				"<Connector port=\"8009\" protocol=\"AJP/1.3\"/>"+
+				"<Engine><Host name=\"localhost\"/></Engine>"+
+				"</Service></Server>").getBytes());
+		Files.copy(container.resolve(ServerTuning.SERVER_XML),
+				container.resolve(ServerTuning.SERVER_XML+ServerTuning.ORIGINAL));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.deleteTree(container);
+	}
+
+	@Test
+	public void testCreate() throws IOException {
+		ContainerInstances instances = new ContainerInstances(container,webapp,3,10);
+		Path base;
+		Element server;
+
+		instances.create();
+		base = instances.getBase(2);
+
+		assertEquals(container, instances.getBase(0));
+		assertTrue(Files.isDirectory(instances.getBase(1).resolve("logs")));
+		assertTrue(Files.exists(base.resolve("conf/web.xml")));
+		assertFalse(Files.exists(base.resolve(
+				ServerTuning.SERVER_XML+ServerTuning.ORIGINAL)));
+		assertEquals("rwxr-xr-x", PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(base.resolve(JvmTuning.SETENV))));
+		assertTrue(new String(Files.readAllBytes(base.resolve(
+				ContainerInstances.DESCRIPTORS).resolve("Mooshak.xml")),
+				StandardCharsets.UTF_8).contains(webapp.toAbsolutePath().toString()));
+
+		server = ServerTuning.read(base.resolve(ServerTuning.SERVER_XML))
+				.getDocumentElement();
+		assertEquals("8025", server.getAttribute("port"));
+		assertEquals("8100", ((Element) server.getElementsByTagName("Connector")
+				.item(0)).getAttribute("port"));
+		assertEquals("8463", ((Element) server.getElementsByTagName("Connector")
+				.item(0)).getAttribute("redirectPort"));
+		assertEquals("8029", ((Element) server.getElementsByTagName("Connector")
+				.item(1)).getAttribute("port"));
+
+		Document original = ServerTuning.read(
+				container.resolve(ServerTuning.SERVER_XML));
+		assertEquals("8005", original.getDocumentElement().getAttribute("port"));
+
+		new ContainerInstances(container,webapp,2,10).create();
+		assertTrue(Files.isDirectory(instances.getBase(1)));
+		assertFalse(Files.exists(instances.getBase(2)));
+	}
+
+	@Test
+	public void testUpstream() throws IOException {
+		ContainerInstances instances = new ContainerInstances(container,webapp,3,10);
+		List<String> lines = instances.upstream("http://localhost:8080/");
+
+		assertEquals("http://localhost:8090/Mooshak/",
+				instances.getURL("http://localhost:8080/Mooshak/",1));
+		assertTrue(lines.contains("    server localhost:8080;"));
+		assertTrue(lines.contains("    server localhost:8090;"));
+		assertTrue(lines.contains("    server localhost:8100;"));
+		assertTrue(lines.contains("    ip_hash;"));
+		assertEquals(lines, Files.readAllLines(
+				instances.writeUpstream("http://localhost:8080/")));
+	}
+
+	@Test
+	public void testCountExisting() throws IOException {
+		assertEquals(1, ContainerInstances.countExisting(container));
+
+		new ContainerInstances(container,webapp,3,10).create();
+		assertEquals(3, ContainerInstances.countExisting(container));
+
+		new ContainerInstances(container,webapp,2,10).create();
+		assertEquals(2, ContainerInstances.countExisting(container));
+	}
+
+	@Test
+	public void testStopRunningInstances() throws Exception {
+		Properties saved = (Properties) Utils.properties.clone();
+		HttpServer first = serve();
+		HttpServer second = serve();
+		int offset = second.getAddress().getPort() - first.getAddress().getPort();
+		Path stopped = container.resolve("stopped");
+		Configurator configurator = new Configurator();
+		List<String> errors = new ArrayList<>();
+		Thread shutdown = new Thread(() -> {
+			try {
+				while(! Files.exists(stopped))
+					Thread.sleep(50);
+			} catch (InterruptedException cause) {
+				return;
+			}
+			second.stop(0);
+		});
+
+		try {
+			Utils.properties.setProperty("container.url",
+					"http://127.0.0.1:"+first.getAddress().getPort()+"/");
+			Utils.properties.setProperty("instances.offset",
+					Integer.toString(offset));
+			Utils.properties.setProperty("probe.wait","10");
+			Files.write(container.resolve("bin/shutdown.sh"),Arrays.asList(
+					"echo \"$CATALINA_BASE\" >> "+stopped));
+			new ContainerInstances(container,webapp,2).create();
+			shutdown.setDaemon(true);
+			shutdown.start();
+
+			configurator.setErrorHandler(errors::add);
+			configurator.setServletContainerPath(container);
+			assertEquals(2, configurator.getRunningInstances());
+
+			assertNull(configurator.createInstances());
+			assertEquals(Arrays.asList(container.resolve("instances/1")
+					.toAbsolutePath().toString()),Files.readAllLines(stopped));
+			assertEquals(1, ContainerInstances.countExisting(container));
+			assertEquals(1, configurator.getRunningInstances());
+			assertTrue(errors.isEmpty());
+		} finally {
+			shutdown.interrupt();
+			first.stop(0);
+			second.stop(0);
+			Utils.properties = saved;
+		}
+	}
+
+	/**
+	 * Server responding to any request, as a running instance
+	 * @return server on an ephemeral port
+	 * @throws IOException if server cannot be started
+	 */
+	static HttpServer serve() throws IOException {
+		HttpServer server = HttpServer.create(
+				new InetSocketAddress("127.0.0.1",0),0);
+
+		server.createContext("/", exchange -> {
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		server.start();
+		return server;
+	}
+}
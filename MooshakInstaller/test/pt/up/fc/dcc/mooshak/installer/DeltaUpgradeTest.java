@@ -0,0 +1,163 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pt.up.fc.dcc.mooshak.installer.RemoteZip.Entry;
+
+public class DeltaUpgradeTest {
+
+	Path base;
+	Path war;
+	Path webapp;
+	byte[] library = new byte[1<<20];
+
+	@Before
+	public void setUp() throws Exception {
+		base = Files.createTempDirectory("delta");
+		war = base.resolve("Mooshak.war");
+		webapp = base.resolve("webapps/Mooshak");
+		new Random(7).nextBytes(library);
+
+		Files.createDirectories(webapp.resolve("WEB-INF/lib"));
+		Files.write(webapp.resolve("WEB-INF/lib/library.jar"), library);
+		Files.write(webapp.resolve("index.html"), "old".getBytes());
+		Files.write(webapp.resolve("removed.html"), "removed".getBytes());
+
+		try(OutputStream out = Files.newOutputStream(war);
+			ZipOutputStream zip = new ZipOutputStream(out)) {
+			entry(zip,"WEB-INF/lib/library.jar",library);
+			entry(zip,"index.html","new".getBytes());
+			entry(zip,"added.html","added".getBytes());
+		}
+	}
+
+	static void entry(ZipOutputStream zip,String name,byte[] content)
+			throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content);
+		zip.closeEntry();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.deleteTree(base);
+	}
+
+	@Test
+	public void testUpgrade() throws IOException {
+		RemoteZip remote = new RemoteZip(new FileRangeReader(war));
+		DeltaUpgrade upgrade = new DeltaUpgrade(remote,webapp);
+		Path staging = base.resolve("staging");
+		List<String> changed = upgrade.getChanged().stream()
+				.map(Entry::getName).sorted().collect(Collectors.toList());
+
+		assertEquals(Arrays.asList("added.html","index.html"), changed);
+		assertEquals(3, upgrade.getEntryCount());
+		assertTrue(upgrade.getFetchSize() < upgrade.getFullSize() / 100);
+		assertEquals("new".length() + "added".length(), upgrade.getChangedSize());
+
+		upgrade.fetch(staging, new NullProgressable(), Cancellation.NONE);
+		Utils.moveInto(staging, webapp);
+
+		assertEquals("new", new String(Files.readAllBytes(webapp.resolve("index.html"))));
+		assertEquals("added", new String(Files.readAllBytes(webapp.resolve("added.html"))));
+		assertEquals(library.length, Files.size(webapp.resolve("WEB-INF/lib/library.jar")));
+		assertTrue(Files.exists(webapp.resolve("removed.html")));
+	}
+
+	@Test
+	public void testUpToDate() throws IOException {
+		DeltaUpgrade upgrade = new DeltaUpgrade(
+				new RemoteZip(new FileRangeReader(war)),webapp);
+
+		upgrade.fetch(base.resolve("staging"), new NullProgressable(),
+				Cancellation.NONE);
+		Utils.moveInto(base.resolve("staging"), webapp);
+
+		assertTrue(new DeltaUpgrade(new RemoteZip(new FileRangeReader(war)),
+				webapp).getChanged().isEmpty());
+	}
+
+	@Test
+	public void testConfiguratorUpgrade() throws IOException {
+		Properties saved = (Properties) Utils.properties.clone();
+		Configurator configurator = new Configurator();
+		DeltaUpgrade upgrade;
+
+		Files.createDirectories(base.resolve("2.0"));
+		Files.copy(war, base.resolve("2.0/Mooshak.war"));
+		try {
+			Utils.properties.setProperty("version.base", base.toUri().toString());
+			Utils.properties.setProperty("version.war", "Mooshak.war");
+			configurator.setServletContainerPath(base);
+			configurator.setVersion("2.0");
+
+			upgrade = configurator.getWebAppUpgrade();
+			assertSame(upgrade, configurator.getWebAppUpgrade());
+			assertSame(upgrade, configurator.upgradeWebApp(new NullProgressable()));
+			assertEquals("new",
+					new String(Files.readAllBytes(webapp.resolve("index.html"))));
+
+			configurator.setVersion("2.0");
+			assertNotSame(upgrade, configurator.getWebAppUpgrade());
+		} finally {
+			Utils.properties = saved;
+		}
+	}
+
+	@Test
+	public void testEntryOutsideWebapp() throws IOException {
+		try(OutputStream out = Files.newOutputStream(war);
+			ZipOutputStream zip = new ZipOutputStream(out)) {
+			entry(zip,"index.html","new".getBytes());
+			entry(zip,"../Mooshak.xml","evil".getBytes());
+		}
+
+		try {
+			new DeltaUpgrade(new RemoteZip(new FileRangeReader(war)),webapp);
+			fail("entry outside webapp accepted");
+		} catch(ZipException cause) {
+			assertFalse(Files.exists(webapp.resolveSibling("Mooshak.xml")));
+		}
+	}
+
+	@Test
+	public void testSharedLibrary() throws IOException {
+		Path shared = base.resolve("tomcat").resolve(SharedLibraries.SHARED);
+		RemoteZip remote = new RemoteZip(new FileRangeReader(war));
+		List<String> changed;
+
+		Files.createDirectories(shared);
+		Files.move(webapp.resolve("WEB-INF/lib/library.jar"),
+				shared.resolve("library.jar"));
+
+		changed = new DeltaUpgrade(remote,webapp,shared).getChanged().stream()
+				.map(Entry::getName).sorted().collect(Collectors.toList());
+		assertEquals(Arrays.asList("added.html","index.html"), changed);
+
+		assertTrue(new DeltaUpgrade(remote,webapp).getChanged().stream()
+				.anyMatch(entry -> entry.getName().equals("WEB-INF/lib/library.jar")));
+	}
+}
@@ -0,0 +1,98 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GUIDriverTest {
+
+	ExecutorService executor;
+	AtomicReference<Runnable> continuation = new AtomicReference<>();
+
+	@Before
+	public void setUp() throws Exception {
+		executor = InstallerExecutors.newExecutor("test-");
+		continuation.set(() -> {});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testContinuationSelectedByAction() {
+		AtomicBoolean next = new AtomicBoolean(false);
+		Runnable action = () -> { continuation.set(() -> next.set(true)); };
+
+		GUIDriver.proceed(Arrays.asList(action),continuation::get,executor)
+			.join();
+
+		assertTrue(next.get());
+	}
+
+	@Test
+	public void testActionsRunConcurrently() {
+		CountDownLatch latch = new CountDownLatch(2);
+		AtomicBoolean next = new AtomicBoolean(false);
+		Runnable action = () -> {
+			latch.countDown();
+			try {
+				assertTrue(latch.await(5,TimeUnit.SECONDS));
+			} catch (InterruptedException cause) {
+				throw new IllegalStateException(cause);
+			}
+		};
+
+		continuation.set(() -> next.set(true));
+		GUIDriver.proceed(Arrays.asList(action,action),continuation::get,
+				executor).join();
+
+		assertEquals(0, latch.getCount());
+		assertTrue(next.get());
+	}
+
+	@Test
+	public void testFailedAction() {
+		AtomicBoolean next = new AtomicBoolean(false);
+		Runnable action = () -> { throw new IllegalStateException("failed"); };
+		CompletableFuture<Void> future;
+
+		continuation.set(() -> next.set(true));
+		future = GUIDriver.proceed(Arrays.asList(action),continuation::get,
+				executor);
+		try {
+			future.join();
+		} catch(CompletionException cause) {
+			assertTrue(cause.getCause() instanceof IllegalStateException);
+		}
+
+		assertTrue(future.isCompletedExceptionally());
+		assertFalse(next.get());
+	}
+
+	@Test
+	public void testNoActions() {
+		AtomicBoolean next = new AtomicBoolean(false);
+
+		continuation.set(() -> next.set(true));
+		GUIDriver.proceed(Collections.emptyList(),continuation::get,executor)
+			.join();
+
+		assertTrue(next.get());
+	}
+}
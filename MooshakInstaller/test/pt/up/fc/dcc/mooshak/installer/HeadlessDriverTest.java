@@ -0,0 +1,119 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HeadlessDriverTest {
+
+	Properties answers;
+	Map<String,String> environment;
+	ByteArrayOutputStream output;
+	HeadlessDriver driver;
+	
+	@Before
+	public void setUp() throws Exception {
+		answers = new Properties();
+		environment = new HashMap<>();
+		output = new ByteArrayOutputStream();
+		driver = new HeadlessDriver(answers,environment,new PrintStream(output));
+	}
+	
+	@Test
+	public void testKeyOf() {
+		assertEquals("select.version",HeadlessDriver.keyOf("Select version"));
+		assertEquals("install.a.new.servlet.container",
+				HeadlessDriver.keyOf("Install a new servlet container? "));
+		assertEquals("install.a.new.home.or.exit",
+				HeadlessDriver.keyOf("Install a new home (or exit)"));
+		assertEquals("MOOSHAK_START_SERVLET_CONTAINER",
+				HeadlessDriver.variableOf("start.servlet.container"));
+	}
+	
+	@Test
+	public void testAnswers() {
+		AtomicReference<Object> answer = new AtomicReference<>();
+		
+		answers.setProperty("enter.home.directory.path", "/opt/mooshak");
+		answers.setProperty("start.servlet.container", "no");
+		environment.put("MOOSHAK_START_SERVLET_CONTAINER", "yes");
+		
+		driver.askPath("Enter home directory path", Paths.get("/home/mooshak"), 
+				answer::set);
+		assertEquals(Paths.get("/opt/mooshak"),answer.get());
+		
+		driver.askBoolean("Start servlet container?", false, answer::set);
+		assertEquals(true,answer.get());
+		
+		driver.askList("Select version", Arrays.asList("2.1","2.0"), "2.1", 
+				answer::set);
+		assertEquals("2.1",answer.get());
+	}
+	
+	@Test
+	public void testInvalidAnswer() {
+		AtomicReference<String> version = new AtomicReference<>();
+		
+		answers.setProperty("select.version", "3.0");
+		try {
+			driver.askList("select.version", "Select version", 
+					Arrays.asList("2.1","2.0"), "2.1", version::set);
+			fail("invalid answer accepted");
+		} catch(IllegalArgumentException cause) {
+			assertTrue(cause.getMessage().startsWith(
+					"Invalid answer to select.version"));
+		}
+		
+		assertNull(version.get());
+		assertEquals("",output.toString());
+	}
+	
+	@Test
+	public void testExplicitKey() {
+		AtomicReference<Object> answer = new AtomicReference<>();
+		
+		answers.setProperty("start.servlet.container", "yes");
+		
+		driver.askBoolean("start.servlet.container",
+				"Do you want the servlet container started now?", false, 
+				answer::set);
+		assertEquals(true,answer.get());
+		assertEquals("answer\tstart.servlet.container\ttrue\n",
+				output.toString().replace(System.lineSeparator(),"\n"));
+	}
+	
+	@Test
+	public void testProgressLines() {
+		driver.init(9);
+		driver.startPanel(8);
+		driver.say("Installing\nMooshak");
+		driver.showProgress(p -> { 
+			p.updatable(true);
+			p.update(50);
+			p.update(50);
+			p.update(100);
+		});
+		driver.conclude();
+		
+		assertEquals(
+				"panel\t8\t9\n"+
+				"say\tInstalling\\nMooshak\n"+
+				"progress\t50\t100\n"+
+				"progress\t100\t100\n"+
+				"conclude\t0\n", 
+				output.toString().replace(System.lineSeparator(),"\n"));
+	}
+}
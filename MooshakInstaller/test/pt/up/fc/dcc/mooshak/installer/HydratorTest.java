@@ -0,0 +1,123 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HydratorTest {
+
+	Path base;
+	Path zip;
+	Path home;
+	ZipFilter skeleton = new ZipFilter("data/configs/**;data/contests/*",null);
+
+	@Before
+	public void setUp() throws Exception {
+		base = Files.createTempDirectory("hydrator");
+		zip = base.resolve("MooshakData.zip");
+		home = base.resolve("home");
+
+		try(OutputStream out = Files.newOutputStream(zip);
+			ZipOutputStream stream = new ZipOutputStream(out)) {
+			DeltaUpgradeTest.entry(stream,"data/",new byte[0]);
+			DeltaUpgradeTest.entry(stream,"data/configs/",new byte[0]);
+			DeltaUpgradeTest.entry(stream,"data/configs/languages.xml",
+					"<languages/>".getBytes());
+			DeltaUpgradeTest.entry(stream,"data/contests/",new byte[0]);
+			DeltaUpgradeTest.entry(stream,"data/contests/proto/",new byte[0]);
+			DeltaUpgradeTest.entry(stream,"data/contests/proto/A/problem.pdf",
+					new byte[1<<16]);
+			DeltaUpgradeTest.entry(stream,"data/contests/proto/B/problem.pdf",
+					new byte[1<<16]);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.deleteTree(base);
+	}
+
+	/**
+	 * Expand skeleton of ZIP file to home, as the configurator does
+	 */
+	Hydrator expandSkeleton(ZipFilter filter) throws IOException {
+		Hydrator hydrator = new Hydrator(zip,home,filter,skeleton);
+
+		try(ZipFile file = new ZipFile(zip.toFile())) {
+			Utils.extractTo(file,home,hydrator.getSkeleton(),
+					new NullProgressable(),Cancellation.NONE);
+		}
+		return hydrator;
+	}
+
+	@Test
+	public void testHydrate() throws IOException {
+		Hydrator hydrator = expandSkeleton(ZipFilter.ALL);
+		Path contest = home.resolve("data/contests/proto");
+
+		assertTrue(Files.exists(home.resolve("data/configs/languages.xml")));
+		assertTrue(Files.isDirectory(contest));
+		assertFalse(Files.exists(contest.resolve("A")));
+		assertEquals(2, hydrator.getPending());
+		assertEquals(2<<16, hydrator.getSize());
+
+		// created by Mooshak before hydration
+		Files.createDirectories(contest.resolve("B"));
+		Files.write(contest.resolve("B/problem.pdf"), "changed".getBytes());
+
+		hydrator.start(Cancellation.NONE);
+		assertTrue(hydrator.await(new NullProgressable()));
+
+		assertEquals(1<<16, Files.size(contest.resolve("A/problem.pdf")));
+		assertEquals("changed",
+				new String(Files.readAllBytes(contest.resolve("B/problem.pdf"))));
+		assertFalse(Files.exists(contest.resolve("A/problem.pdf.hydrating")));
+	}
+
+	@Test
+	public void testFiltered() throws IOException {
+		Hydrator hydrator = expandSkeleton(
+				new ZipFilter(null,"data/contests/proto/B/**"));
+
+		assertEquals(1, hydrator.getPending());
+
+		hydrator.start(Cancellation.NONE);
+		assertTrue(hydrator.await(new NullProgressable()));
+		assertFalse(Files.exists(home.resolve("data/contests/proto/B")));
+	}
+
+	@Test
+	public void testCancel() throws IOException {
+		Hydrator hydrator = expandSkeleton(ZipFilter.ALL);
+		Cancellation cancellation = new Cancellation();
+
+		cancellation.cancel();
+		hydrator.start(cancellation);
+
+		assertFalse(hydrator.await(new NullProgressable()));
+		assertFalse(Files.exists(home.resolve("data/contests/proto/A/problem.pdf")));
+	}
+
+	@Test(expected = ZipException.class)
+	public void testEntryOutsideTarget() throws IOException {
+		try(OutputStream out = Files.newOutputStream(zip);
+			ZipOutputStream stream = new ZipOutputStream(out)) {
+			DeltaUpgradeTest.entry(stream,"data/contests/proto/../../../../evil",
+					new byte[1]);
+		}
+
+		new Hydrator(zip,home,ZipFilter.ALL,skeleton);
+	}
+}
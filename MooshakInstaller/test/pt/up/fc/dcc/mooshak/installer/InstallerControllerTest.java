@@ -0,0 +1,220 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BiConsumer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import pt.up.fc.dcc.mooshak.installer.InstallerAgent.State;
+
+public class InstallerControllerTest {
+
+	static final String TOKEN = "secret";
+
+	List<InstallerAgent> agents = new ArrayList<>();
+	Properties saved = null;
+	Path base = null;
+	ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+	@After
+	public void tearDown() throws Exception {
+		agents.forEach(InstallerAgent::stop);
+		if(saved != null)
+			Utils.properties = saved;
+		if(base != null)
+			Utils.deleteTree(base);
+	}
+
+	/**
+	 * Start an agent on an ephemeral port of localhost
+	 * @return agent as host:port
+	 */
+	String agent(BiConsumer<Properties,HeadlessDriver> installation)
+			throws Exception {
+		InstallerAgent agent = new InstallerAgent(
+				new InetSocketAddress("127.0.0.1",0),TOKEN,installation);
+
+		agent.start();
+		agents.add(agent);
+		return "127.0.0.1:"+agent.getPort();
+	}
+
+	InstallerController controller(Properties plan,String token,
+			String... agents) {
+		InstallerController controller = new InstallerController(plan,
+				Arrays.asList(agents),token,new PrintStream(output));
+
+		controller.setPoll(10);
+		return controller;
+	}
+
+	@Test
+	public void testRollout() throws Exception {
+		Properties plan = new Properties();
+		BiConsumer<Properties,HeadlessDriver> installation = (answers,driver) -> {
+			driver.say("Installing "+answers.getProperty("select.version"));
+			driver.conclude();
+		};
+		String first = agent(installation);
+		String second = agent(installation);
+		InstallerController controller;
+
+		plan.setProperty("select.version","2.0");
+		controller = controller(plan,TOKEN,first,second);
+
+		assertTrue(controller.rollout());
+		assertEquals(State.COMPLETED,controller.getState(first));
+		assertEquals(State.COMPLETED,controller.getState(second));
+
+		String lines = output.toString("UTF-8");
+		for(String agent: Arrays.asList(first,second)) {
+			assertTrue(lines.contains(agent+"\tsay\tInstalling 2.0\n"));
+			assertTrue(lines.contains(agent+"\tconclude\t0\n"));
+			assertTrue(lines.contains("summary\t"+agent+"\tCOMPLETED\t0\n"));
+		}
+	}
+
+	@Test
+	public void testRolloutWithErrors() throws Exception {
+		String good = agent((answers,driver) -> driver.conclude());
+		String bad = agent((answers,driver) -> {
+			driver.error("Disk full");
+			driver.conclude();
+		});
+		InstallerController controller =
+				controller(new Properties(),TOKEN,good,bad);
+
+		assertFalse(controller.rollout());
+		assertEquals(State.COMPLETED,controller.getState(good));
+		assertEquals(State.FAILED,controller.getState(bad));
+		assertEquals(1,controller.getErrors(bad));
+		assertTrue(output.toString("UTF-8").contains(bad+"\terror\tDisk full\n"));
+	}
+
+	@Test
+	public void testInvalidToken() throws Exception {
+		String agent = agent((answers,driver) -> driver.conclude());
+		InstallerController controller =
+				controller(new Properties(),"wrong",agent);
+
+		assertFalse(controller.rollout());
+		assertEquals(State.FAILED,controller.getState(agent));
+		assertTrue(output.toString("UTF-8").contains("403"));
+		assertEquals(State.IDLE,agents.get(0).getState());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTokenRequired() throws Exception {
+		InstallerAgent agent = new InstallerAgent(
+				new InetSocketAddress("127.0.0.1",0),null);
+
+		agents.add(agent);
+		agents.add(new InstallerAgent(new InetSocketAddress(0),null));
+	}
+
+	@Test
+	public void testBusyAgent() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		String agent = agent((answers,driver) -> {
+			try {
+				release.await();
+			} catch (InterruptedException cause) {
+				Thread.currentThread().interrupt();
+			}
+			driver.conclude();
+		});
+		InstallerController first = controller(new Properties(),TOKEN,agent);
+		InstallerController second = controller(new Properties(),TOKEN,agent);
+		Thread rollout = new Thread(first::rollout);
+
+		rollout.start();
+		while(agents.get(0).getState() != State.RUNNING)
+			Thread.sleep(10);
+
+		assertFalse(second.rollout());
+		assertTrue(output.toString("UTF-8").contains("409"));
+
+		release.countDown();
+		rollout.join();
+		assertEquals(State.COMPLETED,first.getState(agent));
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		String agent = agent((answers,driver) -> {
+			try {
+				release.await();
+			} catch (InterruptedException cause) {
+				Thread.currentThread().interrupt();
+			}
+			driver.conclude();
+		});
+		InstallerController controller =
+				controller(new Properties(),TOKEN,agent);
+
+		controller.setTimeout(100);
+		assertFalse(controller.rollout());
+		assertEquals(State.FAILED,controller.getState(agent));
+		assertEquals(1,controller.getErrors(agent));
+		assertTrue(output.toString("UTF-8").contains(agent+"\terror\tTimed out"));
+		release.countDown();
+	}
+
+	/**
+	 * Agent running the installer, with versions and journal
+	 * in a temporary directory
+	 * @return agent as host:port
+	 */
+	String installerAgent() throws Exception {
+		InstallerAgent agent;
+
+		saved = (Properties) Utils.properties.clone();
+		base = Files.createTempDirectory("versions");
+		Utils.properties.setProperty("version.base",
+				base.resolve("versions").toUri().toString());
+		Utils.properties.setProperty("state.directory",
+				base.resolve("state").toString());
+		Files.createDirectories(base.resolve("versions"));
+
+		agent = new InstallerAgent(new InetSocketAddress("127.0.0.1",0),TOKEN);
+		agent.start();
+		agents.add(agent);
+		return "127.0.0.1:"+agent.getPort();
+	}
+
+	@Test
+	public void testInstallerFatalError() throws Exception {
+		String agent = installerAgent();
+
+		assertFalse(controller(new Properties(),TOKEN,agent).rollout());
+		assertEquals(State.FAILED,agents.get(0).getState());
+		assertTrue(output.toString("UTF-8").contains(
+				agent+"\terror\tNo Mooshak versions"));
+		assertTrue(output.toString("UTF-8").contains(agent+"\tconclude\t1\n"));
+
+		// agent survives to install again
+		Files.createDirectories(base.resolve("versions/2.0"));
+		Properties plan = new Properties();
+		plan.setProperty("select.version","9.9");
+
+		assertFalse(controller(plan,TOKEN,agent).rollout());
+		assertEquals(State.FAILED,agents.get(0).getState());
+		assertTrue(output.toString("UTF-8").contains(
+				agent+"\terror\tInvalid answer to select.version"));
+	}
+}
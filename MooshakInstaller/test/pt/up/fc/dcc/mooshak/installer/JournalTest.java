@@ -0,0 +1,210 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pt.up.fc.dcc.mooshak.installer.Journal.Step;
+
+public class JournalTest {
+
+	Path directory;
+	Path file;
+	Journal journal;
+	List<String> errors = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("state");
+		file = directory.resolve("journal");
+		journal = new Journal(directory);
+		journal.setErrorHandler(errors::add);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.deleteTree(directory);
+	}
+
+	/**
+	 * A new journal on the same directory, as after a restart
+	 * @return journal with loaded records
+	 */
+	Journal restart() {
+		Journal restarted = new Journal(directory);
+
+		restarted.setErrorHandler(errors::add);
+		restarted.load();
+		return restarted;
+	}
+
+	@Test
+	public void testEmpty() {
+		assertFalse(journal.load());
+		assertNull(journal.last());
+		assertFalse(journal.has(Step.VERSION));
+	}
+
+	@Test
+	public void testResume() throws IOException {
+		Path download = Files.createTempFile("mooshak", ".zip");
+
+		journal.record(Step.VERSION,"1.6");
+		journal.record(Step.HOME,directory.resolve("home"));
+		journal.keep(Step.WAR_DOWNLOAD,download,"http://host/1.6/Mooshak.war");
+
+		Journal restarted = restart();
+
+		assertEquals("1.6", restarted.get(Step.VERSION));
+		assertEquals(directory.resolve("home").toAbsolutePath().toString(),
+				restarted.get(Step.HOME));
+		assertEquals(directory.resolve("Mooshak.war"),
+				restarted.getPath(Step.WAR_DOWNLOAD));
+		assertFalse(Files.exists(download));
+		assertEquals(Step.WAR_DOWNLOAD, restarted.last());
+		assertTrue(errors.isEmpty());
+	}
+
+	@Test
+	public void testMissingKeptFile() throws IOException {
+		Path download = Files.createTempFile("mooshak", ".zip");
+
+		journal.keep(Step.WAR_DOWNLOAD,download,"http://host/1.6/Mooshak.war");
+		Files.delete(directory.resolve("Mooshak.war"));
+
+		Journal restarted = restart();
+
+		assertTrue(restarted.has(Step.WAR_DOWNLOAD));
+		assertNull(restarted.getPath(Step.WAR_DOWNLOAD));
+	}
+
+	@Test
+	public void testTruncatedRecord() throws IOException {
+		journal.record(Step.VERSION,"1.6");
+		journal.record(Step.HOME,"/home/mooshak");
+
+		byte[] content = Files.readAllBytes(file);
+		Files.write(file,Arrays.copyOf(content,content.length - 5));
+
+		Journal restarted = restart();
+
+		assertTrue(restarted.has(Step.VERSION));
+		assertFalse(restarted.has(Step.HOME));
+		assertEquals(Step.VERSION, restarted.last());
+	}
+
+	@Test
+	public void testRecordAfterTornRecord() throws IOException {
+		journal.record(Step.VERSION,"1.6");
+		Files.write(file,"HOME\t/home/moo".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+
+		Journal restarted = restart();
+		restarted.record(Step.CONTAINER,"/usr/share/tomcat");
+
+		Journal again = restart();
+
+		assertTrue(again.has(Step.VERSION));
+		assertFalse(again.has(Step.HOME));
+		assertEquals("/usr/share/tomcat", again.get(Step.CONTAINER));
+	}
+
+	@Test
+	public void testCorruptedRecords() throws IOException {
+		journal.record(Step.VERSION,"1.6");
+		Files.write(file,("HOME\t/home/mooshak\t0\n"+
+				"UNKNOWN\tvalue\t0\n"+"garbage\n")
+				.getBytes(StandardCharsets.UTF_8),StandardOpenOption.APPEND);
+
+		Journal restarted = restart();
+
+		assertTrue(restarted.has(Step.VERSION));
+		assertFalse(restarted.has(Step.HOME));
+		assertEquals(Step.VERSION, restarted.last());
+	}
+
+	@Test
+	public void testClear() throws IOException {
+		Path download = Files.createTempFile("mooshak", ".zip");
+
+		journal.record(Step.VERSION,"1.6");
+		journal.keep(Step.DATA_DOWNLOAD,download,"http://host/1.6/MooshakData.zip");
+		journal.clear();
+
+		assertFalse(journal.has(Step.VERSION));
+		assertFalse(Files.exists(directory));
+		assertFalse(restart().load());
+	}
+
+	@Test
+	public void testKeptArchiveSurvivesExpansion() throws IOException {
+		Configurator configurator = new Configurator();
+		Path download = Files.createTempFile("mooshak", ".zip");
+		Path kept;
+
+		BundleTest.zip(download,"index.html");
+		kept = journal.keep(Step.WAR_DOWNLOAD,download,"http://host/Mooshak.war");
+
+		configurator.expandZip(kept,directory.resolve("webapp"),true,
+				new NullProgressable());
+		configurator.cleanup();
+
+		assertTrue(Files.exists(directory.resolve("webapp/index.html")));
+		assertEquals(kept, restart().getPath(Step.WAR_DOWNLOAD));
+	}
+
+	@Test
+	public void testKeptArchiveSurvivesCancellation() throws IOException {
+		Configurator configurator = new Configurator();
+		Cancellation cancellation = new Cancellation();
+		Path download = Files.createTempFile("mooshak", ".zip");
+		Path kept;
+
+		BundleTest.zip(download,"index.html");
+		kept = journal.keep(Step.WAR_DOWNLOAD,download,"http://host/Mooshak.war");
+
+		configurator.setCancellation(cancellation);
+		cancellation.cancel();
+		try {
+			configurator.expandZip(kept,directory.resolve("webapp"),true,
+					new NullProgressable());
+		} catch(CancellationException cause) {
+			// expected
+		}
+		configurator.cleanup();
+
+		assertFalse(Files.exists(directory.resolve("webapp")));
+		assertEquals(kept, restart().getPath(Step.WAR_DOWNLOAD));
+	}
+
+	@Test
+	public void testDownloadRemovedAfterExpansion() throws IOException {
+		Configurator configurator = new Configurator();
+		Path origin = directory.resolve("Mooshak.war");
+		Path download;
+
+		BundleTest.zip(origin,"index.html");
+		download = configurator.downloadZipFrom(origin.toUri().toString(),
+				new NullProgressable());
+		configurator.expandZip(download,directory.resolve("webapp"),true,
+				new NullProgressable());
+
+		assertFalse(Files.exists(download));
+		assertTrue(Files.exists(origin));
+	}
+}
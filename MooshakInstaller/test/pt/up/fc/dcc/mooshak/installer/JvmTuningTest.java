@@ -0,0 +1,152 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pt.up.fc.dcc.mooshak.installer.JvmTuning.Profile;
+
+public class JvmTuningTest {
+
+	Path container;
+
+	@Before
+	public void setUp() throws Exception {
+		container = Files.createTempDirectory("tomcat");
+		Files.createDirectories(container.resolve("bin"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.deleteTree(container);
+	}
+
+	@Test
+	public void testSmall() {
+		JvmTuning tuning = new JvmTuning("small",2,4096);
+		List<String> options = tuning.getOptions();
+
+		assertEquals(Profile.SMALL, tuning.getProfile());
+		assertEquals(1024, tuning.getHeap());
+		assertTrue(options.contains("-Xmx1024m"));
+		assertTrue(options.contains("-Xms256m"));
+		assertTrue(options.contains("-XX:+UseSerialGC"));
+	}
+
+	@Test
+	public void testLarge() {
+		JvmTuning tuning = new JvmTuning("large",32,64*1024);
+		List<String> options = tuning.getOptions();
+
+		assertEquals(30*1024, tuning.getHeap());
+		assertTrue(options.contains("-Xms30720m"));
+		assertTrue(options.contains("-XX:+UseG1GC"));
+		assertTrue(options.contains("-XX:MaxGCPauseMillis=100"));
+		assertTrue(options.contains("-XX:+AlwaysPreTouch"));
+	}
+
+	@Test
+	public void testAuto() {
+		assertEquals(Profile.SMALL, new JvmTuning("auto",4,8192).getProfile());
+		assertEquals(Profile.LARGE, new JvmTuning("AUTO",16,65536).getProfile());
+	}
+
+	@Test
+	public void testInstances() {
+		JvmTuning tuning = new JvmTuning("auto",32,64*1024,4);
+		List<String> options = tuning.getOptions();
+		Properties properties = new Properties();
+
+		assertEquals(Profile.LARGE, tuning.getProfile());
+		assertEquals(8*1024, tuning.getHeap());
+		assertTrue(options.contains("-Xms8192m"));
+		assertTrue(options.contains("-Xmx8192m"));
+		assertTrue(options.contains("-XX:+UseG1GC"));
+
+		tuning.record(properties);
+		assertEquals("8192 MB in each of 4 instances",
+				properties.getProperty("jvmHeap"));
+		assertEquals(new JvmTuning("small",2,4096).getHeap(),
+				new JvmTuning("small",8,16*1024,4).getHeap());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalid() {
+		new JvmTuning("huge",4,8192);
+	}
+
+	@Test
+	public void testRecord() {
+		JvmTuning tuning = new JvmTuning("small",4,8192);
+		Properties properties = new Properties();
+
+		tuning.addOption("-Dmooshak=true");
+		tuning.record(properties);
+
+		assertEquals("small (4 cores, 8192 MB)", properties.getProperty("jvmProfile"));
+		assertEquals("G1", properties.getProperty("jvmGarbageCollector"));
+		assertTrue(properties.getProperty("jvmOptions").endsWith("-Dmooshak=true"));
+	}
+
+	@Test
+	public void testWrite() throws IOException {
+		Path setenv = container.resolve(JvmTuning.SETENV);
+
+		Files.write(setenv, Arrays.asList("#!/bin/sh","UMASK=0027"));
+		Files.setPosixFilePermissions(setenv,
+				PosixFilePermissions.fromString("rwxr-x---"));
+		new JvmTuning("small",4,8192).write(container);
+		new JvmTuning("large",16,65536).write(container);
+
+		List<String> lines = Files.readAllLines(setenv,StandardCharsets.UTF_8);
+		String script = String.join("\n", lines);
+
+		assertEquals(Arrays.asList("#!/bin/sh","UMASK=0027"), lines.subList(0, 2));
+		assertEquals(1, Collections.frequency(lines, JvmTuning.BEGIN));
+		assertTrue(script.contains("-Xmx30720m"));
+		assertFalse(script.contains("-Xmx2048m"));
+		assertEquals("rwxr-x---", PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(setenv)));
+
+		Files.delete(setenv);
+		new JvmTuning("small",4,8192).write(container);
+		assertEquals("rwxr-xr-x", PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(setenv)));
+	}
+
+	@Test
+	public void testSharedArchive() {
+		JvmTuning tuning = new JvmTuning("small",4,8192);
+		Properties properties = new Properties();
+
+		assertFalse(String.join("\n", tuning.script()).contains("Archive"));
+
+		tuning.setSharedArchive(true);
+		tuning.record(properties);
+
+		String script = String.join("\n", tuning.script());
+
+		assertTrue(script.contains("-XX:ArchiveClassesAtExit=$CATALINA_BASE/"+
+				JvmTuning.CDS_ARCHIVE));
+		assertTrue(script.contains("-XX:SharedArchiveFile=$CATALINA_BASE/"+
+				JvmTuning.CDS_ARCHIVE));
+		assertTrue(script.indexOf(JvmTuning.CDS_TRAINING) <
+				script.indexOf("SharedArchiveFile"));
+		assertEquals("$CATALINA_BASE/"+JvmTuning.CDS_ARCHIVE,
+				properties.getProperty("jvmSharedArchive"));
+	}
+}
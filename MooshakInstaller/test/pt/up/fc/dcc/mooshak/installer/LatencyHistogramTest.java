@@ -0,0 +1,63 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testIndex() {
+		int last = -1;
+
+		for(long value = 0; value < 1<<20; value++) {
+			int index = LatencyHistogram.index(value);
+			long highest = LatencyHistogram.highest(index);
+
+			assertTrue(index >= last);
+			assertTrue(highest >= value);
+			assertTrue((highest - value) * LatencyHistogram.SUB_BUCKETS <= value);
+			last = index;
+		}
+		assertTrue(LatencyHistogram.index(Long.MAX_VALUE) <
+				(LatencyHistogram.BUCKETS + 1) * LatencyHistogram.SUB_BUCKETS);
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		LatencyHistogram other = new LatencyHistogram();
+
+		for(long millis = 1; millis <= 500; millis++)
+			histogram.record(millis * 1000000);
+		for(long millis = 501; millis <= 1000; millis++)
+			other.record(millis * 1000000);
+		histogram.add(other);
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500.5, histogram.getMean(), 0.001);
+		assertEquals(1000.0, histogram.getMaximum(), 0);
+		assertEquals(500, histogram.getPercentile(50), 500 / 32.0);
+		assertEquals(990, histogram.getPercentile(99), 990 / 32.0);
+		assertEquals(1000.0, histogram.getPercentile(100), 0);
+		assertEquals(0, new LatencyHistogram().getPercentile(50), 0);
+	}
+
+	@Test
+	public void testDistribution() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		List<String> lines;
+
+		for(long millis = 1; millis <= 100; millis++)
+			histogram.record(millis * 1000000);
+		lines = histogram.getDistribution();
+
+		assertTrue(lines.get(0).contains("Percentile"));
+		assertTrue(lines.get(1).trim().startsWith("1.0"));
+		assertTrue(lines.get(lines.size()-1).trim().startsWith("100.000"));
+		assertTrue(lines.get(lines.size()-1).endsWith("inf"));
+	}
+}
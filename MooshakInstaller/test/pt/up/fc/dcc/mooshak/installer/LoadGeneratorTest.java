@@ -0,0 +1,86 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class LoadGeneratorTest {
+
+	HttpServer server;
+	String base;
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1",0),0);
+		server.createContext("/", exchange -> {
+			byte[] content = "Mooshak".getBytes();
+			int status = exchange.getRequestURI().getPath().endsWith("missing")
+					? 404 : 200;
+
+			exchange.sendResponseHeaders(status, content.length);
+			try(OutputStream out = exchange.getResponseBody()) {
+				out.write(content);
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:"+server.getAddress().getPort()+"/Mooshak/";
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop(0);
+	}
+
+	@Test
+	public void testMix() throws IOException {
+		LoadGenerator generator = new LoadGenerator(base,
+				":3;/:1;missing;none:0",1,0,0,0);
+		List<LoadGenerator.Request> mix = generator.getMix();
+
+		assertEquals(3, mix.size());
+		assertEquals(mix.get(0), generator.choose(0));
+		assertEquals(mix.get(0), generator.choose(2));
+		assertEquals(mix.get(1), generator.choose(3));
+		assertEquals(mix.get(2), generator.choose(4));
+	}
+
+	@Test
+	public void testRun() throws IOException {
+		LoadGenerator generator = new LoadGenerator(base,":1;missing:1",
+				20,1000,200,10);
+		Path report = Files.createTempFile("capacity",".txt");
+
+		try {
+			generator.run(new NullProgressable(),Cancellation.NONE);
+			generator.write(report);
+
+			List<LoadGenerator.Request> mix = generator.getMix();
+			String content = new String(Files.readAllBytes(report),
+					StandardCharsets.UTF_8);
+
+			assertTrue(mix.get(0).getHistogram().getCount() > 20);
+			assertEquals(0, mix.get(0).getErrors());
+			assertEquals(0, mix.get(1).getHistogram().getCount());
+			assertTrue(mix.get(1).getErrors() > 20);
+			assertEquals(50, generator.getErrorRate(), 20);
+			assertTrue(generator.getThroughput() > 0);
+			assertTrue(content.contains(generator.getSummary()));
+			assertTrue(content.contains("1/(1-Percentile)"));
+		} finally {
+			Files.delete(report);
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+
+/**
+ * Progressable ignoring progress and errors, for tests of tasks
+ * whose progress is not checked
+ */
+class NullProgressable implements Progressable {
+
+	@Override
+	public void updatable(boolean isUpdatable) {}
+
+	@Override
+	public int getMaximum() {
+		return 100;
+	}
+
+	@Override
+	public void update(int part) {}
+
+	@Override
+	public void taskError(String message) {}
+}
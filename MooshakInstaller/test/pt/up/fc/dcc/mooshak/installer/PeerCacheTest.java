@@ -0,0 +1,98 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PeerCacheTest {
+
+	static final byte[] CONTENT = "artifact content".getBytes();
+
+	Path base;
+	Path origin;
+	String url;
+	PeerCache seeder;
+	PeerCache client;
+
+	@Before
+	public void setUp() throws Exception {
+		base = Files.createTempDirectory("peers");
+		origin = base.resolve("Mooshak.war");
+		url = origin.toUri().toString();
+
+		Files.write(origin, CONTENT);
+		Files.write(base.resolve("Mooshak.war.sha256"),
+				(Bundle.checksum(origin)+"  Mooshak.war\n")
+				.getBytes(Charset.forName("US-ASCII")));
+
+		seeder = new PeerCache(base.resolve("seeder"));
+		seeder.serve(0);
+		client = new PeerCache(base.resolve("client"));
+		client.addPeer("127.0.0.1:"+seeder.getPort());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		seeder.stop();
+		Utils.deleteTree(base);
+	}
+
+	@Test
+	public void testOriginChecksum() throws Exception {
+		assertEquals(Bundle.checksum(origin),
+				client.getOriginChecksum(url));
+		assertNull(client.getOriginChecksum(url+".missing"));
+	}
+
+	@Test
+	public void testFetchFromPeer() throws Exception {
+		assertTrue(seeder.store(url, origin));
+
+		Path fetched = client.fetch(url, new NullProgressable(),
+				Cancellation.NONE);
+
+		assertNotNull(fetched);
+		assertArrayEquals(CONTENT, Files.readAllBytes(fetched));
+		Files.delete(fetched);
+	}
+
+	@Test
+	public void testFetchMissing() throws Exception {
+		assertNull(client.fetch(url, new NullProgressable(),
+				Cancellation.NONE));
+	}
+
+	@Test
+	public void testFetchCorrupted() throws Exception {
+		Path corrupted = base.resolve("corrupted");
+
+		Files.write(corrupted, "tampered".getBytes());
+		assertTrue(seeder.store(url, corrupted));
+
+		assertNull(client.fetch(url, new NullProgressable(),
+				Cancellation.NONE));
+	}
+
+	@Test
+	public void testFetchFromLocalCache() throws Exception {
+		seeder.stop();
+		assertTrue(client.store(url, origin));
+
+		Path fetched = client.fetch(url, new NullProgressable(),
+				Cancellation.NONE);
+
+		assertNotNull(fetched);
+		assertArrayEquals(CONTENT, Files.readAllBytes(fetched));
+		Files.delete(fetched);
+	}
+}
@@ -0,0 +1,127 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class PrecompressionTest {
+
+	Path webapp;
+	String script;
+
+	@Before
+	public void setUp() throws Exception {
+		webapp = Files.createTempDirectory("Mooshak");
+		script = String.join("\n",Collections.nCopies(200,
+				"function f() { return 'Mooshak'; }"));
+
+		Files.createDirectories(webapp.resolve("js"));
+		Files.createDirectories(webapp.resolve("WEB-INF/classes"));
+		Files.write(webapp.resolve("js/app.js"),
+				script.getBytes(StandardCharsets.UTF_8));
+		Files.write(webapp.resolve("js/tiny.js"),"f();".getBytes());
+		Files.write(webapp.resolve("logo.png"),new byte[4096]);
+		Files.write(webapp.resolve("WEB-INF/classes/messages.xml"),
+				script.getBytes(StandardCharsets.UTF_8));
+		Files.write(webapp.resolve(Precompression.WEB_XML),
+				("<web-app><display-name>Mooshak</display-name>"+
+				"<servlet><servlet-name>app</servlet-name></servlet>"+
+				"</web-app>").getBytes());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.deleteTree(webapp);
+	}
+
+	@Test
+	public void testCompress() throws IOException {
+		Precompression precompression = new Precompression(webapp,9);
+		Path gz = webapp.resolve("js/app.js.gz");
+
+		assertEquals(1, precompression.compress(new NullProgressable(),
+				Cancellation.NONE));
+		assertTrue(Files.exists(gz));
+		assertFalse(Files.exists(webapp.resolve("js/tiny.js.gz")));
+		assertFalse(Files.exists(webapp.resolve("logo.png.gz")));
+		assertFalse(Files.exists(webapp.resolve("WEB-INF/classes/messages.xml.gz")));
+		assertEquals(Files.getLastModifiedTime(webapp.resolve("js/app.js")),
+				Files.getLastModifiedTime(gz));
+		assertEquals("rw-r--r--", PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(gz)));
+
+		try(InputStream in = new GZIPInputStream(Files.newInputStream(gz))) {
+			byte[] buffer = new byte[script.length()+1];
+			int length = 0;
+			int read;
+
+			while((read = in.read(buffer,length,buffer.length-length)) > 0)
+				length += read;
+			assertEquals(script,new String(buffer,0,length,StandardCharsets.UTF_8));
+		}
+
+		precompression = new Precompression(webapp,9);
+		assertEquals(0, precompression.compress(new NullProgressable(),
+				Cancellation.NONE));
+	}
+
+	@Test
+	public void testConfigure() throws IOException {
+		Precompression precompression = new Precompression(webapp,8);
+		Properties properties = new Properties();
+
+		precompression.apply(new NullProgressable(),Cancellation.NONE);
+		precompression.configure();
+		precompression.record(properties);
+
+		Document web = ServerTuning.read(webapp.resolve(Precompression.WEB_XML));
+		Element servlet = (Element) web.getElementsByTagName("servlet").item(0);
+
+		assertEquals(2, web.getElementsByTagName("servlet").getLength());
+		assertEquals(Precompression.DEFAULT_SERVLET,servlet
+				.getElementsByTagName("servlet-class").item(0).getTextContent());
+		assertEquals(2, servlet.getElementsByTagName("init-param").getLength());
+
+		Document context = ServerTuning.read(
+				webapp.resolve(Precompression.CONTEXT_XML));
+		Element resources = (Element)
+				context.getElementsByTagName("Resources").item(0);
+
+		assertEquals(1, context.getElementsByTagName("Resources").getLength());
+		assertEquals("true", resources.getAttribute("cachingAllowed"));
+		assertEquals(Long.toString(Precompression.MINIMUM_CACHE),
+				resources.getAttribute("cacheMaxSize"));
+		assertTrue(properties.getProperty("staticCompression")
+				.startsWith("1 files compressed"));
+	}
+
+	@Test
+	public void testConfigureTomcat7() throws IOException {
+		Precompression precompression = new Precompression(webapp,7);
+
+		precompression.configure();
+
+		Element context = ServerTuning.read(
+				webapp.resolve(Precompression.CONTEXT_XML)).getDocumentElement();
+
+		assertEquals(0, context.getElementsByTagName("Resources").getLength());
+		assertEquals(Long.toString(Precompression.MINIMUM_CACHE),
+				context.getAttribute("cacheMaxSize"));
+	}
+}
@@ -0,0 +1,109 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CancellationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class ReadinessProbeTest {
+
+	static final int TIMEOUT = 300;
+
+	HttpServer server;
+	String base;
+	volatile boolean deployed = true;
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1",0),0);
+		server.createContext("/", exchange -> {
+			int status = exchange.getRequestURI().getPath().startsWith("/Mooshak")
+					&& deployed ? 200 : 404;
+
+			assertEquals("HEAD", exchange.getRequestMethod());
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+		});
+		server.start();
+		base = "http://127.0.0.1:"+server.getAddress().getPort()+"/";
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop(0);
+	}
+
+	@Test
+	public void testResponding() throws IOException {
+		assertTrue(new ReadinessProbe(base,TIMEOUT).isResponding());
+		assertFalse(new ReadinessProbe(base,TIMEOUT).isReady());
+		assertTrue(new ReadinessProbe(base+"Mooshak/",TIMEOUT).isReady());
+	}
+
+	@Test
+	public void testNotListening() throws IOException {
+		int port;
+
+		try(ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		assertFalse(new ReadinessProbe("http://127.0.0.1:"+port+"/",TIMEOUT)
+				.isResponding());
+	}
+
+	@Test
+	public void testHung() throws IOException {
+		try(ServerSocket socket = new ServerSocket(0)) {
+			String url = "http://127.0.0.1:"+socket.getLocalPort()+"/";
+			long start = System.currentTimeMillis();
+
+			// connections are accepted by the backlog but never answered
+			assertFalse(new ReadinessProbe(url,TIMEOUT).isResponding());
+			assertTrue(System.currentTimeMillis() - start < 10 * TIMEOUT);
+		}
+	}
+
+	@Test
+	public void testAwait() throws Exception {
+		ReadinessProbe probe = new ReadinessProbe(base+"Mooshak/",TIMEOUT);
+
+		deployed = false;
+		new Thread(() -> {
+			try {
+				Thread.sleep(500);
+			} catch (InterruptedException cause) {}
+			deployed = true;
+		}).start();
+
+		long startup = probe.await(10000,Cancellation.NONE);
+
+		assertTrue(startup >= 400);
+		assertTrue(startup < 5000);
+	}
+
+	@Test
+	public void testAwaitTimeout() throws Exception {
+		deployed = false;
+		assertEquals(-1, new ReadinessProbe(base+"Mooshak/",TIMEOUT)
+				.await(300,Cancellation.NONE));
+	}
+
+	@Test(expected=CancellationException.class)
+	public void testAwaitCancelled() throws Exception {
+		Cancellation cancellation = new Cancellation();
+
+		deployed = false;
+		cancellation.cancel();
+		new ReadinessProbe(base+"Mooshak/",TIMEOUT).await(10000,cancellation);
+	}
+}
@@ -0,0 +1,197 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemoteZipTest {
+
+	static final byte[] INDEX = "<html>Mooshak</html>".getBytes();
+
+	Path file;
+	byte[] large = new byte[1<<20];
+	long read = 0;
+
+	/**
+	 * Reader counting the bytes it reads
+	 */
+	RangeReader counting = new RangeReader() {
+
+		@Override
+		public long size() throws IOException {
+			return new FileRangeReader(file).size();
+		}
+
+		@Override
+		public byte[] read(long offset, int length) throws IOException {
+			read += length;
+			return new FileRangeReader(file).read(offset, length);
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		CRC32 crc = new CRC32();
+		ZipEntry stored = new ZipEntry("WEB-INF/lib/large.jar");
+
+		file = Files.createTempFile("remote", ".war");
+		new Random(42).nextBytes(large);
+		crc.update(large);
+
+		try(OutputStream out = Files.newOutputStream(file);
+			ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("WEB-INF/"));
+			zip.closeEntry();
+
+			stored.setMethod(ZipEntry.STORED);
+			stored.setSize(large.length);
+			stored.setCompressedSize(large.length);
+			stored.setCrc(crc.getValue());
+			zip.putNextEntry(stored);
+			zip.write(large);
+			zip.closeEntry();
+
+			zip.putNextEntry(new ZipEntry("index.html"));
+			zip.write(INDEX);
+			zip.closeEntry();
+			zip.setComment("Mooshak");
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testEntries() throws IOException {
+		RemoteZip zip = new RemoteZip(counting);
+
+		assertEquals(3, zip.getEntries().size());
+		assertEquals("WEB-INF/", zip.getEntries().get(0).getName());
+		assertTrue(zip.getEntries().get(0).isDirectory());
+		assertEquals(large.length, zip.getEntry("WEB-INF/lib/large.jar").getSize());
+		assertEquals(ZipEntry.STORED,
+				zip.getEntry("WEB-INF/lib/large.jar").getMethod());
+		assertEquals(ZipEntry.DEFLATED, zip.getEntry("index.html").getMethod());
+		assertEquals(large.length + INDEX.length, zip.getSize());
+		assertNull(zip.getEntry("missing"));
+
+		// only the end and central directory were read
+		assertTrue(read < Files.size(file) / 10);
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		RemoteZip zip = new RemoteZip(counting);
+		long directory = read;
+
+		assertArrayEquals(INDEX, zip.read(zip.getEntry("index.html")));
+		assertTrue(read - directory < 1024);
+
+		assertArrayEquals(large, zip.read(zip.getEntry("WEB-INF/lib/large.jar")));
+	}
+
+	@Test
+	public void testExtract() throws IOException {
+		RemoteZip zip = new RemoteZip(new FileRangeReader(file));
+		Path target = Files.createTempDirectory("extract");
+		Path index = target.resolve("webapp/index.html");
+
+		assertEquals(index,
+				zip.extract(zip.getEntry("index.html"), target.resolve("webapp")));
+		assertArrayEquals(INDEX, Files.readAllBytes(index));
+
+		Utils.deleteTree(target);
+	}
+
+	@Test
+	public void testExtractOutsideTarget() throws IOException {
+		Path target = Files.createTempDirectory("extract");
+		Path webapp = target.resolve("webapp");
+		RemoteZip zip;
+
+		try(OutputStream out = Files.newOutputStream(file);
+			ZipOutputStream stream = new ZipOutputStream(out)) {
+			stream.putNextEntry(new ZipEntry("WEB-INF/../../evil.jsp"));
+			stream.write(INDEX);
+			stream.closeEntry();
+		}
+		zip = new RemoteZip(new FileRangeReader(file));
+
+		try {
+			zip.extract(zip.getEntry("WEB-INF/../../evil.jsp"), webapp);
+			fail("entry outside target extracted");
+		} catch(ZipException cause) {
+			assertFalse(Files.exists(target.resolve("evil.jsp")));
+		} finally {
+			Utils.deleteTree(target);
+		}
+	}
+
+	@Test(expected=ZipException.class)
+	public void testNotZip() throws IOException {
+		Files.write(file, "not a zip file".getBytes());
+		new RemoteZip(new FileRangeReader(file));
+	}
+
+	@Test
+	public void testTruncatedEntry() throws IOException {
+		boolean[] truncated = { false };
+		RemoteZip zip = new RemoteZip(new RangeReader() {
+
+			@Override
+			public long size() throws IOException {
+				return new FileRangeReader(file).size();
+			}
+
+			@Override
+			public byte[] read(long offset, int length) throws IOException {
+				byte[] bytes = new FileRangeReader(file).read(offset, length);
+
+				return truncated[0] ? Arrays.copyOf(bytes, length/2) : bytes;
+			}
+		});
+
+		truncated[0] = true;
+		try {
+			zip.read(zip.getEntry("WEB-INF/lib/large.jar"));
+			fail("truncated entry read");
+		} catch(ZipException cause) {
+			assertTrue(cause.getMessage().startsWith("Truncated"));
+		}
+	}
+
+	@Test(expected=ZipException.class)
+	public void testMalformedDirectory() throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		int eocd = bytes.length - 22 - "Mooshak".length();
+		int directory = buffer.getInt(eocd+16);
+
+		buffer.putShort(directory+28, (short) 0xFFFF); // name length
+		Files.write(file, bytes);
+
+		new RemoteZip(new FileRangeReader(file));
+	}
+}
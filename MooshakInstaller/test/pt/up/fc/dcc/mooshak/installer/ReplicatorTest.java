@@ -0,0 +1,81 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pt.up.fc.dcc.mooshak.installer.Replicator.Mode;
+
+public class ReplicatorTest {
+
+	Path source;
+	Path target;
+	
+	@Before
+	public void setUp() throws Exception {
+		source = Files.createTempDirectory("source");
+		target = Files.createTempDirectory("target");
+		
+		Files.createDirectories(source.resolve("webapps/Mooshak"));
+		Files.write(source.resolve("webapps/Mooshak/index.html"), "hello".getBytes());
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		Utils.deleteTree(source);
+		Utils.deleteTree(target);
+	}
+	
+	@Test
+	public void testLink() throws IOException {
+		Replicator replicator = new Replicator(Mode.LINK,Cancellation.NONE);
+		Path replica = target.resolve("tomcat");
+		
+		replicator.replicate(source, replica);
+		replicator.replicate(source, replica); // replaces existing links
+		
+		assertTrue(Files.isSameFile(
+				source.resolve("webapps/Mooshak/index.html"), 
+				replica.resolve("webapps/Mooshak/index.html")));
+		assertEquals(2,replicator.getLinked());
+	}
+	
+	@Test
+	public void testCopy() throws IOException {
+		Replicator replicator = new Replicator(Mode.LINK,Cancellation.NONE);
+		Path replica = target.resolve("tomcat");
+		
+		replicator.copy(source, replica);
+		
+		assertFalse(Files.isSameFile(
+				source.resolve("webapps/Mooshak/index.html"), 
+				replica.resolve("webapps/Mooshak/index.html")));
+		assertEquals("hello",new String(Files.readAllBytes(
+				replica.resolve("webapps/Mooshak/index.html"))));
+		assertEquals(1,replicator.getCopied());
+	}
+	
+	@Test
+	public void testResolveInRoot() {
+		Configurator configurator = new Configurator();
+		
+		assertEquals(Paths.get("/usr/tmp/mooshak"),
+				configurator.resolve(Paths.get("/usr/tmp/mooshak")));
+		
+		configurator.setRoot(target);
+		assertEquals(target.resolve("usr/tmp/mooshak"),
+				configurator.resolve(Paths.get("/usr/tmp/mooshak")));
+		assertEquals(target.resolve("images/tomcat"),
+				configurator.forRoot(target.resolve("images"))
+					.resolve(Paths.get("/tomcat")));
+	}
+}
@@ -0,0 +1,169 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class ServerTuningTest {
+
+	static final String SERVER = 
+			"<?xml version='1.0' encoding='utf-8'?>\n"+
+			"<Server port=\"8005\" shutdown=\"SHUTDOWN\">\n"+
+			"  <!-- stock configuration -->\n"+
+			"  <Service name=\"Catalina\">\n"+
+			"    <Connector port=\"8080\" protocol=\"HTTP/1.1\"\n"+
+			"               connectionTimeout=\"20000\" redirectPort=\"8443\" />\n"+
+			"    <Connector port=\"8009\" protocol=\"AJP/1.3\" redirectPort=\"8443\" />\n"+
+			"    <Engine name=\"Catalina\" defaultHost=\"localhost\">\n"+
+			"      <Host name=\"localhost\" appBase=\"webapps\">\n"+
+			"        <Valve className=\"org.apache.catalina.valves.AccessLogValve\"\n"+
+			"               directory=\"logs\" pattern=\"%h %l %u %t\" />\n"+
+			"      </Host>\n"+
+			"    </Engine>\n"+
+			"  </Service>\n"+
+			"</Server>\n";
+
+	static final String LOGGING = 
+			"handlers = 1catalina.org.apache.juli.FileHandler, "+
+			"java.util.logging.ConsoleHandler\n"+
+			"1catalina.org.apache.juli.FileHandler.level = FINE\n";
+
+	Path container;
+
+	@Before
+	public void setUp() throws Exception {
+		container = Files.createTempDirectory("tomcat");
+		Files.createDirectories(container.resolve("conf"));
+		Files.write(container.resolve(ServerTuning.SERVER_XML),
+				SERVER.getBytes(StandardCharsets.UTF_8));
+		Files.write(container.resolve(ServerTuning.LOGGING),
+				LOGGING.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.deleteTree(container);
+	}
+
+	Element connector(String port) throws IOException {
+		Document document = ServerTuning.read(container.resolve(ServerTuning.SERVER_XML));
+		NodeList connectors = document.getElementsByTagName("Connector");
+
+		for(int i = 0; i < connectors.getLength(); i++) {
+			Element connector = (Element) connectors.item(i);
+			if(port.equals(connector.getAttribute("port")))
+				return connector;
+		}
+		return null;
+	}
+
+	@Test
+	public void testConnector() throws IOException {
+		ServerTuning tuning = new ServerTuning(500,7);
+
+		assertEquals(1, tuning.write(container));
+
+		Element http = connector("8080");
+		assertEquals(ServerTuning.NIO, http.getAttribute("protocol"));
+		assertEquals("500", http.getAttribute("maxThreads"));
+		assertEquals("500", http.getAttribute("acceptCount"));
+		assertEquals("2000", http.getAttribute("maxConnections"));
+		assertEquals("on", http.getAttribute("compression"));
+		assertTrue(http.getAttribute("compressableMimeType").contains("text/css"));
+		assertEquals("20000", http.getAttribute("connectionTimeout"));
+
+		assertEquals("AJP/1.3", connector("8009").getAttribute("protocol"));
+		assertEquals("", connector("8009").getAttribute("maxThreads"));
+	}
+
+	@Test
+	public void testIdempotent() throws IOException {
+		Path server = container.resolve(ServerTuning.SERVER_XML);
+		Path logging = container.resolve(ServerTuning.LOGGING);
+
+		Files.setPosixFilePermissions(server,
+				PosixFilePermissions.fromString("rw-r-----"));
+		Files.setPosixFilePermissions(logging,
+				PosixFilePermissions.fromString("rw-rw-r--"));
+		new ServerTuning(300,9).write(container);
+		byte[] tuned = Files.readAllBytes(server);
+		byte[] async = Files.readAllBytes(logging);
+		new ServerTuning(300,9).write(container);
+
+		assertArrayEquals(tuned, Files.readAllBytes(server));
+		assertArrayEquals(async, Files.readAllBytes(logging));
+		assertEquals("rw-r-----", PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(server)));
+		assertEquals("rw-rw-r--", PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(logging)));
+		assertArrayEquals(SERVER.getBytes(StandardCharsets.UTF_8),
+				Files.readAllBytes(server.resolveSibling("server.xml.orig")));
+
+		String content = new String(tuned, StandardCharsets.UTF_8);
+		assertTrue(content.contains("stock configuration"));
+		assertTrue(content.contains("buffered=\"true\""));
+		assertTrue(new String(async, StandardCharsets.ISO_8859_1)
+				.contains("1catalina.org.apache.juli.AsyncFileHandler.level"));
+	}
+
+	@Test
+	public void testProtocol() {
+		assertEquals(ServerTuning.NIO, new ServerTuning(100,7).getProtocol());
+		assertEquals(200, new ServerTuning(100,7).getMaxThreads());
+	}
+
+	@Test
+	public void testVersion() throws IOException {
+		Path jar = container.resolve(ServerTuning.CATALINA_JAR);
+
+		assertEquals(0, ServerTuning.getVersion(container));
+
+		Files.createDirectories(jar.getParent());
+		try(OutputStream out = Files.newOutputStream(jar);
+			ZipOutputStream zip = new ZipOutputStream(out)) {
+			DeltaUpgradeTest.entry(zip, ServerTuning.SERVER_INFO,
+					"server.number=7.0.53.0\n".getBytes());
+		}
+		assertEquals(7, ServerTuning.getVersion(container));
+	}
+
+	@Test
+	public void testRecord() {
+		Properties properties = new Properties();
+
+		new ServerTuning(1000,8).record(properties);
+		assertEquals("Http11NioProtocol for 1000 users: "+
+				"1000 threads, 1000 queued, 4000 connections",
+				properties.getProperty("serverConnector"));
+	}
+
+	@Test
+	public void testInstances() {
+		ServerTuning tuning = new ServerTuning(2000,8,4);
+		Properties properties = new Properties();
+
+		assertEquals(500, tuning.getMaxThreads());
+		assertEquals(200, new ServerTuning(500,8,4).getMaxThreads());
+
+		tuning.record(properties);
+		assertEquals("Http11NioProtocol for 2000 users: "+
+				"500 threads, 500 queued, 2000 connections in each of 4 instances",
+				properties.getProperty("serverConnector"));
+	}
+}
@@ -0,0 +1,146 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedLibrariesTest {
+
+	static final String INCLUDE = "gson*;taglib*";
+
+	Path container;
+	Path webapps;
+	SharedLibraries libraries;
+
+	@Before
+	public void setUp() throws Exception {
+		container = Files.createTempDirectory("tomcat");
+		webapps = container.resolve("webapps");
+
+		Files.createDirectories(container.resolve("conf"));
+		Files.write(container.resolve(StartupTuning.CATALINA_PROPERTIES),
+				Arrays.asList("# stock configuration",
+						"common.loader=${catalina.home}/lib,${catalina.home}/lib/*.jar",
+						SharedLibraries.SHARED_LOADER+"="),
+				StandardCharsets.ISO_8859_1);
+		Files.createDirectories(webapps.resolve("ROOT"));
+
+		for(String webapp: Arrays.asList("Mooshak","Mooshak2")) {
+			Files.createDirectories(webapps.resolve(webapp)
+					.resolve(StartupTuning.LIB));
+			jar(webapp,"gson.jar","com/google/gson/Gson.class",new byte[1000]);
+			jar(webapp,"log4j.jar","org/apache/log4j/Logger.class",new byte[1000]);
+			jar(webapp,"taglib.jar","META-INF/c.tld","<taglib/>".getBytes());
+			jar(webapp,"mooshak.jar","pt/Mooshak.class",webapp.getBytes());
+		}
+
+		libraries = new SharedLibraries(container,webapps,INCLUDE);
+	}
+
+	void jar(String webapp,String name,String entry,byte[] content)
+			throws IOException {
+		try(OutputStream out = Files.newOutputStream(webapps.resolve(webapp)
+				.resolve(StartupTuning.LIB).resolve(name));
+			ZipOutputStream zip = new ZipOutputStream(out)) {
+			DeltaUpgradeTest.entry(zip,entry,content);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.deleteTree(container);
+	}
+
+	@Test
+	public void testDetect() throws IOException {
+		List<SharedLibraries.Library> common = libraries.detect();
+
+		assertEquals(1, common.size());
+		assertEquals("gson.jar", common.get(0).getName());
+		assertEquals(2, common.get(0).getCopies());
+		assertEquals(1000, common.get(0).getClasses());
+	}
+
+	@Test
+	public void testNothingByDefault() throws IOException {
+		SharedLibraries none = new SharedLibraries(container,webapps);
+
+		assertTrue(none.detect().isEmpty());
+		assertTrue(none.apply().isEmpty());
+		assertTrue(Files.exists(webapps.resolve("Mooshak")
+				.resolve(StartupTuning.LIB).resolve("gson.jar")));
+		assertEquals("", load().getProperty(SharedLibraries.SHARED_LOADER));
+	}
+
+	@Test
+	public void testApply() throws IOException {
+		libraries.apply();
+
+		assertTrue(Files.exists(container.resolve(SharedLibraries.SHARED)
+				.resolve("gson.jar")));
+		for(String webapp: Arrays.asList("Mooshak","Mooshak2")) {
+			Path lib = webapps.resolve(webapp).resolve(StartupTuning.LIB);
+
+			assertFalse(Files.exists(lib.resolve("gson.jar")));
+			assertTrue(Files.exists(lib.resolve("log4j.jar")));
+			assertTrue(Files.exists(lib.resolve("taglib.jar")));
+			assertTrue(Files.exists(lib.resolve("mooshak.jar")));
+		}
+		assertEquals(1000, libraries.getSaved());
+		assertEquals(SharedLibraries.REPOSITORIES, load()
+				.getProperty(SharedLibraries.SHARED_LOADER));
+	}
+
+	@Test
+	public void testIdempotent() throws IOException {
+		libraries.apply();
+		List<String> before = Files.readAllLines(
+				container.resolve(StartupTuning.CATALINA_PROPERTIES),
+				StandardCharsets.ISO_8859_1);
+
+		new SharedLibraries(container,webapps,INCLUDE).apply();
+
+		assertEquals(before, Files.readAllLines(
+				container.resolve(StartupTuning.CATALINA_PROPERTIES),
+				StandardCharsets.ISO_8859_1));
+		assertTrue(Files.exists(container.resolve(SharedLibraries.SHARED)
+				.resolve("gson.jar")));
+	}
+
+	@Test
+	public void testRecord() throws IOException {
+		Properties properties = new Properties();
+
+		libraries.apply();
+		libraries.record(properties);
+
+		assertTrue(properties.getProperty("sharedLibraries")
+				.startsWith("1 jars shared by 2 webapps"));
+	}
+
+	Properties load() throws IOException {
+		Properties properties = new Properties();
+
+		try(Reader reader = Files.newBufferedReader(
+				container.resolve(StartupTuning.CATALINA_PROPERTIES),
+				StandardCharsets.ISO_8859_1)) {
+			properties.load(reader);
+		}
+		return properties;
+	}
+}
@@ -0,0 +1,121 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StartupTuningTest {
+
+	Path container;
+	Path webapps;
+	Path webapp;
+	StartupTuning tuning;
+
+	@Before
+	public void setUp() throws Exception {
+		container = Files.createTempDirectory("tomcat");
+		webapps = container.resolve("webapps");
+		webapp = webapps.resolve("Mooshak");
+
+		for(String name: Arrays.asList("docs","examples","manager","ROOT"))
+			Files.createDirectories(webapps.resolve(name));
+		Files.createDirectories(webapp.resolve(StartupTuning.LIB));
+		Files.createDirectories(container.resolve("conf"));
+
+		Files.write(container.resolve(StartupTuning.CATALINA_PROPERTIES),
+				Arrays.asList("# stock configuration",
+						StartupTuning.JARS_TO_SKIP_7+"=\\",
+						"bootstrap.jar,\\","tomcat-juli.jar"),
+				StandardCharsets.ISO_8859_1);
+		Files.write(container.resolve(ServerTuning.SERVER_XML),
+				("<Server><Service><Engine><Host name=\"localhost\"/>"+
+				"</Engine></Service></Server>").getBytes());
+
+		jar("gwt-servlet.jar","com/google/gwt/Module.class",
+				"plain class".getBytes());
+		jar("taglib.jar","META-INF/c.tld","<taglib/>".getBytes());
+		jar("annotated.jar","pt/Servlet.class",
+				"Ljavax/servlet/annotation/WebServlet;".getBytes());
+
+		tuning = new StartupTuning(container,webapps,webapp);
+	}
+
+	void jar(String name,String entry,byte[] content) throws IOException {
+		try(OutputStream out = Files.newOutputStream(
+				webapp.resolve(StartupTuning.LIB).resolve(name));
+			ZipOutputStream zip = new ZipOutputStream(out)) {
+			DeltaUpgradeTest.entry(zip,entry,content);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.deleteTree(container);
+	}
+
+	@Test
+	public void testPrune() throws IOException {
+		assertEquals(Arrays.asList("docs","examples","manager"), tuning.prune());
+
+		assertFalse(Files.exists(webapps.resolve("docs")));
+		assertTrue(Files.isDirectory(container.resolve("webapps.disabled/docs")));
+		assertTrue(Files.isDirectory(webapps.resolve("ROOT")));
+		assertTrue(Files.isDirectory(webapp));
+	}
+
+	@Test
+	public void testSkipJars() throws IOException {
+		Path file = container.resolve(StartupTuning.CATALINA_PROPERTIES);
+		Properties properties = new Properties();
+
+		Files.setPosixFilePermissions(file,
+				PosixFilePermissions.fromString("rw-rw-r--"));
+		assertEquals(Arrays.asList("gwt-servlet.jar"), tuning.skipJars());
+		byte[] tuned = Files.readAllBytes(file);
+		new StartupTuning(container,webapps,webapp).skipJars();
+		assertArrayEquals(tuned, Files.readAllBytes(file));
+		assertEquals("rw-rw-r--", PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(file)));
+
+		try(Reader reader = Files.newBufferedReader(file,StandardCharsets.ISO_8859_1)) {
+			properties.load(reader);
+		}
+		assertEquals("bootstrap.jar,tomcat-juli.jar,gwt-servlet.jar",
+				properties.getProperty(StartupTuning.JARS_TO_SKIP_7)
+				.replaceAll("\\s",""));
+	}
+
+	@Test
+	public void testParallelStartup() throws IOException {
+		assertEquals(1, tuning.parallelStartup());
+		assertTrue(new String(Files.readAllBytes(
+				container.resolve(ServerTuning.SERVER_XML)))
+				.contains("startStopThreads=\"0\""));
+	}
+
+	@Test
+	public void testRecord() throws IOException {
+		Properties properties = new Properties();
+
+		tuning.apply();
+		tuning.record(properties);
+		assertEquals("3 webapps disabled, 1 jars skipped, 1 hosts in parallel",
+				properties.getProperty("startupTuning"));
+	}
+}
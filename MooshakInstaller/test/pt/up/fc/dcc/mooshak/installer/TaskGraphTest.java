@@ -0,0 +1,131 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pt.up.fc.dcc.mooshak.installer.Driver.Progressable;
+import pt.up.fc.dcc.mooshak.installer.TaskGraph.Kind;
+import pt.up.fc.dcc.mooshak.installer.TaskGraph.Task;
+
+public class TaskGraphTest {
+
+	TaskGraph graph;
+	List<String> executed;
+	MyProgress progress;
+	
+	@Before
+	public void setUp() throws Exception {
+		graph = new TaskGraph();
+		executed = Collections.synchronizedList(new ArrayList<>());
+		progress = new MyProgress(100);
+	}
+	
+	class MyProgress implements Progressable {
+		int maximum;
+		List<Integer> parts = Collections.synchronizedList(new ArrayList<>());
+		List<String> errors = Collections.synchronizedList(new ArrayList<>());
+		
+		MyProgress(int maximum) {
+			this.maximum = maximum;
+		}
+		
+		@Override
+		public void updatable(boolean isUpdatable) {}
+		
+		@Override
+		public void taskError(String message) {
+			errors.add(message);
+		}
+		
+		@Override
+		public int getMaximum() {
+			return maximum;
+		}
+
+		@Override
+		public void update(int part) {
+			parts.add(part);
+		}
+	}
+	
+	@Test
+	public void testDependencies() {
+		Task a = graph.add("a",Kind.IO, p -> { executed.add("a"); });
+		Task b = graph.add("b",Kind.CPU, p -> { executed.add("b"); },a);
+		graph.add("c",Kind.CPU, p -> { executed.add("c"); },b,null);
+		
+		assertTrue(graph.run(progress));
+		assertEquals(Arrays.asList("a","b","c"),executed);
+		assertEquals(Integer.valueOf(100),progress.parts.get(progress.parts.size()-1));
+	}
+	
+	@Test
+	public void testConcurrent() {
+		CountDownLatch latch = new CountDownLatch(2);
+		
+		for(String name: Arrays.asList("a","b")) 
+			graph.add(name,Kind.IO, p -> { 
+				latch.countDown();
+				try {
+					if(latch.await(10,TimeUnit.SECONDS))
+						executed.add(name);
+				} catch (InterruptedException e) {}
+			});
+		
+		assertTrue(graph.run(progress));
+		assertEquals(2,executed.size());
+	}
+	
+	@Test
+	public void testFailureSkipsDependents() {
+		Task a = graph.add("a",Kind.IO, p -> { p.taskError("failed"); });
+		graph.add("b",Kind.CPU, p -> { executed.add("b"); },a);
+		graph.add("c",Kind.CPU, p -> { executed.add("c"); });
+		
+		assertFalse(graph.run(progress));
+		assertEquals(Arrays.asList("c"),executed);
+		assertEquals(Arrays.asList("a: failed"),progress.errors);
+	}
+	
+	@Test
+	public void testCancellation() {
+		Cancellation cancellation = new Cancellation();
+		
+		graph = new TaskGraph(cancellation);
+		Task a = graph.add("a",Kind.IO, p -> { 
+			executed.add("a"); 
+			cancellation.cancel(); 
+		});
+		graph.add("b",Kind.CPU, p -> { executed.add("b"); },a);
+		
+		assertFalse(graph.run(progress));
+		assertEquals(Arrays.asList("a"),executed);
+		assertTrue(progress.errors.isEmpty());
+	}
+	
+	@Test
+	public void testReportingTo() {
+		List<String> unrelated = new ArrayList<>();
+		
+		Task a = graph.add("a",Kind.CPU, 
+				p -> { graph.reportingTo(unrelated::add).accept("error"); });
+		a.onSuccess(() -> { executed.add("a"); });
+		
+		assertFalse(graph.run(progress));
+		assertTrue(a.hasFailed());
+		assertTrue(executed.isEmpty());
+		assertTrue(unrelated.isEmpty());
+	}
+
+}
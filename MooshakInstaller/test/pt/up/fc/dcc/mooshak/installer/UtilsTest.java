@@ -2,6 +2,7 @@ package pt.up.fc.dcc.mooshak.installer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static pt.up.fc.dcc.mooshak.installer.Utils.getProperty;
 import static pt.up.fc.dcc.mooshak.installer.Utils.getPropertyValues;
@@ -13,10 +14,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
 import java.util.zip.ZipFile;
 
 import org.junit.After;
@@ -76,6 +80,20 @@ public class UtilsTest {
 		assertEquals("data",getProperty("content.root"));
 	}
 	
+	@Test
+	public void testGetPropertyDefault() {
+		Properties saved = (Properties) Utils.properties.clone();
+
+		try {
+			Utils.properties.setProperty("test.defined", " value ");
+			assertEquals("value",getProperty("test.defined","other"));
+			assertEquals("other",getProperty("test.undefined","other"));
+			assertNull(getProperty("test.undefined",null));
+		} finally {
+			Utils.properties = saved;
+		}
+	}
+
 	@Test
 	public void testGetPropertyValues() {
 		assertEquals("/usr/share/tomcat7",getPropertyValues("container.locations")[0]);
@@ -159,6 +177,60 @@ public class UtilsTest {
 		assertEquals(expected,Utils.parseListing(tmp));
 	}
 	
+	@Test
+	public void testMoveInto() throws IOException {
+		Path staging = Files.createTempDirectory("staging");
+		Path target = Files.createTempDirectory("target");
+		
+		Files.createDirectories(staging.resolve("a/b"));
+		Files.write(staging.resolve("a/b/new.txt"), "new".getBytes());
+		Files.write(staging.resolve("a/old.txt"), "replaced".getBytes());
+		Files.createDirectories(target.resolve("a"));
+		Files.write(target.resolve("a/old.txt"), "old".getBytes());
+		Files.write(target.resolve("a/kept.txt"), "kept".getBytes());
+		
+		Utils.moveInto(staging, target);
+		
+		assertFalse(Files.exists(staging));
+		assertEquals("new",new String(Files.readAllBytes(target.resolve("a/b/new.txt"))));
+		assertEquals("replaced",new String(Files.readAllBytes(target.resolve("a/old.txt"))));
+		assertEquals("kept",new String(Files.readAllBytes(target.resolve("a/kept.txt"))));
+		
+		Utils.deleteTree(target);
+		assertFalse(Files.exists(target));
+	}
+
+	@Test
+	public void testWriteAtomically() throws IOException {
+		Path folder = Files.createTempDirectory("atomic");
+		Path created = folder.resolve("created.xml");
+		Path script = folder.resolve("script.sh");
+		Path kept = folder.resolve("kept.xml");
+
+		Files.write(kept, "old".getBytes());
+		Files.setPosixFilePermissions(kept,
+				PosixFilePermissions.fromString("rw-rw----"));
+
+		Utils.writeAtomically(created, out -> out.write("new".getBytes()));
+		Utils.writeAtomically(script, "rwxr-xr-x",
+				out -> out.write("#!/bin/sh".getBytes()));
+		Utils.writeAtomically(kept, out -> out.write("replaced".getBytes()));
+
+		assertEquals("new",new String(Files.readAllBytes(created)));
+		assertEquals("replaced",new String(Files.readAllBytes(kept)));
+		assertEquals("rw-r--r--",PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(created)));
+		assertEquals("rwxr-xr-x",PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(script)));
+		assertEquals("rw-rw----",PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(kept)));
+		try(Stream<Path> files = Files.list(folder)) {
+			assertEquals(3,files.count());
+		}
+
+		Utils.deleteTree(folder);
+	}
+
 	@Test
 	public void testExpandCamelCase() {
 		assertEquals("Hello World",Utils.expandCamelCase("helloWorld"));
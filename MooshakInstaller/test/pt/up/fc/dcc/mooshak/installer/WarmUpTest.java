@@ -0,0 +1,93 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import pt.up.fc.dcc.mooshak.installer.WarmUp.Phase;
+
+public class WarmUpTest {
+
+	HttpServer server;
+	String base;
+	AtomicInteger requests = new AtomicInteger();
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1",0),0);
+		server.createContext("/Mooshak/", exchange -> {
+			byte[] content = "Mooshak".getBytes();
+			int status = exchange.getRequestURI().getPath().endsWith("missing")
+					? 404 : 200;
+
+			assertEquals("GET", exchange.getRequestMethod());
+			requests.incrementAndGet();
+			exchange.sendResponseHeaders(status, content.length);
+			try(OutputStream out = exchange.getResponseBody()) {
+				out.write(content);
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:"+server.getAddress().getPort()+"/Mooshak";
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop(0);
+	}
+
+	@Test
+	public void testRun() throws IOException {
+		WarmUp warmUp = new WarmUp(base,Arrays.asList("","index.html","missing"),
+				4,30,1000,6);
+		List<Phase> phases = warmUp.run(new NullProgressable(),Cancellation.NONE);
+
+		assertEquals(Arrays.asList(1,2,4,4), Arrays.asList(
+				phases.get(0).getConcurrency(),phases.get(1).getConcurrency(),
+				phases.get(2).getConcurrency(),phases.get(3).getConcurrency()));
+		assertEquals(4, phases.size());
+		assertEquals(120, requests.get());
+		assertEquals(20, phases.get(0).getRequests());
+		assertEquals(10, phases.get(0).getErrors());
+	}
+
+	@Test
+	public void testPhases() throws IOException {
+		WarmUp warmUp = new WarmUp(base,Arrays.asList(""),2,5,0,3);
+		List<Phase> phases = warmUp.run(new NullProgressable(),Cancellation.NONE);
+
+		assertTrue(phases.size() <= 3);
+		assertEquals(5*phases.size(), requests.get());
+	}
+
+	@Test
+	public void testPercentiles() throws IOException {
+		WarmUp warmUp = new WarmUp(base,Arrays.asList(""),1,1,10,1);
+		Phase phase = new Phase(2,new long[] {
+				4000000,-1,1000000,3000000,2000000 });
+
+		assertEquals(4, phase.getRequests());
+		assertEquals(1, phase.getErrors());
+		assertEquals(2.0, phase.getPercentile(50), 0);
+		assertEquals(4.0, phase.getPercentile(90), 0);
+		assertEquals(1.0, phase.getPercentile(0), 0);
+		assertTrue(warmUp.isStable(phase,new Phase(2,new long[] {
+				4100000,1100000,3100000,2100000 })));
+		assertFalse(warmUp.isStable(phase,new Phase(2,new long[] {
+				8000000,1000000,3000000,6000000 })));
+		assertFalse(warmUp.isStable(null,phase));
+	}
+}
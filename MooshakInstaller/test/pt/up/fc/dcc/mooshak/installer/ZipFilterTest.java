@@ -0,0 +1,100 @@
+package pt.up.fc.dcc.mooshak.installer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZipFilterTest {
+
+	Path base;
+	Path zip;
+
+	@Before
+	public void setUp() throws Exception {
+		base = Files.createTempDirectory("filter");
+		zip = base.resolve("MooshakData.zip");
+
+		try(OutputStream out = Files.newOutputStream(zip);
+			ZipOutputStream stream = new ZipOutputStream(out)) {
+			DeltaUpgradeTest.entry(stream,"data/",new byte[0]);
+			DeltaUpgradeTest.entry(stream,"data/configs/",new byte[0]);
+			DeltaUpgradeTest.entry(stream,"data/configs/languages.xml",
+					"<languages/>".getBytes());
+			DeltaUpgradeTest.entry(stream,"data/contests/sample/",new byte[0]);
+			DeltaUpgradeTest.entry(stream,"data/contests/sample/problem.pdf",
+					new byte[1<<16]);
+			DeltaUpgradeTest.entry(stream,"data/contests/proto/",new byte[0]);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Utils.deleteTree(base);
+	}
+
+	@Test
+	public void testAll() {
+		assertTrue(ZipFilter.ALL.acceptsAll());
+		assertTrue(ZipFilter.ALL.accepts("data/contests/sample/problem.pdf"));
+		assertTrue(new ZipFilter(" ; ",null).acceptsAll());
+	}
+
+	@Test
+	public void testExclude() {
+		ZipFilter filter = new ZipFilter(null,"data/contests/sample/**;*.tmp");
+
+		assertFalse(filter.acceptsAll());
+		assertTrue(filter.accepts("data/"));
+		assertTrue(filter.accepts("data/contests/proto/"));
+		assertFalse(filter.accepts("data/contests/sample/"));
+		assertFalse(filter.accepts("data/contests/sample/problem.pdf"));
+		assertFalse(filter.accepts("lock.tmp"));
+	}
+
+	@Test
+	public void testInclude() {
+		ZipFilter filter = new ZipFilter("data/configs/**","**.xml");
+
+		assertTrue(filter.accepts("data/configs/"));
+		assertTrue(filter.accepts("data/configs/readme.txt"));
+		assertFalse(filter.accepts("data/configs/languages.xml"));
+		assertFalse(filter.accepts("data/contests/"));
+	}
+
+	@Test
+	public void testExtractTo() throws IOException {
+		ZipFilter filter = new ZipFilter(null,"data/contests/sample/**");
+		Path data = base.resolve("home/data");
+
+		try(ZipFile file = new ZipFile(zip.toFile())) {
+			Utils.extractTo(file,base.resolve("home"),filter,
+					new NullProgressable(),Cancellation.NONE);
+		}
+
+		assertTrue(Files.exists(data.resolve("configs/languages.xml")));
+		assertTrue(Files.isDirectory(data.resolve("contests/proto")));
+		assertFalse(Files.exists(data.resolve("contests/sample")));
+	}
+
+	@Test
+	public void testExtractFrom() throws IOException {
+		ZipFilter filter = new ZipFilter("data/configs/**",null);
+		Path data = base.resolve("home/data");
+
+		Utils.extractFrom(zip,base.resolve("home"),filter,
+				new NullProgressable(),Cancellation.NONE);
+
+		assertTrue(Files.exists(data.resolve("configs/languages.xml")));
+		assertFalse(Files.exists(data.resolve("contests")));
+	}
+}